@@ -62,7 +62,7 @@ public class AuthCommandLine extends Thread  {
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
         for (;;) {
             try {
-                logger.info("\nEnter command (e.g., help, show re/cp/ta/sk/maps, clean sk, reset re/sk, issue cert [ic], backup ): ");
+                logger.info("\nEnter command (e.g., help, show re/cp/ta/sk/maps/bp, clean sk, reset re/sk, issue cert [ic], backup ): ");
                 String command = br.readLine();
                 if (command == null) {
                     break;
@@ -86,7 +86,8 @@ public class AuthCommandLine extends Thread  {
                 else if (command.equals("show sk")) {
                     // show sk (show session keys)
                     try {
-                        logger.info("\nShow session keys command\n{}", server.sessionKeysToString());
+                        logger.info("\nShow session keys command\n{}\nExpired session keys reaped in background: {}",
+                                server.sessionKeysToString(), server.getReapedSessionKeyCount());
                     }
                     catch (SQLException | ClassNotFoundException e) {
                         logger.error("SQLException | ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
@@ -96,6 +97,9 @@ public class AuthCommandLine extends Thread  {
                 else if (command.equals("show maps")) {
                     logger.info("\nShow maps for UDP listener port command\n{}", server.showAllUdpPortListenerMaps());
                 }
+                else if (command.equals("show bp")) {
+                    logger.info("\nShow buffer pool command\n{}", server.getBufferPool().toString());
+                }
                 else if (command.equals("clean sk")) {
                     logger.info("\nClean expired session keys command\n");
                     try {
@@ -200,6 +204,7 @@ public class AuthCommandLine extends Thread  {
                 "show cp            : Show communication policies\n" +
                 "show ta            : Show trusted Auths\n" +
                 "show maps          : Show maps for UDP listener port\n" +
+                "show bp            : Show hits, misses and leaks of the request buffer pool\n" +
                 "clean sk           : Clean expired session keys\n" +
                 "reset sk           : Reset cached session key table (Delete all session keys)\n" +
                 "reset re           : Reset registered entities (delete all entities backed up from other Auths)\n" +
@@ -42,10 +42,13 @@ import org.iot.auth.crypto.SessionKey;
 import org.iot.auth.db.*;
 import org.iot.auth.db.bean.CommunicationPolicyTable;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferPool;
 import org.iot.auth.message.*;
 import org.iot.auth.db.CommunicationTargetType;
 import org.iot.auth.server.*;
 import org.iot.auth.util.ExceptionToString;
+import org.iot.auth.util.LazyLogArg;
+import org.iot.auth.util.SampledTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -133,10 +136,21 @@ public class AuthServer {
         backupEnabled = properties.getBackupEnabled();
         bluetoothEnabled = properties.getBluetoothEnabled();
 
+        bufferPool = new BufferPool(properties.getBufferPoolMaxBuffersPerSizeClass());
+        bufferPool.setLeakTrackingInterval(properties.getBufferPoolLeakTrackingInterval());
+        SampledTrace.setSamplingInterval(properties.getRequestTraceSamplingInterval());
+
         if (properties.getQpsThrottlingEnabled()) {
             qpsCalculator = new QPSCalculator(properties.getQpsLimit(), properties.getQpsCalculationBucketSizeInSec());
         }
 
+        trustedAuthSessionKeyRequester = new TrustedAuthSessionKeyRequester(this);
+
+        if (properties.getSessionKeyReaperEnabled()) {
+            expiredSessionKeyReaper = new ExpiredSessionKeyReaper(this, properties.getSessionKeyReaperIntervalMs(),
+                    properties.getSessionKeyReaperBatchSize());
+        }
+
         logger.info("Auth server information. Auth ID: " + properties.getAuthID() +
                 ", Entity Ports TCP: " + entityTcpPortServerSocket.getLocalPort() +
                 " UDP: " + entityUdpPortServerSocket.getLocalPort() +
@@ -225,6 +239,14 @@ public class AuthServer {
         return crypto;
     }
 
+    /**
+     * Getter for the pool of I/O buffers of Auth
+     * @return Auth's BufferPool object
+     */
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     /**
      * Main method of Auth server, which is executed at the very beginning
      * @param args Command line arguments
@@ -316,6 +338,10 @@ public class AuthServer {
         HeartbeatSender heartbeatSender = new HeartbeatSender(this, db.getAllTrustedAuthIDs());
         heartbeatSender.start();
 
+        if (expiredSessionKeyReaper != null) {
+            expiredSessionKeyReaper.start();
+        }
+
         if (backupEnabled) {
             BackupRequester backupRequester = new BackupRequester(this);
             backupRequester.start();
@@ -334,6 +360,9 @@ public class AuthServer {
      * @throws InterruptedException When an InterruptedException occurs
      */
     public void end() throws SQLException, IOException, InterruptedException {
+        if (expiredSessionKeyReaper != null) {
+            expiredSessionKeyReaper.stop();
+        }
         db.close();
     }
 
@@ -350,12 +379,56 @@ public class AuthServer {
     public ContentResponse performPostRequestToTrustedAuth(int trustedAuthID, TrustedAuthReqMessasge trustedAuthReqMessasge)
             throws TimeoutException, ExecutionException, InterruptedException
     {
+        return trustedAuthReqMessasge.sendAsHttpRequest(clientForTrustedAuths.POST(getTrustedAuthUri(trustedAuthID)));
+    }
+
+    /**
+     * Send POST request to the trusted Auth without blocking the calling thread, so that a slow or unreachable
+     * trusted Auth does not hold the threads handling entities.
+     * @param trustedAuthID ID of the trusted Auth.
+     * @param trustedAuthReqMessasge Message to be sent to the trusted Auth.
+     * @return A future for the HTTP response from the trusted Auth, completed on a thread of the HTTPS client.
+     */
+    public CompletableFuture<ContentResponse> performPostRequestToTrustedAuthAsync(int trustedAuthID,
+                                                                           TrustedAuthReqMessasge trustedAuthReqMessasge)
+    {
+        return trustedAuthReqMessasge.sendAsHttpRequestAsync(clientForTrustedAuths.POST(getTrustedAuthUri(trustedAuthID)));
+    }
+
+    /**
+     * Request a session key from the trusted Auth that generated it, on behalf of the requesting entity.
+     * Concurrent requests for the same session key share a single request to the trusted Auth.
+     * @param trustedAuthID ID of the trusted Auth.
+     * @param sessionKeyID ID of the session key.
+     * @param requestingEntityName Name of the requesting entity.
+     * @param requestingEntityGroup Group of the requesting entity.
+     * @return A future for the session keys received from the trusted Auth.
+     */
+    public CompletableFuture<List<SessionKey>> requestSessionKeyFromTrustedAuth(int trustedAuthID, long sessionKeyID,
+            String requestingEntityName, String requestingEntityGroup)
+    {
+        return trustedAuthSessionKeyRequester.requestSessionKey(trustedAuthID, sessionKeyID,
+                requestingEntityName, requestingEntityGroup);
+    }
+
+    /**
+     * Request session keys from a trusted Auth, on behalf of the requesting entity specified in the request.
+     * @param trustedAuthID ID of the trusted Auth.
+     * @param authSessionKeyReqMessage Auth session key request to be sent to the trusted Auth.
+     * @return A future for the session keys received from the trusted Auth.
+     */
+    public CompletableFuture<List<SessionKey>> requestSessionKeysFromTrustedAuth(int trustedAuthID,
+            AuthSessionKeyReqMessage authSessionKeyReqMessage)
+    {
+        return trustedAuthSessionKeyRequester.requestSessionKeys(trustedAuthID, authSessionKeyReqMessage);
+    }
+
+    private String getTrustedAuthUri(int trustedAuthID) {
         TrustedAuth trustedAuth = getTrustedAuthInfo(trustedAuthID);
         if (trustedAuth == null) {
             throw new RuntimeException("Cannot find trusted Auth ID, " + trustedAuthID);
         }
-        String uri = "https://" + trustedAuth.getHost() + ":" + trustedAuth.getPort();
-        return trustedAuthReqMessasge.sendAsHttpRequest(clientForTrustedAuths.POST(uri));
+        return "https://" + trustedAuth.getHost() + ":" + trustedAuth.getPort();
     }
 
     //////////////////////////////////////////////////
@@ -519,6 +592,24 @@ public class AuthServer {
         db.cleanExpiredSessionKeys();
     }
 
+    /**
+     * Method for exposing an AuthDB operation, reapExpiredSessionKeys
+     * @param maxBatchSize Maximum number of expired session keys to be deleted.
+     * @return The number of deleted session keys.
+     * @throws SQLException If an error occurs in SQL processing.
+     */
+    public int reapExpiredSessionKeys(int maxBatchSize) throws SQLException {
+        return db.reapExpiredSessionKeys(maxBatchSize);
+    }
+
+    /**
+     * Get the number of expired session keys deleted by the background reaper.
+     * @return The number of reaped session keys, 0 if the reaper is disabled.
+     */
+    public long getReapedSessionKeyCount() {
+        return expiredSessionKeyReaper != null ? expiredSessionKeyReaper.getReapedSessionKeyCount() : 0;
+    }
+
     /**
      * Method for exposing an AuthDB operation, deleteAllSessionKeys
      * @throws SQLException If an error occurs in SQL processing.
@@ -531,8 +622,7 @@ public class AuthServer {
     public void insertRegisteredEntitiesOrUpdateIfExist(List<RegisteredEntity> registeredEntities)
             throws SQLException, IOException, ClassNotFoundException
     {
-        db.insertRegisteredEntitiesOrUpdateIfExist(registeredEntities);
-        db.reloadRegEntityDB();
+        db.mergeRegisteredEntities(registeredEntities);
     }
 
     public void deleteBackedUpRegisteredEntities() throws SQLException, ClassNotFoundException {
@@ -849,9 +939,11 @@ public class AuthServer {
                 try {
                     while (isRunning) {
                         Socket entitySocket = entityTcpPortServerSocket.accept();
-                        logger.info("An entity connected from: {} ", entitySocket.getRemoteSocketAddress());
+                        if (listenerTrace.sample()) {
+                            listenerTrace.trace("An entity connected from: {} ", entitySocket.getRemoteSocketAddress());
+                        }
                         if (qpsCalculator != null && qpsCalculator.checkQpsLimitExceededOtherwiseIncreaseRequestCounter()) {
-                            logger.info("QPS limit is exceeded in TCP, discarding the request.");
+                            logger.debug("QPS limit is exceeded in TCP, discarding the request.");
                             continue;
                         }
                         new Thread(new EntityTcpConnectionHandler(server, entitySocket, entityTcpPortTimeout)).start();
@@ -870,25 +962,34 @@ public class AuthServer {
     private class EntityUdpPortListener extends Thread {
         public EntityUdpPortListener(AuthServer server) {
             this.server = server;
-            nonceMapForUdpPortListener = new HashMap<>();
-            responseMapForUdpPortListener = new HashMap<>();
+            nonceMapForUdpPortListener = new ConcurrentHashMap<>();
+            // responses may be put by callbacks of asynchronous requests to trusted Auths
+            responseMapForUdpPortListener = new ConcurrentHashMap<>();
         }
         public void run() {
             Timer timer = new Timer();
             while (isRunning()) {
-                byte[] bufferBytes = new byte[4096];
-                DatagramPacket receivedPacket = new DatagramPacket(bufferBytes, bufferBytes.length);
-                try {
+                // the buffer is returned after the request is handled and the response is sent
+                try (BufferPool.Lease lease = bufferPool.borrow(UDP_RECEIVE_BUFFER_SIZE)) {
+                    byte[] bufferBytes = lease.array();
+                    DatagramPacket receivedPacket = new DatagramPacket(bufferBytes, UDP_RECEIVE_BUFFER_SIZE);
                     entityUdpPortServerSocket.receive(receivedPacket);
-                    logger.info("Entity Address: " + receivedPacket.getAddress().toString() +
-                            ", Port: " + receivedPacket.getPort() +
-                            ", Length: " + receivedPacket.getLength());
+                    // the same sampling decision covers all diagnostics of this datagram
+                    boolean traced = listenerTrace.sample();
+                    if (traced) {
+                        listenerTrace.trace("Entity Address: {}, Port: {}, Length: {}", receivedPacket.getAddress(),
+                                receivedPacket.getPort(), receivedPacket.getLength());
+                    }
 
                     if (qpsCalculator != null && qpsCalculator.checkQpsLimitExceededOtherwiseIncreaseRequestCounter()) {
-                        logger.info("QPS limit is exceeded in UDP, discarding the request.");
+                        logger.debug("QPS limit is exceeded in UDP, discarding the request.");
                         continue;
                     }
 
+                    if (receivedPacket.getLength() == 0) {
+                        // a pooled buffer may hold bytes of a previous datagram
+                        continue;
+                    }
                     String addressKey = receivedPacket.getAddress() + ":" + receivedPacket.getPort();
                     byte[] receivedBytes = receivedPacket.getData();
                     MessageType type = MessageType.fromByte(receivedBytes[0]);
@@ -916,7 +1017,9 @@ public class AuthServer {
                                 receivedPacket.getAddress(), receivedPacket.getPort());
                         entityUdpPortServerSocket.send(packetToSend);
                     }
-                    else if (type == MessageType.SESSION_KEY_REQ || type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC) {
+                    else if (type == MessageType.SESSION_KEY_REQ || type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC
+                            || type == MessageType.SESSION_KEY_REQ_V2
+                            || type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC_V2) {
                         Buffer response = responseMapForUdpPortListener.get(addressKey);
                         if (response != null) {
                             // send response
@@ -930,8 +1033,10 @@ public class AuthServer {
                             // handle this
                             // let it put to response map
                             // and send the response
-                            Buffer receivedBuffer = new Buffer(receivedBytes, receivedPacket.getLength());
-                            logger.info("Received data : {}", receivedBuffer.toHexString());
+                            Buffer receivedBuffer = Buffer.wrap(receivedBytes).view(0, receivedPacket.getLength());
+                            if (traced) {
+                                listenerTrace.trace("Received data : {}", LazyLogArg.hex(receivedBuffer));
+                            }
                             new EntityUdpConnectionHandler(server, entityUdpPortServerSocket,
                                     receivedPacket.getAddress(), receivedPacket.getPort(), entityUdpPortTimeout,
                                     responseMapForUdpPortListener, receivedBuffer, authNonce).run();
@@ -1052,6 +1157,9 @@ public class AuthServer {
     }
 
     private static final Logger logger = LoggerFactory.getLogger(AuthServer.class);
+    // per-connection and per-datagram diagnostics of the entity port listeners
+    private static final SampledTrace listenerTrace = new SampledTrace(logger);
+    private static final int UDP_RECEIVE_BUFFER_SIZE = 4096;
 
     private int authID;
     private long entityTcpPortTimeout;
@@ -1070,4 +1178,7 @@ public class AuthServer {
     private boolean backupEnabled;
     private boolean bluetoothEnabled;
     private QPSCalculator qpsCalculator = null;
+    private BufferPool bufferPool;
+    private ExpiredSessionKeyReaper expiredSessionKeyReaper = null;
+    private TrustedAuthSessionKeyRequester trustedAuthSessionKeyRequester;
 }
@@ -142,6 +142,9 @@ public class ContextualCallbackHandler extends AbstractHandler {
             try {
                 for (SessionKey sessionKey : sessionKeyList) {
                     server.addSessionKeyOwner(sessionKey.getID(), authSessionKeyReqMessage.getRequestingEntityName());
+                    for (String additionalEntityName : authSessionKeyReqMessage.getAdditionalEntityNames()) {
+                        server.addSessionKeyOwner(sessionKey.getID(), additionalEntityName);
+                    }
                 }
             } catch (SQLException | ClassNotFoundException e) {
                 logger.error("SQLException | ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
@@ -159,6 +162,10 @@ public class ContextualCallbackHandler extends AbstractHandler {
 
             try {
                 server.addSessionKeyOwner(authSessionKeyReqMessage.getSessionKeyID(), authSessionKeyReqMessage.getRequestingEntityName());
+                // other entities that received the session key through the same request of the requesting Auth
+                for (String additionalEntityName : authSessionKeyReqMessage.getAdditionalEntityNames()) {
+                    server.addSessionKeyOwner(authSessionKeyReqMessage.getSessionKeyID(), additionalEntityName);
+                }
             } catch (SQLException | ClassNotFoundException e) {
                 logger.error("SQLException | ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
                 throw new RuntimeException("Exception occurred while adding session key owner.");
@@ -168,7 +175,8 @@ public class ContextualCallbackHandler extends AbstractHandler {
             sessionKeyList.add(sessionKey);
         }
 
-        AuthSessionKeyRespMessage authSessionKeyRespMessage = new AuthSessionKeyRespMessage(sessionKeyList);
+        AuthSessionKeyRespMessage authSessionKeyRespMessage = new AuthSessionKeyRespMessage(sessionKeyList,
+                authSessionKeyReqMessage.isBinaryResponseAccepted());
         authSessionKeyRespMessage.sendAsHttpResponse(response);
 
         // Inform jetty that this request has now been handled
@@ -186,10 +194,9 @@ public class ContextualCallbackHandler extends AbstractHandler {
             registeredEntity.setBackupToAuthIDs(new int[0]);
             registeredEntity.setBackupFromAuthID(requestingAuthInfo.getID());
         }
-        // insert!
+        // insert in a single transaction and merge only the backed-up entities into the registry
         server.updateBackupCertificate(requestingAuthInfo.getID(), authBackupReqMessage.getBackupCertificate());
-        server.insertRegisteredEntitiesOrUpdateIfExist(authBackupReqMessage.getRegisteredEntityList());
-        server.reloadRegEntityDB();
+        server.insertRegisteredEntitiesOrUpdateIfExist(registeredEntities);
 
         AuthBackupRespMessage backupRespMessage = new AuthBackupRespMessage();
         backupRespMessage.sendAsHttpResponse(response);
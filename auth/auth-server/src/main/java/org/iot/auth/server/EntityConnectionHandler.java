@@ -15,18 +15,16 @@
 
 package org.iot.auth.server;
 
-import org.eclipse.jetty.client.api.ContentResponse;
 import org.iot.auth.crypto.*;
 import org.iot.auth.exception.*;
 import org.slf4j.Logger;
 import org.iot.auth.AuthServer;
 import org.iot.auth.db.*;
 import org.iot.auth.io.Buffer;
-import org.iot.auth.io.BufferedString;
-import org.iot.auth.io.VariableLengthInt;
+import org.iot.auth.io.BufferPool;
 import org.iot.auth.message.*;
 import org.iot.auth.util.ExceptionToString;
-import org.json.simple.JSONObject;
+import org.iot.auth.util.LazyLogArg;
 import org.json.simple.parser.ParseException;
 
 import java.io.IOException;
@@ -37,8 +35,8 @@ import java.security.spec.InvalidKeySpecException;
 import java.sql.SQLException;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * An abstract handler class for general connections from each entity that requests Auth service (e.g., session key requests)
@@ -62,6 +60,15 @@ public abstract class EntityConnectionHandler {
         }
     }
 
+    /**
+     * Sends a session key response once the session keys are available, which may be on a thread other than the
+     * one handling the request when the session keys come from a trusted Auth.
+     */
+    private interface SessionKeyRespSender {
+        void send(SessionKeysAndSpec sessionKeysAndSpec) throws IOException, UseOfExpiredKeyException,
+                InvalidSymmetricKeyOperationException, SQLException, ClassNotFoundException;
+    }
+
     protected EntityConnectionHandler(AuthServer server) {
         this.server = server;
     }
@@ -71,36 +78,35 @@ public abstract class EntityConnectionHandler {
      * @throws IOException When socket IO fails.
      */
     protected void sendAuthHello(Buffer authNonce) throws IOException {
-        getLogger().info("Sending AUTH_HELLO to entity at Port {} with auth nonce {}",
-                getRemoteAddress(), authNonce.toHexString());
+        getLogger().debug("Sending AUTH_HELLO to entity at Port {} with auth nonce {}",
+                getRemoteAddress(), LazyLogArg.hex(authNonce));
 
         AuthHelloMessage authHello = new AuthHelloMessage(server.getAuthID(), authNonce);
 
         writeToSocket(authHello.serialize().getRawBytes());
     }
 
-    private void handleEntityReqInternal(byte[] bytes, Buffer authNonce) throws InvalidSessionKeyTargetException,
+    private void handleEntityReqInternal(Buffer buf, Buffer authNonce) throws InvalidSessionKeyTargetException,
             NoAvailableDistributionKeyException, TooManySessionKeysRequestedException, IOException,
             UseOfExpiredKeyException, SQLException, ClassNotFoundException, ParseException, UnrecognizedEntityException,
             CertificateEncodingException, InvalidSignatureException, InvalidNonceException,
             InvalidSymmetricKeyOperationException
     {
-        Buffer buf = new Buffer(bytes);
+        // the message is parsed through views of the request without copying
         MessageType type = MessageType.fromByte(buf.getByte(0));
 
-        VariableLengthInt valLenInt = buf.getVariableLengthInt(IoTSPMessage.MSG_TYPE_SIZE);
         // rest of this is payload
-        Buffer payload = buf.slice(IoTSPMessage.MSG_TYPE_SIZE + valLenInt.getRawBytes().length);
+        Buffer payload = buf.view(IoTSPMessage.MSG_TYPE_SIZE + buf.getVariableLengthIntSize(IoTSPMessage.MSG_TYPE_SIZE));
 
-        if (type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC) {
-            getLogger().info("Received session key request message encrypted with public key!");
+        if (type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC || type == MessageType.SESSION_KEY_REQ_IN_PUB_ENC_V2) {
+            getLogger().debug("Received session key request message encrypted with public key!");
             // parse signed data
-            Buffer encPayload = payload.slice(0, payload.length() - RSA_KEY_SIZE);
-            getLogger().debug("Encrypted data ({}): {}", encPayload.length(), encPayload.toHexString());
-            Buffer signature = payload.slice(payload.length() - RSA_KEY_SIZE);
+            Buffer encPayload = payload.view(0, payload.length() - RSA_KEY_SIZE);
+            getLogger().debug("Encrypted data ({}): {}", encPayload.length(), LazyLogArg.hex(encPayload));
+            Buffer signature = payload.view(payload.length() - RSA_KEY_SIZE);
             Buffer decPayload = server.getCrypto().authPrivateDecrypt(encPayload);
 
-            getLogger().debug("Decrypted data ({}): {}", decPayload.length(), decPayload.toHexString());
+            getLogger().debug("Decrypted data ({}): {}", decPayload.length(), LazyLogArg.hex(decPayload));
             SessionKeyReqMessage sessionKeyReqMessage = new SessionKeyReqMessage(type, decPayload);
 
             RegisteredEntity requestingEntity = server.getRegisteredEntity(sessionKeyReqMessage.getEntityName());
@@ -121,48 +127,48 @@ public abstract class EntityConnectionHandler {
                 throw new InvalidSignatureException("Entity signature verification failed!!");
             }
 
-            SessionKeysAndSpec ret =
-                    processSessionKeyReq(requestingEntity, sessionKeyReqMessage, authNonce);
-            List<SessionKey> sessionKeyList = ret.getSessionKeys();
-            SymmetricKeyCryptoSpec sessionCryptoSpec = ret.getSpec();
-
-            Buffer distributionKeyInfoBuffer;   // either distribution key or DH param to derive distribution key
-            DistributionKey distributionKey;    // generated or derived distribution key
-            if (requestingEntity.getPublicKeyCryptoSpec().getDiffieHellman() != null) {
-                try {
-                    DistributionDiffieHellman distributionDiffieHellman = new DistributionDiffieHellman(
-                            requestingEntity.getDistCryptoSpec(), "EC", "ECDH",
-                            384, requestingEntity.getDistKeyValidityPeriod());
-                    distributionKeyInfoBuffer = distributionDiffieHellman.getSerializedBuffer();
-                    distributionKey =
-                            distributionDiffieHellman.deriveDistributionKey(sessionKeyReqMessage.getDiffieHellmanParam());
+            sendSessionKeyRespWhenReady(processSessionKeyReq(requestingEntity, sessionKeyReqMessage, authNonce),
+                    ret -> {
+                List<SessionKey> sessionKeyList = ret.getSessionKeys();
+                SymmetricKeyCryptoSpec sessionCryptoSpec = ret.getSpec();
+
+                Buffer distributionKeyInfoBuffer;   // either distribution key or DH param to derive distribution key
+                DistributionKey distributionKey;    // generated or derived distribution key
+                if (requestingEntity.getPublicKeyCryptoSpec().getDiffieHellman() != null) {
+                    try {
+                        DistributionDiffieHellman distributionDiffieHellman = new DistributionDiffieHellman(
+                                requestingEntity.getDistCryptoSpec(), "EC", "ECDH",
+                                384, requestingEntity.getDistKeyValidityPeriod());
+                        distributionKeyInfoBuffer = distributionDiffieHellman.getSerializedBuffer();
+                        distributionKey =
+                                distributionDiffieHellman.deriveDistributionKey(sessionKeyReqMessage.getDiffieHellmanParam());
+                    }
+                    catch (NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException e) {
+                        throw new RuntimeException("Diffie-Hellman failed!" + e.getMessage());
+                    }
                 }
-                catch (NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException e) {
-                    throw new RuntimeException("Diffie-Hellman failed!" + e.getMessage());
+                else {
+                    // generate distribution key
+                    // Assuming AES-CBC-128
+                    distributionKey = new DistributionKey(requestingEntity.getDistCryptoSpec(),
+                                    requestingEntity.getDistKeyValidityPeriod());
+                    distributionKeyInfoBuffer = distributionKey.serialize();
                 }
-            }
-            else {
-                // generate distribution key
-                // Assuming AES-CBC-128
-                distributionKey = new DistributionKey(requestingEntity.getDistCryptoSpec(),
-                                requestingEntity.getDistKeyValidityPeriod());
-                distributionKeyInfoBuffer = distributionKey.serialize();
-            }
-            // update distribution key
-            server.updateDistributionKey(requestingEntity.getName(), distributionKey);
+                // update distribution key
+                server.updateDistributionKey(requestingEntity.getName(), distributionKey);
 
-            Buffer encryptedDistKey = server.getCrypto().authPublicEncrypt(distributionKeyInfoBuffer,
-                    requestingEntity.getPublicKey());
-            encryptedDistKey.concat(server.getCrypto().signWithPrivateKey(encryptedDistKey));
+                Buffer encryptedDistKey = server.getCrypto().authPublicEncrypt(distributionKeyInfoBuffer,
+                        requestingEntity.getPublicKey());
+                encryptedDistKey.concat(server.getCrypto().signWithPrivateKey(encryptedDistKey));
 
-            sendSessionKeyResp(distributionKey, sessionKeyReqMessage.getEntityNonce(),
-                    sessionKeyList, sessionCryptoSpec, encryptedDistKey);
-            close();
+                sendSessionKeyResp(distributionKey, sessionKeyReqMessage.getEntityNonce(),
+                        sessionKeyList, sessionCryptoSpec, encryptedDistKey, type.isProtocolV2());
+                close();
+            });
         }
-        else if (type == MessageType.SESSION_KEY_REQ) {
-            getLogger().info("Received session key request message encrypted with distribution key!");
-            BufferedString bufferedString = payload.getBufferedString(0);
-            String requestingEntityName = bufferedString.getString();
+        else if (type == MessageType.SESSION_KEY_REQ || type == MessageType.SESSION_KEY_REQ_V2) {
+            getLogger().debug("Received session key request message encrypted with distribution key!");
+            String requestingEntityName = payload.getString(0);
             RegisteredEntity requestingEntity = server.getRegisteredEntity(requestingEntityName);
 
             if (requestingEntity == null) {
@@ -176,7 +182,7 @@ public abstract class EntityConnectionHandler {
                 throw new UseOfExpiredKeyException("Trying to use an expired distribution key.");
             }
 
-            Buffer encPayload = payload.slice(bufferedString.length());
+            Buffer encPayload = payload.view(payload.getStringSize(0));
 
             Buffer decPayload = null;
             try {
@@ -189,20 +195,18 @@ public abstract class EntityConnectionHandler {
 
             SessionKeyReqMessage sessionKeyReqMessage = new SessionKeyReqMessage(type, decPayload);
 
-            SessionKeysAndSpec ret =
-                    processSessionKeyReq(requestingEntity, sessionKeyReqMessage, authNonce);
-            List<SessionKey> sessionKeyList = ret.getSessionKeys();
-            SymmetricKeyCryptoSpec sessionCryptoSpec = ret.getSpec();
-
-            sendSessionKeyResp(requestingEntity.getDistributionKey(), sessionKeyReqMessage.getEntityNonce(),
-                    sessionKeyList, sessionCryptoSpec, null);
-            close();
+            sendSessionKeyRespWhenReady(processSessionKeyReq(requestingEntity, sessionKeyReqMessage, authNonce),
+                    ret -> {
+                sendSessionKeyResp(requestingEntity.getDistributionKey(), sessionKeyReqMessage.getEntityNonce(),
+                        ret.getSessionKeys(), ret.getSpec(), null, type.isProtocolV2());
+                close();
+            });
         }
         else if (type == MessageType.MIGRATION_REQ_WITH_SIGN) {
             getLogger().info("Received migration request with signature!");
-            Buffer decPayload = payload.slice(0, payload.length() - RSA_KEY_SIZE);
-            Buffer signature = payload.slice(payload.length() - RSA_KEY_SIZE);
-            getLogger().info("Decrypted data (" + decPayload.length() + "): " + decPayload.toHexString());
+            Buffer decPayload = payload.view(0, payload.length() - RSA_KEY_SIZE);
+            Buffer signature = payload.view(payload.length() - RSA_KEY_SIZE);
+            getLogger().debug("Decrypted data ({}): {}", decPayload.length(), LazyLogArg.hex(decPayload));
 
             MigrationReqMessage migrationReq =
                     new MigrationReqMessage(MessageType.MIGRATION_REQ_WITH_SIGN, decPayload);
@@ -211,25 +215,25 @@ public abstract class EntityConnectionHandler {
             if (requestingEntity == null) {
                 throw new UnrecognizedEntityException("Error in MIGRATION_REQ_WITH_SIGN: Migration requester is not found!");
             }
-            getLogger().info("requestingEntity: " + requestingEntity.toString());
+            getLogger().debug("requestingEntity: {}", requestingEntity);
             // checking signature
             try {
                 if (!server.getCrypto().verifySignedData(decPayload, signature, requestingEntity.getPublicKey())) {
                     throw new InvalidSignatureException("Entity signature verification failed!!");
                 }
                 else {
-                    getLogger().info("Entity signature is correct!");
+                    getLogger().debug("Entity signature is correct!");
                 }
             }
             catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
                 throw new InvalidSignatureException("Entity signature verification failed!!");
             }
-            getLogger().info("Received auth nonce: " + migrationReq.getAuthNonce().toHexString());
-            if (!authNonce.equals(migrationReq.getAuthNonce())) {
+            getLogger().debug("Received auth nonce: {}", LazyLogArg.hex(migrationReq.getAuthNonce()));
+            if (!migrationReq.matchesAuthNonce(authNonce)) {
                 throw new InvalidNonceException("Auth nonce does not match!");
             }
             else {
-                getLogger().info("Auth nonce is correct!");
+                getLogger().debug("Auth nonce is correct!");
             }
             X509Certificate backupCertificate =
                     server.getTrustedAuthInfo(requestingEntity.getBackupFromAuthID()).getBackupCertificate();
@@ -243,28 +247,28 @@ public abstract class EntityConnectionHandler {
             // find out requesting entity's name first
             MigrationReqMessage migrationReq =
                     new MigrationReqMessage(MessageType.MIGRATION_REQ_WITH_MAC, payload);
-            getLogger().info("Requesting entity's name is :" + migrationReq.getEntityName());
+            getLogger().info("Requesting entity's name is :{}", migrationReq.getEntityName());
             RegisteredEntity requestingEntity = server.getRegisteredEntity(migrationReq.getEntityName());
             if (requestingEntity == null) {
                 throw new UnrecognizedEntityException("Error in MIGRATION_REQ_WITH_MAC: Migration requester is not found!");
             }
-            getLogger().info("requestingEntity: " + requestingEntity.toString());
+            getLogger().debug("requestingEntity: {}", requestingEntity);
             // check MAC
             MigrationToken migrationToken = requestingEntity.getMigrationToken();
             DistributionKey currentDistributionMacKey = migrationToken.getCurrentDistributionMacKey();
             try {
                 currentDistributionMacKey.verifyMacExtractData(payload);
             } catch (InvalidMacException e) {
-                getLogger().error("InvalidMacException: " + ExceptionToString.convertExceptionToStackTrace(e));
+                getLogger().error("InvalidMacException: {}", ExceptionToString.convertExceptionToStackTrace(e));
                 throw new RuntimeException("Integrity error occurred during verifying MAC!");
             }
             // check nonce
-            getLogger().info("Received auth nonce: " + migrationReq.getAuthNonce().toHexString());
-            if (!authNonce.equals(migrationReq.getAuthNonce())) {
+            getLogger().debug("Received auth nonce: {}", LazyLogArg.hex(migrationReq.getAuthNonce()));
+            if (!migrationReq.matchesAuthNonce(authNonce)) {
                 throw new InvalidNonceException("Auth nonce does not match!");
             }
             else {
-                getLogger().info("Auth nonce is correct!");
+                getLogger().debug("Auth nonce is correct!");
             }
             // send migration token
             MigrationRespMessage migrationResp = new MigrationRespMessage(server.getAuthID(),
@@ -280,7 +284,8 @@ public abstract class EntityConnectionHandler {
 
     /**
      * Handle a session key request from the connected entity.
-     * @param bytes Raw buffer bytes of the TCP packet received by an entity, to be processed in this method
+     * @param request Raw buffer of the packet received by an entity, to be processed in this method. The request
+     *                may be a pooled buffer, so it is not referenced after this method returns.
      * @param authNonce Auth's random number that was sent to the entity, to be checked with the Auth nonce included
      *                  in the session key request.
      * @throws RuntimeException Any security checking fails, including entity's signature and Auth's nonce.
@@ -289,43 +294,50 @@ public abstract class EntityConnectionHandler {
      * @throws SQLException When SQL DB fails.
      * @throws ClassNotFoundException When class is not found.
      */
-    protected void handleEntityReq(byte[] bytes, Buffer authNonce) throws RuntimeException, IOException,
+    protected void handleEntityReq(Buffer request, Buffer authNonce) throws RuntimeException, IOException,
             ParseException, SQLException, ClassNotFoundException, CertificateEncodingException,
             InvalidSignatureException, InvalidNonceException, InvalidSymmetricKeyOperationException
     {
         try {
-            handleEntityReqInternal(bytes, authNonce);
+            handleEntityReqInternal(request, authNonce);
         }
-        catch (InvalidSessionKeyTargetException e) {
-            getLogger().info("InvalidSessionKeyTargetException: " + e.getMessage());
-            sendAuthAlert(AuthAlertCode.INVALID_SESSION_KEY_REQ);
-            close();
-            return;
+        catch (InvalidSessionKeyTargetException | UseOfExpiredKeyException | NoAvailableDistributionKeyException
+                | TooManySessionKeysRequestedException | UnrecognizedEntityException e) {
+            sendAuthAlertForException(e);
         }
-        catch (UseOfExpiredKeyException e) {
-            getLogger().info("UseOfExpiredKeyException: " + e.getMessage());
-            sendAuthAlert(AuthAlertCode.INVALID_DISTRIBUTION_KEY);
-            close();
-            return;
-        }
-        catch (NoAvailableDistributionKeyException e) {
-            getLogger().info("NoAvailableDistributionKeyException: " + e.getMessage());
-            sendAuthAlert(AuthAlertCode.INVALID_DISTRIBUTION_KEY);
-            close();
-            return;
+    }
+
+    /**
+     * Whether the response to the request is still to be sent, after {@link #handleEntityReq(Buffer, Buffer)}
+     * returns. If so, the connection is closed when the response is sent, so it must not be closed by the caller.
+     * @return True if the response is pending, e.g., on a session key request to a trusted Auth.
+     */
+    protected boolean isResponsePending() {
+        return responsePending;
+    }
+
+    /**
+     * Send an alert to the entity for an exception caused by its request, and close the connection.
+     * @param e The exception while processing the request.
+     * @return Whether an alert is sent, i.e., the exception is caused by the request.
+     * @throws IOException If socket IO fails.
+     */
+    private boolean sendAuthAlertForException(Exception e) throws IOException {
+        AuthAlertCode authAlertCode;
+        if (e instanceof InvalidSessionKeyTargetException || e instanceof TooManySessionKeysRequestedException
+                || e instanceof UnrecognizedEntityException) {
+            authAlertCode = AuthAlertCode.INVALID_SESSION_KEY_REQ;
         }
-        catch (TooManySessionKeysRequestedException e) {
-            getLogger().info("TooManySessionKeysRequestedException: " + e.getMessage());
-            sendAuthAlert(AuthAlertCode.INVALID_SESSION_KEY_REQ);
-            close();
-            return;
+        else if (e instanceof UseOfExpiredKeyException || e instanceof NoAvailableDistributionKeyException) {
+            authAlertCode = AuthAlertCode.INVALID_DISTRIBUTION_KEY;
         }
-        catch (UnrecognizedEntityException e) {
-            getLogger().info("UnrecognizedEntityException: " + e.getMessage());
-            sendAuthAlert(AuthAlertCode.INVALID_SESSION_KEY_REQ);
-            close();
-            return;
+        else {
+            return false;
         }
+        getLogger().info("{}: {}", e.getClass().getSimpleName(), e.getMessage());
+        sendAuthAlert(authAlertCode);
+        close();
+        return true;
     }
 
     /**
@@ -346,22 +358,76 @@ public abstract class EntityConnectionHandler {
      * @param encryptedDistKey Can be null. If not null, it is the distribution key encrypted using public key
      *                         cryptography. If null, it means the session key request was encrypted with a distribution
      *                         key that is shared a priory, so no need to include it.
+     * @param protocolV2 Whether to respond in protocol v2, as the request was a protocol v2 message.
      * @throws IOException If TCP socket IO fails.
      * @throws UseOfExpiredKeyException When an expired key is used.
      */
     private void sendSessionKeyResp(DistributionKey distributionKey, Buffer entityNonce,
                                     List<SessionKey> sessionKeyList, SymmetricKeyCryptoSpec sessionCryptoSpec,
-                                    Buffer encryptedDistKey) throws IOException, UseOfExpiredKeyException,
+                                    Buffer encryptedDistKey, boolean protocolV2)
+                                    throws IOException, UseOfExpiredKeyException,
                                     InvalidSymmetricKeyOperationException
     {
         SessionKeyRespMessage sessionKeyResp;
         if (encryptedDistKey != null) {
-            sessionKeyResp = new SessionKeyRespMessage(encryptedDistKey, entityNonce, sessionCryptoSpec, sessionKeyList);
+            sessionKeyResp = new SessionKeyRespMessage(encryptedDistKey, entityNonce, sessionCryptoSpec, sessionKeyList,
+                    protocolV2);
         }
         else {
-            sessionKeyResp = new SessionKeyRespMessage(entityNonce, sessionCryptoSpec, sessionKeyList);
+            sessionKeyResp = new SessionKeyRespMessage(entityNonce, sessionCryptoSpec, sessionKeyList, protocolV2);
         }
-        writeToSocket(sessionKeyResp.serializeAndEncrypt(distributionKey).getRawBytes());
+        writeToSocket(sessionKeyResp.serializeAndEncrypt(distributionKey, getBufferPool()).getRawBytes());
+    }
+
+    /**
+     * Send the session key response once the session keys are available. Session keys found by this Auth are
+     * available right away, so the response is sent on this thread as before. Session keys requested from a trusted
+     * Auth are sent from the completion of the request, which closes the connection afterwards, so that no thread
+     * waits for the trusted Auth.
+     * @param sessionKeysFuture Future for the session keys and their crypto spec.
+     * @param sender Sends the session key response with the session keys.
+     * @throws IOException If socket IO fails.
+     * @throws UseOfExpiredKeyException When an expired key is used.
+     * @throws InvalidSymmetricKeyOperationException If the symmetric key operation is invalid.
+     * @throws SQLException If the distribution key cannot be updated in the database.
+     * @throws ClassNotFoundException If the class cannot be located.
+     */
+    private void sendSessionKeyRespWhenReady(CompletableFuture<SessionKeysAndSpec> sessionKeysFuture,
+                                             SessionKeyRespSender sender)
+            throws IOException, UseOfExpiredKeyException, InvalidSymmetricKeyOperationException, SQLException,
+            ClassNotFoundException
+    {
+        if (sessionKeysFuture.isDone() && !sessionKeysFuture.isCompletedExceptionally()) {
+            sender.send(sessionKeysFuture.join());
+            return;
+        }
+        responsePending = true;
+        // not on the threads of the HTTPS client, as the response requires cryptographic operations and socket IO
+        sessionKeysFuture.whenCompleteAsync((sessionKeysAndSpec, failure) -> {
+            try {
+                if (failure != null) {
+                    Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure;
+                    throw cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
+                }
+                sender.send(sessionKeysAndSpec);
+            }
+            catch (Exception e) {
+                try {
+                    if (!sendAuthAlertForException(e)) {
+                        getLogger().error("Exception occurred while handling Auth service!\n {}",
+                                ExceptionToString.convertExceptionToStackTrace(e));
+                    }
+                }
+                catch (IOException ioe) {
+                    getLogger().error("Exception occurred while sending Auth alert!\n {}",
+                            ExceptionToString.convertExceptionToStackTrace(ioe));
+                }
+            }
+            finally {
+                close();
+            }
+        });
     }
 
     /**
@@ -370,8 +436,9 @@ public abstract class EntityConnectionHandler {
      * @param requestingEntity The entity who sent the session key request.
      * @param sessionKeyReqMessage The session key request message object.
      * @param authNonce Auth nonce to be checked with the nonce in the session key request message.
-     * @return A pair of resulting session key list and usage (cryptography) specification for the session keys. The
-     * session keys can be either generated or retrieved from a trusted Auth.
+     * @return A future for a pair of resulting session key list and usage (cryptography) specification for the
+     * session keys. The session keys can be either generated or retrieved from a trusted Auth, and the future is
+     * completed already unless the session keys are requested from a trusted Auth.
      * @throws IOException If IO fails.
      * @throws ParseException If JSON parsing fails.
      * @throws SQLException When there is a problem in SQL
@@ -379,14 +446,14 @@ public abstract class EntityConnectionHandler {
      * @throws InvalidSessionKeyTargetException If the target of session key request is not valid.
      * @throws TooManySessionKeysRequestedException If more keys requested than allowed for the entity.
      */
-    private SessionKeysAndSpec processSessionKeyReq(
+    private CompletableFuture<SessionKeysAndSpec> processSessionKeyReq(
             RegisteredEntity requestingEntity, SessionKeyReqMessage sessionKeyReqMessage, Buffer authNonce)
             throws IOException, ParseException, SQLException, ClassNotFoundException, InvalidSessionKeyTargetException,
             TooManySessionKeysRequestedException, InvalidNonceException {
         getLogger().debug("Sender entity: {}", sessionKeyReqMessage.getEntityName());
 
-        getLogger().debug("Received auth nonce: {}", sessionKeyReqMessage.getAuthNonce().toHexString());
-        if (!authNonce.equals(sessionKeyReqMessage.getAuthNonce())) {
+        getLogger().debug("Received auth nonce: {}", LazyLogArg.hex(sessionKeyReqMessage.getAuthNonce()));
+        if (!sessionKeyReqMessage.matchesAuthNonce(authNonce)) {
             throw new InvalidNonceException("Auth nonce does not match!");
         }
         else {
@@ -396,8 +463,14 @@ public abstract class EntityConnectionHandler {
             throw new TooManySessionKeysRequestedException("More session keys than allowed are requested!");
         }
 
-        JSONObject purpose = sessionKeyReqMessage.getPurpose();
-        SessionKeyReqPurpose reqPurpose = new SessionKeyReqPurpose(purpose);
+        SessionKeyReqPurpose reqPurpose;
+        if (sessionKeyReqMessage.getType().isProtocolV2()) {
+            reqPurpose = new SessionKeyReqPurpose(sessionKeyReqMessage.getPurposeTargetType(),
+                    sessionKeyReqMessage.getPurposeTarget());
+        }
+        else {
+            reqPurpose = new SessionKeyReqPurpose(sessionKeyReqMessage.getPurpose());
+        }
 
         SymmetricKeyCryptoSpec cryptoSpec = null;
         List<SessionKey> sessionKeyList = null;
@@ -409,7 +482,7 @@ public abstract class EntityConnectionHandler {
                         reqPurpose.getTargetType(), (String)reqPurpose.getTarget());
                 if (communicationPolicy == null) {
                     throw new InvalidSessionKeyTargetException("Unrecognized Purpose: "
-                            + purpose.toString());
+                            + reqPurpose.toString());
                 }
                 cryptoSpec = communicationPolicy.getSessionCryptoSpec();
                 // generate session keys
@@ -426,7 +499,7 @@ public abstract class EntityConnectionHandler {
                         reqPurpose.getTargetType(), (String)reqPurpose.getTarget());
                 if (communicationPolicy == null) {
                     throw new InvalidSessionKeyTargetException("Unrecognized Purpose: "
-                            + purpose.toString());
+                            + reqPurpose.toString());
                 }
                 cryptoSpec = communicationPolicy.getSessionCryptoSpec();
                 SessionKeyPurpose sessionKeyPurpose =
@@ -453,10 +526,10 @@ public abstract class EntityConnectionHandler {
                     throw new RuntimeException("Wrong class for session key ID!");
                 }
                 int authID = AuthDB.decodeAuthIDFromSessionKeyID(sessionKeyID);
-                getLogger().info("ID of Auth that generated this key: {}", authID);
+                getLogger().debug("ID of Auth that generated this key: {}", authID);
 
                 if (authID == server.getAuthID()) {
-                    getLogger().info("This session key was generated by me");
+                    getLogger().debug("This session key was generated by me");
                     sessionKey = server.getSessionKeyByID(sessionKeyID);
 
                     sessionKeyList = new LinkedList<>();
@@ -467,9 +540,10 @@ public abstract class EntityConnectionHandler {
                 else {
                     // TODO: if authID is not my ID, then send request via HTTPS
                     getLogger().info("This session key was generated by someone else");
-                    AuthSessionKeyReqMessage authSessionKeyReqMessage = new AuthSessionKeyReqMessage(sessionKeyID,
-                            requestingEntity.getName(), requestingEntity.getGroup(), -1);
-                    return sendAuthSessionKeyReq(authID, authSessionKeyReqMessage);
+                    // shared with other entities requesting the same session key at the same time
+                    return server.requestSessionKeyFromTrustedAuth(authID, sessionKeyID,
+                            requestingEntity.getName(), requestingEntity.getGroup())
+                            .thenApply(this::toSessionKeysAndSpec);
                 }
 
                 break;
@@ -490,7 +564,7 @@ public abstract class EntityConnectionHandler {
                 }
 
                 if (authID == server.getAuthID()) {
-                    getLogger().info("numKeys {}", sessionKeyReqMessage.getNumKeys());
+                    getLogger().debug("numKeys {}", sessionKeyReqMessage.getNumKeys());
                     SessionKeyPurpose sessionKeyPurpose =
                             new SessionKeyPurpose(CommunicationTargetType.TARGET_GROUP, requestingEntity.getGroup());
                     // get cached keys for this group
@@ -506,7 +580,8 @@ public abstract class EntityConnectionHandler {
                     getLogger().info("This cached session key request was directed to someone else");
                     AuthSessionKeyReqMessage authSessionKeyReqMessage = new AuthSessionKeyReqMessage(-1,
                             requestingEntity.getName(), requestingEntity.getGroup(), authID);
-                    return sendAuthSessionKeyReq(authID, authSessionKeyReqMessage);
+                    return server.requestSessionKeysFromTrustedAuth(authID, authSessionKeyReqMessage)
+                            .thenApply(this::toSessionKeysAndSpec);
                 }
                 break;
             }
@@ -516,36 +591,15 @@ public abstract class EntityConnectionHandler {
             }
         }
 
-        return new SessionKeysAndSpec(sessionKeyList, cryptoSpec);
+        return CompletableFuture.completedFuture(new SessionKeysAndSpec(sessionKeyList, cryptoSpec));
     }
 
     /**
-     * Send an Auth session key request to a trusted Auth, on behalf of the requesting entity.
-     * @param trustedAuthID Identifier of the trusted Auth to which this method sends the request.
-     * @param authSessionKeyReqMessage Session key's identifier specified in the original session key request by an entity.
+     * Get the usage specification of session keys received from a trusted Auth.
+     * @param sessionKeyList Session keys received from a trusted Auth.
      * @return A pair of the session key list and usage specification of the session keys
-     * @throws IOException If IO fails.
-     * @throws ParseException If JSON parsing fails.
      */
-    private SessionKeysAndSpec sendAuthSessionKeyReq(
-            int trustedAuthID, AuthSessionKeyReqMessage authSessionKeyReqMessage) throws IOException, ParseException
-    {
-        getLogger().info("Sending auth session key req to Auth {}", trustedAuthID);
-
-        ContentResponse contentResponse;
-        try {
-            contentResponse = server.performPostRequestToTrustedAuth(trustedAuthID, authSessionKeyReqMessage);
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            getLogger().error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
-            throw new RuntimeException(e.getCause());
-        }
-
-        getLogger().info("Received contents via https {}", contentResponse.getContentAsString());
-
-        AuthSessionKeyRespMessage authSessionKeyRespMessage = AuthSessionKeyRespMessage.fromHttpResponse(contentResponse);
-
-        getLogger().info("Received AuthSessionKeyRespMessage: {}", authSessionKeyRespMessage.toString());
-        List<SessionKey> sessionKeyList = authSessionKeyRespMessage.getSessionKeyList();
+    private SessionKeysAndSpec toSessionKeysAndSpec(List<SessionKey> sessionKeyList) {
         SymmetricKeyCryptoSpec sessionCryptoSpec = null;
         if (sessionKeyList.size() > 0) {
             sessionCryptoSpec = sessionKeyList.get(0).getCryptoSpec();
@@ -553,7 +607,11 @@ public abstract class EntityConnectionHandler {
         else {
             throw new RuntimeException("No session keys received!");
         }
-        return new SessionKeysAndSpec(authSessionKeyRespMessage.getSessionKeyList(), sessionCryptoSpec);
+        return new SessionKeysAndSpec(sessionKeyList, sessionCryptoSpec);
+    }
+
+    protected BufferPool getBufferPool() {
+        return server.getBufferPool();
     }
 
     abstract protected Logger getLogger();
@@ -561,4 +619,5 @@ public abstract class EntityConnectionHandler {
     abstract protected void close();
     abstract protected String getRemoteAddress();
     private AuthServer server;
+    private volatile boolean responsePending = false;
 }
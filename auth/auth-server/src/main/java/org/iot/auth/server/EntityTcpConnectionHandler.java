@@ -18,8 +18,10 @@ package org.iot.auth.server;
 import org.iot.auth.AuthServer;
 import org.iot.auth.crypto.AuthCrypto;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferPool;
 import org.iot.auth.message.AuthHelloMessage;
 import org.iot.auth.util.ExceptionToString;
+import org.iot.auth.util.LazyLogArg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -59,14 +61,20 @@ public class EntityTcpConnectionHandler extends EntityConnectionHandler implemen
                 InputStream is = socket.getInputStream();
                 int availableLength = is.available();
                 if (availableLength > 0) {
-                    byte[] buf = new byte[availableLength];
-                    int length = is.read(buf);
+                    try (BufferPool.Lease lease = getBufferPool().borrow(availableLength)) {
+                        byte[] buf = lease.array();
+                        int length = is.read(buf, 0, availableLength);
 
-                    getLogger().debug("Received bytes ({}): {}", length, Buffer.toHexString(buf, 0, length));
+                        Buffer request = Buffer.wrap(buf).view(0, length);
+                        getLogger().debug("Received bytes ({}): {}", length, LazyLogArg.hex(request));
 
-                    // Process session key request
-                    handleEntityReq(buf, authNonce);
-                    close();
+                        // Process session key request
+                        handleEntityReq(request, authNonce);
+                    }
+                    // a pending response closes the connection when it is sent
+                    if (!isResponsePending()) {
+                        close();
+                    }
                     return;
                 }
 
@@ -95,7 +103,7 @@ public class EntityTcpConnectionHandler extends EntityConnectionHandler implemen
     protected void close() {
         try {
             if (!socket.isClosed()) {
-                getLogger().info("Closing connection with socket at {}", getRemoteAddress());
+                getLogger().debug("Closing connection with socket at {}", getRemoteAddress());
                 socket.close();
             }
         }
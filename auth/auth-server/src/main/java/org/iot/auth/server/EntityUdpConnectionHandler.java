@@ -63,7 +63,7 @@ public class EntityUdpConnectionHandler extends EntityConnectionHandler {
     public void run() {
         // Process session key request
         try {
-            handleEntityReq(sessionKeyRequest.getRawBytes(), authNonce);
+            handleEntityReq(sessionKeyRequest, authNonce);
         }
         catch (Exception e) {
             getLogger().error("Exception occurred while handling Auth service!\n {}",
@@ -91,7 +91,7 @@ public class EntityUdpConnectionHandler extends EntityConnectionHandler {
 
     protected void writeToSocket(byte[] bytes) throws IOException {
         String addressKey = socketAddress + ":" + socketPort;
-        responseMap.put(addressKey, new Buffer(bytes));
+        responseMap.put(addressKey, Buffer.wrap(bytes));
         new Timer().schedule(new TimerTask() {
             @Override
             public void run() {
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.server;
+
+import org.iot.auth.AuthServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class for a background thread that periodically deletes expired session keys, at most a fixed number of
+ * session keys at a time, so that the deletion does not block request handling for a long time.
+ * @author Hokeun Kim
+ */
+public class ExpiredSessionKeyReaper {
+    public ExpiredSessionKeyReaper(AuthServer server, long intervalMs, int batchSize) {
+        this.server = server;
+        this.intervalMs = intervalMs;
+        this.batchSize = batchSize;
+        this.reapedSessionKeyCount = new AtomicLong(0);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ExpiredSessionKeyReaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        logger.info("scheduling a task of reaping at most " + batchSize + " expired session key(s) every "
+                + intervalMs + " millisecond(s).");
+        scheduler.scheduleWithFixedDelay(this::reap, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Get the total number of expired session keys deleted by this reaper.
+     * @return The number of reaped session keys.
+     */
+    public long getReapedSessionKeyCount() {
+        return reapedSessionKeyCount.get();
+    }
+
+    private void reap() {
+        try {
+            int count = server.reapExpiredSessionKeys(batchSize);
+            if (count > 0) {
+                long totalCount = reapedSessionKeyCount.addAndGet(count);
+                logger.debug("Reaped {} expired session key(s), {} in total.", count, totalCount);
+            }
+        }
+        catch (SQLException | RuntimeException e) {
+            // an exception would cancel the scheduled task, so only log it and retry in the next period
+            logger.error("Failed to reap expired session keys: {}", e.getMessage());
+        }
+    }
+
+    private final AuthServer server;
+    private final long intervalMs;
+    private final int batchSize;
+    private final AtomicLong reapedSessionKeyCount;
+    private final ScheduledExecutorService scheduler;
+    private static final Logger logger = LoggerFactory.getLogger(ExpiredSessionKeyReaper.class);
+}
@@ -21,6 +21,7 @@ import org.iot.auth.db.TrustedAuth;
 import org.iot.auth.exception.InvalidNonceException;
 import org.iot.auth.message.AuthHeartbeatReqMessage;
 import org.iot.auth.message.AuthHeartbeatRespMessage;
+import org.iot.auth.util.LazyLogArg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,10 +53,10 @@ public class HeartbeatSender {
                     try {
                         ContentResponse response = server.performPostRequestToTrustedAuth(trustedAuth.getID(), heartbeatReqMessage);
                         AuthHeartbeatRespMessage heartbeatRespMessage = AuthHeartbeatRespMessage.fromHttpResponse(response);
-                        logger.debug(heartbeatReqMessage.getHeartbeatNonce().toHexString());
-                        logger.debug(heartbeatRespMessage.getHeartbeatResponseNonce().toHexString());
+                        logger.debug("{}", LazyLogArg.hex(heartbeatReqMessage.getHeartbeatNonce()));
+                        logger.debug("{}", LazyLogArg.hex(heartbeatRespMessage.getHeartbeatResponseNonce()));
                         boolean isValidResponse = heartbeatRespMessage.verifyResponse(heartbeatReqMessage.getHeartbeatNonce());
-                        logger.debug("Is Valid Response: " + isValidResponse);
+                        logger.debug("Is Valid Response: {}", isValidResponse);
                         if (isValidResponse) {
                             failureCount = 0;
                             if (!isTrustedAuthAlive) {
@@ -1,5 +1,6 @@
 package org.iot.auth.server;
 
+import org.iot.auth.util.SampledTrace;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,7 +22,6 @@ public class QPSCalculator {
     public synchronized boolean checkQpsLimitExceededOtherwiseIncreaseRequestCounter() {
         long currentTimeInSec = Calendar.getInstance().getTimeInMillis() / 1000;
         int secondIndex = (int) (currentTimeInSec % qpsBucketSizeInSec);
-        logger.info("current second index:  " + secondIndex + " time in sec: " + currentTimeInSec);
         resetPastTimeRequests(numTotalRequestsWithinSec, secondIndex, currentTimeInSec - lastTimeInSec);
         resetPastTimeRequests(numAcceptedRequestsWithinSec, secondIndex, currentTimeInSec - lastTimeInSec);
         numTotalRequestsWithinSec[secondIndex]++;
@@ -31,12 +31,12 @@ public class QPSCalculator {
         }
         else {
             isQpsExceeded = true;
-            logger.info("qps limit reached! " + qpsLimit);
+            // only when the limit is reached, not for every discarded request
+            if (!qpsLimitReached) {
+                logger.info("qps limit reached! {}", qpsLimit);
+            }
         }
-        logger.info("current total req/sec:  " + numTotalRequestsWithinSec[secondIndex]);
-        logger.info("current accepted req/sec:  " + numAcceptedRequestsWithinSec[secondIndex]);
-        logger.info("Total:    " + printIntArray(numTotalRequestsWithinSec));
-        logger.info("Accepted: " + printIntArray(numAcceptedRequestsWithinSec));
+        qpsLimitReached = isQpsExceeded;
         int totalRequestsPerBucket = getRequestsWithinBucket(numTotalRequestsWithinSec);
         int acceptedRequestsPerBucket = getRequestsWithinBucket(numAcceptedRequestsWithinSec);
         float currentTotalQps = (float)totalRequestsPerBucket / qpsBucketSizeInSec;
@@ -47,8 +47,17 @@ public class QPSCalculator {
         if (currentAcceptedQps > maxAcceptedQps) {
             maxAcceptedQps = currentAcceptedQps;
         }
-        logger.info("current total req/" + qpsBucketSizeInSec + "sec: " + totalRequestsPerBucket + " QPS: " + currentTotalQps + " Max QPS: " + maxTotalQps);
-        logger.info("current accepted req/" + qpsBucketSizeInSec + "sec: " + acceptedRequestsPerBucket + " QPS: " + currentAcceptedQps + " Max QPS: " + maxAcceptedQps);
+        if (trace.sample()) {
+            trace.trace("current second index: {} time in sec: {}", secondIndex, currentTimeInSec);
+            trace.trace("current total req/sec: {}, accepted req/sec: {}", numTotalRequestsWithinSec[secondIndex],
+                    numAcceptedRequestsWithinSec[secondIndex]);
+            trace.trace("Total:    {}", printIntArray(numTotalRequestsWithinSec));
+            trace.trace("Accepted: {}", printIntArray(numAcceptedRequestsWithinSec));
+            trace.trace("current total req/{}sec: {} QPS: {} Max QPS: {}", qpsBucketSizeInSec,
+                    totalRequestsPerBucket, currentTotalQps, maxTotalQps);
+            trace.trace("current accepted req/{}sec: {} QPS: {} Max QPS: {}", qpsBucketSizeInSec,
+                    acceptedRequestsPerBucket, currentAcceptedQps, maxAcceptedQps);
+        }
         lastTimeInSec = currentTimeInSec;
         return isQpsExceeded;
     }
@@ -59,6 +68,7 @@ public class QPSCalculator {
     private int[] numTotalRequestsWithinSec;
     private int[] numAcceptedRequestsWithinSec;
     private long lastTimeInSec = 0;
+    private boolean qpsLimitReached = false;
     private static int getRequestsWithinBucket(int[] requestsWithinSec) {
         int sum = 0;
         for (int i = 0; i < requestsWithinSec.length; i++) {
@@ -67,11 +77,11 @@ public class QPSCalculator {
         return sum;
     }
     private String printIntArray (int[] array) {
-        String result = "";
+        StringBuilder result = new StringBuilder();
         for (int i = 0; i < array.length; i++) {
-            result += array[i] + " ";
+            result.append(array[i]).append(' ');
         }
-        return result;
+        return result.toString();
     }
     private static void resetPastTimeRequests(int[] requestsWithinSec, int currentSecondIndex, long pastAmountWithoutRequests) {
         int numEntriesToBeReset = pastAmountWithoutRequests >= requestsWithinSec.length ? requestsWithinSec.length : (int) pastAmountWithoutRequests;
@@ -87,5 +97,6 @@ public class QPSCalculator {
         }
     }
     private static final Logger logger = LoggerFactory.getLogger(QPSCalculator.class);
+    private static final SampledTrace trace = new SampledTrace(logger);
 }
 
@@ -55,13 +55,13 @@ public class SessionKeyReqPurpose {
             }
         } else if (purpose.containsKey(keyId)) {
             objTarget = purpose.get(keyId);
-            logger.info("{}", objTarget.getClass());
+            logger.debug("{}", objTarget.getClass());
             if (objTarget.getClass() == Integer.class || objTarget.getClass() == Long.class) {
                 this.targetType = CommunicationTargetType.SESSION_KEY_ID;
             }
         }else if (purpose.containsKey(cachedKeys)) {
             objTarget = purpose.get(cachedKeys);
-            logger.info("{}", objTarget.getClass());
+            logger.debug("{}", objTarget.getClass());
             if (objTarget.getClass() == Integer.class || objTarget.getClass() == Long.class) {
                 this.targetType = CommunicationTargetType.CACHED_SESSION_KEYS;
             }
@@ -73,6 +73,37 @@ public class SessionKeyReqPurpose {
         this.target = objTarget;
     }
 
+    /**
+     * Constructor for a purpose decoded from the binary encoding of protocol v2.
+     * @param targetType Target type from the tag of the purpose.
+     * @param target Target, a String for group and topics, and a Long for session key ID and cached session keys.
+     * @throws InvalidSessionKeyTargetException If the target type is unknown or does not match the target.
+     */
+    public SessionKeyReqPurpose(CommunicationTargetType targetType, Object target)
+            throws InvalidSessionKeyTargetException
+    {
+        boolean isValid;
+        switch (targetType) {
+            case TARGET_GROUP:
+            case PUBLISH_TOPIC:
+            case SUBSCRIBE_TOPIC:
+                isValid = target instanceof String;
+                break;
+            case SESSION_KEY_ID:
+            case CACHED_SESSION_KEYS:
+                isValid = target instanceof Long;
+                break;
+            default:
+                isValid = false;
+                break;
+        }
+        if (!isValid) {
+            throw new InvalidSessionKeyTargetException("Unrecognized purpose: " + targetType + ": " + target);
+        }
+        this.targetType = targetType;
+        this.target = target;
+    }
+
     public CommunicationTargetType getTargetType() {
         return targetType;
     }
@@ -81,6 +112,10 @@ public class SessionKeyReqPurpose {
         return target;
     }
 
+    public String toString() {
+        return targetType + ": " + target;
+    }
+
     private CommunicationTargetType targetType;
     private Object target;
 
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.server;
+
+import org.iot.auth.AuthServer;
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.message.AuthSessionKeyReqMessage;
+import org.iot.auth.message.AuthSessionKeyRespMessage;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class for requesting session keys from trusted Auths on behalf of registered entities. Concurrent requests for the
+ * same session key to the same trusted Auth, e.g., from subscribers after a publisher announces a new session key,
+ * share a single in-flight request. The entities that joined an in-flight request are added as owners of the
+ * session key after it is received, with a single request for each group of the joined entities, and they get the
+ * session key only when the request for their group succeeds.
+ * @author Hokeun Kim
+ */
+public class TrustedAuthSessionKeyRequester {
+    /**
+     * A session key request to a trusted Auth, shared by the entities requesting the same session key.
+     */
+    private static class InFlightRequest {
+        private final CompletableFuture<List<SessionKey>> sessionKeys = new CompletableFuture<>();
+        // entities other than the one the request was sent for, by their groups,
+        // guarded by the map of in-flight requests
+        private final Map<String, JoinedEntities> joinedEntitiesByGroup = new HashMap<>();
+    }
+
+    /**
+     * Entities of the same group that joined an in-flight request, to be added as owners with a single request.
+     */
+    private static class JoinedEntities {
+        private final CompletableFuture<List<SessionKey>> sessionKeys = new CompletableFuture<>();
+        private final List<String> entityNames = new ArrayList<>();
+    }
+
+    public TrustedAuthSessionKeyRequester(AuthServer server) {
+        this.server = server;
+        this.inFlightRequests = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Request a session key from the trusted Auth that generated it, sharing an in-flight request for the same
+     * session key if there is one.
+     * @param trustedAuthID Identifier of the trusted Auth that generated the session key.
+     * @param sessionKeyID Identifier of the session key.
+     * @param requestingEntityName Name of the entity requesting the session key.
+     * @param requestingEntityGroup Group of the entity requesting the session key.
+     * @return A future for the list of session keys received from the trusted Auth.
+     */
+    public CompletableFuture<List<SessionKey>> requestSessionKey(int trustedAuthID, long sessionKeyID,
+                                                                 String requestingEntityName,
+                                                                 String requestingEntityGroup)
+    {
+        String requestKey = trustedAuthID + ":" + sessionKeyID;
+        InFlightRequest[] newRequest = new InFlightRequest[1];
+        JoinedEntities[] joinedEntities = new JoinedEntities[1];
+        InFlightRequest inFlightRequest = inFlightRequests.compute(requestKey, (key, existingRequest) -> {
+            if (existingRequest == null) {
+                newRequest[0] = new InFlightRequest();
+                return newRequest[0];
+            }
+            joinedEntities[0] = existingRequest.joinedEntitiesByGroup.computeIfAbsent(requestingEntityGroup,
+                    group -> new JoinedEntities());
+            joinedEntities[0].entityNames.add(requestingEntityName);
+            return existingRequest;
+        });
+        if (inFlightRequest != newRequest[0]) {
+            logger.debug("Joined in-flight request for session key {} to Auth {}", sessionKeyID, trustedAuthID);
+            return joinedEntities[0].sessionKeys;
+        }
+        requestSessionKeys(trustedAuthID, new AuthSessionKeyReqMessage(sessionKeyID,
+                requestingEntityName, requestingEntityGroup, -1)).whenComplete((sessionKeys, failure) -> {
+            // no more entities can join the request once it is removed
+            inFlightRequests.remove(requestKey, inFlightRequest);
+            if (failure != null) {
+                inFlightRequest.sessionKeys.completeExceptionally(failure);
+                for (JoinedEntities joined: inFlightRequest.joinedEntitiesByGroup.values()) {
+                    joined.sessionKeys.completeExceptionally(failure);
+                }
+                return;
+            }
+            inFlightRequest.sessionKeys.complete(sessionKeys);
+            for (Map.Entry<String, JoinedEntities> entry: inFlightRequest.joinedEntitiesByGroup.entrySet()) {
+                addSessionKeyOwners(trustedAuthID, sessionKeyID, entry.getKey(), entry.getValue());
+            }
+        });
+        return inFlightRequest.sessionKeys;
+    }
+
+    /**
+     * Send an Auth session key request to a trusted Auth, without waiting for the response.
+     * @param trustedAuthID Identifier of the trusted Auth to which this method sends the request.
+     * @param authSessionKeyReqMessage Auth session key request on behalf of the requesting entity.
+     * @return A future for the list of session keys received from the trusted Auth.
+     */
+    public CompletableFuture<List<SessionKey>> requestSessionKeys(int trustedAuthID,
+                                                                  AuthSessionKeyReqMessage authSessionKeyReqMessage)
+    {
+        logger.info("Sending auth session key req to Auth {}", trustedAuthID);
+        CompletableFuture<List<SessionKey>> sessionKeys;
+        try {
+            sessionKeys = server.performPostRequestToTrustedAuthAsync(trustedAuthID, authSessionKeyReqMessage)
+                    .thenApply(contentResponse -> {
+                logger.debug("Received contents via https ({}, {} bytes)", contentResponse.getMediaType(),
+                        contentResponse.getContent().length);
+                AuthSessionKeyRespMessage authSessionKeyRespMessage;
+                try {
+                    authSessionKeyRespMessage = AuthSessionKeyRespMessage.fromHttpResponse(contentResponse);
+                }
+                catch (ParseException e) {
+                    throw new CompletionException(e);
+                }
+                logger.debug("Received AuthSessionKeyRespMessage: {}", authSessionKeyRespMessage);
+                return authSessionKeyRespMessage.getSessionKeyList();
+            });
+        }
+        catch (RuntimeException e) {
+            // e.g., unknown trusted Auth, failed before sending, so that entities joining the request do not wait
+            sessionKeys = new CompletableFuture<>();
+            sessionKeys.completeExceptionally(e);
+        }
+        return sessionKeys;
+    }
+
+    /**
+     * Add joined entities of a group as owners of a session key in the trusted Auth that generated it, with a single
+     * request, and then pass them the session key from its response, or the failure of the request.
+     */
+    private void addSessionKeyOwners(int trustedAuthID, long sessionKeyID, String entityGroup,
+                                     JoinedEntities joinedEntities)
+    {
+        List<String> entityNames = joinedEntities.entityNames;
+        logger.debug("Adding {} joined entities of group {} as owners of session key {} to Auth {}",
+                entityNames.size(), entityGroup, sessionKeyID, trustedAuthID);
+        AuthSessionKeyReqMessage authSessionKeyReqMessage = new AuthSessionKeyReqMessage(sessionKeyID,
+                entityNames.get(0), entityGroup, -1, entityNames.subList(1, entityNames.size()));
+        requestSessionKeys(trustedAuthID, authSessionKeyReqMessage).whenComplete((sessionKeys, failure) -> {
+            if (failure != null) {
+                logger.error("Failed to add owners of session key {} to Auth {}: {}", sessionKeyID, trustedAuthID,
+                        failure.getMessage());
+                joinedEntities.sessionKeys.completeExceptionally(failure);
+                return;
+            }
+            joinedEntities.sessionKeys.complete(sessionKeys);
+        });
+    }
+
+    private final AuthServer server;
+    private final ConcurrentHashMap<String, InFlightRequest> inFlightRequests;
+    private static final Logger logger = LoggerFactory.getLogger(TrustedAuthSessionKeyRequester.class);
+}
@@ -22,6 +22,8 @@ import org.iot.auth.db.bean.CommunicationPolicyTable;
 import org.iot.auth.db.bean.MetaDataTable;
 import org.iot.auth.db.bean.RegisteredEntityTable;
 import org.iot.auth.db.bean.TrustedAuthTable;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.db.dao.EncryptedPageAuthStore;
 import org.iot.auth.db.dao.SQLiteConnector;
 import org.iot.auth.exception.InvalidDBDataTypeException;
 import org.iot.auth.exception.UseOfExpiredKeyException;
@@ -97,25 +99,32 @@ public class GenerateExampleAuthDB {
         String databasePublicKeyPath = authDatabaseDir + "my_certs/Auth" + authID + "DatabaseCert.pem";
         String databaseEncryptionKeyPath = authDatabaseDir + "my_keystores/Auth" + authID + "Database.bin";
 
-        SQLiteConnector sqLiteConnector = new SQLiteConnector(authDatabaseDir + "auth.db", authDBProtectionMethod);
+        AuthStore authStore;
+        if (authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_PAGES) {
+            authStore = new EncryptedPageAuthStore(authDatabaseDir + "auth.db",
+                    EncryptedPageAuthStore.DEFAULT_PAGE_CACHE_SIZE);
+        }
+        else {
+            authStore = new SQLiteConnector(authDatabaseDir + "auth.db", authDBProtectionMethod);
+        }
         SymmetricKey databaseKey = new SymmetricKey(
                 SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
                 new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY)
             );
-        sqLiteConnector.initialize(databaseKey);
-        sqLiteConnector.createTablesIfNotExists();
+        authStore.initialize(databaseKey);
+        authStore.createTablesIfNotExists();
 
-        initMetaDataTable(sqLiteConnector, databasePublicKeyPath, databaseKey, databaseEncryptionKeyPath);
-        initRegisteredEntityTable(sqLiteConnector, authID,
+        initMetaDataTable(authStore, databasePublicKeyPath, databaseKey, databaseEncryptionKeyPath);
+        initRegisteredEntityTable(authStore, authID,
                 authDatabaseDir + "configs/Auth" + authID + "RegisteredEntityTable.config");
-        initCommPolicyTable(sqLiteConnector,
+        initCommPolicyTable(authStore,
                 authDatabaseDir + "configs/Auth" + authID + "CommunicationPolicyTable.config");
-        initTrustedAuthTable(sqLiteConnector, authDatabaseDir,
+        initTrustedAuthTable(authStore, authDatabaseDir,
                 authDatabaseDir + "configs/Auth" + authID + "TrustedAuthTable.config");
-        sqLiteConnector.close();
+        authStore.close();
     }
 
-    private static void initMetaDataTable(SQLiteConnector sqLiteConnector,
+    private static void initMetaDataTable(AuthStore authStore,
                                           String databasePublicKeyPath, SymmetricKey databaseKey, String databaseEncryptionKeyPath)
             throws ClassNotFoundException, SQLException, IOException
     {
@@ -124,7 +133,7 @@ public class GenerateExampleAuthDB {
         metaData = new MetaDataTable();
         metaData.setKey(MetaDataTable.key.SessionKeyCount.name());
         metaData.setValue(Long.toString(0));
-        sqLiteConnector.insertRecords(metaData);
+        authStore.insertRecords(metaData);
 
         PublicKey databasePublicKey = AuthCrypto.loadPublicKeyFromFile(databasePublicKeyPath);
         Buffer encryptedDatabaseKey = AuthCrypto.publicEncrypt(databaseKey.getSerializedKeyVal(), databasePublicKey,
@@ -179,7 +188,7 @@ public class GenerateExampleAuthDB {
         return ret;
     }
 
-    private static void initRegisteredEntityTable(SQLiteConnector sqLiteConnector, int authID,
+    private static void initRegisteredEntityTable(AuthStore authStore, int authID,
                                                   String tableConfigFilePath)
             throws ClassNotFoundException, SQLException, IOException, UseOfExpiredKeyException
     {
@@ -225,7 +234,7 @@ public class GenerateExampleAuthDB {
                             convertObjectToInteger(jsonObject.get(RegisteredEntityTable.c.BackupFromAuthID.name())));
                 }
 
-                sqLiteConnector.insertRecords(registeredEntity);
+                authStore.insertRecords(registeredEntity);
             }
         }
         catch (ParseException e) {
@@ -236,7 +245,7 @@ public class GenerateExampleAuthDB {
         }
     }
 
-    private static void initCommPolicyTable(SQLiteConnector sqLiteConnector,
+    private static void initCommPolicyTable(AuthStore authStore,
                                             String tableConfigFilePath)
             throws ClassNotFoundException, SQLException, IOException
     {
@@ -256,7 +265,7 @@ public class GenerateExampleAuthDB {
                 communicationPolicyTable.setSessionCryptoSpec((String)jsonObject.get(CommunicationPolicyTable.c.SessionCryptoSpec.name()));
                 communicationPolicyTable.setAbsValidityStr((String)jsonObject.get(CommunicationPolicyTable.c.AbsoluteValidity.name()));
                 communicationPolicyTable.setRelValidityStr((String)jsonObject.get(CommunicationPolicyTable.c.RelativeValidity.name()));
-                sqLiteConnector.insertRecords(communicationPolicyTable);
+                authStore.insertRecords(communicationPolicyTable);
             }
         }
         catch (ParseException e) {
@@ -267,7 +276,7 @@ public class GenerateExampleAuthDB {
         }
     }
 
-    private static void initTrustedAuthTable(SQLiteConnector sqLiteConnector, String authDatabaseDir, String tableConfigFilePath)
+    private static void initTrustedAuthTable(AuthStore authStore, String authDatabaseDir, String tableConfigFilePath)
             throws ClassNotFoundException, SQLException, IOException, CertificateEncodingException {
         JSONParser parser = new JSONParser();
         try {
@@ -289,7 +298,7 @@ public class GenerateExampleAuthDB {
                 trustedAuth.setEntityCertificate(
                         AuthCrypto.loadCertificateFromFile(
                                 authDatabaseDir + "/" + jsonObject.get(TrustedAuthTable.c.EntityCertificatePath.name())));
-                sqLiteConnector.insertRecords(trustedAuth);
+                authStore.insertRecords(trustedAuth);
             }
         }
         catch (ParseException e) {
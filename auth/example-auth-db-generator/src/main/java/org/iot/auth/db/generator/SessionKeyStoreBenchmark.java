@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.generator;
+
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.iot.auth.db.dao.SQLiteConnector;
+import org.iot.auth.db.dao.SessionKeyLogStore;
+import org.iot.auth.db.dao.SessionKeyStore;
+import org.iot.auth.util.DateHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+/**
+ * A program to compare session key stores, the SQLite Auth DB and the segmented session key log, by inserting,
+ * looking up, appending owners to, and reaping session keys in the same way as Auth does.
+ * @author Hokeun Kim
+ */
+public class SessionKeyStoreBenchmark {
+    private static final String PURPOSE_FORMAT = "{\"group\":\"Group%d\"}";
+    private static final int NUM_PURPOSES = 16;
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+
+        Option option = new Option("o", "output_dir", true, "Directory for the benchmark databases.");
+        option.setRequired(true);
+        options.addOption(option);
+        option = new Option("n", "num_session_keys", true, "Number of session keys (default: 100000).");
+        options.addOption(option);
+        option = new Option("b", "batch_size", true, "Number of inserts per transaction (default: 100).");
+        options.addOption(option);
+
+        CommandLineParser parser = new DefaultParser();
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine cmd;
+
+        try {
+            cmd = parser.parse(options, args);
+        } catch (org.apache.commons.cli.ParseException e) {
+            System.out.println(e.getMessage());
+            formatter.printHelp("utility-name", options);
+
+            System.exit(1);
+            return;
+        }
+        String outputDir = cmd.getOptionValue("output_dir");
+        int numSessionKeys = Integer.parseInt(cmd.getOptionValue("num_session_keys", "100000"));
+        int batchSize = Integer.parseInt(cmd.getOptionValue("batch_size", "100"));
+        new File(outputDir).mkdirs();
+
+        SymmetricKey databaseKey = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC,
+                new Date().getTime() + DateHelper.parseTimePeriod(SQLiteConnector.AUTH_DB_KEY_ABSOLUTE_VALIDITY));
+
+        File dbFile = new File(outputDir, "benchmark.db");
+        dbFile.delete();
+        SQLiteConnector sqLiteConnector = new SQLiteConnector(dbFile.getPath(),
+                AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+        sqLiteConnector.initialize(databaseKey);
+        sqLiteConnector.createTablesIfNotExists();
+        runBenchmark("SQLite", sqLiteConnector, numSessionKeys, batchSize);
+        sqLiteConnector.close();
+
+        File logDir = new File(outputDir, "benchmark_session_key_log");
+        SessionKeyLogStore sessionKeyLogStore = new SessionKeyLogStore(logDir.getPath(),
+                SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+        sessionKeyLogStore.initialize(databaseKey);
+        sessionKeyLogStore.deleteAllCachedSessionKeys();
+        runBenchmark("Log", sessionKeyLogStore, numSessionKeys, batchSize);
+        logger.info("[Log] segments: {}", sessionKeyLogStore.getSegmentCount());
+        sessionKeyLogStore.close();
+    }
+
+    private static void runBenchmark(String name, SessionKeyStore store, int numSessionKeys, int batchSize)
+            throws Exception
+    {
+        Random random = new Random(0);
+        long currentTime = new Date().getTime();
+        byte[] keyVal = new byte[32];
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < numSessionKeys; i += batchSize) {
+            store.beginTransaction();
+            for (int j = i; j < Math.min(i + batchSize, numSessionKeys); j++) {
+                CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+                cachedSessionKey.setID(100000L + j);
+                cachedSessionKey.setOwner("net1.client" + (j % 100));
+                cachedSessionKey.setMaxNumOwners(2);
+                cachedSessionKey.setPurpose(String.format(PURPOSE_FORMAT, j % NUM_PURPOSES));
+                // the first half is already expired, in the order of creation
+                cachedSessionKey.setAbsValidity(currentTime + (j < numSessionKeys / 2 ? -1 : 1) * 3600000L + j);
+                cachedSessionKey.setRelValidity(3600000L);
+                cachedSessionKey.setSessionCryptoSpec("AES-128-CBC:SHA256");
+                random.nextBytes(keyVal);
+                cachedSessionKey.setKeyVal(keyVal.clone());
+                store.insertRecords(cachedSessionKey);
+            }
+            store.commitTransaction();
+        }
+        report(name, "insert", numSessionKeys, startTime);
+
+        int numLookups = Math.min(numSessionKeys, 10000);
+        startTime = System.nanoTime();
+        for (int i = 0; i < numLookups; i++) {
+            store.selectCachedSessionKeyByID(100000L + random.nextInt(numSessionKeys));
+        }
+        report(name, "select by ID", numLookups, startTime);
+
+        int numPurposeLookups = 100;
+        startTime = System.nanoTime();
+        for (int i = 0; i < numPurposeLookups; i++) {
+            store.selectCachedSessionKeysByPurpose("net1.server", String.format(PURPOSE_FORMAT, i % NUM_PURPOSES));
+        }
+        report(name, "select by purpose", numPurposeLookups, startTime);
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < numLookups; i++) {
+            store.appendSessionKeyOwner(100000L + numSessionKeys / 2 + random.nextInt(numSessionKeys / 2),
+                    "net1.server" + i);
+        }
+        report(name, "append owner", numLookups, startTime);
+
+        startTime = System.nanoTime();
+        int reapedCount = store.dropExpiredSessionKeyPartitions(new Date().getTime());
+        store.deleteExpiredCahcedSessionKeys();
+        report(name, "reap expired", numSessionKeys / 2, startTime);
+        logger.info("[{}] session keys reaped by dropping partitions: {}", name, reapedCount);
+    }
+
+    private static void report(String name, String operation, int count, long startTime) {
+        double elapsedMs = (System.nanoTime() - startTime) / 1e6;
+        logger.info(String.format("[%s] %s: %d operations in %.1f ms (%.0f ops/s)",
+                name, operation, count, elapsedMs, count / elapsedMs * 1000));
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeyStoreBenchmark.class);
+}
@@ -62,7 +62,32 @@ public class AuthServerProperties {
 
         qps_throttling_enabled,
         qps_limit,
-        qps_calculation_bucket_size_in_sec
+        qps_calculation_bucket_size_in_sec,
+
+        // optional, default values are used when not specified
+        auth_db_write_behind_enabled,
+        auth_db_write_behind_queue_capacity,
+        auth_db_write_behind_batch_size,
+        auth_db_write_behind_flush_interval_ms,
+        cached_session_key_store_size,
+        session_key_reaper_enabled,
+        session_key_reaper_interval_ms,
+        session_key_reaper_batch_size,
+        session_key_expiry_bucket_size_ms,
+        session_key_partition_window_ms,
+        auth_db_checkpoint_interval_ms,
+        auth_db_encryption_chunk_size,
+        auth_db_page_cache_size,
+        session_key_store,
+        session_key_log_segment_size,
+        decrypted_session_key_cache_size,
+        auth_db_load_parallelism,
+        auth_db_lazy_entity_loading,
+        registry_snapshot_enabled,
+        registry_snapshot_interval_ms,
+        buffer_pool_max_buffers_per_size_class,
+        buffer_pool_leak_tracking_interval,
+        request_trace_sampling_interval
     }
 
     private Properties prop;
@@ -100,6 +125,30 @@ public class AuthServerProperties {
     private float qpsLimit;
     private int qpsCalculationBucketSizeInSec;
 
+    private boolean authDBWriteBehindEnabled;
+    private int authDBWriteBehindQueueCapacity;
+    private int authDBWriteBehindBatchSize;
+    private long authDBWriteBehindFlushIntervalMs;
+    private int cachedSessionKeyStoreSize;
+    private boolean sessionKeyReaperEnabled;
+    private long sessionKeyReaperIntervalMs;
+    private int sessionKeyReaperBatchSize;
+    private long sessionKeyExpiryBucketSizeMs;
+    private long sessionKeyPartitionWindowMs;
+    private long authDBCheckpointIntervalMs;
+    private int authDBEncryptionChunkSize;
+    private int authDBPageCacheSize;
+    private String sessionKeyStore;
+    private long sessionKeyLogSegmentSize;
+    private int decryptedSessionKeyCacheSize;
+    private int authDBLoadParallelism;
+    private boolean authDBLazyEntityLoading;
+    private boolean registrySnapshotEnabled;
+    private long registrySnapshotIntervalMs;
+    private int bufferPoolMaxBuffersPerSizeClass;
+    private int bufferPoolLeakTrackingInterval;
+    private int requestTraceSamplingInterval;
+
     public AuthServerProperties(String propertyFilePath, String basePath) throws IOException {
         _propertyFilePath = propertyFilePath;
 
@@ -192,6 +241,102 @@ public class AuthServerProperties {
 
             qpsCalculationBucketSizeInSec = Integer.parseInt(prop.getProperty(key.qps_calculation_bucket_size_in_sec.toString()));
             logger.info("key:value = {}:{}", key.qps_calculation_bucket_size_in_sec.toString(), qpsCalculationBucketSizeInSec);
+
+            authDBWriteBehindEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.auth_db_write_behind_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.auth_db_write_behind_enabled.toString(), authDBWriteBehindEnabled);
+
+            authDBWriteBehindQueueCapacity = Integer.parseInt(
+                    prop.getProperty(key.auth_db_write_behind_queue_capacity.toString(), "4096"));
+            logger.info("key:value = {}:{}", key.auth_db_write_behind_queue_capacity.toString(), authDBWriteBehindQueueCapacity);
+
+            authDBWriteBehindBatchSize = Integer.parseInt(
+                    prop.getProperty(key.auth_db_write_behind_batch_size.toString(), "128"));
+            logger.info("key:value = {}:{}", key.auth_db_write_behind_batch_size.toString(), authDBWriteBehindBatchSize);
+
+            authDBWriteBehindFlushIntervalMs = Long.parseLong(
+                    prop.getProperty(key.auth_db_write_behind_flush_interval_ms.toString(), "5"));
+            logger.info("key:value = {}:{}", key.auth_db_write_behind_flush_interval_ms.toString(), authDBWriteBehindFlushIntervalMs);
+
+            cachedSessionKeyStoreSize = Integer.parseInt(
+                    prop.getProperty(key.cached_session_key_store_size.toString(), "10000"));
+            logger.info("key:value = {}:{}", key.cached_session_key_store_size.toString(), cachedSessionKeyStoreSize);
+
+            sessionKeyReaperEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.session_key_reaper_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.session_key_reaper_enabled.toString(), sessionKeyReaperEnabled);
+
+            sessionKeyReaperIntervalMs = Long.parseLong(
+                    prop.getProperty(key.session_key_reaper_interval_ms.toString(), "1000"));
+            logger.info("key:value = {}:{}", key.session_key_reaper_interval_ms.toString(), sessionKeyReaperIntervalMs);
+
+            sessionKeyReaperBatchSize = Integer.parseInt(
+                    prop.getProperty(key.session_key_reaper_batch_size.toString(), "100"));
+            logger.info("key:value = {}:{}", key.session_key_reaper_batch_size.toString(), sessionKeyReaperBatchSize);
+
+            sessionKeyExpiryBucketSizeMs = Long.parseLong(
+                    prop.getProperty(key.session_key_expiry_bucket_size_ms.toString(), "60000"));
+            logger.info("key:value = {}:{}", key.session_key_expiry_bucket_size_ms.toString(), sessionKeyExpiryBucketSizeMs);
+
+            sessionKeyPartitionWindowMs = Long.parseLong(
+                    prop.getProperty(key.session_key_partition_window_ms.toString(), "0"));
+            logger.info("key:value = {}:{}", key.session_key_partition_window_ms.toString(), sessionKeyPartitionWindowMs);
+
+            authDBCheckpointIntervalMs = Long.parseLong(
+                    prop.getProperty(key.auth_db_checkpoint_interval_ms.toString(), "300000"));
+            logger.info("key:value = {}:{}", key.auth_db_checkpoint_interval_ms.toString(), authDBCheckpointIntervalMs);
+
+            authDBEncryptionChunkSize = Integer.parseInt(
+                    prop.getProperty(key.auth_db_encryption_chunk_size.toString(), "1048576"));
+            logger.info("key:value = {}:{}", key.auth_db_encryption_chunk_size.toString(), authDBEncryptionChunkSize);
+
+            authDBPageCacheSize = Integer.parseInt(
+                    prop.getProperty(key.auth_db_page_cache_size.toString(), "1024"));
+            logger.info("key:value = {}:{}", key.auth_db_page_cache_size.toString(), authDBPageCacheSize);
+
+            // "db" keeps cached session keys in Auth DB, "log" keeps them in a segmented append-only log
+            sessionKeyStore = prop.getProperty(key.session_key_store.toString(), "db");
+            logger.info("key:value = {}:{}", key.session_key_store.toString(), sessionKeyStore);
+
+            sessionKeyLogSegmentSize = Long.parseLong(
+                    prop.getProperty(key.session_key_log_segment_size.toString(), "16777216"));
+            logger.info("key:value = {}:{}", key.session_key_log_segment_size.toString(), sessionKeyLogSegmentSize);
+
+            decryptedSessionKeyCacheSize = Integer.parseInt(
+                    prop.getProperty(key.decrypted_session_key_cache_size.toString(), "1000"));
+            logger.info("key:value = {}:{}", key.decrypted_session_key_cache_size.toString(),
+                    decryptedSessionKeyCacheSize);
+
+            authDBLoadParallelism = Integer.parseInt(prop.getProperty(key.auth_db_load_parallelism.toString(),
+                    "" + Runtime.getRuntime().availableProcessors()));
+            logger.info("key:value = {}:{}", key.auth_db_load_parallelism.toString(), authDBLoadParallelism);
+
+            authDBLazyEntityLoading = Boolean.parseBoolean(
+                    prop.getProperty(key.auth_db_lazy_entity_loading.toString(), "false"));
+            logger.info("key:value = {}:{}", key.auth_db_lazy_entity_loading.toString(), authDBLazyEntityLoading);
+
+            registrySnapshotEnabled = Boolean.parseBoolean(
+                    prop.getProperty(key.registry_snapshot_enabled.toString(), "false"));
+            logger.info("key:value = {}:{}", key.registry_snapshot_enabled.toString(), registrySnapshotEnabled);
+
+            registrySnapshotIntervalMs = Long.parseLong(
+                    prop.getProperty(key.registry_snapshot_interval_ms.toString(), "60000"));
+            logger.info("key:value = {}:{}", key.registry_snapshot_interval_ms.toString(), registrySnapshotIntervalMs);
+
+            bufferPoolMaxBuffersPerSizeClass = Integer.parseInt(
+                    prop.getProperty(key.buffer_pool_max_buffers_per_size_class.toString(), "64"));
+            logger.info("key:value = {}:{}", key.buffer_pool_max_buffers_per_size_class.toString(),
+                    bufferPoolMaxBuffersPerSizeClass);
+
+            bufferPoolLeakTrackingInterval = Integer.parseInt(
+                    prop.getProperty(key.buffer_pool_leak_tracking_interval.toString(), "0"));
+            logger.info("key:value = {}:{}", key.buffer_pool_leak_tracking_interval.toString(),
+                    bufferPoolLeakTrackingInterval);
+
+            requestTraceSamplingInterval = Integer.parseInt(
+                    prop.getProperty(key.request_trace_sampling_interval.toString(), "100"));
+            logger.info("key:value = {}:{}", key.request_trace_sampling_interval.toString(),
+                    requestTraceSamplingInterval);
         }
         else {
             throw new FileNotFoundException("property file (" + _propertyFilePath + ") not found in the classpath");
@@ -271,4 +416,74 @@ public class AuthServerProperties {
     public int getQpsCalculationBucketSizeInSec() {
         return qpsCalculationBucketSizeInSec;
     }
+
+    public boolean getAuthDBWriteBehindEnabled() {
+        return authDBWriteBehindEnabled;
+    }
+    public int getAuthDBWriteBehindQueueCapacity() {
+        return authDBWriteBehindQueueCapacity;
+    }
+    public int getAuthDBWriteBehindBatchSize() {
+        return authDBWriteBehindBatchSize;
+    }
+    public long getAuthDBWriteBehindFlushIntervalMs() {
+        return authDBWriteBehindFlushIntervalMs;
+    }
+    public int getCachedSessionKeyStoreSize() {
+        return cachedSessionKeyStoreSize;
+    }
+    public boolean getSessionKeyReaperEnabled() {
+        return sessionKeyReaperEnabled;
+    }
+    public long getSessionKeyReaperIntervalMs() {
+        return sessionKeyReaperIntervalMs;
+    }
+    public int getSessionKeyReaperBatchSize() {
+        return sessionKeyReaperBatchSize;
+    }
+    public long getSessionKeyExpiryBucketSizeMs() {
+        return sessionKeyExpiryBucketSizeMs;
+    }
+    public long getSessionKeyPartitionWindowMs() {
+        return sessionKeyPartitionWindowMs;
+    }
+    public long getAuthDBCheckpointIntervalMs() {
+        return authDBCheckpointIntervalMs;
+    }
+    public int getAuthDBEncryptionChunkSize() {
+        return authDBEncryptionChunkSize;
+    }
+    public int getAuthDBPageCacheSize() {
+        return authDBPageCacheSize;
+    }
+    public String getSessionKeyStore() {
+        return sessionKeyStore;
+    }
+    public long getSessionKeyLogSegmentSize() {
+        return sessionKeyLogSegmentSize;
+    }
+    public int getDecryptedSessionKeyCacheSize() {
+        return decryptedSessionKeyCacheSize;
+    }
+    public int getAuthDBLoadParallelism() {
+        return authDBLoadParallelism;
+    }
+    public boolean getAuthDBLazyEntityLoading() {
+        return authDBLazyEntityLoading;
+    }
+    public boolean getRegistrySnapshotEnabled() {
+        return registrySnapshotEnabled;
+    }
+    public long getRegistrySnapshotIntervalMs() {
+        return registrySnapshotIntervalMs;
+    }
+    public int getBufferPoolMaxBuffersPerSizeClass() {
+        return bufferPoolMaxBuffersPerSizeClass;
+    }
+    public int getBufferPoolLeakTrackingInterval() {
+        return bufferPoolLeakTrackingInterval;
+    }
+    public int getRequestTraceSamplingInterval() {
+        return requestTraceSamplingInterval;
+    }
 }
@@ -114,8 +114,8 @@ public class AuthCrypto {
         Signature verifier;
         verifier = Signature.getInstance(authSignAlgorithm);
         verifier.initVerify(publicKey);
-        verifier.update(data.getRawBytes());
-        return verifier.verify(signature.getRawBytes());
+        verifier.update(data.getBackingArray(), data.getOffset(), data.length());
+        return verifier.verify(signature.getBackingArray(), signature.getOffset(), signature.length());
     }
 
     public Buffer signWithPrivateKey(Buffer input)
@@ -123,8 +123,8 @@ public class AuthCrypto {
         try {
             Signature signer = Signature.getInstance(authSignAlgorithm);
             signer.initSign(authPrivateKeyForEntities); // cf) initVerify
-            signer.update(input.getRawBytes());
-            return new Buffer(signer.sign());
+            signer.update(input.getBackingArray(), input.getOffset(), input.length());
+            return Buffer.wrap(signer.sign());
         }
         catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
             throw new IllegalArgumentException("Problem signing with private key\n" + e.getMessage());
@@ -252,7 +252,7 @@ public class AuthCrypto {
         byte[] randomBytes = new byte[size];
         random.setSeed(seed);
         random.nextBytes(randomBytes);
-        return new Buffer(randomBytes);
+        return Buffer.wrap(randomBytes);
     }
 
     public X509Certificate issueCertificate(X509Certificate certificate,
@@ -440,14 +440,11 @@ public class AuthCrypto {
             throw new IllegalArgumentException("Problem with key " + input + "\n" + e.getMessage());
         }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
         try {
-            byteArrayOutputStream.write(cipher.doFinal(input.getRawBytes()));
-        } catch (IllegalBlockSizeException | BadPaddingException | IOException e) {
+            return Buffer.wrap(cipher.doFinal(input.getBackingArray(), input.getOffset(), input.length()));
+        } catch (IllegalBlockSizeException | BadPaddingException e) {
             throw new IllegalArgumentException("Problem processing crypto " + input + "\n" + e.getMessage());
         }
-        return new Buffer(byteArrayOutputStream.toByteArray());
     }
 
     /**
@@ -482,8 +479,7 @@ public class AuthCrypto {
         IvParameterSpec ivSpec = null;
         if (operationMode == Cipher.DECRYPT_MODE) {
             int blockSize = cipher.getBlockSize();
-            byte[] initVector = cipherText.slice(0, blockSize).getRawBytes();
-            ivSpec = new IvParameterSpec(initVector);
+            ivSpec = new IvParameterSpec(cipherText.getBackingArray(), cipherText.getOffset(), blockSize);
         }
 
         try {
@@ -16,6 +16,7 @@
 package org.iot.auth.crypto;
 
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 
 import java.util.Date;
 
@@ -48,13 +49,10 @@ public class DistributionKey extends SymmetricKey {
                 "\tMacKey: " + getMacKeyVal().toHexString();
     }
     public Buffer serialize() {
-        Buffer buf = new Buffer(DIST_KEY_EXPIRATION_TIME_SIZE);
-        int curIndex = 0;
-        buf.putNumber(getRawExpirationTime(), curIndex, DIST_KEY_EXPIRATION_TIME_SIZE);
-        curIndex += DIST_KEY_EXPIRATION_TIME_SIZE;
-
-        buf.concat(getSerializedKeyVal());
-        return buf;
+        BufferWriter writer = new BufferWriter(DIST_KEY_EXPIRATION_TIME_SIZE + getSerializedKeyValLength());
+        writer.putNumber(getRawExpirationTime(), DIST_KEY_EXPIRATION_TIME_SIZE);
+        writeSerializedKeyVal(writer);
+        return writer.toBuffer();
     }
     public static DistributionKey fromBuffer(SymmetricKeyCryptoSpec cryptoSpec, Buffer buffer) {
         int curIndex = 0;
@@ -1,6 +1,7 @@
 package org.iot.auth.crypto;
 
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 import org.iot.auth.io.VariableLengthInt;
 
 /**
@@ -23,10 +24,14 @@ public class MigrationToken {
         this.currentDistributionMacKey = DistributionKey.fromBuffer(cryptoSpec, buffer.slice(curIndex));
     }
     public Buffer serialize() {
-        Buffer buffer = new VariableLengthInt(encryptedNewDistributionKey.length()).serialize();
-        buffer.concat(encryptedNewDistributionKey);
-        buffer.concat(currentDistributionMacKey.serialize());
-        return buffer;
+        Buffer distributionMacKeyBuffer = currentDistributionMacKey.serialize();
+        BufferWriter writer = new BufferWriter(
+                VariableLengthInt.getEncodedSize(encryptedNewDistributionKey.length())
+                        + encryptedNewDistributionKey.length() + distributionMacKeyBuffer.length());
+        writer.putVariableLengthInt(encryptedNewDistributionKey.length());
+        writer.putBuffer(encryptedNewDistributionKey);
+        writer.putBuffer(distributionMacKeyBuffer);
+        return writer.toBuffer();
     }
     public DistributionKey getCurrentDistributionMacKey() {
         return currentDistributionMacKey;
@@ -16,10 +16,13 @@
 package org.iot.auth.crypto;
 
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import java.util.Arrays;
+
 /**
  * A class for an instance of a session key that is used for communication between entities.
  * <pre>
@@ -83,17 +86,82 @@ public class SessionKey extends SymmetricKey {
     }
 
     public Buffer serialize() {
-        Buffer buf = new Buffer(SESSION_KEY_ID_SIZE + SESSION_KEY_EXPIRATION_TIME + SESSION_KEY_REL_VALIDITY_SIZE);
-        int curIndex = 0;
-        buf.putNumber(id, curIndex, SESSION_KEY_ID_SIZE);
-        curIndex += SESSION_KEY_ID_SIZE;
-        buf.putNumber(getRawExpirationTime(), curIndex, SESSION_KEY_EXPIRATION_TIME);
-        curIndex += SESSION_KEY_EXPIRATION_TIME;
-        buf.putNumber(relValidity, curIndex, SESSION_KEY_REL_VALIDITY_SIZE);
-        curIndex += SESSION_KEY_REL_VALIDITY_SIZE;
+        BufferWriter writer = new BufferWriter(getSerializedLength());
+        writeTo(writer);
+        return writer.toBuffer();
+    }
+
+    public int getSerializedLength() {
+        return SESSION_KEY_ID_SIZE + SESSION_KEY_EXPIRATION_TIME + SESSION_KEY_REL_VALIDITY_SIZE
+                + getSerializedKeyValLength();
+    }
 
-        buf.concat(getSerializedKeyVal());
-        return buf;
+    /**
+     * Write the serialized session key. If the serialized form is retained, it is encoded once and copied for
+     * later responses with this key, until the key expires or the serialized form is wiped.
+     * @param writer The writer to write the serialized session key.
+     */
+    public void writeTo(BufferWriter writer) {
+        byte[] serialized = getRetainedSerializedForm();
+        if (serialized == null) {
+            writeFields(writer);
+            return;
+        }
+        int start = writer.length();
+        writer.putBytes(serialized);
+        if (serializedForm != serialized) {
+            // wiped while being copied, the copied bytes may be zeroed
+            writer.truncate(start);
+            writeFields(writer);
+        }
+    }
+
+    /**
+     * Keep the serialized form of this session key once it is written, for session keys that are kept in memory
+     * and sent repeatedly, e.g., the ones in {@link org.iot.auth.db.CachedSessionKeyStore}.
+     */
+    public synchronized void retainSerializedForm() {
+        if (!serializedFormWiped) {
+            serializedFormRetained = true;
+        }
+    }
+
+    /**
+     * Zero out and drop the retained serialized form, which includes the key value, when this session key is
+     * evicted. The serialized form is not retained again afterwards.
+     */
+    public synchronized void wipeSerializedForm() {
+        serializedFormWiped = true;
+        serializedFormRetained = false;
+        byte[] serialized = serializedForm;
+        serializedForm = null;
+        if (serialized != null) {
+            Arrays.fill(serialized, (byte) 0);
+        }
+    }
+
+    private synchronized byte[] getRetainedSerializedForm() {
+        if (!serializedFormRetained) {
+            return null;
+        }
+        if (isExpired()) {
+            wipeSerializedForm();
+            return null;
+        }
+        if (serializedForm == null) {
+            byte[] serialized = new byte[getSerializedLength()];
+            writeFields(new BufferWriter(serialized));
+            serializedForm = serialized;
+        }
+        return serializedForm;
+    }
+
+    private void writeFields(BufferWriter writer) {
+        writer.ensureCapacity(getSerializedLength());
+        writer.putNumber(id, SESSION_KEY_ID_SIZE);
+        writer.putNumber(getRawExpirationTime(), SESSION_KEY_EXPIRATION_TIME);
+        writer.putNumber(relValidity, SESSION_KEY_REL_VALIDITY_SIZE);
+        writeSerializedKeyVal(writer);
     }
 
     @SuppressWarnings("unchecked")
@@ -152,4 +220,9 @@ public class SessionKey extends SymmetricKey {
     private String purpose;
 
     private long relValidity;
+
+    private boolean serializedFormRetained = false;
+    private boolean serializedFormWiped = false;
+    // volatile, as it is read without the lock for detecting wipes during copies
+    private volatile byte[] serializedForm = null;
 }
@@ -20,6 +20,7 @@ import org.iot.auth.exception.InvalidSymmetricKeyOperationException;
 import org.iot.auth.exception.MessageIntegrityException;
 import org.iot.auth.exception.UseOfExpiredKeyException;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 import org.iot.auth.util.ExceptionToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,11 +28,10 @@ import org.slf4j.LoggerFactory;
 import javax.crypto.*;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -104,33 +104,40 @@ public class SymmetricKey {
     }
 
     public static Buffer getSerializedKeyVal(Buffer rawCipherKeyVal, Buffer rawMacKeyVal) {
-        int curIndex = 0;
-        int rawCipherKeyLen = 0;
-        int rawMacKeyLen = 0;
-        if (rawCipherKeyVal != null) {
-            rawCipherKeyLen = rawCipherKeyVal.length();
+        BufferWriter writer = new BufferWriter(getSerializedKeyValLength(rawCipherKeyVal, rawMacKeyVal));
+        writeSerializedKeyVal(writer, rawCipherKeyVal, rawMacKeyVal);
+        return writer.toBuffer();
+    }
+    public static int getSerializedKeyValLength(Buffer rawCipherKeyVal, Buffer rawMacKeyVal) {
+        return 2 + (rawCipherKeyVal == null ? 0 : rawCipherKeyVal.length())
+                + (rawMacKeyVal == null ? 0 : rawMacKeyVal.length());
+    }
+    public static void writeSerializedKeyVal(BufferWriter writer, Buffer rawCipherKeyVal, Buffer rawMacKeyVal) {
+        writer.ensureCapacity(getSerializedKeyValLength(rawCipherKeyVal, rawMacKeyVal));
+        if (rawCipherKeyVal != null && rawCipherKeyVal.length() > 0) {
+            writer.putByte((byte)rawCipherKeyVal.length());
+            writer.putBuffer(rawCipherKeyVal);
         }
-        if (rawMacKeyVal != null) {
-            rawMacKeyLen = rawMacKeyVal.length();
+        else {
+            writer.putByte((byte)0);
         }
-        Buffer buffer = new Buffer(2 + rawCipherKeyLen + rawMacKeyLen);
-        buffer.putByte((byte)rawCipherKeyLen, curIndex);
-        curIndex += 1;
-        if (rawCipherKeyLen > 0) {
-            buffer.putBytes(rawCipherKeyVal.getRawBytes(), curIndex);
-            curIndex += rawCipherKeyVal.length();
+        if (rawMacKeyVal != null && rawMacKeyVal.length() > 0) {
+            writer.putByte((byte)rawMacKeyVal.length());
+            writer.putBuffer(rawMacKeyVal);
         }
-        buffer.putByte((byte)rawMacKeyLen, curIndex);
-        curIndex += 1;
-        if (rawMacKeyLen > 0) {
-            buffer.putBytes(rawMacKeyVal.getRawBytes(), curIndex);
-            curIndex += rawMacKeyVal.length();
+        else {
+            writer.putByte((byte)0);
         }
-        return buffer;
     }
     public Buffer getSerializedKeyVal() {
         return getSerializedKeyVal(cipherKeyVal, macKeyVal);
     }
+    public int getSerializedKeyValLength() {
+        return getSerializedKeyValLength(cipherKeyVal, macKeyVal);
+    }
+    public void writeSerializedKeyVal(BufferWriter writer) {
+        writeSerializedKeyVal(writer, cipherKeyVal, macKeyVal);
+    }
     public Buffer getCipherKeyVal() {
         return cipherKeyVal;
     }
@@ -199,10 +206,17 @@ public class SymmetricKey {
         if (mac == null) {
             initializeMac();
         }
-        Buffer buffer = new Buffer(input);
-        Buffer tag = new Buffer(mac.doFinal(input.getRawBytes()));
-        buffer.concat(tag);
-        return buffer;
+        // data and tag are written into a single array, instead of concatenating two buffers
+        byte[] output = new byte[input.length() + mac.getMacLength()];
+        System.arraycopy(input.getBackingArray(), input.getOffset(), output, 0, input.length());
+        try {
+            mac.update(output, 0, input.length());
+            mac.doFinal(output, input.length());
+        } catch (ShortBufferException e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while performing authenticateAttachMac!");
+        }
+        return Buffer.wrap(output);
     }
 
     public Buffer verifyMacExtractData(Buffer input) throws UseOfExpiredKeyException, InvalidMacException {
@@ -212,9 +226,10 @@ public class SymmetricKey {
         if (mac == null) {
             initializeMac();
         }
-        Buffer data = input.slice(0, input.length() - mac.getMacLength());
-        Buffer receivedTag = input.slice(input.length() - mac.getMacLength());
-        Buffer computedTag = new Buffer(mac.doFinal(data.getRawBytes()));
+        Buffer data = input.view(0, input.length() - mac.getMacLength());
+        Buffer receivedTag = input.view(input.length() - mac.getMacLength());
+        mac.update(data.getBackingArray(), data.getOffset(), data.length());
+        Buffer computedTag = Buffer.wrap(mac.doFinal());
         if (!receivedTag.equals(computedTag)) {
             throw new InvalidMacException("MAC of session key request is NOT correct!");
         }
@@ -234,20 +249,21 @@ public class SymmetricKey {
         try {
             cipher.init(Cipher.ENCRYPT_MODE, cipherKey);
 
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            // write initialization vector first
+            // initialization vector, cipher text and tag are written into a single array
             byte[] initVector = cipher.getIV();
+            int ivSize = initVector == null ? 0 : initVector.length;
+            byte[] output = new byte[ivSize + cipher.getOutputSize(input.length()) + mac.getMacLength()];
             if (initVector != null) {
-                byteArrayOutputStream.write(initVector);
+                System.arraycopy(initVector, 0, output, 0, ivSize);
             }
-            byteArrayOutputStream.write(cipher.doFinal(input.getRawBytes()));
-            Buffer buffer = new Buffer(byteArrayOutputStream.toByteArray());
-
-            Buffer tag = new Buffer(mac.doFinal(buffer.getRawBytes()));
-            buffer.concat(tag);
-            return buffer;
+            int encryptedSize = ivSize + cipher.doFinal(input.getBackingArray(), input.getOffset(), input.length(),
+                    output, ivSize);
+            mac.update(output, 0, encryptedSize);
+            mac.doFinal(output, encryptedSize);
+            int totalSize = encryptedSize + mac.getMacLength();
+            return Buffer.wrap(totalSize == output.length ? output : Arrays.copyOf(output, totalSize));
         }
-        catch (InvalidKeyException | IOException | BadPaddingException
+        catch (InvalidKeyException | ShortBufferException | BadPaddingException
                 | IllegalBlockSizeException e) {
             logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
             throw new RuntimeException("Exception occurred while performing encryptAuthenticate!");
@@ -265,16 +281,19 @@ public class SymmetricKey {
         if (cipher == null || mac == null) {
             initializeCipherMac();
         }
-        Buffer encrypted = input.slice(0, input.length() - mac.getMacLength());
-        Buffer receivedTag = input.slice(input.length() - mac.getMacLength());
-        Buffer computedTag = new Buffer(mac.doFinal(encrypted.getRawBytes()));
+        Buffer encrypted = input.view(0, input.length() - mac.getMacLength());
+        Buffer receivedTag = input.view(input.length() - mac.getMacLength());
+        mac.update(encrypted.getBackingArray(), encrypted.getOffset(), encrypted.length());
+        Buffer computedTag = Buffer.wrap(mac.doFinal());
         if (!receivedTag.equals(computedTag)) {
             throw new InvalidMacException("MAC of session key request is NOT correct!");
         }
 
         int blockSize = cipher.getBlockSize();
-        byte[] initVector = encrypted.slice(0, blockSize).getRawBytes();
-        IvParameterSpec ivSpec = new IvParameterSpec(initVector);
+        if (encrypted.length() < blockSize) {
+            throw new MessageIntegrityException("Integrity error occurred during decryptVerify!");
+        }
+        IvParameterSpec ivSpec = new IvParameterSpec(encrypted.getBackingArray(), encrypted.getOffset(), blockSize);
         try {
             cipher.init(Cipher.DECRYPT_MODE, cipherKey, ivSpec);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
@@ -283,23 +302,19 @@ public class SymmetricKey {
             throw new RuntimeException("Exception occurred while performing decryptVerify!");
         }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
         int ivSize = 0;
         if (cipher.getIV() != null) {
             ivSize = cipher.getIV().length;
         }
 
         try {
-            byteArrayOutputStream.write(cipher.doFinal(encrypted.getRawBytes(), ivSize, encrypted.length() - ivSize));
-        } catch (IOException e) {
-            logger.error("IOException {}", ExceptionToString.convertExceptionToStackTrace(e));
-            throw new RuntimeException("Exception occurred while performing decryptVerify!");
+            return Buffer.wrap(cipher.doFinal(encrypted.getBackingArray(), encrypted.getOffset() + ivSize,
+                    encrypted.length() - ivSize));
         } catch (IllegalBlockSizeException | BadPaddingException e) {
             logger.error("IllegalBlockSizeException | BadPaddingException {}",
                     ExceptionToString.convertExceptionToStackTrace(e));
             throw new MessageIntegrityException("Integrity error occurred during decryptVerify!");
         }
-        return new Buffer(byteArrayOutputStream.toByteArray());
     }
 
     public SymmetricKeyCryptoSpec getCryptoSpec() {
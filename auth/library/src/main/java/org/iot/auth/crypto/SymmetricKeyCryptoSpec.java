@@ -66,6 +66,41 @@ public class SymmetricKeyCryptoSpec extends CryptoSpec {
         return new SymmetricKeyCryptoSpec(retCipher.getCryptoAlgo(), retCipher.getKeySize(), retHash.getCryptoAlgo());
     }
 
+    /**
+     * Constructs a crypto spec from the numeric IDs used by the binary encoding of protocol v2.
+     * @param cipherID Index of the cipher in CIPHER_NAMES_BY_ID.
+     * @param macID Index of the MAC in MAC_NAMES_BY_ID.
+     * @return The crypto spec.
+     */
+    public static SymmetricKeyCryptoSpec fromIDs(int cipherID, int macID) {
+        if (cipherID < 0 || cipherID >= CIPHER_NAMES_BY_ID.length) {
+            throw new IllegalArgumentException("No such cipher ID: " + cipherID);
+        }
+        if (macID < 0 || macID >= MAC_NAMES_BY_ID.length) {
+            throw new IllegalArgumentException("No such MAC ID: " + macID);
+        }
+        return fromSpecString(CIPHER_NAMES_BY_ID[cipherID] + ":" + MAC_NAMES_BY_ID[macID]);
+    }
+
+    public int getCipherID() {
+        if (cipherID < 0) {
+            cipherID = indexOf(CIPHER_NAMES_BY_ID, toJavaScriptSpecString(cipherAlgorithm, cipherKeySize));
+        }
+        return cipherID;
+    }
+    public int getMacID() {
+        if (macID < 0) {
+            macID = indexOf(MAC_NAMES_BY_ID, toJavaScriptSpecString(macAlgorithm, -1));
+        }
+        return macID;
+    }
+    public static int getNumCipherIDs() {
+        return CIPHER_NAMES_BY_ID.length;
+    }
+    public static int getNumMacIDs() {
+        return MAC_NAMES_BY_ID.length;
+    }
+
     public String toSpecString() {
         return toJavaScriptSpecString(cipherAlgorithm, cipherKeySize) + ":" + toJavaScriptSpecString(macAlgorithm, -1);
     }
@@ -98,6 +133,22 @@ public class SymmetricKeyCryptoSpec extends CryptoSpec {
     private int cipherKeySize;
     private String macAlgorithm;
     private int macKeySize;
+    // computed on first use, -1 until then
+    private int cipherID = -1;
+    private int macID = -1;
+
+    /** Numeric IDs for protocol v2, the index is the ID; these must not be reordered. */
+    private static final String[] CIPHER_NAMES_BY_ID = {"", "AES-128-CBC", "AES-192-CBC", "AES-256-CBC"};
+    private static final String[] MAC_NAMES_BY_ID = {"", "SHA256"};
+
+    private static int indexOf(String[] namesByID, String name) {
+        for (int i = 0; i < namesByID.length; i++) {
+            if (namesByID[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No numeric ID for crypto algorithm: " + name);
+    }
 
     private static String toJavaScriptSpecString(String cryptoAlgo, int keySize) {
         if (cryptoAlgo.equals("")) {
@@ -19,19 +19,33 @@ import org.iot.auth.crypto.*;
 import org.iot.auth.config.AuthServerProperties;
 import org.iot.auth.config.constants.C;
 import org.iot.auth.db.bean.*;
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.db.dao.CompositeAuthStore;
+import org.iot.auth.db.dao.EncryptedPageAuthStore;
+import org.iot.auth.db.dao.RegistrySnapshot;
 import org.iot.auth.db.dao.SQLiteConnector;
+import org.iot.auth.db.dao.SessionKeyLogStore;
 import org.iot.auth.io.Buffer;
 import org.iot.auth.util.ExceptionToString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.*;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A main class for Auth database, which include tables for registered entities, communication policies, trusted Auths,
@@ -42,13 +56,18 @@ public class AuthDB {
     private AuthServerProperties prop = C.PROPERTIES;
     private static final Logger logger = LoggerFactory.getLogger(AuthDB.class);
     private static final String AUTH_DB_FILE_NAME = "auth.db";
+    private static final String SESSION_KEY_LOG_DIR_NAME = "session_key_log";
+    private static final String SESSION_KEY_STORE_LOG = "log";
+    private static final String REGISTRY_SNAPSHOT_FILE_NAME = "registry.snapshot";
+    private static final int DEFAULT_CACHED_SESSION_KEY_STORE_SIZE = 10000;
+    private static final long DEFAULT_SESSION_KEY_EXPIRY_BUCKET_SIZE_MS = 60000;
 
     public AuthDB(String authDatabaseDir)
     {
         this.authDatabaseDir = authDatabaseDir;
 
-        this.registeredEntityMap = new HashMap<>();
-        this.communicationPolicyList = new ArrayList<>();
+        this.registeredEntityRegistry = new RegisteredEntityRegistry();
+        this.communicationPolicyIndex = new AtomicReference<>(CommunicationPolicyIndex.EMPTY);
         this.trustedAuthMap = new HashMap<>();
     }
 
@@ -71,17 +90,307 @@ public class AuthDB {
             throws IOException, CertificateException, NoSuchAlgorithmException, KeyStoreException, SQLException,
             ClassNotFoundException, UnrecoverableEntryException
     {
-        sqLiteConnector = new SQLiteConnector(this.authDatabaseDir + "/" + AUTH_DB_FILE_NAME, authDBProtectionMethod);
-        sqLiteConnector.initialize(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath);
-        //sqLiteConnector.DEBUG = true;
-        loadRegEntityDB();
-        loadCommPolicyDB();
-        loadTrustedAuthDB(authKeyStorePassword);
+        long phaseStartTime = System.nanoTime();
+        authStore = createAuthStore(this.authDatabaseDir + "/" + AUTH_DB_FILE_NAME, authDBProtectionMethod);
+        SymmetricKey databaseKey = SQLiteConnector.loadDatabaseKey(databaseKeystorePath, authKeyStorePassword,
+                databaseEncryptionKeyPath);
+        authStore.initialize(databaseKey);
+        phaseStartTime = logStartupPhase("open Auth DB", phaseStartTime);
+        RegistrySnapshot registrySnapshot = null;
+        if (prop != null && prop.getRegistrySnapshotEnabled()) {
+            registrySnapshotPath = Paths.get(authDatabaseDir, REGISTRY_SNAPSHOT_FILE_NAME);
+            registrySnapshotKey = authDBProtectionMethod == AuthDBProtectionMethod.DEBUG ? null : databaseKey;
+            loadRegistrySequence();
+            registrySnapshot = readRegistrySnapshot();
+            phaseStartTime = logStartupPhase("read registry snapshot", phaseStartTime);
+        }
+        if (registrySnapshot != null) {
+            final RegistrySnapshot snapshot = registrySnapshot;
+            loadDistributionKeys(snapshot.getRegisteredEntities());
+            registeredEntityRegistry.rebuild(registeredEntityMap ->
+                    buildRegisteredEntities(snapshot.getRegisteredEntities(), registeredEntityMap));
+            loadCommunicationPolicies(snapshot.getCommunicationPolicies());
+            loadTrustedAuths(snapshot.getTrustedAuths(), authKeyStorePassword);
+            phaseStartTime = logStartupPhase("load registry from snapshot", phaseStartTime);
+        }
+        else {
+            // the first snapshot is written from the database as loaded
+            registryChangedSinceSnapshot = true;
+            registeredEntityRegistry.rebuild(this::loadRegEntityDB);
+            phaseStartTime = logStartupPhase("load registered entities", phaseStartTime);
+            loadCommPolicyDB();
+            phaseStartTime = logStartupPhase("load communication policies", phaseStartTime);
+            loadTrustedAuths(authStore.selectAllTrustedAuth(), authKeyStorePassword);
+            phaseStartTime = logStartupPhase("load trusted Auths", phaseStartTime);
+        }
+        int cachedSessionKeyStoreSize = prop != null ? prop.getCachedSessionKeyStoreSize()
+                : DEFAULT_CACHED_SESSION_KEY_STORE_SIZE;
+        if (cachedSessionKeyStoreSize > 0) {
+            cachedSessionKeyStore = new CachedSessionKeyStore(cachedSessionKeyStoreSize);
+            loadCachedSessionKeyStore();
+            phaseStartTime = logStartupPhase("load cached session key store", phaseStartTime);
+        }
+        sessionKeyExpiryIndex = new SessionKeyExpiryIndex(prop != null ? prop.getSessionKeyExpiryBucketSizeMs()
+                : DEFAULT_SESSION_KEY_EXPIRY_BUCKET_SIZE_MS);
+        loadSessionKeyExpiryIndex();
+        logStartupPhase("load session key expiry index", phaseStartTime);
+        if (prop != null && prop.getAuthDBWriteBehindEnabled()) {
+            writeBehindQueue = new AuthDBWriteBehindQueue(authStore, prop.getAuthDBWriteBehindQueueCapacity(),
+                    prop.getAuthDBWriteBehindBatchSize(), prop.getAuthDBWriteBehindFlushIntervalMs());
+            writeBehindQueue.start();
+        }
+        if (prop != null && prop.getAuthDBCheckpointIntervalMs() > 0
+                && (authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB
+                || authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_PAGES
+                || prop.getSessionKeyStore().equals(SESSION_KEY_STORE_LOG))) {
+            startCheckpointScheduler(prop.getAuthDBCheckpointIntervalMs());
+        }
+        if (registrySnapshotPath != null && prop.getRegistrySnapshotIntervalMs() > 0) {
+            startRegistrySnapshotScheduler(prop.getRegistrySnapshotIntervalMs());
+        }
+    }
+
+    private static long logStartupPhase(String phase, long phaseStartTime) {
+        long phaseEndTime = System.nanoTime();
+        logger.info("Startup phase '{}' took {} ms", phase,
+                TimeUnit.NANOSECONDS.toMillis(phaseEndTime - phaseStartTime));
+        return phaseEndTime;
+    }
+
+    private AuthStore createAuthStore(String dbPath, AuthDBProtectionMethod authDBProtectionMethod) {
+        AuthStore authStore;
+        if (authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_PAGES) {
+            authStore = new EncryptedPageAuthStore(dbPath, prop != null ? prop.getAuthDBPageCacheSize()
+                    : EncryptedPageAuthStore.DEFAULT_PAGE_CACHE_SIZE);
+        }
+        else {
+            SQLiteConnector sqLiteConnector = new SQLiteConnector(dbPath, authDBProtectionMethod);
+            //sqLiteConnector.DEBUG = true;
+            if (prop != null) {
+                sqLiteConnector.setSessionKeyPartitionWindowMs(prop.getSessionKeyPartitionWindowMs());
+                sqLiteConnector.setEncryptionChunkSize(prop.getAuthDBEncryptionChunkSize());
+                sqLiteConnector.setDecryptedSessionKeyCacheSize(prop.getDecryptedSessionKeyCacheSize());
+            }
+            authStore = sqLiteConnector;
+        }
+        if (prop != null && prop.getSessionKeyStore().equals(SESSION_KEY_STORE_LOG)) {
+            SessionKeyLogStore sessionKeyLogStore = new SessionKeyLogStore(
+                    authDatabaseDir + "/" + SESSION_KEY_LOG_DIR_NAME, prop.getSessionKeyLogSegmentSize(),
+                    authDBProtectionMethod);
+            sessionKeyLogStore.setDecryptedSessionKeyCacheSize(prop.getDecryptedSessionKeyCacheSize());
+            return new CompositeAuthStore(authStore, sessionKeyLogStore);
+        }
+        return authStore;
+    }
+
+    /**
+     * Periodically write the in-memory database to the encrypted database file, so that changes since startup
+     * are not all lost on a crash.
+     * @param intervalMs Interval between checkpoints in milliseconds.
+     */
+    private void startCheckpointScheduler(long intervalMs) {
+        checkpointScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "AuthDBCheckpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                writeCheckpoint();
+            }
+            catch (SQLException | IOException | RuntimeException e) {
+                // an exception would cancel the scheduled task, so only log it and retry in the next period
+                logger.error("Failed to write Auth DB checkpoint {}", ExceptionToString.convertExceptionToStackTrace(e));
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Writing encrypted Auth DB checkpoints every {} ms", intervalMs);
+    }
+
+    private void startRegistrySnapshotScheduler(long intervalMs) {
+        registrySnapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RegistrySnapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        registrySnapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                writeRegistrySnapshot();
+            }
+            catch (SQLException | IOException | CertificateEncodingException | RuntimeException e) {
+                // an exception would cancel the scheduled task, so only log it and retry in the next period
+                logger.error("Failed to write registry snapshot {}", ExceptionToString.convertExceptionToStackTrace(e));
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Writing registry snapshots every {} ms", intervalMs);
+    }
+
+    /**
+     * Load the ID and the registry sequence number of the database from the meta data, creating them
+     * if the database does not have them yet.
+     */
+    private void loadRegistrySequence() throws SQLException, ClassNotFoundException {
+        String databaseIDValue = authStore.selectMetaDataValue(MetaDataTable.key.RegistryDatabaseID.name());
+        if (databaseIDValue == null) {
+            databaseIDValue = Long.toString(new SecureRandom().nextLong());
+            insertMetaData(MetaDataTable.key.RegistryDatabaseID.name(), databaseIDValue);
+        }
+        databaseID = Long.parseLong(databaseIDValue);
+        String sequenceValue = authStore.selectMetaDataValue(MetaDataTable.key.RegistrySequence.name());
+        if (sequenceValue == null) {
+            sequenceValue = "0";
+            insertMetaData(MetaDataTable.key.RegistrySequence.name(), sequenceValue);
+        }
+        registrySequence = Long.parseLong(sequenceValue);
+    }
+
+    private void insertMetaData(String key, String value) throws SQLException, ClassNotFoundException {
+        MetaDataTable metaData = new MetaDataTable();
+        metaData.setKey(key);
+        metaData.setValue(value);
+        authStore.insertRecords(metaData);
+    }
+
+    private RegistrySnapshot readRegistrySnapshot() {
+        RegistrySnapshot registrySnapshot;
+        try {
+            registrySnapshot = RegistrySnapshot.read(registrySnapshotPath, registrySnapshotKey);
+        }
+        catch (IOException | SQLException | RuntimeException e) {
+            logger.warn("Ignoring unreadable registry snapshot {}", ExceptionToString.convertExceptionToStackTrace(e));
+            return null;
+        }
+        if (registrySnapshot == null) {
+            logger.info("No registry snapshot found at {}", registrySnapshotPath);
+            return null;
+        }
+        if (registrySnapshot.getDatabaseID() != databaseID || registrySnapshot.getSequence() != registrySequence) {
+            logger.info("Ignoring stale registry snapshot (database ID: {}, sequence: {}), " +
+                    "the database is at (database ID: {}, sequence: {})", registrySnapshot.getDatabaseID(),
+                    registrySnapshot.getSequence(), databaseID, registrySequence);
+            return null;
+        }
+        return registrySnapshot;
+    }
+
+    /**
+     * Set the distribution keys of registered entities loaded from a registry snapshot to those in the database,
+     * as distribution keys change without changing the registry sequence number and are not in the snapshot.
+     */
+    private void loadDistributionKeys(List<RegisteredEntityTable> regEntityTables)
+            throws SQLException, ClassNotFoundException
+    {
+        Map<String, RegisteredEntityTable> distKeyTables = new HashMap<>();
+        for (RegisteredEntityTable distKeyTable: authStore.selectAllRegEntityDistKeys()) {
+            distKeyTables.put(distKeyTable.getName(), distKeyTable);
+        }
+        for (RegisteredEntityTable regEntityTable: regEntityTables) {
+            regEntityTable.setDistKey(distKeyTables.get(regEntityTable.getName()));
+        }
+    }
+
+    /**
+     * Increase the registry sequence number in the database before the first change of registered entities,
+     * communication policies or trusted Auths after a snapshot, so that the snapshot is not used on restart once
+     * the database has changed. Called while holding the read lock of the registry snapshot lock.
+     */
+    private void markRegistryChanged() throws SQLException, ClassNotFoundException {
+        if (registrySnapshotPath == null || registryChangedSinceSnapshot) {
+            return;
+        }
+        synchronized (registrySequenceLock) {
+            if (registryChangedSinceSnapshot) {
+                return;
+            }
+            // written directly, not through the write-behind queue, so that it precedes the change itself
+            authStore.updateMetaData(MetaDataTable.key.RegistrySequence.name(), Long.toString(registrySequence + 1));
+            registrySequence++;
+            registryChangedSinceSnapshot = true;
+        }
+    }
+
+    /**
+     * Write a snapshot of registered entities, communication policies and trusted Auths as they are in the
+     * database, if they have changed since the last snapshot. Distribution keys are left out of the snapshot,
+     * as they are updated without changing the registry sequence number.
+     * @throws SQLException When an error occurs in database
+     * @throws IOException When an error occurs in writing the snapshot file
+     * @throws CertificateEncodingException When a certificate of a trusted Auth cannot be encoded
+     */
+    public void writeRegistrySnapshot() throws SQLException, IOException, CertificateEncodingException {
+        if (registrySnapshotPath == null) {
+            return;
+        }
+        long sequence;
+        // changes before this point are in the database or the write-behind queue, and later changes increase
+        // the sequence number again
+        registrySnapshotLock.writeLock().lock();
+        try {
+            if (!registryChangedSinceSnapshot) {
+                return;
+            }
+            registryChangedSinceSnapshot = false;
+            sequence = registrySequence;
+        }
+        finally {
+            registrySnapshotLock.writeLock().unlock();
+        }
+        boolean written = false;
+        try {
+            long startTime = System.currentTimeMillis();
+            // the database file must have every change in the snapshot, also when the entire database is encrypted
+            writeCheckpoint();
+            List<RegisteredEntityTable> regEntityTables = authStore.selectAllRegEntities(authDatabaseDir);
+            for (RegisteredEntityTable regEntityTable: regEntityTables) {
+                regEntityTable.setDistKey(null);
+            }
+            RegistrySnapshot registrySnapshot = new RegistrySnapshot(databaseID, sequence, regEntityTables,
+                    authStore.selectAllPolicies(), authStore.selectAllTrustedAuth());
+            registrySnapshot.write(registrySnapshotPath, registrySnapshotKey);
+            written = true;
+            logger.info("Wrote registry snapshot (sequence: {}) in {} ms", sequence,
+                    System.currentTimeMillis() - startTime);
+        }
+        catch (ClassNotFoundException e) {
+            logger.error("ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while writing registry snapshot!");
+        }
+        finally {
+            if (!written) {
+                registryChangedSinceSnapshot = true;
+            }
+        }
+    }
+
+    /**
+     * Write queued writes and the database to the encrypted database file, when the entire database is encrypted.
+     * @throws SQLException When an error occurs in database
+     * @throws IOException When an error occurs in writing the database file
+     */
+    public void writeCheckpoint() throws SQLException, IOException {
+        flushPendingWrites();
+        authStore.writeEncryptedCheckpoint();
     }
 
     public void close() throws SQLException, IOException, InterruptedException {
         logger.info("Closing Auth DB...");
-        sqLiteConnector.close();
+        if (checkpointScheduler != null) {
+            checkpointScheduler.shutdown();
+            checkpointScheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (registrySnapshotScheduler != null) {
+            registrySnapshotScheduler.shutdown();
+            registrySnapshotScheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        try {
+            writeRegistrySnapshot();
+        }
+        catch (CertificateEncodingException e) {
+            logger.error("CertificateEncodingException {}", ExceptionToString.convertExceptionToStackTrace(e));
+        }
+        if (writeBehindQueue != null) {
+            writeBehindQueue.close();
+        }
+        authStore.close();
     }
 
     /**
@@ -90,7 +399,7 @@ public class AuthDB {
      * @return The registered entity, if found, null, otherwise.
      */
     public RegisteredEntity getRegisteredEntity(String entityName) {
-        return registeredEntityMap.get(entityName);
+        return registeredEntityRegistry.get(entityName);
     }
 
     /**
@@ -98,34 +407,40 @@ public class AuthDB {
      * @return A list of registered entities.
      */
     public List<RegisteredEntity> getAllRegisteredEntitiies() {
-        return new ArrayList<>(registeredEntityMap.values());
+        return registeredEntityRegistry.getAll();
+    }
+
+    private static RegisteredEntityTable toRegisteredEntityTable(RegisteredEntity registeredEntity) {
+        Buffer serializedDistributionKeyValue = null;
+        long distKeyExpirationTime = -1;
+        // save keys first
+        if (registeredEntity.getUsePermanentDistKey()) {
+            // save distribution key as binary value
+            serializedDistributionKeyValue = registeredEntity.getDistributionKey().getSerializedKeyVal();
+            distKeyExpirationTime = registeredEntity.getDistributionKey().getExpirationTime().getTime();
+        }
+        return registeredEntity.toRegisteredEntityTable(serializedDistributionKeyValue, distKeyExpirationTime);
     }
 
     private void insertOrReplaceRegisteredEntitiesHelper(boolean updateIfExists, List<RegisteredEntity> registeredEntities)
             throws IOException, SQLException, ClassNotFoundException
     {
-        LinkedList<RegisteredEntityTable> tableElements = new LinkedList<>();
-        for (RegisteredEntity registeredEntity: registeredEntities) {
-            Buffer serializedDistributionKeyValue = null;
-            String publicKeyFilePath = null;
-            long distKeyExpirationTime = -1;
-            // save keys first
-            if (registeredEntity.getUsePermanentDistKey()) {
-                // save distribution key as binary value
-                serializedDistributionKeyValue = registeredEntity.getDistributionKey().getSerializedKeyVal();
-                distKeyExpirationTime = registeredEntity.getDistributionKey().getExpirationTime().getTime();
-            }
-            RegisteredEntityTable tableElement = registeredEntity.toRegisteredEntityTable(
-                    serializedDistributionKeyValue, distKeyExpirationTime);
-
-            tableElements.push(tableElement);
-            if (updateIfExists) {
-                sqLiteConnector.insertRecordsOrUpdateIfExists(tableElement);
-            }
-            else {
-                sqLiteConnector.insertRecords(tableElement);
+        registrySnapshotLock.readLock().lock();
+        try {
+            markRegistryChanged();
+            for (RegisteredEntity registeredEntity: registeredEntities) {
+                RegisteredEntityTable tableElement = toRegisteredEntityTable(registeredEntity);
+                if (updateIfExists) {
+                    authStore.insertRecordsOrUpdateIfExists(tableElement);
+                }
+                else {
+                    authStore.insertRecords(tableElement);
+                }
             }
         }
+        finally {
+            registrySnapshotLock.readLock().unlock();
+        }
     }
 
     public void insertRegisteredEntities(List<RegisteredEntity> registeredEntities) throws IOException,
@@ -138,16 +453,40 @@ public class AuthDB {
         insertOrReplaceRegisteredEntitiesHelper(true, registeredEntities);
     }
 
+    /**
+     * Insert the given registered entities, or update them if they exist, in a single database transaction and
+     * merge only these entities into the in-memory registry, without reloading all registered entities.
+     * @param registeredEntities Registered entities to be inserted or updated, e.g., backed up from another Auth.
+     * @throws SQLException When an error occurs in database, in which case neither database nor registry changes.
+     */
+    public void mergeRegisteredEntities(List<RegisteredEntity> registeredEntities) throws SQLException {
+        // queued distribution key updates should not overwrite the merged entities later
+        flushPendingWrites();
+        List<RegisteredEntityTable> tableElements = new ArrayList<>(registeredEntities.size());
+        for (RegisteredEntity registeredEntity: registeredEntities) {
+            tableElements.add(toRegisteredEntityTable(registeredEntity));
+        }
+        long startTime = System.currentTimeMillis();
+        int count;
+        registrySnapshotLock.readLock().lock();
+        try {
+            markRegistryChanged();
+            count = authStore.insertRecordsOrUpdateIfExists(tableElements);
+            registeredEntityRegistry.merge(registeredEntities, Collections.emptyList());
+        }
+        catch (ClassNotFoundException e) {
+            logger.error("ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while merging registered entities!");
+        }
+        finally {
+            registrySnapshotLock.readLock().unlock();
+        }
+        logger.info("Merged {} registered entities in {} ms.", count, System.currentTimeMillis() - startTime);
+    }
+
 
     public CommunicationPolicy getCommunicationPolicy(String reqGroup, CommunicationTargetType targetType, String target) {
-        for (CommunicationPolicy communicationPolicy : communicationPolicyList) {
-            if (communicationPolicy.getReqGroup().equals(reqGroup) &&
-                    communicationPolicy.getTargetType() == targetType &&
-                    communicationPolicy.getTarget().equals(target)) {
-                return communicationPolicy;
-            }
-        }
-        return null;
+        return communicationPolicyIndex.get().get(reqGroup, targetType, target);
     }
 
     /**
@@ -160,11 +499,17 @@ public class AuthDB {
     public void updateDistributionKey(String entityName, DistributionKey distributionKey)
             throws SQLException, ClassNotFoundException
     {
-        RegisteredEntity registeredEntity = getRegisteredEntity(entityName);
-        registeredEntity.setDistributionKey(distributionKey);
-        registeredEntityMap.put(registeredEntity.getName(), registeredEntity);
-
-        sqLiteConnector.updateRegEntityDistKey(entityName, distributionKey.getRawExpirationTime(),
+        // distribution keys are not in the registry snapshot, so the snapshot stays valid
+        registeredEntityRegistry.updateDistributionKey(entityName, distributionKey);
+        if (writeBehindQueue != null) {
+            // the entity already has the new distribution key, so it is kept in memory even if it cannot be
+            // stored, until the entity gets another one
+            writeBehindQueue.enqueue(store -> store.updateRegEntityDistKey(entityName,
+                    distributionKey.getRawExpirationTime(), distributionKey.getSerializedKeyVal()),
+                    e -> logger.error("Distribution key of {} is not stored in the database.", entityName));
+            return;
+        }
+        authStore.updateRegEntityDistKey(entityName, distributionKey.getRawExpirationTime(),
                 distributionKey.getSerializedKeyVal());
     }
 
@@ -188,8 +533,7 @@ public class AuthDB {
     {
         List<SessionKey> sessionKeyList = new LinkedList<>();
 
-        String value = sqLiteConnector.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name());
-        long sessionKeyCount = Long.parseLong(value);
+        long sessionKeyCount = allocateSessionKeyIndices(authID, numKeys);
 
         //String purpose = communicationPolicy.getTargetType().name() + ":" + communicationPolicy.getTarget();
         for (long i = 0; i < numKeys; i++) {
@@ -202,28 +546,107 @@ public class AuthDB {
                     communicationPolicy.getSessionCryptoSpec());
             sessionKeyList.add(sessionKey);
         }
-        sessionKeyCount += numKeys;
-
-        sqLiteConnector.updateMetaData(MetaDataTable.key.SessionKeyCount.name(), Long.toString(sessionKeyCount));
 
         for (SessionKey sessionKey: sessionKeyList) {
+            if (cachedSessionKeyStore != null) {
+                cachedSessionKeyStore.put(sessionKey);
+            }
+            // session keys in partitions are retired by dropping their partitions
+            if (!authStore.isSessionKeyPartitioningEnabled()) {
+                sessionKeyExpiryIndex.add(sessionKey.getID(), sessionKey.getExpirationTime().getTime());
+            }
             CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.fromSessionKey(sessionKey);
-            sqLiteConnector.insertRecords(cachedSessionKey);
+            if (writeBehindQueue != null) {
+                // a session key that cannot be stored is no longer served from memory, as in the database
+                writeBehindQueue.enqueue(store -> store.insertRecords(cachedSessionKey), e -> {
+                    if (cachedSessionKeyStore != null) {
+                        cachedSessionKeyStore.remove(cachedSessionKey.getID());
+                    }
+                });
+            }
+            else {
+                authStore.insertRecords(cachedSessionKey);
+            }
         }
 
         return sessionKeyList;
     }
 
+    /**
+     * Reserve indices for new session keys and update the session key count in the meta data.
+     * @param authID ID of the Auth who generates the session keys
+     * @param numKeys Number of session key indices to be reserved
+     * @return The first reserved index
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
+    private synchronized long allocateSessionKeyIndices(int authID, int numKeys)
+            throws SQLException, ClassNotFoundException
+    {
+        if (sessionKeyCount < 0) {
+            sessionKeyCount = Long.parseLong(authStore.selectMetaDataValue(MetaDataTable.key.SessionKeyCount.name()));
+            // the count can lag behind session keys stored separately, e.g., in the session key log after a crash
+            // with the rest of the database persisted only at checkpoints, so that IDs of stored keys are not reused
+            long maxSessionKeyID = authStore.selectMaxCachedSessionKeyID(encodeSessionKeyID(authID, 0),
+                    encodeSessionKeyID(authID + 1, 0) - 1);
+            if (maxSessionKeyID >= 0) {
+                sessionKeyCount = Math.max(sessionKeyCount, maxSessionKeyID - encodeSessionKeyID(authID, 0) + 1);
+            }
+        }
+        long firstIndex = sessionKeyCount;
+        sessionKeyCount += numKeys;
+        final String newSessionKeyCount = Long.toString(sessionKeyCount);
+        // enqueued while holding the lock, so that the counter updates are committed in order; a failed update
+        // is covered by the next one, or by the maximum stored session key ID when the count is loaded
+        if (writeBehindQueue != null) {
+            writeBehindQueue.enqueue(store ->
+                    store.updateMetaData(MetaDataTable.key.SessionKeyCount.name(), newSessionKeyCount));
+        }
+        else {
+            authStore.updateMetaData(MetaDataTable.key.SessionKeyCount.name(), newSessionKeyCount);
+        }
+        return firstIndex;
+    }
+
+    /**
+     * Wait until queued writes are committed, for operations reading or deleting session keys
+     * that may still be in the write-behind queue.
+     */
+    private void flushPendingWrites() {
+        if (writeBehindQueue != null) {
+            writeBehindQueue.flush();
+        }
+    }
+
     public SessionKey getSessionKeyByID(long keyID) throws SQLException, ClassNotFoundException {
         logger.debug("keyID: {}", keyID);
-        CachedSessionKeyTable cachedSessionKey = sqLiteConnector.selectCachedSessionKeyByID(keyID);
-        return cachedSessionKey.toSessionKey();
+        if (cachedSessionKeyStore != null) {
+            SessionKey sessionKey = cachedSessionKeyStore.get(keyID);
+            if (sessionKey != null) {
+                return sessionKey;
+            }
+        }
+        flushPendingWrites();
+        CachedSessionKeyTable cachedSessionKey = authStore.selectCachedSessionKeyByID(keyID);
+        SessionKey sessionKey = cachedSessionKey.toSessionKey();
+        if (cachedSessionKeyStore != null && !sessionKey.isExpired()) {
+            cachedSessionKeyStore.put(sessionKey);
+        }
+        return sessionKey;
     }
 
     public List<SessionKey> getSessionKeysByPurpose(String requestingEntityName, SessionKeyPurpose sessionKeyPurpose)
             throws SQLException, ClassNotFoundException {
+        if (cachedSessionKeyStore != null) {
+            List<SessionKey> result =
+                    cachedSessionKeyStore.getByPurpose(requestingEntityName, sessionKeyPurpose.toString());
+            if (result != null) {
+                return result;
+            }
+        }
+        flushPendingWrites();
         List<CachedSessionKeyTable> cachedSessionKeyTableList =
-                sqLiteConnector.selectCachedSessionKeysByPurpose(requestingEntityName, sessionKeyPurpose.toString());
+                authStore.selectCachedSessionKeysByPurpose(requestingEntityName, sessionKeyPurpose.toString());
         List<SessionKey> result = new ArrayList<>(cachedSessionKeyTableList.size());
         for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyTableList) {
             result.add(cachedSessionKey.toSessionKey());
@@ -232,15 +655,87 @@ public class AuthDB {
     }
 
     public boolean addSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException {
-        return sqLiteConnector.appendSessionKeyOwner(keyID, newOwner);
+        if (writeBehindQueue != null) {
+            // the in-memory store has the owners of its session keys including queued ones, so that the maximum
+            // number of owners is checked before the owner is queued
+            if (cachedSessionKeyStore != null) {
+                if (cachedSessionKeyStore.addOwner(keyID, newOwner)) {
+                    writeBehindQueue.enqueue(store -> {
+                        if (!store.appendSessionKeyOwner(keyID, newOwner)) {
+                            throw new SQLException("Failed to append owner " + newOwner + " to session key " + keyID);
+                        }
+                    }, e -> cachedSessionKeyStore.removeOwner(keyID, newOwner));
+                    return true;
+                }
+                if (cachedSessionKeyStore.contains(keyID)) {
+                    return false;
+                }
+            }
+            // otherwise, checked by the database after the queued writes are committed
+            flushPendingWrites();
+            return authStore.appendSessionKeyOwner(keyID, newOwner);
+        }
+        // the database first, so that the in-memory store does not have an owner the database refused
+        boolean added = authStore.appendSessionKeyOwner(keyID, newOwner);
+        if (added && cachedSessionKeyStore != null) {
+            cachedSessionKeyStore.addOwner(keyID, newOwner);
+        }
+        return added;
     }
 
     public void cleanExpiredSessionKeys() throws SQLException, ClassNotFoundException {
-        sqLiteConnector.deleteExpiredCahcedSessionKeys();
+        if (cachedSessionKeyStore != null) {
+            cachedSessionKeyStore.removeExpired(new Date().getTime());
+        }
+        // through the expiry index, so that the index does not keep IDs of the deleted session keys
+        reapExpiredSessionKeys(Integer.MAX_VALUE);
+        // and then the expired session keys that are not in the index, if any
+        flushPendingWrites();
+        authStore.deleteExpiredCahcedSessionKeys();
+    }
+
+    /**
+     * Drop partitions of session keys whose time windows have passed, and delete at most the given number of
+     * expired session keys in the unpartitioned table, found through the in-memory expiry index,
+     * so that expired session keys are removed in small batches instead of one large deletion. If the deletion
+     * fails, the IDs of the session keys are put back into the index for the next attempt.
+     * @param maxBatchSize Maximum number of session keys to be deleted one by one.
+     * @return The number of expired session keys that are dropped or deleted.
+     * @throws SQLException When an error occurs in database
+     */
+    public int reapExpiredSessionKeys(int maxBatchSize) throws SQLException {
+        long currentTime = new Date().getTime();
+        int droppedCount = authStore.dropExpiredSessionKeyPartitions(currentTime);
+        long[] expiredKeyIDs = sessionKeyExpiryIndex.pollExpired(currentTime, maxBatchSize);
+        if (droppedCount == 0 && expiredKeyIDs.length == 0) {
+            return 0;
+        }
+        if (cachedSessionKeyStore != null) {
+            cachedSessionKeyStore.removeExpired(currentTime);
+        }
+        if (expiredKeyIDs.length > 0) {
+            try {
+                // the session keys may still be in the write-behind queue
+                flushPendingWrites();
+                authStore.deleteCachedSessionKeysByIDs(expiredKeyIDs);
+            }
+            catch (SQLException | RuntimeException e) {
+                for (long keyID: expiredKeyIDs) {
+                    sessionKeyExpiryIndex.add(keyID, currentTime - 1);
+                }
+                throw e;
+            }
+        }
+        return droppedCount + expiredKeyIDs.length;
     }
 
     public void deleteAllSessionKeys() throws SQLException, ClassNotFoundException {
-        sqLiteConnector.deleteAllCachedSessionKeys();
+        if (cachedSessionKeyStore != null) {
+            cachedSessionKeyStore.clear();
+        }
+        sessionKeyExpiryIndex.clear();
+        flushPendingWrites();
+        authStore.deleteAllCachedSessionKeys();
     }
 
     /**
@@ -271,7 +766,8 @@ public class AuthDB {
     public String sessionKeysToString() throws SQLException, ClassNotFoundException {
         StringBuilder sb = new StringBuilder();
 
-        List<CachedSessionKeyTable> cachedSessionKeyList = sqLiteConnector.selectAllCachedSessionKey();
+        flushPendingWrites();
+        List<CachedSessionKeyTable> cachedSessionKeyList = authStore.selectAllCachedSessionKey();
         boolean init = true;
         for (CachedSessionKeyTable cachedSessionKey: cachedSessionKeyList) {
             if (init) {
@@ -288,7 +784,7 @@ public class AuthDB {
     public String registeredEntitiesToString() {
         StringBuilder sb = new StringBuilder();
         boolean init = true;
-        for (RegisteredEntity registeredEntity : registeredEntityMap.values()) {
+        for (RegisteredEntity registeredEntity : registeredEntityRegistry.getAll()) {
             if (init) {
                 init = false;
             }
@@ -303,7 +799,7 @@ public class AuthDB {
     public String communicationPoliciesToString() {
         StringBuilder sb = new StringBuilder();
         boolean init = true;
-        for (CommunicationPolicy communicationPolicy : communicationPolicyList) {
+        for (CommunicationPolicy communicationPolicy : communicationPolicyIndex.get().getAll()) {
             if (init) {
                 init = false;
             }
@@ -340,58 +836,154 @@ public class AuthDB {
         }
     }
 
-    private void loadRegEntityDB() throws SQLException, ClassNotFoundException {
+    private void loadRegEntityDB(Map<String, RegisteredEntity> registeredEntityMap)
+            throws SQLException, ClassNotFoundException
+    {
+        long startTime = System.nanoTime();
+        List<RegisteredEntityTable> regEntityTables = authStore.selectAllRegEntities(authDatabaseDir);
+        long selectEndTime = System.nanoTime();
+        buildRegisteredEntities(regEntityTables, registeredEntityMap);
+        logger.info("Selected {} registered entities in {} ms", regEntityTables.size(),
+                TimeUnit.NANOSECONDS.toMillis(selectEndTime - startTime));
+    }
+
+    private void buildRegisteredEntities(List<RegisteredEntityTable> loadedRegEntityTables,
+                                         Map<String, RegisteredEntity> registeredEntityMap) {
+        long startTime = System.nanoTime();
+        // array backed, so that the parallel stream splits evenly
+        List<RegisteredEntityTable> regEntityTables = new ArrayList<>(loadedRegEntityTables);
 
-        sqLiteConnector.selectAllRegEntities(authDatabaseDir).forEach(regEntityTable -> {
-            DistributionKey distributionKey = null;
-            if (regEntityTable.getDistKeyVal() != null) {
-                distributionKey = new DistributionKey(
-                    SymmetricKeyCryptoSpec.fromSpecString(regEntityTable.getDistCryptoSpec()),
-                    regEntityTable.getDistKeyExpirationTime(),
-                    new Buffer(regEntityTable.getDistKeyVal())
-                );
+        boolean lazyEntityLoading = prop != null && prop.getAuthDBLazyEntityLoading();
+        int loadParallelism = prop != null ? prop.getAuthDBLoadParallelism() : 1;
+        if (lazyEntityLoading) {
+            // only names are indexed, keys are decoded when each entity is first used
+            for (RegisteredEntityTable regEntityTable : regEntityTables) {
+                RegisteredEntity registeredEntity = RegisteredEntity.createLazily(regEntityTable);
+                registeredEntityMap.put(registeredEntity.getName(), registeredEntity);
+            }
+        }
+        else if (loadParallelism > 1 && regEntityTables.size() > 1) {
+            // the parallel stream runs in the pool of the task that starts it
+            ForkJoinPool loadPool = new ForkJoinPool(loadParallelism);
+            try {
+                loadPool.submit(() -> regEntityTables.parallelStream().forEach(regEntityTable ->
+                        putRegisteredEntity(registeredEntityMap, regEntityTable))).get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while loading registered entities!");
             }
-            RegisteredEntity registeredEntity = new RegisteredEntity(regEntityTable, distributionKey);
+            catch (ExecutionException e) {
+                logger.error("ExecutionException {}", ExceptionToString.convertExceptionToStackTrace(e));
+                throw new RuntimeException("Exception occurred while loading registered entities!");
+            }
+            finally {
+                loadPool.shutdown();
+            }
+        }
+        else {
+            for (RegisteredEntityTable regEntityTable : regEntityTables) {
+                putRegisteredEntity(registeredEntityMap, regEntityTable);
+            }
+        }
+        logger.info("Decoded {} registered entities in {} ms (parallelism: {}, lazy: {})", regEntityTables.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), loadParallelism, lazyEntityLoading);
+    }
 
-            registeredEntityMap.put(registeredEntity.getName(), registeredEntity);
-            logger.debug("registeredEntity: {}", registeredEntity.toString());
-        });
+    private static void putRegisteredEntity(Map<String, RegisteredEntity> registeredEntityMap,
+                                            RegisteredEntityTable regEntityTable) {
+        RegisteredEntity registeredEntity = new RegisteredEntity(regEntityTable,
+                RegisteredEntity.createDistributionKey(regEntityTable));
+        registeredEntityMap.put(registeredEntity.getName(), registeredEntity);
+        logger.debug("registeredEntity: {}", registeredEntity);
     }
 
     public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
-        return sqLiteConnector.deleteRegisteredEntities(registeredEntityNameList);
+        registrySnapshotLock.readLock().lock();
+        try {
+            markRegistryChanged();
+            return authStore.deleteRegisteredEntities(registeredEntityNameList);
+        }
+        catch (ClassNotFoundException e) {
+            logger.error("ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while deleting registered entities!");
+        }
+        finally {
+            registrySnapshotLock.readLock().unlock();
+        }
     }
 
     public void deleteBackedUpRegisteredEntities() throws SQLException {
-        sqLiteConnector.deleteBackedUpRegisteredEntities();
+        registrySnapshotLock.readLock().lock();
+        try {
+            markRegistryChanged();
+            authStore.deleteBackedUpRegisteredEntities();
+        }
+        catch (ClassNotFoundException e) {
+            logger.error("ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while deleting backed up registered entities!");
+        }
+        finally {
+            registrySnapshotLock.readLock().unlock();
+        }
     }
 
     public void reloadRegEntityDB() throws SQLException, ClassNotFoundException {
-        registeredEntityMap.clear();
-        loadRegEntityDB();
+        // queued distribution key updates must be in the database before reloading
+        flushPendingWrites();
+        registeredEntityRegistry.rebuild(this::loadRegEntityDB);
     }
 
+    /**
+     * Reload communication policies from the database. The new policies are published at once after loading,
+     * the previous policies are used for lookups until then.
+     * @throws SQLException When an error occurs in database
+     * @throws ClassNotFoundException When a specified class is not found
+     */
     public void reloadCommunicationPolicyDB() throws SQLException, ClassNotFoundException {
-        communicationPolicyList.clear();
         loadCommPolicyDB();
     }
 
+    private void loadCachedSessionKeyStore() throws SQLException, ClassNotFoundException {
+        int count = 0;
+        for (CachedSessionKeyTable cachedSessionKey: authStore.selectAllCachedSessionKey()) {
+            SessionKey sessionKey = cachedSessionKey.toSessionKey();
+            if (!sessionKey.isExpired()) {
+                cachedSessionKeyStore.put(sessionKey);
+                count++;
+            }
+        }
+        logger.info("Loaded {} unexpired cached session keys into memory.", count);
+    }
+
+    private void loadSessionKeyExpiryIndex() throws SQLException {
+        Map<Long, Long> expirationTimes = authStore.selectCachedSessionKeyExpirationTimes();
+        expirationTimes.forEach(sessionKeyExpiryIndex::add);
+        logger.info("Indexed expiration times of {} cached session keys.", expirationTimes.size());
+    }
+
     private void loadCommPolicyDB() throws SQLException, ClassNotFoundException {
-        sqLiteConnector.selectAllPolicies().forEach(communicationPolicyTable -> {
+        loadCommunicationPolicies(authStore.selectAllPolicies());
+    }
+
+    private void loadCommunicationPolicies(List<CommunicationPolicyTable> communicationPolicyTables) {
+        List<CommunicationPolicy> communicationPolicyList = new ArrayList<>();
+        communicationPolicyTables.forEach(communicationPolicyTable -> {
             CommunicationPolicy communicationPolicy = new CommunicationPolicy(communicationPolicyTable);
             communicationPolicyList.add(communicationPolicy);
             logger.debug("communicationPolicy: {}", communicationPolicy.toString());
         });
+        communicationPolicyIndex.set(new CommunicationPolicyIndex(communicationPolicyList));
     }
 
-    private void loadTrustedAuthDB(String trustStorePassword) throws
-            KeyStoreException, CertificateException, NoSuchAlgorithmException, SQLException, ClassNotFoundException, IOException
+    private void loadTrustedAuths(List<TrustedAuthTable> trustedAuthTables, String trustStorePassword) throws
+            KeyStoreException, CertificateException, NoSuchAlgorithmException, IOException
     {
         // TODO: replace this with password input
         trustStoreForTrustedAuths = KeyStore.getInstance(KeyStore.getDefaultType());
         trustStoreForTrustedAuths.load(null, trustStorePassword.toCharArray());
 
-        for (TrustedAuthTable t: sqLiteConnector.selectAllTrustedAuth()) {
+        for (TrustedAuthTable t: trustedAuthTables) {
             TrustedAuth trustedAuth = new TrustedAuth(t.getId(), t.getHost(), t.getEntityHost(),
                     t.getPort(),
                     t.getHeartbeatPeriod(),
@@ -417,24 +1009,61 @@ public class AuthDB {
 
     private String authDatabaseDir;
 
-    private Map<String, RegisteredEntity> registeredEntityMap;
-    private List<CommunicationPolicy> communicationPolicyList;
+    private final RegisteredEntityRegistry registeredEntityRegistry;
+    private final AtomicReference<CommunicationPolicyIndex> communicationPolicyIndex;
     private Map<Integer, TrustedAuth> trustedAuthMap;
     private KeyStore trustStoreForTrustedAuths;
 
-    private SQLiteConnector sqLiteConnector;
+    private AuthStore authStore;
+    // null when the in-memory tier for cached session keys is disabled
+    private CachedSessionKeyStore cachedSessionKeyStore;
+    private SessionKeyExpiryIndex sessionKeyExpiryIndex;
+    private ScheduledExecutorService checkpointScheduler;
+    // null when registry snapshots are disabled
+    private Path registrySnapshotPath;
+    // null when the Auth DB is not protected
+    private SymmetricKey registrySnapshotKey;
+    private ScheduledExecutorService registrySnapshotScheduler;
+    // registry changes hold the read lock, so that a snapshot sees either all or none of a change
+    private final ReentrantReadWriteLock registrySnapshotLock = new ReentrantReadWriteLock();
+    private final Object registrySequenceLock = new Object();
+    private long databaseID;
+    private long registrySequence;
+    private volatile boolean registryChangedSinceSnapshot = false;
+    // null when write-behind mode is disabled
+    private AuthDBWriteBehindQueue writeBehindQueue;
+    // loaded from the meta data table on first use
+    private long sessionKeyCount = -1;
 
     public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
             throws SQLException, CertificateEncodingException
     {
-        boolean ret = sqLiteConnector.updateBackupCertificate(backupFromAuthID, backupCertificate);
-        TrustedAuth trustedAuth = getTrustedAuthInfo(backupFromAuthID);
-        trustedAuth.setBackupCertificate(backupCertificate);
-        trustedAuthMap.put(backupFromAuthID, trustedAuth);
-        return ret;
+        registrySnapshotLock.readLock().lock();
+        try {
+            markRegistryChanged();
+            boolean ret = authStore.updateBackupCertificate(backupFromAuthID, backupCertificate);
+            TrustedAuth trustedAuth = getTrustedAuthInfo(backupFromAuthID);
+            trustedAuth.setBackupCertificate(backupCertificate);
+            trustedAuthMap.put(backupFromAuthID, trustedAuth);
+            return ret;
+        }
+        catch (ClassNotFoundException e) {
+            logger.error("ClassNotFoundException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while updating backup certificate!");
+        }
+        finally {
+            registrySnapshotLock.readLock().unlock();
+        }
     }
 
     public void insertCommunicationPolicy(CommunicationPolicyTable newCommunicationPolicyTable) throws SQLException, ClassNotFoundException {
-        sqLiteConnector.insertRecords(newCommunicationPolicyTable);
+        registrySnapshotLock.readLock().lock();
+        try {
+            markRegistryChanged();
+            authStore.insertRecords(newCommunicationPolicyTable);
+        }
+        finally {
+            registrySnapshotLock.readLock().unlock();
+        }
     }
 }
\ No newline at end of file
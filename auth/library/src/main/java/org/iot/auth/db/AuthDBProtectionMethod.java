@@ -24,7 +24,8 @@ import java.util.Map;
 public enum AuthDBProtectionMethod {
     DEBUG(0),
     ENCRYPT_CREDENTIALS(1),
-    ENCRYPT_ENTIRE_DB(2);
+    ENCRYPT_ENTIRE_DB(2),
+    ENCRYPT_PAGES(3);
 
     AuthDBProtectionMethod(int value) {
         this.value = value;
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import org.iot.auth.db.dao.AuthStore;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A write-behind queue for Auth DB mutations. Callers update the in-memory state first and enqueue the
+ * corresponding database write, which is applied later by a single writer thread. The writer thread commits
+ * the queued writes as a group in a single transaction, either when the flush interval has passed since the
+ * first write of the group or when the batch size is reached, so that entity requests do not wait for the
+ * database. {@link #flush()} works as a durability barrier for operations that need all previous writes to be
+ * in the database. When a group fails to commit, it is rolled back and its writes are applied again one by one,
+ * each in its own transaction, so that only the failing write is lost. A write that still fails after a few
+ * attempts is passed to the failure handler given with it, which reconciles the in-memory state of the caller.
+ *
+ * @author Hokeun Kim
+ */
+public class AuthDBWriteBehindQueue {
+    private static final Logger logger = LoggerFactory.getLogger(AuthDBWriteBehindQueue.class);
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 100;
+
+    /**
+     * A database write to be applied by the writer thread.
+     */
+    public interface PendingWrite {
+        void apply(AuthStore authStore) throws SQLException, ClassNotFoundException;
+    }
+
+    /**
+     * A write enqueued with its failure handler.
+     */
+    private static class HandledWrite implements PendingWrite {
+        private HandledWrite(PendingWrite pendingWrite, Consumer<Exception> failureHandler) {
+            this.pendingWrite = pendingWrite;
+            this.failureHandler = failureHandler;
+        }
+        public void apply(AuthStore authStore) throws SQLException, ClassNotFoundException {
+            pendingWrite.apply(authStore);
+        }
+        private final PendingWrite pendingWrite;
+        private final Consumer<Exception> failureHandler;
+    }
+
+    /**
+     * A marker in the queue, released when all writes enqueued before it are committed or handled as failed.
+     */
+    private static class Barrier implements PendingWrite {
+        public void apply(AuthStore authStore) {
+        }
+        private final CountDownLatch committed = new CountDownLatch(1);
+    }
+
+    public AuthDBWriteBehindQueue(AuthStore authStore, int queueCapacity, int maxBatchSize,
+                                  long flushIntervalMillis)
+    {
+        if (queueCapacity <= 0 || maxBatchSize <= 0 || flushIntervalMillis < 0) {
+            throw new IllegalArgumentException("Invalid write-behind queue configuration!");
+        }
+        this.authStore = authStore;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.writerThread = new Thread(this::runWriter, "AuthDBWriteBehindWriter");
+        this.writerThread.setDaemon(true);
+    }
+
+    public void start() {
+        logger.info("Starting Auth DB write-behind writer (capacity: {}, batch size: {}, flush interval: {}ms)",
+                queue.remainingCapacity(), maxBatchSize, flushIntervalMillis);
+        running = true;
+        writerThread.start();
+    }
+
+    /**
+     * Enqueue a database write, whose failure is only logged.
+     * @param pendingWrite The write to be applied by the writer thread.
+     */
+    public void enqueue(PendingWrite pendingWrite) {
+        enqueue(pendingWrite, null);
+    }
+
+    /**
+     * Enqueue a database write. Blocks while the queue is full, so a slow database throttles the callers
+     * instead of growing the queue without bound.
+     * @param pendingWrite The write to be applied by the writer thread.
+     * @param failureHandler Called by the writer thread with the exception if the write cannot be committed,
+     *                       to undo the in-memory change that the write was for, or null.
+     */
+    public void enqueue(PendingWrite pendingWrite, Consumer<Exception> failureHandler) {
+        if (failureHandler != null) {
+            pendingWrite = new HandledWrite(pendingWrite, failureHandler);
+        }
+        if (!running) {
+            throw new IllegalStateException("Auth DB write-behind queue is not running!");
+        }
+        pendingWriteCount.incrementAndGet();
+        try {
+            queue.put(pendingWrite);
+        } catch (InterruptedException e) {
+            pendingWriteCount.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while enqueueing an Auth DB write!");
+        }
+    }
+
+    /**
+     * Wait until all writes enqueued before this call are committed to the database, or handled by their
+     * failure handlers if they cannot be committed.
+     */
+    public void flush() {
+        if (pendingWriteCount.get() == 0) {
+            return;
+        }
+        Barrier barrier = new Barrier();
+        try {
+            queue.put(barrier);
+            barrier.committed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while flushing Auth DB writes!");
+        }
+    }
+
+    /**
+     * Commit all remaining writes and stop the writer thread.
+     * @throws InterruptedException If interrupted while waiting for the writer thread.
+     */
+    public void close() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        try {
+            flush();
+        }
+        finally {
+            running = false;
+            writerThread.interrupt();
+            writerThread.join();
+        }
+        logger.info("Auth DB write-behind writer stopped, {} writes committed in {} groups, {} writes failed.",
+                committedWriteCount.get(), committedGroupCount.get(), failedWriteCount.get());
+    }
+
+    public long getPendingWriteCount() {
+        return pendingWriteCount.get();
+    }
+
+    public long getFailedWriteCount() {
+        return failedWriteCount.get();
+    }
+
+    private void runWriter() {
+        List<PendingWrite> group = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                PendingWrite first = queue.take();
+                group.add(first);
+                if (!(first instanceof Barrier)) {
+                    // wait for more writes to commit together, unless someone is waiting on a barrier
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                    while (group.size() < maxBatchSize) {
+                        PendingWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        group.add(next);
+                        if (next instanceof Barrier) {
+                            break;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                if (running) {
+                    continue;
+                }
+            }
+            if (!group.isEmpty()) {
+                commitGroup(group);
+                group.clear();
+            }
+        }
+        // commit whatever was enqueued after the final barrier
+        queue.drainTo(group);
+        if (!group.isEmpty()) {
+            commitGroup(group);
+        }
+    }
+
+    private void commitGroup(List<PendingWrite> group) {
+        int writeCount = 0;
+        for (PendingWrite pendingWrite: group) {
+            if (!(pendingWrite instanceof Barrier)) {
+                writeCount++;
+            }
+        }
+        try {
+            applyInTransaction(group);
+            committedWriteCount.addAndGet(writeCount);
+            committedGroupCount.incrementAndGet();
+        } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            logger.warn("Failed to commit {} Auth DB writes as a group, applying them one by one {}",
+                    writeCount, ExceptionToString.convertExceptionToStackTrace(e));
+            // in the order of the queue, as later writes may depend on earlier ones
+            for (PendingWrite pendingWrite: group) {
+                if (!(pendingWrite instanceof Barrier)) {
+                    commitSingleWrite(pendingWrite);
+                }
+            }
+        }
+        for (PendingWrite pendingWrite: group) {
+            if (pendingWrite instanceof Barrier) {
+                ((Barrier) pendingWrite).committed.countDown();
+            }
+        }
+        pendingWriteCount.addAndGet(-writeCount);
+    }
+
+    /**
+     * Commit a write in its own transaction, retrying a few times before passing the failure to its handler.
+     */
+    private void commitSingleWrite(PendingWrite pendingWrite) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                applyInTransaction(Collections.singletonList(pendingWrite));
+                committedWriteCount.incrementAndGet();
+                committedGroupCount.incrementAndGet();
+                return;
+            } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+                if (attempt < MAX_WRITE_ATTEMPTS) {
+                    try {
+                        Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                        continue;
+                    } catch (InterruptedException interruptedException) {
+                        // keep the interrupt for the writer loop, and give up on this write
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                logger.error("Exception while committing an Auth DB write, dropped after {} attempt(s) {}",
+                        attempt, ExceptionToString.convertExceptionToStackTrace(e));
+                failedWriteCount.incrementAndGet();
+                if (pendingWrite instanceof HandledWrite) {
+                    try {
+                        ((HandledWrite) pendingWrite).failureHandler.accept(e);
+                    } catch (RuntimeException handlerException) {
+                        logger.error("Exception in failure handler of an Auth DB write {}",
+                                ExceptionToString.convertExceptionToStackTrace(handlerException));
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+    private void applyInTransaction(List<PendingWrite> writes) throws SQLException, ClassNotFoundException {
+        authStore.beginTransaction();
+        try {
+            for (PendingWrite pendingWrite: writes) {
+                pendingWrite.apply(authStore);
+            }
+            authStore.commitTransaction();
+        } catch (SQLException | ClassNotFoundException | RuntimeException e) {
+            try {
+                authStore.rollbackTransaction();
+            } catch (SQLException rollbackException) {
+                logger.error("SQLException {}", ExceptionToString.convertExceptionToStackTrace(rollbackException));
+            }
+            throw e;
+        }
+    }
+
+    private final AuthStore authStore;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxBatchSize;
+    private final long flushIntervalMillis;
+    private final Thread writerThread;
+    private volatile boolean running = false;
+    private final AtomicLong pendingWriteCount = new AtomicLong(0);
+    private final AtomicLong committedWriteCount = new AtomicLong(0);
+    private final AtomicLong committedGroupCount = new AtomicLong(0);
+    private final AtomicLong failedWriteCount = new AtomicLong(0);
+}
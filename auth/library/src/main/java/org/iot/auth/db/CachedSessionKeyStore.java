@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.util.LongKeyHashMap;
+
+import java.util.*;
+
+/**
+ * An in-memory tier for cached session keys, keyed by session key ID with a secondary index by purpose.
+ * Session keys are kept in plaintext, so lookups need neither database access nor decryption of the key values.
+ * The number of session keys is bounded; when the store is full, the keys that expire first are evicted.
+ * The database remains the system of record, so a miss in this store should be served from the database.
+ * Stored session keys retain their serialized forms for session key responses, which are wiped when the keys
+ * leave this store.
+ *
+ * @author Hokeun Kim
+ */
+public class CachedSessionKeyStore {
+    private static class Entry {
+        private Entry(SessionKey sessionKey) {
+            this.sessionKey = sessionKey;
+            this.owners = new ArrayList<>(Arrays.asList(sessionKey.getOwners()));
+        }
+        private SessionKey toSessionKey() {
+            if (owners.equals(Arrays.asList(sessionKey.getOwners()))) {
+                return sessionKey;
+            }
+            // owners were added or removed since the session key was stored, keep the updated session key
+            SessionKey previous = sessionKey;
+            sessionKey = new SessionKey(sessionKey.getID(), owners.toArray(new String[0]),
+                    sessionKey.getMaxNumOwners(), sessionKey.getPurpose(), sessionKey.getRawExpirationTime(),
+                    sessionKey.getRelValidity(), sessionKey.getCryptoSpec(), sessionKey.getSerializedKeyVal());
+            sessionKey.retainSerializedForm();
+            previous.wipeSerializedForm();
+            return sessionKey;
+        }
+        private long getExpirationTime() {
+            return sessionKey.getRawExpirationTime();
+        }
+        private SessionKey sessionKey;
+        private final List<String> owners;
+    }
+
+    private static final Comparator<Entry> EXPIRATION_ORDER = (a, b) -> {
+        int ret = Long.compare(a.getExpirationTime(), b.getExpirationTime());
+        return ret != 0 ? ret : Long.compare(a.sessionKey.getID(), b.sessionKey.getID());
+    };
+
+    public CachedSessionKeyStore(int maxNumSessionKeys) {
+        if (maxNumSessionKeys <= 0) {
+            throw new IllegalArgumentException("Maximum number of session keys should be positive!");
+        }
+        this.maxNumSessionKeys = maxNumSessionKeys;
+        this.entryMap = new LongKeyHashMap<>(Math.min(maxNumSessionKeys, 1024));
+        this.purposeIndex = new HashMap<>();
+        this.expirationOrder = new TreeSet<>(EXPIRATION_ORDER);
+    }
+
+    /**
+     * Store a session key, evicting the session keys that expire first if the store is full.
+     * @param sessionKey Session key to be stored.
+     */
+    public synchronized void put(SessionKey sessionKey) {
+        Entry entry = new Entry(sessionKey);
+        sessionKey.retainSerializedForm();
+        Entry previous = entryMap.put(sessionKey.getID(), entry);
+        if (previous != null) {
+            unindex(previous);
+            if (previous.sessionKey != sessionKey) {
+                previous.sessionKey.wipeSerializedForm();
+            }
+        }
+        expirationOrder.add(entry);
+        purposeIndex.computeIfAbsent(sessionKey.getPurpose(), k -> new LinkedHashSet<>()).add(entry);
+        long currentTime = new Date().getTime();
+        while (entryMap.size() > maxNumSessionKeys) {
+            Entry evicted = expirationOrder.pollFirst();
+            entryMap.remove(evicted.sessionKey.getID());
+            removeFromPurposeIndex(evicted);
+            evicted.sessionKey.wipeSerializedForm();
+            if (evicted.getExpirationTime() > currentTime) {
+                evictedLiveKeysExpireBy = Math.max(evictedLiveKeysExpireBy, evicted.getExpirationTime());
+            }
+        }
+    }
+
+    /**
+     * Get a session key by its ID.
+     * @param id ID of the session key.
+     * @return The session key, or null if the session key is not in this store.
+     */
+    public synchronized SessionKey get(long id) {
+        Entry entry = entryMap.get(id);
+        return entry == null ? null : entry.toSessionKey();
+    }
+
+    /**
+     * Get session keys with the given purpose that are not expired, not owned by the requesting entity, and
+     * have less owners than their maximum number of owners.
+     * @param requestingEntityName Name of the entity requesting the session keys.
+     * @param purpose Purpose of the session keys.
+     * @return A list of session keys, or null if this store cannot answer since session keys that are not
+     * expired yet have been evicted.
+     */
+    public synchronized List<SessionKey> getByPurpose(String requestingEntityName, String purpose) {
+        long currentTime = new Date().getTime();
+        if (currentTime <= evictedLiveKeysExpireBy) {
+            return null;
+        }
+        List<SessionKey> result = new ArrayList<>();
+        Set<Entry> entries = purposeIndex.get(purpose);
+        if (entries == null) {
+            return result;
+        }
+        for (Entry entry: entries) {
+            if (entry.getExpirationTime() > currentTime && !entry.owners.contains(requestingEntityName)
+                    && entry.owners.size() < entry.sessionKey.getMaxNumOwners()) {
+                result.add(entry.toSessionKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add an owner to a session key in this store, if the session key has less owners than its maximum.
+     * @param id ID of the session key.
+     * @param newOwner Name of the new owner.
+     * @return <code>true</code> if the owner is added; otherwise, <code>false</code>
+     */
+    public synchronized boolean addOwner(long id, String newOwner) {
+        Entry entry = entryMap.get(id);
+        if (entry == null || entry.owners.contains(newOwner)
+                || entry.owners.size() >= entry.sessionKey.getMaxNumOwners()) {
+            return false;
+        }
+        entry.owners.add(newOwner);
+        return true;
+    }
+
+    /**
+     * Remove an owner added by {@link #addOwner(long, String)}, when the owner cannot be stored in the database.
+     * @param id ID of the session key.
+     * @param owner Name of the owner.
+     */
+    public synchronized void removeOwner(long id, String owner) {
+        Entry entry = entryMap.get(id);
+        if (entry != null) {
+            entry.owners.remove(owner);
+        }
+    }
+
+    /**
+     * Remove a session key, when the session key cannot be stored in the database.
+     * @param id ID of the session key.
+     */
+    public synchronized void remove(long id) {
+        Entry entry = entryMap.remove(id);
+        if (entry != null) {
+            unindex(entry);
+            entry.sessionKey.wipeSerializedForm();
+        }
+    }
+
+    public synchronized boolean contains(long id) {
+        return entryMap.containsKey(id);
+    }
+
+    /**
+     * Remove the session keys expired at the given time.
+     * @param currentTime Current time in milliseconds.
+     * @return Number of removed session keys.
+     */
+    public synchronized int removeExpired(long currentTime) {
+        int count = 0;
+        while (!expirationOrder.isEmpty() && expirationOrder.first().getExpirationTime() < currentTime) {
+            Entry expired = expirationOrder.pollFirst();
+            entryMap.remove(expired.sessionKey.getID());
+            removeFromPurposeIndex(expired);
+            expired.sessionKey.wipeSerializedForm();
+            count++;
+        }
+        return count;
+    }
+
+    public synchronized void clear() {
+        for (Entry entry: expirationOrder) {
+            entry.sessionKey.wipeSerializedForm();
+        }
+        entryMap.clear();
+        purposeIndex.clear();
+        expirationOrder.clear();
+        evictedLiveKeysExpireBy = Long.MIN_VALUE;
+    }
+
+    public synchronized int size() {
+        return entryMap.size();
+    }
+
+    private void unindex(Entry entry) {
+        expirationOrder.remove(entry);
+        removeFromPurposeIndex(entry);
+    }
+
+    private void removeFromPurposeIndex(Entry entry) {
+        Set<Entry> entries = purposeIndex.get(entry.sessionKey.getPurpose());
+        if (entries != null) {
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                purposeIndex.remove(entry.sessionKey.getPurpose());
+            }
+        }
+    }
+
+    private final int maxNumSessionKeys;
+    private final LongKeyHashMap<Entry> entryMap;
+    private final Map<String, Set<Entry>> purposeIndex;
+    private final TreeSet<Entry> expirationOrder;
+    // until this time, purpose lookups must go to the database since evicted session keys may still be valid
+    private long evictedLiveKeysExpireBy = Long.MIN_VALUE;
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import java.util.*;
+
+/**
+ * An immutable hash index of communication policies keyed by requesting group, target type and target.
+ * A new index is built for each reload and then published as a whole, so lookups never see a partially loaded
+ * set of communication policies.
+ * @author Hokeun Kim
+ */
+public class CommunicationPolicyIndex {
+    private static class Key {
+        private Key(String reqGroup, CommunicationTargetType targetType, String target) {
+            this.reqGroup = reqGroup;
+            this.targetType = targetType;
+            this.target = target;
+            this.hashCode = (reqGroup.hashCode() * 31 + targetType.hashCode()) * 31 + target.hashCode();
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && targetType == other.targetType &&
+                    reqGroup.equals(other.reqGroup) && target.equals(other.target);
+        }
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        private final String reqGroup;
+        private final CommunicationTargetType targetType;
+        private final String target;
+        private final int hashCode;
+    }
+
+    public static final CommunicationPolicyIndex EMPTY = new CommunicationPolicyIndex(Collections.emptyList());
+
+    /**
+     * Build an index of the given communication policies.
+     * @param communicationPolicies Communication policies to be indexed, in the order to be listed.
+     */
+    public CommunicationPolicyIndex(List<CommunicationPolicy> communicationPolicies) {
+        Map<Key, CommunicationPolicy> map = new HashMap<>(communicationPolicies.size() * 2);
+        for (CommunicationPolicy communicationPolicy: communicationPolicies) {
+            // the first policy wins, as in the previous linear search
+            map.putIfAbsent(new Key(communicationPolicy.getReqGroup(), communicationPolicy.getTargetType(),
+                    communicationPolicy.getTarget()), communicationPolicy);
+        }
+        this.policyMap = map;
+        this.policyList = Collections.unmodifiableList(new ArrayList<>(communicationPolicies));
+    }
+
+    public CommunicationPolicy get(String reqGroup, CommunicationTargetType targetType, String target) {
+        if (reqGroup == null || targetType == null || target == null) {
+            return null;
+        }
+        return policyMap.get(new Key(reqGroup, targetType, target));
+    }
+
+    public List<CommunicationPolicy> getAll() {
+        return policyList;
+    }
+
+    public int size() {
+        return policyList.size();
+    }
+
+    private final Map<Key, CommunicationPolicy> policyMap;
+    private final List<CommunicationPolicy> policyList;
+}
@@ -50,6 +50,11 @@ public enum CommunicationTargetType {
         }
     }
 
+    public static CommunicationTargetType fromValue(int value) {
+        CommunicationTargetType type = typesByValue.get(value);
+        return type == null ? UNKNOWN : type;
+    }
+
     private static final Map<Integer, CommunicationTargetType> typesByValue =
             new HashMap<>();
 
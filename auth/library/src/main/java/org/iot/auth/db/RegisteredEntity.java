@@ -15,15 +15,18 @@
 
 package org.iot.auth.db;
 
+import org.iot.auth.crypto.AuthCrypto;
 import org.iot.auth.crypto.DistributionKey;
 import org.iot.auth.crypto.MigrationToken;
 import org.iot.auth.crypto.PublicKeyCryptoSpec;
 import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
 import org.iot.auth.db.bean.RegisteredEntityTable;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 import org.iot.auth.io.BufferedString;
 import org.iot.auth.io.VariableLengthInt;
 import org.iot.auth.util.DateHelper;
+import org.iot.auth.util.Interner;
 
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
@@ -31,12 +34,22 @@ import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.function.Function;
 
 /**
  * A class for a registered entity instance.
+ * As there can be millions of registered entities, groups, protocols and crypto specs, of which only a few distinct
+ * values are in use, are shared among entities, and public keys are kept encoded and decoded only when used.
  * @author Hokeun Kim
  */
 public class RegisteredEntity {
+    private static final int[] NO_AUTH_IDS = new int[0];
+    private static final Interner<String, String> sharedStrings = new Interner<>(Function.identity());
+    private static final Interner<String, SymmetricKeyCryptoSpec> sharedDistCryptoSpecs =
+            new Interner<>(SymmetricKeyCryptoSpec::fromSpecString);
+    private static final Interner<String, PublicKeyCryptoSpec> sharedPublicKeyCryptoSpecs =
+            new Interner<>(PublicKeyCryptoSpec::fromSpecString);
+
     private String name;
     private String group;
     private String distProtocol;
@@ -46,15 +59,21 @@ public class RegisteredEntity {
     private int maxSessionKeysPerRequest;
     private SymmetricKeyCryptoSpec distCryptoSpec;
     private boolean active;
-    private int[] backupToAuthIDs = new int[0];
+    private int[] backupToAuthIDs = NO_AUTH_IDS;
     private int backupFromAuthID = -1;
-    private DistributionKey distributionKey = null;
-    private PublicKey publicKey;
+    // updated in place while the entity is being looked up by other threads
+    private volatile DistributionKey distributionKey = null;
+    // X.509 encoded
+    private byte[] publicKeyVal;
+    // decoded from publicKeyVal on first use, as only entities in the middle of a handshake need it
+    private volatile PublicKey publicKey = null;
     private MigrationToken migrationToken = null;
+    // table element whose keys are not decoded yet, null once decoded
+    private volatile RegisteredEntityTable pendingTableElement = null;
 
     private static int[] convertStringBackupToAuthIDsToArray(String strBackupToAuthIDs) {
         if (strBackupToAuthIDs == null || strBackupToAuthIDs.length() == 0) {
-            return new int[0];
+            return NO_AUTH_IDS;
         }
         String[] backupToAuthStrIDs = strBackupToAuthIDs.split(",");
         int[] ret = new int[backupToAuthStrIDs.length];
@@ -78,29 +97,80 @@ public class RegisteredEntity {
 
     public RegisteredEntity(RegisteredEntityTable tableElement, DistributionKey distributionKey)
     {
+        this(tableElement);
+        decodeKeys(tableElement);
+        this.distributionKey = distributionKey; // Decrypted from database
+    }
+
+    private RegisteredEntity(RegisteredEntityTable tableElement) {
         this.name = tableElement.getName();
-        this.group = tableElement.getGroup();
-        this.distProtocol = tableElement.getDistProtocol();
+        this.group = sharedStrings.intern(tableElement.getGroup());
+        this.distProtocol = sharedStrings.intern(tableElement.getDistProtocol());
         this.usePermanentDistKey = tableElement.getUsePermanentDistKey();
-        if (tableElement.getPublicKeyCryptoSpec() != null) {
-            this.publicKeyCryptoSpec = PublicKeyCryptoSpec.fromSpecString(tableElement.getPublicKeyCryptoSpec());
-        }
         this.distKeyValidityPeriod = DateHelper.parseTimePeriod(tableElement.getDistKeyValidityPeriod());
         this.maxSessionKeysPerRequest = tableElement.getMaxSessionKeysPerRequest();
-        this.distCryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(tableElement.getDistCryptoSpec());
         this.active = tableElement.isActive();
         this.backupToAuthIDs = convertStringBackupToAuthIDsToArray(tableElement.getBackupToAuthIDs());
         this.backupFromAuthID = tableElement.getBackupFromAuthID();
-        this.distributionKey = distributionKey; // Decrypted from database
-        this.publicKey = tableElement.getPublicKey();
+    }
+
+    /**
+     * Create a registered entity whose crypto specs, public key, distribution key and migration token are
+     * decoded from the table element when one of them is first used, e.g., when the entity first connects.
+     * @param tableElement Table element loaded from the database.
+     * @return The registered entity with its keys not decoded yet.
+     */
+    public static RegisteredEntity createLazily(RegisteredEntityTable tableElement) {
+        RegisteredEntity registeredEntity = new RegisteredEntity(tableElement);
+        registeredEntity.pendingTableElement = tableElement;
+        return registeredEntity;
+    }
+
+    /**
+     * Create the distribution key of a table element loaded from the database.
+     * @param tableElement Table element loaded from the database.
+     * @return The distribution key, or null if the table element does not have a distribution key.
+     */
+    public static DistributionKey createDistributionKey(RegisteredEntityTable tableElement) {
+        if (tableElement.getDistKeyVal() == null) {
+            return null;
+        }
+        return new DistributionKey(
+                SymmetricKeyCryptoSpec.fromSpecString(tableElement.getDistCryptoSpec()),
+                tableElement.getDistKeyExpirationTime(),
+                new Buffer(tableElement.getDistKeyVal())
+        );
+    }
+
+    private void decodeKeys(RegisteredEntityTable tableElement) {
+        this.publicKeyCryptoSpec = sharedPublicKeyCryptoSpecs.intern(tableElement.getPublicKeyCryptoSpec());
+        this.distCryptoSpec = sharedDistCryptoSpecs.intern(tableElement.getDistCryptoSpec());
+        this.publicKeyVal = tableElement.getPublicKeyVal();
         if (tableElement.getMigrationTokenVal() != null) {
             this.migrationToken = new MigrationToken(this.distCryptoSpec.makeMacOnly(),
                     new Buffer(tableElement.getMigrationTokenVal()));
         }
     }
 
+    private void decodePendingKeys() {
+        if (pendingTableElement == null) {
+            return;
+        }
+        synchronized (this) {
+            RegisteredEntityTable tableElement = pendingTableElement;
+            if (tableElement == null) {
+                return;
+            }
+            decodeKeys(tableElement);
+            this.distributionKey = createDistributionKey(tableElement);
+            // publishes the decoded fields to threads that read pendingTableElement as null
+            pendingTableElement = null;
+        }
+    }
+
     public RegisteredEntityTable toRegisteredEntityTable(Buffer serializedDistributionKeyValue,
                                                          long distKeyExpirationTime) {
+        decodePendingKeys();
         RegisteredEntityTable tableElement = new RegisteredEntityTable();
         tableElement.setName(name);
         tableElement.setGroup(group);
@@ -133,7 +203,7 @@ public class RegisteredEntity {
             }
         }
         else {
-            tableElement.setPublicKey(publicKey);
+            tableElement.setPublicKeyVal(publicKeyVal);
             /*
             if (publicKeyFilePath == null) {
                 throw new RuntimeException("Wrong registered entity information, " +
@@ -164,19 +234,33 @@ public class RegisteredEntity {
     public int getMaxSessionKeysPerRequest() {
         return maxSessionKeysPerRequest;
     }
+    /**
+     * Get the public key of the entity, decoded on the first call and kept for later calls.
+     * @return The public key, or null if the entity uses a permanent distribution key.
+     */
     public PublicKey getPublicKey() {
-        return publicKey;
+        decodePendingKeys();
+        PublicKey decodedPublicKey = publicKey;
+        if (decodedPublicKey == null && publicKeyVal != null) {
+            // decoding twice by racing threads gives equal keys
+            decodedPublicKey = AuthCrypto.loadPublicKeyFromBytes(publicKeyVal);
+            publicKey = decodedPublicKey;
+        }
+        return decodedPublicKey;
     }
     public long getDistKeyValidityPeriod() {
         return distKeyValidityPeriod;
     }
     public DistributionKey getDistributionKey() {
+        decodePendingKeys();
         return distributionKey;
     }
     public SymmetricKeyCryptoSpec getDistCryptoSpec() {
+        decodePendingKeys();
         return distCryptoSpec;
     }
     public PublicKeyCryptoSpec getPublicKeyCryptoSpec() {
+        decodePendingKeys();
         return publicKeyCryptoSpec;
     }
 
@@ -200,6 +284,7 @@ public class RegisteredEntity {
     }
 
     public String toString() {
+        decodePendingKeys();
         String ret = "Name: " + name + "\tGroup: " + group +
                 "\tDistProtocol: " + distProtocol +
                 "\tUsePermanentKey: " + usePermanentDistKey +
@@ -221,18 +306,21 @@ public class RegisteredEntity {
             ret += distributionKey.toString();
         }
         if (!usePermanentDistKey) {
-            ret += "\tPublicKey: " + Buffer.toHexString(publicKey.getEncoded());
+            ret += "\tPublicKey: " + Buffer.toHexString(publicKeyVal);
         }
         return ret;
     }
     public void setDistributionKey(DistributionKey distributionKey) {
+        decodePendingKeys();
         this.distributionKey = distributionKey;
     }
 
     public void setMigrationToken(MigrationToken migrationToken) {
+        decodePendingKeys();
         this.migrationToken = migrationToken;
     }
     public MigrationToken getMigrationToken() {
+        decodePendingKeys();
         return migrationToken;
     }
 
@@ -240,11 +328,12 @@ public class RegisteredEntity {
 
     // TODO: record the buffer length when concatenating this
     public Buffer serialize() {
+        decodePendingKeys();
         // UsePermanentDistKey | Active -> Byte
         // MaxSessionKeysPerRequest -> INT
         // BackupFromAuthID -> INT
         // DistKeyValidityPeriod -> LONG
-        Buffer buffer = new Buffer(Buffer.BYTE_SIZE + 2 * Buffer.INT_SIZE + Buffer.LONG_SIZE);
+        BufferWriter writer = new BufferWriter();
 
         // This byte indicates whether the entity uses permanent distribution key and
         // whether the entity is active in bits.
@@ -256,51 +345,46 @@ public class RegisteredEntity {
         if (active) {
             usePermanentDistKeyActive += (byte)1;
         }
-        int curIndex = 0;
 
-        buffer.putByte(usePermanentDistKeyActive, curIndex);
-        curIndex += Buffer.BYTE_SIZE;
-        buffer.putInt(maxSessionKeysPerRequest, curIndex);
-        curIndex += Buffer.INT_SIZE;
-        buffer.putInt(backupFromAuthID, curIndex);
-        curIndex += Buffer.INT_SIZE;
-        buffer.putLong(distKeyValidityPeriod, curIndex);
-        curIndex += Buffer.LONG_SIZE;
+        writer.putByte(usePermanentDistKeyActive);
+        writer.putInt(maxSessionKeysPerRequest);
+        writer.putInt(backupFromAuthID);
+        writer.putLong(distKeyValidityPeriod);
 
         // BackupToAuthIDs -> String
-        buffer.concat(new BufferedString(convertBackuptoAuthIDsToString(backupToAuthIDs)).serialize());
+        writer.putString(convertBackuptoAuthIDsToString(backupToAuthIDs));
 
         // String data
-        buffer.concat(new BufferedString(name).serialize());
-        buffer.concat(new BufferedString(group).serialize());
-        buffer.concat(new BufferedString(distProtocol).serialize());
+        writer.putString(name);
+        writer.putString(group);
+        writer.putString(distProtocol);
         if (publicKeyCryptoSpec == null) {
-            buffer.concat(new BufferedString("").serialize());
+            writer.putString("");
         }
         else {
-            buffer.concat(new BufferedString(publicKeyCryptoSpec.toSpecString()).serialize());
+            writer.putString(publicKeyCryptoSpec.toSpecString());
         }
-        buffer.concat(new BufferedString(distCryptoSpec.toSpecString()).serialize());
+        writer.putString(distCryptoSpec.toSpecString());
 
         Buffer keyBuffer;
         if (usePermanentDistKey) {
             keyBuffer = distributionKey.serialize();
         }
         else {
-            keyBuffer = new Buffer(publicKey.getEncoded());
+            keyBuffer = Buffer.wrap(publicKeyVal);
         }
-        buffer.concat(new VariableLengthInt(keyBuffer.length()).serialize());
-        buffer.concat(keyBuffer);
+        writer.putVariableLengthInt(keyBuffer.length());
+        writer.putBuffer(keyBuffer);
 
         if (migrationToken == null) {
-            buffer.concat(new VariableLengthInt(0).serialize());
+            writer.putVariableLengthInt(0);
         }
         else {
             Buffer migrationTokenBuffer = migrationToken.serialize();
-            buffer.concat(new VariableLengthInt(migrationTokenBuffer.length()).serialize());
-            buffer.concat(migrationTokenBuffer);
+            writer.putVariableLengthInt(migrationTokenBuffer.length());
+            writer.putBuffer(migrationTokenBuffer);
         }
-        return buffer;
+        return writer.toBuffer();
     }
 
     public RegisteredEntity(Buffer buffer) throws NoSuchAlgorithmException, InvalidKeySpecException {
@@ -330,10 +414,10 @@ public class RegisteredEntity {
 
         bufString = buffer.getBufferedString(curIndex);
         curIndex += bufString.length();
-        this.group = bufString.getString();
+        this.group = sharedStrings.intern(bufString.getString());
         bufString = buffer.getBufferedString(curIndex);
         curIndex += bufString.length();
-        this.distProtocol = bufString.getString();
+        this.distProtocol = sharedStrings.intern(bufString.getString());
         bufString = buffer.getBufferedString(curIndex);
         curIndex += bufString.length();
         String strPublicKeyCryptoSpec = bufString.getString();
@@ -341,11 +425,11 @@ public class RegisteredEntity {
             this.publicKeyCryptoSpec = null;
         }
         else {
-            this.publicKeyCryptoSpec = PublicKeyCryptoSpec.fromSpecString(strPublicKeyCryptoSpec);
+            this.publicKeyCryptoSpec = sharedPublicKeyCryptoSpecs.intern(strPublicKeyCryptoSpec);
         }
         bufString = buffer.getBufferedString(curIndex);
         curIndex += bufString.length();
-        this.distCryptoSpec = SymmetricKeyCryptoSpec.fromSpecString(bufString.getString());
+        this.distCryptoSpec = sharedDistCryptoSpecs.intern(bufString.getString());
 
         VariableLengthInt varLenInt = buffer.getVariableLengthInt(curIndex);
         curIndex += varLenInt.getRawBytes().length;
@@ -360,10 +444,11 @@ public class RegisteredEntity {
             //keyBuffer
         }
         else {
-            // decode public key
+            // decoded to validate it, and kept for getPublicKey()
             KeyFactory keyFactory = KeyFactory.getInstance("RSA");
             X509EncodedKeySpec pubSpec = new X509EncodedKeySpec(keyBuffer.getRawBytes());
             this.publicKey = keyFactory.generatePublic(pubSpec);
+            this.publicKeyVal = this.publicKey.getEncoded();
         }
 
         varLenInt = buffer.getVariableLengthInt(curIndex);
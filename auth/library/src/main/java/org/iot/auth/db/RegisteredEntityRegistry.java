@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import org.iot.auth.crypto.DistributionKey;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A registry of registered entities with lock-free lookups. Distribution keys of individual entities are updated
+ * concurrently in place, while bulk changes (reloads, merges of backed-up entities) are built in a new map on the
+ * side and published at once, so lookups never block and never see a partially loaded set of entities.
+ * @author Hokeun Kim
+ */
+public class RegisteredEntityRegistry {
+    /**
+     * Fills a new map of registered entities for a bulk change.
+     */
+    public interface Builder {
+        void build(Map<String, RegisteredEntity> newEntityMap) throws SQLException, ClassNotFoundException;
+    }
+
+    public RegisteredEntityRegistry() {
+        this.entityMap = new ConcurrentHashMap<>();
+    }
+
+    public RegisteredEntity get(String entityName) {
+        return entityMap.get(entityName);
+    }
+
+    public List<RegisteredEntity> getAll() {
+        return new ArrayList<>(entityMap.values());
+    }
+
+    public int size() {
+        return entityMap.size();
+    }
+
+    /**
+     * Update the distribution key of a registered entity in place.
+     * @param entityName Name of the entity.
+     * @param distributionKey New distribution key.
+     * @return The updated entity, or null if the entity is not registered.
+     */
+    public RegisteredEntity updateDistributionKey(String entityName, DistributionKey distributionKey) {
+        publishLock.readLock().lock();
+        try {
+            RegisteredEntity registeredEntity = entityMap.computeIfPresent(entityName, (name, entity) -> {
+                entity.setDistributionKey(distributionKey);
+                return entity;
+            });
+            if (registeredEntity != null && rebuildInProgress) {
+                // to be applied again to the map being rebuilt
+                updatedDistributionKeys.put(entityName, distributionKey);
+            }
+            return registeredEntity;
+        }
+        finally {
+            publishLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace all registered entities with the entities filled by the builder, publishing them at once.
+     * Distribution key updates made while building are applied to the new entities before publishing.
+     * @param builder Builder filling the new set of registered entities.
+     * @throws SQLException When the builder fails in database.
+     * @throws ClassNotFoundException When a specified class is not found.
+     */
+    public void rebuild(Builder builder) throws SQLException, ClassNotFoundException {
+        rebuildLock.lock();
+        try {
+            publishLock.writeLock().lock();
+            try {
+                updatedDistributionKeys.clear();
+                rebuildInProgress = true;
+            }
+            finally {
+                publishLock.writeLock().unlock();
+            }
+            Map<String, RegisteredEntity> newEntityMap = new ConcurrentHashMap<>();
+            boolean built = false;
+            try {
+                builder.build(newEntityMap);
+                built = true;
+            }
+            finally {
+                publishLock.writeLock().lock();
+                try {
+                    if (built) {
+                        for (Map.Entry<String, DistributionKey> entry : updatedDistributionKeys.entrySet()) {
+                            RegisteredEntity registeredEntity = newEntityMap.get(entry.getKey());
+                            if (registeredEntity != null) {
+                                registeredEntity.setDistributionKey(entry.getValue());
+                            }
+                        }
+                        entityMap = newEntityMap;
+                    }
+                    rebuildInProgress = false;
+                    updatedDistributionKeys.clear();
+                }
+                finally {
+                    publishLock.writeLock().unlock();
+                }
+            }
+        }
+        finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    /**
+     * Add or replace the given entities and remove the entities with the given names, publishing the result at once.
+     * @param entitiesToPut Entities to be added, replacing the entities with the same names.
+     * @param entityNamesToRemove Names of entities to be removed.
+     */
+    public void merge(Collection<RegisteredEntity> entitiesToPut, Collection<String> entityNamesToRemove) {
+        try {
+            rebuild(newEntityMap -> {
+                newEntityMap.putAll(entityMap);
+                for (String entityName : entityNamesToRemove) {
+                    newEntityMap.remove(entityName);
+                }
+                for (RegisteredEntity registeredEntity : entitiesToPut) {
+                    newEntityMap.put(registeredEntity.getName(), registeredEntity);
+                }
+            });
+        } catch (SQLException | ClassNotFoundException e) {
+            // not thrown, the builder above does not access database
+            throw new RuntimeException(e);
+        }
+    }
+
+    // replaced as a whole for bulk changes
+    private volatile Map<String, RegisteredEntity> entityMap;
+    // held by distribution key updates as readers, and by publishing as the writer
+    private final ReentrantReadWriteLock publishLock = new ReentrantReadWriteLock();
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    private volatile boolean rebuildInProgress = false;
+    private final Map<String, DistributionKey> updatedDistributionKeys = new ConcurrentHashMap<>();
+}
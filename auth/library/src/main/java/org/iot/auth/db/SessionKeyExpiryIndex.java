@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An in-memory index of expiration times of cached session keys, grouped into buckets of fixed time windows.
+ * Adding a session key appends to its bucket, and expired session keys are taken from the oldest buckets,
+ * so finding expired keys does not require scanning the database.
+ * @author Hokeun Kim
+ */
+public class SessionKeyExpiryIndex {
+    private static class Bucket {
+        private void add(long id, long expirationTime) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                expirationTimes = Arrays.copyOf(expirationTimes, size * 2);
+            }
+            ids[size] = id;
+            expirationTimes[size] = expirationTime;
+            size++;
+        }
+        private long[] ids = new long[16];
+        private long[] expirationTimes = new long[16];
+        private int size = 0;
+    }
+
+    public SessionKeyExpiryIndex(long bucketSizeInMillis) {
+        if (bucketSizeInMillis <= 0) {
+            throw new IllegalArgumentException("Bucket size should be positive!");
+        }
+        this.bucketSizeInMillis = bucketSizeInMillis;
+        this.buckets = new TreeMap<>();
+    }
+
+    public synchronized void add(long id, long expirationTime) {
+        buckets.computeIfAbsent(expirationTime / bucketSizeInMillis, k -> new Bucket()).add(id, expirationTime);
+        size++;
+    }
+
+    /**
+     * Remove and return IDs of session keys expired before the given time, at most the given number of IDs.
+     * @param currentTime Current time in milliseconds.
+     * @param maxCount Maximum number of IDs to be returned.
+     * @return IDs of expired session keys.
+     */
+    public synchronized long[] pollExpired(long currentTime, int maxCount) {
+        long[] result = new long[Math.min(maxCount, size)];
+        int count = 0;
+        long currentBucket = currentTime / bucketSizeInMillis;
+        Iterator<Map.Entry<Long, Bucket>> iterator = buckets.entrySet().iterator();
+        while (iterator.hasNext() && count < result.length) {
+            Map.Entry<Long, Bucket> entry = iterator.next();
+            if (entry.getKey() > currentBucket) {
+                break;
+            }
+            Bucket bucket = entry.getValue();
+            // keys in buckets before the current one are all expired, the current bucket needs to be checked
+            int kept = 0;
+            for (int i = 0; i < bucket.size; i++) {
+                if (count < result.length && bucket.expirationTimes[i] < currentTime) {
+                    result[count++] = bucket.ids[i];
+                }
+                else {
+                    bucket.ids[kept] = bucket.ids[i];
+                    bucket.expirationTimes[kept] = bucket.expirationTimes[i];
+                    kept++;
+                }
+            }
+            size -= bucket.size - kept;
+            bucket.size = kept;
+            if (kept == 0) {
+                iterator.remove();
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    public synchronized void clear() {
+        buckets.clear();
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private final long bucketSizeInMillis;
+    private final TreeMap<Long, Bucket> buckets;
+    private int size;
+}
@@ -29,9 +29,12 @@ import java.util.Arrays;
  */
 public class CachedSessionKeyTable {
     public static final String T_CACHED_SESSION_KEY = "cached_session_key";
+    public static final String I_CACHED_SESSION_KEY_BY_PURPOSE = "cached_session_key_by_purpose";
 
     public enum c {
         ID,
+        // The Owners column keeps the initial owners only, selected records carry the current owners
+        // aggregated from SessionKeyOwnerTable.
         Owners,
         MaxNumOwners,
         Purpose,
@@ -188,15 +188,26 @@ public class CommunicationPolicyTable {
     }
 
     public static CommunicationPolicyTable createRecord(ResultSet r) throws SQLException {
+        return createRecord(r.getString(c.RequestingGroup.name()), r.getString(c.TargetType.name()),
+                r.getString(c.Target.name()), r.getInt(c.MaxNumSessionKeyOwners.name()),
+                r.getString(c.SessionCryptoSpec.name()), r.getString(c.AbsoluteValidity.name()),
+                r.getString(c.RelativeValidity.name()));
+    }
+
+    public static CommunicationPolicyTable createRecord(String reqGroup, String targetTypeVal, String target,
+            int maxNumSessionKeyOwners, String sessionCryptoSpec, String absValidityStr, String relValidityStr)
+    {
         CommunicationPolicyTable policy = new CommunicationPolicyTable();
-        policy.setReqGroup(r.getString(c.RequestingGroup.name()));
-        policy.setTargetTypeVal(r.getString(c.TargetType.name()));
-        policy.setTargetType(CommunicationTargetType.fromStringValue(r.getString(c.TargetType.name())));
-        policy.setTarget(r.getString(c.Target.name()));
-        policy.setMaxNumSessionKeyOwners(r.getInt(c.MaxNumSessionKeyOwners.name()));
-        policy.setSessionCryptoSpec(r.getString(c.SessionCryptoSpec.name()));
-        policy.setAbsValidity(DateHelper.parseTimePeriod(r.getString(c.AbsoluteValidity.name())));
-        policy.setRelValidity(DateHelper.parseTimePeriod(r.getString(c.RelativeValidity.name())));
+        policy.setReqGroup(reqGroup);
+        policy.setTargetTypeVal(targetTypeVal);
+        policy.setTargetType(CommunicationTargetType.fromStringValue(targetTypeVal));
+        policy.setTarget(target);
+        policy.setMaxNumSessionKeyOwners(maxNumSessionKeyOwners);
+        policy.setSessionCryptoSpec(sessionCryptoSpec);
+        policy.setAbsValidityStr(absValidityStr);
+        policy.setAbsValidity(DateHelper.parseTimePeriod(absValidityStr));
+        policy.setRelValidityStr(relValidityStr);
+        policy.setRelValidity(DateHelper.parseTimePeriod(relValidityStr));
         return policy;
     }
 }
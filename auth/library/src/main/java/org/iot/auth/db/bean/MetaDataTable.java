@@ -32,7 +32,9 @@ public class MetaDataTable {
     }
     public enum key {
         SessionKeyCount,
-        EncryptedDatabaseKey
+        EncryptedDatabaseKey,
+        RegistryDatabaseID,
+        RegistrySequence
     }
     private String key;
     private String value;
@@ -22,6 +22,7 @@ import java.security.PublicKey;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.function.UnaryOperator;
 
 /**
  * @author Salomon Lee, Hokeun Kim
@@ -51,12 +52,16 @@ public class RegisteredEntityTable {
     private String group;
     private String distProtocol;
     private boolean usePermanentDistKey;
-    private PublicKey publicKey = null;
+    // decoded from publicKeyVal on first use
+    private volatile PublicKey publicKey = null;
+    private byte[] publicKeyVal = null;
     private String distKeyValidityPeriod;
     private String publicKeyCryptoSpec;
     private String distCryptoSpec;
     private long distKeyExpirationTime = -1;
     private byte[] distKeyVal = null;
+    // decrypts distKeyVal on first use, null when distKeyVal is already in plain text
+    private UnaryOperator<byte[]> distKeyValDecoder = null;
     private int maxSessionKeysPerRequest;
     private boolean active;
     private String backupToAuthIDs = "";
@@ -97,10 +102,35 @@ public class RegisteredEntityTable {
     }
 
     public PublicKey getPublicKey() {
+        if (publicKey == null && publicKeyVal != null) {
+            // racing threads decode the same bytes into equal keys
+            publicKey = AuthCrypto.loadPublicKeyFromBytes(publicKeyVal);
+        }
         return publicKey;
     }
     public RegisteredEntityTable setPublicKey(PublicKey publicKey) {
         this.publicKey = publicKey;
+        this.publicKeyVal = null;
+        return this;
+    }
+    /**
+     * Get the encoded public key, without decoding it.
+     * @return X.509 encoded public key, or null if there is no public key.
+     */
+    public byte[] getPublicKeyVal() {
+        if (publicKeyVal == null && publicKey != null) {
+            return publicKey.getEncoded();
+        }
+        return publicKeyVal;
+    }
+    /**
+     * Set the encoded public key, which is decoded on the first call to {@link #getPublicKey()}.
+     * @param publicKeyVal X.509 encoded public key.
+     * @return This table element.
+     */
+    public RegisteredEntityTable setPublicKeyVal(byte[] publicKeyVal) {
+        this.publicKey = null;
+        this.publicKeyVal = publicKeyVal;
         return this;
     }
 
@@ -137,11 +167,50 @@ public class RegisteredEntityTable {
         return this;
     }
 
-    public byte[] getDistKeyVal() {
+    public synchronized byte[] getDistKeyVal() {
+        if (distKeyValDecoder != null) {
+            distKeyVal = distKeyValDecoder.apply(distKeyVal);
+            distKeyValDecoder = null;
+        }
         return distKeyVal;
     }
-    public RegisteredEntityTable setDistKeyVal(byte[] distKeyVal) {
-        this.distKeyVal = Arrays.copyOf(distKeyVal, distKeyVal.length);
+    public synchronized RegisteredEntityTable setDistKeyVal(byte[] distKeyVal) {
+        // null for an entity that has no distribution key yet
+        this.distKeyVal = distKeyVal == null ? null : Arrays.copyOf(distKeyVal, distKeyVal.length);
+        this.distKeyValDecoder = null;
+        return this;
+    }
+    /**
+     * Set a distribution key value as stored in the database, which is decoded on the first call to
+     * {@link #getDistKeyVal()}.
+     * @param encodedDistKeyVal Distribution key value as stored in the database.
+     * @param distKeyValDecoder Function that decodes the stored value into the plain distribution key value.
+     * @return This table element.
+     */
+    public synchronized RegisteredEntityTable setEncodedDistKeyVal(byte[] encodedDistKeyVal,
+                                                                   UnaryOperator<byte[]> distKeyValDecoder) {
+        this.distKeyVal = Arrays.copyOf(encodedDistKeyVal, encodedDistKeyVal.length);
+        this.distKeyValDecoder = distKeyValDecoder;
+        return this;
+    }
+
+    /**
+     * Take the distribution key of another record of the same entity, keeping it encoded if it is not decoded yet.
+     * @param other The record with the distribution key, or null to clear the distribution key.
+     * @return This record.
+     */
+    public synchronized RegisteredEntityTable setDistKey(RegisteredEntityTable other) {
+        if (other == null) {
+            this.distKeyVal = null;
+            this.distKeyValDecoder = null;
+            this.distKeyExpirationTime = -1;
+            return this;
+        }
+        synchronized (other) {
+            this.distKeyVal = other.distKeyVal;
+            this.distKeyValDecoder = other.distKeyValDecoder;
+            this.distKeyExpirationTime = other.distKeyExpirationTime;
+        }
         return this;
     }
 
@@ -202,7 +271,7 @@ public class RegisteredEntityTable {
         object.put(c.UsePermanentDistKey.name(), getUsePermanentDistKey());
         object.put(c.PublicKeyCryptoSpec.name(), getPublicKeyCryptoSpec());
         //object.put(c.PublicKeyValue.name(), getPublicKeyFile().toString());
-        object.put(c.PublicKeyValue.name(), getPublicKey().getEncoded());
+        object.put(c.PublicKeyValue.name(), getPublicKeyVal());
         object.put(c.MaxSessionKeysPerRequest.name(), getMaxSessionKeysPerRequest());
         object.put(c.Active.name(), isActive());
         object.put(c.BackupToAuthIDs.name(), getBackupToAuthIDs());
@@ -219,7 +288,7 @@ public class RegisteredEntityTable {
         entity.setPublicKeyCryptoSpec(resultSet.getString(c.PublicKeyCryptoSpec.name()));
         entity.setDistKeyValidityPeriod(resultSet.getString(c.DistKeyValidityPeriod.name()));
         if (!entity.getUsePermanentDistKey()) {
-            entity.setPublicKey(AuthCrypto.loadPublicKeyFromBytes(resultSet.getBytes(c.PublicKeyValue.name())));
+            entity.setPublicKeyVal(resultSet.getBytes(c.PublicKeyValue.name()));
         }
         entity.setDistCryptoSpec(resultSet.getString(c.DistCryptoSpec.name()));
         byte[] distKeyVal = resultSet.getBytes(c.DistKeyValue.name());
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.bean;
+
+import org.json.simple.JSONObject;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * A class for session key owner table in auth database, storing one row for each owner of a cached session key
+ * @author Hokeun Kim
+ */
+public class SessionKeyOwnerTable {
+    public static final String T_SESSION_KEY_OWNER = "session_key_owner";
+    public static final String I_SESSION_KEY_OWNER_BY_OWNER = "session_key_owner_by_owner";
+    public enum c {
+        KeyID,
+        Owner
+    }
+    private long keyID;
+    private String owner;
+
+    public long getKeyID() {
+        return keyID;
+    }
+    public void setKeyID(long keyID) {
+        this.keyID = keyID;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    @SuppressWarnings("unchecked")
+    public JSONObject toJSONObject() {
+        JSONObject object = new JSONObject();
+        object.put(c.KeyID.name(), getKeyID());
+        object.put(c.Owner.name(), getOwner());
+        return object;
+    }
+    public static SessionKeyOwnerTable createRecord(ResultSet resultSet) throws SQLException {
+        SessionKeyOwnerTable sessionKeyOwner = new SessionKeyOwnerTable();
+        sessionKeyOwner.setKeyID(resultSet.getLong(c.KeyID.name()));
+        sessionKeyOwner.setOwner(resultSet.getString(c.Owner.name()));
+        return sessionKeyOwner;
+    }
+}
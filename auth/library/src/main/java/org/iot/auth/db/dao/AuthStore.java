@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.db.bean.*;
+import org.iot.auth.io.Buffer;
+
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Storage of Auth's database, used by AuthDB for registered entities, communication policies, trusted Auths
+ * and meta data, in addition to cached session keys as a {@link SessionKeyStore}.
+ * @author Hokeun Kim
+ */
+public interface AuthStore extends SessionKeyStore {
+    /**
+     * Load the database key and open the storage.
+     * @param databaseKeystorePath File path for database keystore (public, private key pair)
+     * @param authKeyStorePassword Password for key stores and trust store for storing certificates of trusted Auths
+     * @param databaseEncryptionKeyPath File path for database encryption key (symmetric), ecrypted with public key
+     */
+    void initialize(String databaseKeystorePath, String authKeyStorePassword, String databaseEncryptionKeyPath)
+            throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, SQLException,
+            ClassNotFoundException, UnrecoverableEntryException;
+    void createTablesIfNotExists() throws SQLException, ClassNotFoundException;
+
+    boolean insertRecords(CommunicationPolicyTable policy) throws SQLException, ClassNotFoundException;
+    boolean insertRecords(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException;
+    boolean insertRecordsOrUpdateIfExists(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException;
+    int insertRecordsOrUpdateIfExists(List<RegisteredEntityTable> regEntities) throws SQLException;
+    boolean insertRecords(TrustedAuthTable auth) throws SQLException, ClassNotFoundException, CertificateEncodingException;
+    boolean insertRecords(MetaDataTable metaData) throws SQLException, ClassNotFoundException;
+
+    List<CommunicationPolicyTable> selectAllPolicies() throws SQLException, ClassNotFoundException;
+    List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir) throws SQLException, ClassNotFoundException;
+    /**
+     * Select the distribution keys of registered entities, without the other columns.
+     * @return Records of registered entities that have distribution keys, with only their names and
+     * distribution keys.
+     */
+    List<RegisteredEntityTable> selectAllRegEntityDistKeys() throws SQLException, ClassNotFoundException;
+    boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
+            throws SQLException, ClassNotFoundException;
+    boolean deleteBackedUpRegisteredEntities() throws SQLException;
+    boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException;
+
+    List<TrustedAuthTable> selectAllTrustedAuth() throws SQLException, ClassNotFoundException, CertificateEncodingException;
+    boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
+            throws SQLException, CertificateEncodingException;
+
+    String selectMetaDataValue(String key) throws SQLException, ClassNotFoundException;
+    boolean updateMetaData(String key, String value) throws SQLException, ClassNotFoundException;
+}
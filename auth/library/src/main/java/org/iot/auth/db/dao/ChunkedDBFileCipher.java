@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encrypts and decrypts database files chunk by chunk, so that memory use does not depend on the size of the
+ * database. Each chunk is encrypted and authenticated separately with the database key. The authenticated part of
+ * each chunk includes a nonce of the file, the index of the chunk and whether it is the last chunk, so that
+ * chunks cannot be reordered, dropped, truncated or mixed with chunks of another file.
+ *
+ * File format: MAGIC (8 bytes) | chunk size (4 bytes) | file nonce (8 bytes) | chunks,
+ * where a chunk is: length of encrypted chunk (4 bytes) | encrypted chunk,
+ * and an encrypted chunk contains: file nonce (8 bytes) | chunk index (8 bytes) | last chunk flag (1 byte) | data.
+ * @author Hokeun Kim
+ */
+public class ChunkedDBFileCipher {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedDBFileCipher.class);
+    private static final byte[] MAGIC = "IOTADBC1".getBytes(StandardCharsets.US_ASCII);
+    private static final int FILE_NONCE_SIZE = 8;
+    private static final int CHUNK_HEADER_SIZE = FILE_NONCE_SIZE + Buffer.LONG_SIZE + Buffer.BYTE_SIZE;
+    // encrypted chunks have padding, an IV and a MAC in addition to the chunk header and data
+    private static final int MAX_CHUNK_OVERHEAD = 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    public ChunkedDBFileCipher(SymmetricKey databaseKey, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive!");
+        }
+        this.databaseKey = databaseKey;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Check whether the file is in the chunked format, rather than encrypted as a whole.
+     * @param filePath Path of the encrypted file.
+     * @return Whether the file starts with the header of the chunked format.
+     * @throws IOException When the file cannot be read.
+     */
+    public static boolean isChunkedFormat(String filePath) throws IOException {
+        try (InputStream inputStream = new FileInputStream(filePath)) {
+            byte[] magic = new byte[MAGIC.length];
+            int read = 0;
+            while (read < magic.length) {
+                int count = inputStream.read(magic, read, magic.length - read);
+                if (count < 0) {
+                    return false;
+                }
+                read += count;
+            }
+            return Arrays.equals(magic, MAGIC);
+        }
+    }
+
+    /**
+     * Encrypt a plain file into a file in the chunked format.
+     * @param plainFilePath Path of the file to be encrypted.
+     * @param encryptedFilePath Path of the encrypted file to be written.
+     * @throws IOException When an error occurs in file IO.
+     */
+    public void encrypt(String plainFilePath, String encryptedFilePath) throws IOException {
+        Buffer fileNonce = AuthCrypto.getRandomBytes(FILE_NONCE_SIZE);
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(plainFilePath), chunkSize);
+             FileOutputStream fileOutputStream = new FileOutputStream(encryptedFilePath);
+             DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream))) {
+            outputStream.write(MAGIC);
+            outputStream.writeInt(chunkSize);
+            outputStream.write(fileNonce.getRawBytes());
+
+            byte[] data = new byte[chunkSize];
+            int dataLength = readChunk(inputStream, data);
+            long chunkIndex = 0;
+            while (true) {
+                // reading ahead by one chunk to find out the last chunk
+                byte[] nextData = new byte[chunkSize];
+                int nextDataLength = dataLength < chunkSize ? 0 : readChunk(inputStream, nextData);
+                boolean isLastChunk = nextDataLength == 0;
+
+                Buffer chunk = new Buffer(CHUNK_HEADER_SIZE + dataLength);
+                chunk.putBytes(fileNonce.getRawBytes(), 0);
+                chunk.putLong(chunkIndex, FILE_NONCE_SIZE);
+                chunk.putByte((byte) (isLastChunk ? 1 : 0), FILE_NONCE_SIZE + Buffer.LONG_SIZE);
+                chunk.putBytes(data, CHUNK_HEADER_SIZE, dataLength);
+                Buffer encryptedChunk = encryptChunk(chunk);
+                outputStream.writeInt(encryptedChunk.length());
+                outputStream.write(encryptedChunk.getRawBytes());
+
+                if (isLastChunk) {
+                    break;
+                }
+                data = nextData;
+                dataLength = nextDataLength;
+                chunkIndex++;
+            }
+            outputStream.flush();
+            // make sure the encrypted file is on the disk before it replaces the previous one
+            fileOutputStream.getFD().sync();
+        }
+    }
+
+    /**
+     * Decrypt a file in the chunked format into a plain file.
+     * @param encryptedFilePath Path of the encrypted file.
+     * @param plainFilePath Path of the plain file to be written.
+     * @throws IOException When an error occurs in file IO, or the encrypted file is corrupted or tampered.
+     */
+    public void decrypt(String encryptedFilePath, String plainFilePath) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(
+                     new BufferedInputStream(new FileInputStream(encryptedFilePath)));
+             OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(plainFilePath))) {
+            byte[] magic = new byte[MAGIC.length];
+            inputStream.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an Auth DB file in the chunked format!");
+            }
+            int fileChunkSize = inputStream.readInt();
+            byte[] fileNonce = new byte[FILE_NONCE_SIZE];
+            inputStream.readFully(fileNonce);
+
+            long expectedChunkIndex = 0;
+            boolean isLastChunk = false;
+            while (!isLastChunk) {
+                int encryptedChunkLength;
+                try {
+                    encryptedChunkLength = inputStream.readInt();
+                }
+                catch (EOFException e) {
+                    throw new IOException("Auth DB file is truncated before the last chunk!");
+                }
+                if (encryptedChunkLength <= 0 || encryptedChunkLength > fileChunkSize + MAX_CHUNK_OVERHEAD) {
+                    throw new IOException("Invalid chunk length in Auth DB file: " + encryptedChunkLength);
+                }
+                byte[] encryptedChunk = new byte[encryptedChunkLength];
+                inputStream.readFully(encryptedChunk);
+                Buffer chunk = decryptChunk(new Buffer(encryptedChunk));
+                if (chunk.length() < CHUNK_HEADER_SIZE
+                        || !Arrays.equals(chunk.slice(0, FILE_NONCE_SIZE).getRawBytes(), fileNonce)
+                        || chunk.getLong(FILE_NONCE_SIZE) != expectedChunkIndex) {
+                    throw new IOException("Chunk " + expectedChunkIndex + " of Auth DB file is out of place!");
+                }
+                isLastChunk = chunk.getByte(FILE_NONCE_SIZE + Buffer.LONG_SIZE) != 0;
+                outputStream.write(chunk.getRawBytes(), CHUNK_HEADER_SIZE, chunk.length() - CHUNK_HEADER_SIZE);
+                expectedChunkIndex++;
+            }
+            if (inputStream.read() >= 0) {
+                throw new IOException("Unexpected data after the last chunk of Auth DB file!");
+            }
+        }
+    }
+
+    private static int readChunk(InputStream inputStream, byte[] data) throws IOException {
+        int length = 0;
+        while (length < data.length) {
+            int count = inputStream.read(data, length, data.length - length);
+            if (count < 0) {
+                break;
+            }
+            length += count;
+        }
+        return length;
+    }
+
+    private Buffer encryptChunk(Buffer chunk) {
+        // the database key caches its cipher, so it is guarded against concurrent use
+        try {
+            synchronized (databaseKey) {
+                return databaseKey.encryptAuthenticate(chunk);
+            }
+        }
+        catch (Exception e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while encrypting Auth DB chunk!");
+        }
+    }
+
+    private Buffer decryptChunk(Buffer encryptedChunk) throws IOException {
+        try {
+            synchronized (databaseKey) {
+                return databaseKey.decryptVerify(encryptedChunk);
+            }
+        }
+        catch (Exception e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new IOException("Chunk of Auth DB file cannot be decrypted or verified!");
+        }
+    }
+
+    private final SymmetricKey databaseKey;
+    private final int chunkSize;
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.bean.*;
+import org.iot.auth.io.Buffer;
+
+import java.io.IOException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An {@link AuthStore} that keeps cached session keys in a separate {@link SessionKeyStore}, and the other
+ * records of Auth's database in another {@link AuthStore}. Transactions span both stores, but the two stores are
+ * not committed atomically. The other records are committed first, so that if committing the session key store
+ * fails, only the cached session keys of the transaction are lost, and new session keys are generated for later
+ * requests.
+ * @author Hokeun Kim
+ */
+public class CompositeAuthStore implements AuthStore {
+    public CompositeAuthStore(AuthStore authStore, SessionKeyStore sessionKeyStore) {
+        this.authStore = authStore;
+        this.sessionKeyStore = sessionKeyStore;
+    }
+
+    public void initialize(String databaseKeystorePath, String authKeyStorePassword, String databaseEncryptionKeyPath)
+            throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, SQLException,
+            ClassNotFoundException, UnrecoverableEntryException
+    {
+        initialize(SQLiteConnector.loadDatabaseKey(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath));
+    }
+
+    public void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException {
+        authStore.initialize(databaseKey);
+        sessionKeyStore.initialize(databaseKey);
+    }
+
+    public void createTablesIfNotExists() throws SQLException, ClassNotFoundException {
+        authStore.createTablesIfNotExists();
+    }
+
+    public void close() throws SQLException, IOException {
+        try {
+            sessionKeyStore.close();
+        }
+        finally {
+            authStore.close();
+        }
+    }
+
+    public void writeEncryptedCheckpoint() throws SQLException, IOException {
+        sessionKeyStore.writeEncryptedCheckpoint();
+        authStore.writeEncryptedCheckpoint();
+    }
+
+    public void beginTransaction() throws SQLException {
+        authStore.beginTransaction();
+        try {
+            sessionKeyStore.beginTransaction();
+        }
+        catch (SQLException | RuntimeException e) {
+            authStore.rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /**
+     * Commit the transaction of each store. If it fails, the transaction is ended by {@link #rollbackTransaction()},
+     * which rolls back only the stores not committed yet.
+     */
+    public void commitTransaction() throws SQLException {
+        authStore.commitTransaction();
+        authStoreCommitted = true;
+        sessionKeyStore.commitTransaction();
+        authStoreCommitted = false;
+    }
+
+    public void rollbackTransaction() throws SQLException {
+        if (authStoreCommitted) {
+            authStoreCommitted = false;
+            sessionKeyStore.rollbackTransaction();
+            return;
+        }
+        try {
+            sessionKeyStore.rollbackTransaction();
+        }
+        finally {
+            authStore.rollbackTransaction();
+        }
+    }
+
+    public boolean insertRecords(CommunicationPolicyTable policy) throws SQLException, ClassNotFoundException {
+        return authStore.insertRecords(policy);
+    }
+
+    public boolean insertRecords(RegisteredEntityTable regEntity) throws SQLException, ClassNotFoundException {
+        return authStore.insertRecords(regEntity);
+    }
+
+    public boolean insertRecordsOrUpdateIfExists(RegisteredEntityTable regEntity)
+            throws SQLException, ClassNotFoundException
+    {
+        return authStore.insertRecordsOrUpdateIfExists(regEntity);
+    }
+
+    public int insertRecordsOrUpdateIfExists(List<RegisteredEntityTable> regEntities) throws SQLException {
+        return authStore.insertRecordsOrUpdateIfExists(regEntities);
+    }
+
+    public boolean insertRecords(TrustedAuthTable auth)
+            throws SQLException, ClassNotFoundException, CertificateEncodingException
+    {
+        return authStore.insertRecords(auth);
+    }
+
+    public boolean insertRecords(MetaDataTable metaData) throws SQLException, ClassNotFoundException {
+        return authStore.insertRecords(metaData);
+    }
+
+    public List<CommunicationPolicyTable> selectAllPolicies() throws SQLException, ClassNotFoundException {
+        return authStore.selectAllPolicies();
+    }
+
+    public List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir)
+            throws SQLException, ClassNotFoundException
+    {
+        return authStore.selectAllRegEntities(authDatabaseDir);
+    }
+
+    public List<RegisteredEntityTable> selectAllRegEntityDistKeys() throws SQLException, ClassNotFoundException {
+        return authStore.selectAllRegEntityDistKeys();
+    }
+
+    public boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
+            throws SQLException, ClassNotFoundException
+    {
+        return authStore.updateRegEntityDistKey(regEntityName, distKeyExpirationTime, distKeyVal);
+    }
+
+    public boolean deleteBackedUpRegisteredEntities() throws SQLException {
+        return authStore.deleteBackedUpRegisteredEntities();
+    }
+
+    public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
+        return authStore.deleteRegisteredEntities(registeredEntityNameList);
+    }
+
+    public List<TrustedAuthTable> selectAllTrustedAuth()
+            throws SQLException, ClassNotFoundException, CertificateEncodingException
+    {
+        return authStore.selectAllTrustedAuth();
+    }
+
+    public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
+            throws SQLException, CertificateEncodingException
+    {
+        return authStore.updateBackupCertificate(backupFromAuthID, backupCertificate);
+    }
+
+    public String selectMetaDataValue(String key) throws SQLException, ClassNotFoundException {
+        return authStore.selectMetaDataValue(key);
+    }
+
+    public boolean updateMetaData(String key, String value) throws SQLException, ClassNotFoundException {
+        return authStore.updateMetaData(key, value);
+    }
+
+    public boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException, ClassNotFoundException {
+        return sessionKeyStore.insertRecords(cachedSessionKey);
+    }
+
+    public List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException, ClassNotFoundException {
+        return sessionKeyStore.selectAllCachedSessionKey();
+    }
+
+    public CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException, ClassNotFoundException {
+        return sessionKeyStore.selectCachedSessionKeyByID(id);
+    }
+
+    public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
+            throws SQLException, ClassNotFoundException
+    {
+        return sessionKeyStore.selectCachedSessionKeysByPurpose(requestingEntityName, purpose);
+    }
+
+    public boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException {
+        return sessionKeyStore.appendSessionKeyOwner(keyID, newOwner);
+    }
+
+    public boolean deleteExpiredCahcedSessionKeys() throws SQLException, ClassNotFoundException {
+        return sessionKeyStore.deleteExpiredCahcedSessionKeys();
+    }
+
+    public int deleteCachedSessionKeysByIDs(long[] keyIDs) throws SQLException {
+        return sessionKeyStore.deleteCachedSessionKeysByIDs(keyIDs);
+    }
+
+    public boolean deleteAllCachedSessionKeys() throws SQLException, ClassNotFoundException {
+        return sessionKeyStore.deleteAllCachedSessionKeys();
+    }
+
+    public long selectMaxCachedSessionKeyID(long minID, long maxID) throws SQLException {
+        return sessionKeyStore.selectMaxCachedSessionKeyID(minID, maxID);
+    }
+
+    public Map<Long, Long> selectCachedSessionKeyExpirationTimes() throws SQLException {
+        return sessionKeyStore.selectCachedSessionKeyExpirationTimes();
+    }
+
+    public boolean isSessionKeyPartitioningEnabled() {
+        return sessionKeyStore.isSessionKeyPartitioningEnabled();
+    }
+
+    public int dropExpiredSessionKeyPartitions(long currentTime) throws SQLException {
+        return sessionKeyStore.dropExpiredSessionKeyPartitions(currentTime);
+    }
+
+    private final AuthStore authStore;
+    private final SessionKeyStore sessionKeyStore;
+    // the auth store is committed but the session key store is not, guarded by the session key store's lock
+    private boolean authStoreCommitted = false;
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of decrypted values of cached session keys, keyed by session key IDs, so that session keys
+ * read repeatedly from Auth DB are not decrypted with the database key every time. The least recently used
+ * entries are evicted first, and expired entries are not returned. Values are wiped when they are evicted or
+ * invalidated, and are copied in and out, so that the cache never shares its arrays with callers.
+ * @author Hokeun Kim
+ */
+class DecryptedSessionKeyCache {
+    private static class Entry {
+        private Entry(byte[] keyVal, long expirationTime) {
+            this.keyVal = keyVal;
+            this.expirationTime = expirationTime;
+        }
+        private final byte[] keyVal;
+        private final long expirationTime;
+    }
+
+    DecryptedSessionKeyCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of decrypted session key cache should be positive!");
+        }
+        this.capacity = capacity;
+        // access-ordered for evicting the least recently used entry
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Get the decrypted value of a session key.
+     * @param keyID ID of the session key.
+     * @param currentTime Current time in milliseconds.
+     * @return A copy of the decrypted value, or null if it is not cached or expired.
+     */
+    synchronized byte[] get(long keyID, long currentTime) {
+        Entry entry = entries.get(keyID);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+        if (entry.expirationTime < currentTime) {
+            entries.remove(keyID);
+            wipe(entry);
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return entry.keyVal.clone();
+    }
+
+    synchronized void put(long keyID, byte[] keyVal, long expirationTime) {
+        Entry previousEntry = entries.put(keyID, new Entry(keyVal.clone(), expirationTime));
+        if (previousEntry != null) {
+            wipe(previousEntry);
+        }
+        if (entries.size() > capacity) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            wipe(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    synchronized void invalidate(long keyID) {
+        Entry entry = entries.remove(keyID);
+        if (entry != null) {
+            wipe(entry);
+        }
+    }
+
+    synchronized void invalidateExpired(long currentTime) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expirationTime < currentTime) {
+                wipe(entry);
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        for (Entry entry: entries.values()) {
+            wipe(entry);
+        }
+        entries.clear();
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private static void wipe(Entry entry) {
+        Arrays.fill(entry.keyVal, (byte) 0);
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Long, Entry> entries;
+    private long hitCount = 0;
+    private long missCount = 0;
+}
@@ -0,0 +1,1198 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.bean.*;
+import org.iot.auth.io.Buffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Storage of Auth's database in an {@link EncryptedPageFile}, so that only the pages that are read or written are
+ * decrypted or encrypted, instead of the entire database.
+ *
+ * Records are appended to a log laid over the pages, and an in-memory index keeps the position of the latest
+ * version of each record. Updated and deleted records are left as garbage in the log, and the log is compacted
+ * when garbage takes more space than live records.
+ *
+ * Record format: length (4 bytes) | type (1 byte) | key (UTF) | deleted (1 byte) | value,
+ * where a length of 0 marks the end of the log.
+ * @author Hokeun Kim
+ */
+public class EncryptedPageAuthStore implements AuthStore {
+    private static final Logger logger = LoggerFactory.getLogger(EncryptedPageAuthStore.class);
+    public static final int DEFAULT_PAGE_CACHE_SIZE = 1024;
+    private static final long MIN_GARBAGE_SIZE_TO_COMPACT = 1024 * 1024;
+
+    private static final byte REGISTERED_ENTITY = 1;
+    private static final byte COMMUNICATION_POLICY = 2;
+    private static final byte TRUSTED_AUTH = 3;
+    private static final byte CACHED_SESSION_KEY = 4;
+    private static final byte META_DATA = 5;
+
+    /**
+     * Fields of a cached session key that are kept in memory, for selecting session keys without reading them.
+     */
+    private static class SessionKeyEntry {
+        private SessionKeyEntry(String purpose, long expirationTime, int maxNumOwners, String owners) {
+            this.purpose = purpose;
+            this.expirationTime = expirationTime;
+            this.maxNumOwners = maxNumOwners;
+            this.owners = new HashSet<>(Arrays.asList(owners.split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM)));
+        }
+        private final String purpose;
+        private final long expirationTime;
+        private final int maxNumOwners;
+        private final Set<String> owners;
+    }
+
+    /**
+     * State of the log when a (nested) transaction began, for rolling back only the records of that transaction.
+     */
+    private static class Savepoint {
+        private Savepoint(long tail, long garbageSize, long policyCount, int undoCount) {
+            this.tail = tail;
+            this.garbageSize = garbageSize;
+            this.policyCount = policyCount;
+            this.undoCount = undoCount;
+        }
+        private final long tail;
+        private final long garbageSize;
+        private final long policyCount;
+        // number of undo actions when the transaction began
+        private final int undoCount;
+    }
+
+    public EncryptedPageAuthStore(String dbPath, int pageCacheSize) {
+        this.dbPath = Paths.get(dbPath);
+        this.pageCacheSize = pageCacheSize;
+    }
+
+    public void initialize(String databaseKeystorePath, String authKeyStorePassword, String databaseEncryptionKeyPath)
+            throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, SQLException,
+            ClassNotFoundException, UnrecoverableEntryException
+    {
+        initialize(SQLiteConnector.loadDatabaseKey(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath));
+    }
+
+    public void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException {
+        this.databaseKey = databaseKey;
+        lock.lock();
+        try {
+            pageFile = new EncryptedPageFile(dbPath, databaseKey, EncryptedPageFile.DEFAULT_PAGE_SIZE, pageCacheSize);
+            try {
+                loadIndexes();
+            }
+            catch (SQLException e) {
+                pageFile.close();
+                pageFile = null;
+                throw e;
+            }
+            logger.info("Opened Auth DB pages at {}, records: {}, log size: {}, garbage: {}",
+                    dbPath, countLiveRecords(), tail, garbageSize);
+            compactIfNeeded();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void createTablesIfNotExists() {
+        // records of all types share the same log
+    }
+
+    public void close() throws SQLException, IOException {
+        lock.lock();
+        try {
+            if (pageFile != null) {
+                pageFile.close();
+                pageFile = null;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Changes are persisted as they are made, so a checkpoint only compacts the log when needed.
+     */
+    public void writeEncryptedCheckpoint() throws SQLException, IOException {
+        lock.lock();
+        try {
+            pageFile.flush();
+            compactIfNeeded();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Begin a transaction, which may be nested in another transaction of the same thread. Records written in
+     * the transaction are flushed together when the outermost transaction is committed.
+     */
+    public void beginTransaction() {
+        lock.lock();
+        savepoints.push(new Savepoint(tail, garbageSize, policyCount, undoActions.size()));
+    }
+
+    public void commitTransaction() throws SQLException {
+        // a failed flush leaves the transaction open, to be rolled back by the caller
+        if (savepoints.size() == 1) {
+            flush();
+            undoActions.clear();
+        }
+        savepoints.pop();
+        lock.unlock();
+    }
+
+    /**
+     * Discard records written since the innermost transaction began, by undoing their changes to the indexes
+     * and truncating the log at the start of the transaction.
+     */
+    public void rollbackTransaction() throws SQLException {
+        try {
+            Savepoint savepoint = savepoints.pop();
+            for (int i = undoActions.size() - 1; i >= savepoint.undoCount; i--) {
+                undoActions.remove(i).run();
+            }
+            tail = savepoint.tail;
+            garbageSize = savepoint.garbageSize;
+            policyCount = savepoint.policyCount;
+            truncateLog(tail);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean insertRecords(CommunicationPolicyTable policy) throws SQLException {
+        lock.lock();
+        try {
+            appendRecord(COMMUNICATION_POLICY, Long.toString(policyCount), serialize(policy));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean insertRecords(RegisteredEntityTable regEntity) throws SQLException {
+        lock.lock();
+        try {
+            if (registeredEntities.containsKey(regEntity.getName())) {
+                throw new SQLException("Registered entity already exists: " + regEntity.getName());
+            }
+            appendRecord(REGISTERED_ENTITY, regEntity.getName(), serialize(regEntity));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean insertRecordsOrUpdateIfExists(RegisteredEntityTable regEntity) throws SQLException {
+        lock.lock();
+        try {
+            appendRecord(REGISTERED_ENTITY, regEntity.getName(), serialize(regEntity));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int insertRecordsOrUpdateIfExists(List<RegisteredEntityTable> regEntities) throws SQLException {
+        beginTransaction();
+        try {
+            for (RegisteredEntityTable regEntity: regEntities) {
+                appendRecord(REGISTERED_ENTITY, regEntity.getName(), serialize(regEntity));
+            }
+            commitTransaction();
+        }
+        catch (SQLException | RuntimeException e) {
+            rollbackTransaction();
+            throw e;
+        }
+        return regEntities.size();
+    }
+
+    public boolean insertRecords(TrustedAuthTable auth) throws SQLException, CertificateEncodingException {
+        lock.lock();
+        try {
+            String key = Integer.toString(auth.getId());
+            if (trustedAuths.containsKey(key)) {
+                throw new SQLException("Trusted Auth already exists: " + key);
+            }
+            appendRecord(TRUSTED_AUTH, key, serialize(auth));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException {
+        lock.lock();
+        try {
+            appendRecord(CACHED_SESSION_KEY, Long.toString(cachedSessionKey.getID()), serialize(cachedSessionKey));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean insertRecords(MetaDataTable metaData) throws SQLException {
+        lock.lock();
+        try {
+            if (metaDataRecords.containsKey(metaData.getKey())) {
+                throw new SQLException("Meta data already exists: " + metaData.getKey());
+            }
+            appendRecord(META_DATA, metaData.getKey(), serialize(metaData));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<CommunicationPolicyTable> selectAllPolicies() throws SQLException {
+        lock.lock();
+        try {
+            List<CommunicationPolicyTable> policies = new LinkedList<>();
+            for (long position: communicationPolicies.values()) {
+                policies.add(deserializePolicy(readValue(position)));
+            }
+            return policies;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir) throws SQLException {
+        lock.lock();
+        try {
+            List<RegisteredEntityTable> entities = new LinkedList<>();
+            for (long position: registeredEntities.values()) {
+                entities.add(deserializeRegisteredEntity(readValue(position)));
+            }
+            return entities;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<RegisteredEntityTable> selectAllRegEntityDistKeys() throws SQLException {
+        lock.lock();
+        try {
+            List<RegisteredEntityTable> entities = new LinkedList<>();
+            for (long position: registeredEntities.values()) {
+                RegisteredEntityTable regEntity = deserializeRegisteredEntity(readValue(position));
+                if (regEntity.getDistKeyVal() != null) {
+                    entities.add(new RegisteredEntityTable().setName(regEntity.getName())
+                            .setDistKeyExpirationTime(regEntity.getDistKeyExpirationTime())
+                            .setDistKeyVal(regEntity.getDistKeyVal()));
+                }
+            }
+            return entities;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
+            throws SQLException
+    {
+        lock.lock();
+        try {
+            Long position = registeredEntities.get(regEntityName);
+            if (position == null) {
+                return false;
+            }
+            RegisteredEntityTable regEntity = deserializeRegisteredEntity(readValue(position));
+            regEntity.setDistKeyExpirationTime(distKeyExpirationTime);
+            regEntity.setDistKeyVal(distKeyVal.getRawBytes());
+            appendRecord(REGISTERED_ENTITY, regEntityName, serialize(regEntity));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean deleteBackedUpRegisteredEntities() throws SQLException {
+        lock.lock();
+        try {
+            List<String> backedUpEntityNames = new ArrayList<>();
+            for (Map.Entry<String, Long> entry: registeredEntities.entrySet()) {
+                if (deserializeRegisteredEntity(readValue(entry.getValue())).getBackupFromAuthID() >= 0) {
+                    backedUpEntityNames.add(entry.getKey());
+                }
+            }
+            for (String name: backedUpEntityNames) {
+                appendRecord(REGISTERED_ENTITY, name, null);
+            }
+            flushIfNotInTransaction();
+            return !backedUpEntityNames.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
+        if (registeredEntityNameList.isEmpty()) {
+            throw new RuntimeException("The list of names of registered entities to be removed is empty!");
+        }
+        lock.lock();
+        try {
+            boolean result = false;
+            for (String name: registeredEntityNameList) {
+                if (registeredEntities.containsKey(name)) {
+                    appendRecord(REGISTERED_ENTITY, name, null);
+                    result = true;
+                }
+            }
+            flushIfNotInTransaction();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<TrustedAuthTable> selectAllTrustedAuth() throws SQLException {
+        lock.lock();
+        try {
+            List<TrustedAuthTable> authList = new LinkedList<>();
+            for (long position: trustedAuths.values()) {
+                authList.add(deserializeTrustedAuth(readValue(position)));
+            }
+            return authList;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
+            throws SQLException, CertificateEncodingException
+    {
+        lock.lock();
+        try {
+            String key = Integer.toString(backupFromAuthID);
+            Long position = trustedAuths.get(key);
+            if (position == null) {
+                return false;
+            }
+            TrustedAuthTable auth = deserializeTrustedAuth(readValue(position));
+            auth.setBackupCertificate(backupCertificate);
+            appendRecord(TRUSTED_AUTH, key, serialize(auth));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException {
+        lock.lock();
+        try {
+            List<CachedSessionKeyTable> cachedSessionKeyList = new LinkedList<>();
+            for (long position: sessionKeyPositions.values()) {
+                cachedSessionKeyList.add(deserializeCachedSessionKey(readValue(position)));
+            }
+            return cachedSessionKeyList;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException {
+        lock.lock();
+        try {
+            Long position = sessionKeyPositions.get(id);
+            return position == null ? null : deserializeCachedSessionKey(readValue(position));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
+            throws SQLException
+    {
+        long currentTime = new Date().getTime();
+        lock.lock();
+        try {
+            List<CachedSessionKeyTable> result = new LinkedList<>();
+            Set<Long> keyIDs = sessionKeyIDsByPurpose.get(purpose);
+            if (keyIDs == null) {
+                return result;
+            }
+            for (long keyID: keyIDs) {
+                SessionKeyEntry sessionKeyEntry = sessionKeyEntries.get(keyID);
+                if (sessionKeyEntry.expirationTime > currentTime
+                        && !sessionKeyEntry.owners.contains(requestingEntityName)
+                        && sessionKeyEntry.owners.size() < sessionKeyEntry.maxNumOwners) {
+                    result.add(deserializeCachedSessionKey(readValue(sessionKeyPositions.get(keyID))));
+                }
+            }
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException {
+        lock.lock();
+        try {
+            SessionKeyEntry sessionKeyEntry = sessionKeyEntries.get(keyID);
+            if (sessionKeyEntry == null || sessionKeyEntry.owners.contains(newOwner)
+                    || sessionKeyEntry.owners.size() >= sessionKeyEntry.maxNumOwners) {
+                return false;
+            }
+            CachedSessionKeyTable cachedSessionKey = deserializeCachedSessionKey(readValue(sessionKeyPositions.get(keyID)));
+            cachedSessionKey.setOwner(cachedSessionKey.getOwner() + SessionKey.SESSION_KEY_OWNER_NAME_DELIM + newOwner);
+            appendRecord(CACHED_SESSION_KEY, Long.toString(keyID), serialize(cachedSessionKey));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean deleteExpiredCahcedSessionKeys() throws SQLException {
+        long currentTime = new Date().getTime();
+        lock.lock();
+        try {
+            List<Long> expiredKeyIDs = new ArrayList<>();
+            for (Map.Entry<Long, SessionKeyEntry> entry: sessionKeyEntries.entrySet()) {
+                if (entry.getValue().expirationTime < currentTime) {
+                    expiredKeyIDs.add(entry.getKey());
+                }
+            }
+            for (long keyID: expiredKeyIDs) {
+                appendRecord(CACHED_SESSION_KEY, Long.toString(keyID), null);
+            }
+            flushIfNotInTransaction();
+            return !expiredKeyIDs.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int deleteCachedSessionKeysByIDs(long[] keyIDs) throws SQLException {
+        lock.lock();
+        try {
+            int result = 0;
+            for (long keyID: keyIDs) {
+                if (sessionKeyPositions.containsKey(keyID)) {
+                    appendRecord(CACHED_SESSION_KEY, Long.toString(keyID), null);
+                    result++;
+                }
+            }
+            flushIfNotInTransaction();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean deleteAllCachedSessionKeys() throws SQLException {
+        lock.lock();
+        try {
+            List<Long> keyIDs = new ArrayList<>(sessionKeyPositions.keySet());
+            for (long keyID: keyIDs) {
+                appendRecord(CACHED_SESSION_KEY, Long.toString(keyID), null);
+            }
+            flushIfNotInTransaction();
+            return !keyIDs.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long selectMaxCachedSessionKeyID(long minID, long maxID) {
+        lock.lock();
+        try {
+            long maxKeyID = -1;
+            for (long keyID: sessionKeyEntries.keySet()) {
+                if (keyID >= minID && keyID <= maxID && keyID > maxKeyID) {
+                    maxKeyID = keyID;
+                }
+            }
+            return maxKeyID;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<Long, Long> selectCachedSessionKeyExpirationTimes() {
+        lock.lock();
+        try {
+            Map<Long, Long> expirationTimes = new HashMap<>();
+            for (Map.Entry<Long, SessionKeyEntry> entry: sessionKeyEntries.entrySet()) {
+                expirationTimes.put(entry.getKey(), entry.getValue().expirationTime);
+            }
+            return expirationTimes;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isSessionKeyPartitioningEnabled() {
+        return false;
+    }
+
+    public int dropExpiredSessionKeyPartitions(long currentTime) {
+        return 0;
+    }
+
+    public String selectMetaDataValue(String key) throws SQLException {
+        lock.lock();
+        try {
+            Long position = metaDataRecords.get(key);
+            return position == null ? null : deserializeMetaData(readValue(position)).getValue();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean updateMetaData(String key, String value) throws SQLException {
+        lock.lock();
+        try {
+            if (!metaDataRecords.containsKey(key)) {
+                return false;
+            }
+            MetaDataTable metaData = new MetaDataTable();
+            metaData.setKey(key);
+            metaData.setValue(value);
+            appendRecord(META_DATA, key, serialize(metaData));
+            flushIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Log of records over pages
+
+    private void flushIfNotInTransaction() throws SQLException {
+        if (savepoints.isEmpty()) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        try {
+            pageFile.flush();
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to write pages of Auth DB!", e);
+        }
+    }
+
+    private void appendRecord(byte type, String key, byte[] value) throws SQLException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            output.writeInt(0);
+            output.writeByte(type);
+            output.writeUTF(key);
+            output.writeBoolean(value == null);
+            if (value != null) {
+                output.write(value);
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize a record of Auth DB!", e);
+        }
+        byte[] record = byteStream.toByteArray();
+        int length = record.length - Buffer.INT_SIZE;
+        record[0] = (byte) (length >>> 24);
+        record[1] = (byte) (length >>> 16);
+        record[2] = (byte) (length >>> 8);
+        record[3] = (byte) length;
+        long position = tail;
+        writeBytes(pageFile, position, record);
+        tail += record.length;
+        applyRecord(position, record, Buffer.INT_SIZE);
+    }
+
+    /**
+     * Update the in-memory indexes with a record.
+     * @param position Position of the record in the log.
+     * @param record Bytes of the record.
+     * @param offset Offset of the type of the record in the bytes, after its length.
+     */
+    private void applyRecord(long position, byte[] record, int offset) throws SQLException {
+        long recordSize = record.length - offset + Buffer.INT_SIZE;
+        try {
+            DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(record, offset, record.length - offset));
+            byte type = input.readByte();
+            String key = input.readUTF();
+            boolean isDeleted = input.readBoolean();
+            Long newPosition = isDeleted ? null : position;
+            Long previousPosition;
+            switch (type) {
+                case REGISTERED_ENTITY:
+                    previousPosition = updateIndex(registeredEntities, key, newPosition);
+                    break;
+                case COMMUNICATION_POLICY:
+                    previousPosition = updateIndex(communicationPolicies, Long.parseLong(key), position);
+                    policyCount = Math.max(policyCount, Long.parseLong(key) + 1);
+                    break;
+                case TRUSTED_AUTH:
+                    previousPosition = updateIndex(trustedAuths, key, newPosition);
+                    break;
+                case CACHED_SESSION_KEY:
+                    long keyID = Long.parseLong(key);
+                    SessionKeyEntry sessionKeyEntry = null;
+                    if (!isDeleted) {
+                        CachedSessionKeyTable cachedSessionKey = deserializeCachedSessionKey(input);
+                        sessionKeyEntry = new SessionKeyEntry(cachedSessionKey.getPurpose(),
+                                cachedSessionKey.getAbsValidity(), cachedSessionKey.getMaxNumOwners(),
+                                cachedSessionKey.getOwner());
+                    }
+                    previousPosition = updateIndex(sessionKeyPositions, keyID, newPosition);
+                    SessionKeyEntry previousEntry = updateIndex(sessionKeyEntries, keyID, sessionKeyEntry);
+                    if (previousEntry != null) {
+                        updatePurposeIndex(previousEntry.purpose, keyID, false);
+                    }
+                    if (sessionKeyEntry != null) {
+                        updatePurposeIndex(sessionKeyEntry.purpose, keyID, true);
+                    }
+                    break;
+                case META_DATA:
+                    previousPosition = updateIndex(metaDataRecords, key, newPosition);
+                    break;
+                default:
+                    throw new SQLException("Unknown type of Auth DB record: " + type);
+            }
+            if (previousPosition != null) {
+                garbageSize += readInt(previousPosition) + Buffer.INT_SIZE;
+            }
+            if (isDeleted) {
+                garbageSize += recordSize;
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to parse a record of Auth DB!", e);
+        }
+    }
+
+    /**
+     * Put or remove (for a null value) an entry of an index, and keep the previous entry for undoing the change
+     * when it is made in a transaction.
+     * @return The previous value, or null if there was none.
+     */
+    private <K, V> V updateIndex(Map<K, V> index, K key, V value) {
+        V previousValue = value == null ? index.remove(key) : index.put(key, value);
+        if (!savepoints.isEmpty()) {
+            undoActions.add(() -> {
+                if (previousValue == null) {
+                    index.remove(key);
+                }
+                else {
+                    index.put(key, previousValue);
+                }
+            });
+        }
+        return previousValue;
+    }
+
+    /**
+     * Add or remove the ID of a session key in the set of its purpose, and keep the change for undoing it
+     * when it is made in a transaction.
+     */
+    private void updatePurposeIndex(String purpose, long keyID, boolean isAdded) {
+        if (changePurposeIndex(purpose, keyID, isAdded) && !savepoints.isEmpty()) {
+            undoActions.add(() -> changePurposeIndex(purpose, keyID, !isAdded));
+        }
+    }
+
+    private boolean changePurposeIndex(String purpose, long keyID, boolean isAdded) {
+        if (isAdded) {
+            return sessionKeyIDsByPurpose.computeIfAbsent(purpose, k -> new LinkedHashSet<>()).add(keyID);
+        }
+        Set<Long> keyIDs = sessionKeyIDsByPurpose.get(purpose);
+        if (keyIDs == null || !keyIDs.remove(keyID)) {
+            return false;
+        }
+        if (keyIDs.isEmpty()) {
+            sessionKeyIDsByPurpose.remove(purpose);
+        }
+        return true;
+    }
+
+    /**
+     * Rebuild the in-memory indexes by scanning the log, which ends at a record length of 0 or at the end of pages.
+     * The page file is rolled back to its last flush when it is opened, so every record up to the end of the log
+     * was committed, and a record that cannot be read or parsed means that the file is corrupted or encrypted
+     * with another key. The store then refuses to open, instead of discarding the records after it.
+     */
+    private void loadIndexes() throws SQLException {
+        registeredEntities.clear();
+        communicationPolicies.clear();
+        trustedAuths.clear();
+        sessionKeyPositions.clear();
+        sessionKeyEntries.clear();
+        sessionKeyIDsByPurpose.clear();
+        metaDataRecords.clear();
+        policyCount = 0;
+        garbageSize = 0;
+        long capacity = getCapacity();
+        long position = 0;
+        while (position + Buffer.INT_SIZE <= capacity) {
+            try {
+                int length = readInt(position);
+                if (length <= 0 || position + Buffer.INT_SIZE + length > capacity) {
+                    break;
+                }
+                byte[] record = readBytes(position + Buffer.INT_SIZE, length);
+                applyRecord(position, record, 0);
+                position += Buffer.INT_SIZE + length;
+            }
+            catch (SQLException e) {
+                throw new SQLException("Auth DB at " + dbPath + " cannot be read from position " + position
+                        + " of " + capacity + ", the database may be corrupted!", e);
+            }
+        }
+        tail = position;
+    }
+
+    /**
+     * Discard records from the given position to the end of the log, without changing the indexes. The truncated
+     * log is flushed unless it is in a transaction, whose commit flushes it.
+     */
+    private void truncateLog(long position) throws SQLException {
+        try {
+            int pageSize = pageFile.getPageSize();
+            long pageNumber = position / pageSize;
+            int offset = (int) (position % pageSize);
+            if (offset == 0) {
+                // the page is not read, as it may be the one that cannot be read
+                pageFile.truncate(pageNumber);
+            }
+            else if (pageNumber < pageFile.getPageCount()) {
+                byte[] page = Arrays.copyOf(pageFile.readPage(pageNumber), pageSize);
+                Arrays.fill(page, offset, pageSize, (byte) 0);
+                pageFile.writePage(pageNumber, page);
+                pageFile.truncate(pageNumber + 1);
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to truncate pages of Auth DB!", e);
+        }
+        flushIfNotInTransaction();
+    }
+
+    private long getCapacity() {
+        return pageFile.getPageCount() * pageFile.getPageSize();
+    }
+
+    private long countLiveRecords() {
+        return registeredEntities.size() + communicationPolicies.size() + trustedAuths.size()
+                + sessionKeyPositions.size() + metaDataRecords.size();
+    }
+
+    /**
+     * Rewrite live records into a new page file, when garbage takes more space than live records.
+     */
+    private void compactIfNeeded() throws SQLException, IOException {
+        if (!savepoints.isEmpty() || garbageSize < MIN_GARBAGE_SIZE_TO_COMPACT || garbageSize * 2 < tail) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        long previousSize = tail;
+        List<Long> livePositions = new ArrayList<>();
+        livePositions.addAll(registeredEntities.values());
+        livePositions.addAll(communicationPolicies.values());
+        livePositions.addAll(trustedAuths.values());
+        livePositions.addAll(sessionKeyPositions.values());
+        livePositions.addAll(metaDataRecords.values());
+        Collections.sort(livePositions);
+
+        Path compactedPath = Paths.get(dbPath.toString() + ".compact");
+        Files.deleteIfExists(compactedPath);
+        EncryptedPageFile compactedFile = new EncryptedPageFile(compactedPath, databaseKey,
+                pageFile.getPageSize(), pageCacheSize);
+        long compactedTail = 0;
+        try {
+            for (long position: livePositions) {
+                byte[] record = readBytes(position, Buffer.INT_SIZE + readInt(position));
+                writeBytes(compactedFile, compactedTail, record);
+                compactedTail += record.length;
+            }
+        }
+        finally {
+            compactedFile.close();
+        }
+        pageFile.close();
+        Files.move(compactedPath, dbPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        pageFile = new EncryptedPageFile(dbPath, databaseKey, EncryptedPageFile.DEFAULT_PAGE_SIZE, pageCacheSize);
+        loadIndexes();
+        logger.info("Compacted Auth DB pages from {} to {} bytes in {} ms",
+                previousSize, tail, System.currentTimeMillis() - startTime);
+    }
+
+    private int readInt(long position) throws SQLException {
+        byte[] bytes = readBytes(position, Buffer.INT_SIZE);
+        return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+    }
+
+    /**
+     * Read the value of a live record, positioned after its type, key and deleted flag.
+     */
+    private DataInputStream readValue(long position) throws SQLException {
+        byte[] record = readBytes(position + Buffer.INT_SIZE, readInt(position));
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            input.readByte();
+            input.readUTF();
+            input.readBoolean();
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to parse a record of Auth DB!", e);
+        }
+        return input;
+    }
+
+    private byte[] readBytes(long position, int length) throws SQLException {
+        byte[] bytes = new byte[length];
+        int pageSize = pageFile.getPageSize();
+        try {
+            int copied = 0;
+            while (copied < length) {
+                long pageNumber = (position + copied) / pageSize;
+                int offset = (int) ((position + copied) % pageSize);
+                int toCopy = Math.min(length - copied, pageSize - offset);
+                System.arraycopy(pageFile.readPage(pageNumber), offset, bytes, copied, toCopy);
+                copied += toCopy;
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to read pages of Auth DB!", e);
+        }
+        return bytes;
+    }
+
+    private static void writeBytes(EncryptedPageFile file, long position, byte[] bytes) throws SQLException {
+        int pageSize = file.getPageSize();
+        try {
+            int copied = 0;
+            while (copied < bytes.length) {
+                long pageNumber = (position + copied) / pageSize;
+                int offset = (int) ((position + copied) % pageSize);
+                int toCopy = Math.min(bytes.length - copied, pageSize - offset);
+                byte[] page = pageNumber < file.getPageCount()
+                        ? Arrays.copyOf(file.readPage(pageNumber), pageSize) : new byte[pageSize];
+                System.arraycopy(bytes, copied, page, offset, toCopy);
+                file.writePage(pageNumber, page);
+                copied += toCopy;
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to write pages of Auth DB!", e);
+        }
+    }
+
+    // Serialization of records, registry records are also used by RegistrySnapshot
+
+    static byte[] serialize(RegisteredEntityTable regEntity) throws SQLException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            writeString(output, regEntity.getName());
+            writeString(output, regEntity.getGroup());
+            writeString(output, regEntity.getDistProtocol());
+            output.writeBoolean(regEntity.getUsePermanentDistKey());
+            output.writeInt(regEntity.getMaxSessionKeysPerRequest());
+            writeString(output, regEntity.getPublicKeyCryptoSpec());
+            writeBytes(output, regEntity.getPublicKeyVal());
+            writeString(output, regEntity.getDistKeyValidityPeriod());
+            writeString(output, regEntity.getDistCryptoSpec());
+            output.writeLong(regEntity.getDistKeyExpirationTime());
+            writeBytes(output, regEntity.getDistKeyVal());
+            output.writeBoolean(regEntity.isActive());
+            writeString(output, regEntity.getBackupToAuthIDs());
+            output.writeInt(regEntity.getBackupFromAuthID());
+            writeBytes(output, regEntity.getMigrationTokenVal());
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize a registered entity!", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    static RegisteredEntityTable deserializeRegisteredEntity(DataInputStream input) throws SQLException {
+        try {
+            RegisteredEntityTable regEntity = new RegisteredEntityTable();
+            regEntity.setName(readString(input));
+            regEntity.setGroup(readString(input));
+            regEntity.setDistProtocol(readString(input));
+            regEntity.setUsePermanentDistKey(input.readBoolean());
+            regEntity.setMaxSessionKeysPerRequest(input.readInt());
+            regEntity.setPublicKeyCryptoSpec(readString(input));
+            byte[] publicKeyBytes = readBytes(input);
+            if (publicKeyBytes != null) {
+                regEntity.setPublicKeyVal(publicKeyBytes);
+            }
+            regEntity.setDistKeyValidityPeriod(readString(input));
+            regEntity.setDistCryptoSpec(readString(input));
+            regEntity.setDistKeyExpirationTime(input.readLong());
+            byte[] distKeyVal = readBytes(input);
+            if (distKeyVal != null) {
+                regEntity.setDistKeyVal(distKeyVal);
+            }
+            regEntity.setActive(input.readBoolean());
+            regEntity.setBackupToAuthIDs(readString(input));
+            regEntity.setBackupFromAuthID(input.readInt());
+            regEntity.setMigrationTokenVal(readBytes(input));
+            return regEntity;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to deserialize a registered entity!", e);
+        }
+    }
+
+    static byte[] serialize(CommunicationPolicyTable policy) throws SQLException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            writeString(output, policy.getReqGroup());
+            writeString(output, policy.getTargetTypeVal());
+            writeString(output, policy.getTarget());
+            output.writeInt(policy.getMaxNumSessionKeyOwners());
+            writeString(output, policy.getSessionCryptoSpec());
+            writeString(output, policy.getAbsValidityStr());
+            writeString(output, policy.getRelValidityStr());
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize a communication policy!", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    static CommunicationPolicyTable deserializePolicy(DataInputStream input) throws SQLException {
+        try {
+            return CommunicationPolicyTable.createRecord(readString(input), readString(input), readString(input),
+                    input.readInt(), readString(input), readString(input), readString(input));
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to deserialize a communication policy!", e);
+        }
+    }
+
+    static byte[] serialize(TrustedAuthTable auth) throws SQLException, CertificateEncodingException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            output.writeInt(auth.getId());
+            writeString(output, auth.getHost());
+            writeString(output, auth.getEntityHost());
+            output.writeInt(auth.getPort());
+            output.writeInt(auth.getHeartbeatPeriod());
+            output.writeInt(auth.getFailureThreshold());
+            writeBytes(output, auth.getInternetCertificate().getEncoded());
+            writeBytes(output, auth.getEntityCertificate().getEncoded());
+            X509Certificate backupCertificate = auth.getBackupCertificate();
+            writeBytes(output, backupCertificate != null ? backupCertificate.getEncoded() : null);
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize a trusted Auth!", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    static TrustedAuthTable deserializeTrustedAuth(DataInputStream input) throws SQLException {
+        try {
+            TrustedAuthTable auth = new TrustedAuthTable();
+            auth.setId(input.readInt());
+            auth.setHost(readString(input));
+            auth.setEntityHost(readString(input));
+            auth.setPort(input.readInt());
+            auth.setHeartbeatPeriod(input.readInt());
+            auth.setFailureThreshold(input.readInt());
+            auth.setInternetCertificate(AuthCrypto.loadCertificateFromBytes(readBytes(input)));
+            auth.setEntityCertificate(AuthCrypto.loadCertificateFromBytes(readBytes(input)));
+            byte[] backupCertificateBytes = readBytes(input);
+            if (backupCertificateBytes != null) {
+                auth.setBackupCertificate(AuthCrypto.loadCertificateFromBytes(backupCertificateBytes));
+            }
+            return auth;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to deserialize a trusted Auth!", e);
+        }
+    }
+
+    private static byte[] serialize(CachedSessionKeyTable cachedSessionKey) throws SQLException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            output.writeLong(cachedSessionKey.getID());
+            writeString(output, cachedSessionKey.getOwner());
+            output.writeInt(cachedSessionKey.getMaxNumOwners());
+            writeString(output, cachedSessionKey.getPurpose());
+            output.writeLong(cachedSessionKey.getAbsValidity());
+            output.writeLong(cachedSessionKey.getRelValidity());
+            writeString(output, cachedSessionKey.getSessionCryptoSpec());
+            writeBytes(output, cachedSessionKey.getKeyVal());
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize a cached session key!", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    private static CachedSessionKeyTable deserializeCachedSessionKey(DataInputStream input) throws SQLException {
+        try {
+            CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+            cachedSessionKey.setID(input.readLong());
+            cachedSessionKey.setOwner(readString(input));
+            cachedSessionKey.setMaxNumOwners(input.readInt());
+            cachedSessionKey.setPurpose(readString(input));
+            cachedSessionKey.setAbsValidity(input.readLong());
+            cachedSessionKey.setRelValidity(input.readLong());
+            cachedSessionKey.setSessionCryptoSpec(readString(input));
+            cachedSessionKey.setKeyVal(readBytes(input));
+            return cachedSessionKey;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to deserialize a cached session key!", e);
+        }
+    }
+
+    private static byte[] serialize(MetaDataTable metaData) throws SQLException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            writeString(output, metaData.getKey());
+            writeString(output, metaData.getValue());
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize meta data!", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    private static MetaDataTable deserializeMetaData(DataInputStream input) throws SQLException {
+        try {
+            MetaDataTable metaData = new MetaDataTable();
+            metaData.setKey(readString(input));
+            metaData.setValue(readString(input));
+            return metaData;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to deserialize meta data!", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] value) throws IOException {
+        output.writeInt(value != null ? value.length : -1);
+        if (value != null) {
+            output.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] value = new byte[length];
+        input.readFully(value);
+        return value;
+    }
+
+    private final Path dbPath;
+    private final int pageCacheSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private SymmetricKey databaseKey;
+    private EncryptedPageFile pageFile;
+    // end of the log
+    private long tail = 0;
+    // bytes taken by deleted or overwritten records
+    private long garbageSize = 0;
+    // savepoints of the transactions in progress, the innermost first
+    private final Deque<Savepoint> savepoints = new ArrayDeque<>();
+    // actions undoing the changes to the indexes made in the outermost transaction, in order
+    private final List<Runnable> undoActions = new ArrayList<>();
+    private long policyCount = 0;
+    // positions of live records in the log, keyed by their keys
+    private final Map<String, Long> registeredEntities = new LinkedHashMap<>();
+    private final TreeMap<Long, Long> communicationPolicies = new TreeMap<>();
+    private final Map<String, Long> trustedAuths = new LinkedHashMap<>();
+    private final Map<Long, Long> sessionKeyPositions = new HashMap<>();
+    private final Map<Long, SessionKeyEntry> sessionKeyEntries = new HashMap<>();
+    private final Map<String, Set<Long>> sessionKeyIDsByPurpose = new HashMap<>();
+    private final Map<String, Long> metaDataRecords = new HashMap<>();
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.util.ExceptionToString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A file of fixed-size pages, each encrypted separately with AES-GCM, so that pages can be read and written
+ * without decrypting or encrypting the whole file. Decrypted pages are kept in a bounded LRU cache, and modified
+ * pages are encrypted and written back when they are evicted or flushed.
+ *
+ * The page key is derived from the database key. The authenticated data of each page includes the random ID
+ * of the file and the page number, so that pages cannot be moved within the file or between files.
+ *
+ * File format: MAGIC (8 bytes) | page size (4 bytes) | file ID (8 bytes) | encrypted pages,
+ * where an encrypted page is: nonce (12 bytes) | encrypted page data (page size) | GCM tag (16 bytes).
+ *
+ * Pages written between two flushes are made atomic by a rollback journal next to the file. Before the first
+ * write after a flush, the journal records the page count, and before a page is overwritten, the journal keeps
+ * its encrypted content as of the last flush. A flush forces the pages and then empties the journal, which is
+ * the commit point. When the file is opened with a journal that is not empty, the file is rolled back to the
+ * last flush, so that a crash never leaves torn or partially written pages behind.
+ *
+ * Journal format: JOURNAL_MAGIC (8 bytes) | file ID (8 bytes) | page count at the last flush (8 bytes) | entries,
+ * where an entry is: page number (8 bytes) | encrypted page | CRC32 of the page number and the encrypted page.
+ * @author Hokeun Kim
+ */
+public class EncryptedPageFile {
+    private static final Logger logger = LoggerFactory.getLogger(EncryptedPageFile.class);
+    private static final byte[] MAGIC = "IOTADBP1".getBytes(StandardCharsets.US_ASCII);
+    private static final int FILE_ID_SIZE = 8;
+    private static final int HEADER_SIZE = MAGIC.length + Buffer.INT_SIZE + FILE_ID_SIZE;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int PAGE_KEY_SIZE = 16;
+    private static final String PAGE_KEY_LABEL = "IoTAuth page encryption";
+    private static final byte[] JOURNAL_MAGIC = "IOTADBJ1".getBytes(StandardCharsets.US_ASCII);
+    private static final int JOURNAL_HEADER_SIZE = JOURNAL_MAGIC.length + FILE_ID_SIZE + Buffer.LONG_SIZE;
+    private static final String JOURNAL_SUFFIX = "-journal";
+    public static final int DEFAULT_PAGE_SIZE = 4096;
+
+    private static class CachedPage {
+        private CachedPage(byte[] data, boolean isDirty) {
+            this.data = data;
+            this.isDirty = isDirty;
+        }
+        private final byte[] data;
+        private boolean isDirty;
+    }
+
+    /**
+     * Open the page file, creating it if it does not exist.
+     * @param path Path of the page file.
+     * @param databaseKey Database key, from which the page key is derived.
+     * @param pageSize Size of pages in bytes, used when the file is created.
+     * @param maxCachedPages Maximum number of decrypted pages kept in memory.
+     * @throws IOException When the file cannot be opened, it is not a page file, or it cannot be rolled back.
+     */
+    public EncryptedPageFile(Path path, SymmetricKey databaseKey, int pageSize, int maxCachedPages)
+            throws IOException
+    {
+        if (maxCachedPages <= 0) {
+            throw new IllegalArgumentException("Page cache size should be positive!");
+        }
+        this.maxCachedPages = maxCachedPages;
+        this.pageKey = derivePageKey(databaseKey);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() == 0) {
+            this.pageSize = pageSize;
+            this.fileID = AuthCrypto.getRandomBytes(FILE_ID_SIZE).getRawBytes();
+            header.put(MAGIC).putInt(pageSize).put(fileID).flip();
+            writeFully(channel, header, 0);
+            channel.force(true);
+        }
+        else {
+            readFully(channel, header, 0);
+            header.flip();
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                channel.close();
+                throw new IOException("Not an Auth DB page file: " + path);
+            }
+            this.pageSize = header.getInt();
+            this.fileID = new byte[FILE_ID_SIZE];
+            header.get(fileID);
+        }
+        this.encryptedPageSize = NONCE_SIZE + this.pageSize + TAG_SIZE;
+        this.journalPath = Paths.get(path.toString() + JOURNAL_SUFFIX);
+        try {
+            rollbackFromJournal();
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.pageCount = (channel.size() - HEADER_SIZE) / encryptedPageSize;
+        this.committedPageCount = pageCount;
+        // access-ordered for evicting the least recently used page
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        try {
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+        catch (GeneralSecurityException e) {
+            channel.close();
+            throw new RuntimeException("AES/GCM is not available: " + e.getMessage());
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public synchronized long getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Read a page. The returned array is shared with the page cache and must not be modified;
+     * use {@link #writePage(long, byte[])} to change the page.
+     * @param pageNumber Number of the page, less than the page count.
+     * @return Decrypted data of the page.
+     * @throws IOException When the page cannot be read, or it fails authentication.
+     */
+    public synchronized byte[] readPage(long pageNumber) throws IOException {
+        if (pageNumber < 0 || pageNumber >= pageCount) {
+            throw new IOException("Page " + pageNumber + " is out of range, page count: " + pageCount);
+        }
+        CachedPage cachedPage = cache.get(pageNumber);
+        if (cachedPage != null) {
+            cacheHitCount++;
+            return cachedPage.data;
+        }
+        cacheMissCount++;
+        byte[] data = decryptPage(pageNumber);
+        putInCache(pageNumber, new CachedPage(data, false));
+        return data;
+    }
+
+    /**
+     * Write a page, appending it if the page number equals the page count. The page is written to the file
+     * when it is evicted from the page cache or at the next {@link #flush()}.
+     * @param pageNumber Number of the page, at most the page count.
+     * @param data Data of the page, exactly the page size.
+     * @throws IOException When an evicted page cannot be written.
+     */
+    public synchronized void writePage(long pageNumber, byte[] data) throws IOException {
+        if (pageNumber < 0 || pageNumber > pageCount) {
+            throw new IOException("Page " + pageNumber + " cannot be written, page count: " + pageCount);
+        }
+        if (data.length != pageSize) {
+            throw new IllegalArgumentException("Page data should be " + pageSize + " bytes!");
+        }
+        cache.remove(pageNumber);
+        putInCache(pageNumber, new CachedPage(data, true));
+        if (pageNumber == pageCount) {
+            pageCount++;
+        }
+    }
+
+    /**
+     * Discard pages from the given page number to the end of the file. The file is truncated at the next
+     * {@link #flush()}.
+     * @param newPageCount The number of pages to be kept.
+     */
+    public synchronized void truncate(long newPageCount) {
+        cache.keySet().removeIf(pageNumber -> pageNumber >= newPageCount);
+        if (newPageCount < pageCount) {
+            pageCount = newPageCount;
+        }
+    }
+
+    /**
+     * Encrypt and write modified pages, force them to the storage device, and then empty the journal,
+     * so that the pages written since the last flush are committed together.
+     * @throws IOException When pages cannot be written.
+     */
+    public synchronized void flush() throws IOException {
+        List<Long> dirtyPages = new ArrayList<>();
+        for (Map.Entry<Long, CachedPage> entry: cache.entrySet()) {
+            if (entry.getValue().isDirty) {
+                dirtyPages.add(entry.getKey());
+            }
+        }
+        long newFileSize = getPagePosition(pageCount);
+        if (dirtyPages.isEmpty() && (journal == null || journal.size() == 0) && channel.size() == newFileSize) {
+            return;
+        }
+        List<Long> overwrittenPages = new ArrayList<>(dirtyPages);
+        // committed pages discarded by truncate()
+        for (long pageNumber = pageCount; pageNumber < committedPageCount; pageNumber++) {
+            overwrittenPages.add(pageNumber);
+        }
+        journalPages(overwrittenPages);
+        for (long pageNumber: dirtyPages) {
+            CachedPage cachedPage = cache.get(pageNumber);
+            encryptPage(pageNumber, cachedPage.data);
+            cachedPage.isDirty = false;
+        }
+        if (channel.size() > newFileSize) {
+            channel.truncate(newFileSize);
+        }
+        channel.force(false);
+        // commit point
+        journal.truncate(0);
+        journal.force(false);
+        journaledPages.clear();
+        committedPageCount = pageCount;
+    }
+
+    public synchronized void close() throws IOException {
+        flush();
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            Files.deleteIfExists(journalPath);
+        }
+        channel.close();
+        logger.info("Closed Auth DB page file, page cache hits: {}, misses: {}", cacheHitCount, cacheMissCount);
+    }
+
+    private void putInCache(long pageNumber, CachedPage cachedPage) throws IOException {
+        cache.put(pageNumber, cachedPage);
+        Iterator<Map.Entry<Long, CachedPage>> iterator = cache.entrySet().iterator();
+        while (cache.size() > maxCachedPages && iterator.hasNext()) {
+            Map.Entry<Long, CachedPage> eldest = iterator.next();
+            if (eldest.getKey() == pageNumber) {
+                continue;
+            }
+            if (eldest.getValue().isDirty) {
+                journalPages(Collections.singletonList(eldest.getKey()));
+                encryptPage(eldest.getKey(), eldest.getValue().data);
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Start the journal if it is empty, and keep the committed content of the given pages in the journal,
+     * before they are overwritten.
+     */
+    private void journalPages(List<Long> pageNumbers) throws IOException {
+        if (journal == null) {
+            journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        boolean isWritten = false;
+        long journalSize = journal.size();
+        if (journalSize == 0) {
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            header.put(JOURNAL_MAGIC).put(fileID).putLong(committedPageCount).flip();
+            writeFully(journal, header, 0);
+            journalSize = JOURNAL_HEADER_SIZE;
+            isWritten = true;
+        }
+        for (long pageNumber: pageNumbers) {
+            // pages appended since the last flush are discarded by a rollback
+            if (pageNumber >= committedPageCount || !journaledPages.add(pageNumber)) {
+                continue;
+            }
+            ByteBuffer entry = ByteBuffer.allocate(getJournalEntrySize());
+            entry.putLong(pageNumber);
+            ByteBuffer encryptedPage = ByteBuffer.allocate(encryptedPageSize);
+            readFully(channel, encryptedPage, getPagePosition(pageNumber));
+            entry.put(encryptedPage.array());
+            CRC32 crc = new CRC32();
+            crc.update(entry.array(), 0, entry.position());
+            entry.putInt((int) crc.getValue()).flip();
+            writeFully(journal, entry, journalSize);
+            journalSize += entry.capacity();
+            isWritten = true;
+        }
+        if (isWritten) {
+            journal.force(false);
+        }
+    }
+
+    /**
+     * Restore the pages kept in the journal and discard the pages appended since the last flush.
+     * A journal with a torn header is ignored, as no page is written before the header is forced,
+     * and a torn entry ends the journal, as its page is not written before the entry is forced.
+     */
+    private void rollbackFromJournal() throws IOException {
+        if (!Files.exists(journalPath)) {
+            return;
+        }
+        try (FileChannel journalChannel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(JOURNAL_HEADER_SIZE);
+            if (readAvailable(journalChannel, header, 0)) {
+                header.flip();
+                byte[] magic = new byte[JOURNAL_MAGIC.length];
+                header.get(magic);
+                byte[] journalFileID = new byte[FILE_ID_SIZE];
+                header.get(journalFileID);
+                long lastPageCount = header.getLong();
+                if (Arrays.equals(magic, JOURNAL_MAGIC) && Arrays.equals(journalFileID, fileID)) {
+                    int restoredCount = 0;
+                    long position = JOURNAL_HEADER_SIZE;
+                    ByteBuffer entry = ByteBuffer.allocate(getJournalEntrySize());
+                    while (readAvailable(journalChannel, entry, position)) {
+                        int crcOffset = entry.capacity() - Buffer.INT_SIZE;
+                        CRC32 crc = new CRC32();
+                        crc.update(entry.array(), 0, crcOffset);
+                        if ((int) crc.getValue() != entry.getInt(crcOffset)) {
+                            break;
+                        }
+                        long pageNumber = entry.getLong(0);
+                        writeFully(channel, ByteBuffer.wrap(Arrays.copyOfRange(entry.array(),
+                                Buffer.LONG_SIZE, crcOffset)), getPagePosition(pageNumber));
+                        restoredCount++;
+                        position += entry.capacity();
+                        entry.clear();
+                    }
+                    if (channel.size() > getPagePosition(lastPageCount)) {
+                        channel.truncate(getPagePosition(lastPageCount));
+                    }
+                    channel.force(false);
+                    logger.warn("Rolled back Auth DB page file to its last flush, restored pages: {}, page count: {}",
+                            restoredCount, lastPageCount);
+                }
+            }
+        }
+        Files.delete(journalPath);
+    }
+
+    private int getJournalEntrySize() {
+        return Buffer.LONG_SIZE + encryptedPageSize + Buffer.INT_SIZE;
+    }
+
+    private byte[] decryptPage(long pageNumber) throws IOException {
+        ByteBuffer encryptedPage = ByteBuffer.allocate(encryptedPageSize);
+        readFully(channel, encryptedPage, getPagePosition(pageNumber));
+        byte[] nonce = Arrays.copyOfRange(encryptedPage.array(), 0, NONCE_SIZE);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, pageKey, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(getAssociatedData(pageNumber));
+            return cipher.doFinal(encryptedPage.array(), NONCE_SIZE, encryptedPageSize - NONCE_SIZE);
+        }
+        catch (GeneralSecurityException e) {
+            logger.error("GeneralSecurityException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new IOException("Page " + pageNumber + " of Auth DB cannot be decrypted or verified!");
+        }
+    }
+
+    private void encryptPage(long pageNumber, byte[] data) throws IOException {
+        // a fresh nonce for every write of the page
+        byte[] nonce = AuthCrypto.getRandomBytes(NONCE_SIZE).getRawBytes();
+        ByteBuffer encryptedPage = ByteBuffer.allocate(encryptedPageSize);
+        encryptedPage.put(nonce);
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, pageKey, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+            cipher.updateAAD(getAssociatedData(pageNumber));
+            encryptedPage.put(cipher.doFinal(data));
+        }
+        catch (GeneralSecurityException e) {
+            logger.error("GeneralSecurityException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while encrypting a page of Auth DB!");
+        }
+        encryptedPage.flip();
+        writeFully(channel, encryptedPage, getPagePosition(pageNumber));
+    }
+
+    private byte[] getAssociatedData(long pageNumber) {
+        return ByteBuffer.allocate(FILE_ID_SIZE + Buffer.LONG_SIZE).put(fileID).putLong(pageNumber).array();
+    }
+
+    private long getPagePosition(long pageNumber) {
+        return HEADER_SIZE + pageNumber * encryptedPageSize;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        if (!readAvailable(channel, buffer, position)) {
+            throw new IOException("Unexpected end of Auth DB page file!");
+        }
+    }
+
+    /**
+     * @return Whether the buffer is filled, or false if the file ends before that.
+     */
+    private static boolean readAvailable(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static SecretKeySpec derivePageKey(SymmetricKey databaseKey) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(databaseKey.getMacKeyVal().getRawBytes(), "HmacSHA256"));
+            byte[] derived = mac.doFinal(PAGE_KEY_LABEL.getBytes(StandardCharsets.US_ASCII));
+            return new SecretKeySpec(Arrays.copyOf(derived, PAGE_KEY_SIZE), "AES");
+        }
+        catch (GeneralSecurityException e) {
+            logger.error("GeneralSecurityException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while deriving the page key of Auth DB!");
+        }
+    }
+
+    private final FileChannel channel;
+    private final Path journalPath;
+    // open once a page is written after the last flush, and empty again when the pages are flushed
+    private FileChannel journal = null;
+    // pages whose committed content is kept in the journal
+    private final Set<Long> journaledPages = new HashSet<>();
+    // page count in the file as of the last flush
+    private long committedPageCount;
+    private final int pageSize;
+    private final int encryptedPageSize;
+    private final byte[] fileID;
+    private final SecretKeySpec pageKey;
+    private final Cipher cipher;
+    private final int maxCachedPages;
+    private final LinkedHashMap<Long, CachedPage> cache;
+    private long pageCount;
+    private long cacheHitCount = 0;
+    private long cacheMissCount = 0;
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.bean.CommunicationPolicyTable;
+import org.iot.auth.db.bean.RegisteredEntityTable;
+import org.iot.auth.db.bean.TrustedAuthTable;
+import org.iot.auth.io.Buffer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.cert.CertificateEncodingException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of the registered entities, communication policies and trusted Auths in the Auth DB, so that
+ * Auth can restart without scanning the registry tables.
+ *
+ * A snapshot is tagged with the ID of the database it was taken from and the registry sequence number of the
+ * database at that time, and it can be used on startup only when both still match the database. Distribution
+ * keys of registered entities are not in the snapshot, as they change without changing the sequence number, and
+ * are read from the database instead.
+ * The snapshot file is memory-mapped for reading, and its body is encrypted with the database key unless the
+ * Auth DB is not protected.
+ *
+ * File format: magic (8 bytes) | flags (4 bytes) | database ID (8 bytes) | sequence (8 bytes) |
+ * body length (4 bytes) | CRC32 of body (4 bytes) | body, where the body is the number of records followed by
+ * the records, for registered entities, communication policies and trusted Auths in order.
+ * @author Hokeun Kim
+ */
+public class RegistrySnapshot {
+    private static final byte[] MAGIC = "IOTAREG1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = MAGIC.length + 4 + 8 + 8 + 4 + 4;
+    private static final int FLAG_ENCRYPTED = 1;
+
+    /**
+     * An input stream reading from a byte buffer, such as a memory-mapped file, without copying it to the heap.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        private final ByteBuffer buffer;
+    }
+
+    public RegistrySnapshot(long databaseID, long sequence, List<RegisteredEntityTable> registeredEntities,
+                            List<CommunicationPolicyTable> communicationPolicies, List<TrustedAuthTable> trustedAuths) {
+        this.databaseID = databaseID;
+        this.sequence = sequence;
+        this.registeredEntities = registeredEntities;
+        this.communicationPolicies = communicationPolicies;
+        this.trustedAuths = trustedAuths;
+    }
+
+    /**
+     * Write the snapshot to a new file which then replaces the previous snapshot, so a crash while writing
+     * leaves the previous snapshot intact.
+     * @param path Path of the snapshot file.
+     * @param databaseKey Key for encrypting the body, or null to write the body in plain text.
+     * @throws IOException If an error occurs while writing the file.
+     * @throws SQLException If a record cannot be serialized.
+     * @throws CertificateEncodingException If a certificate of a trusted Auth cannot be encoded.
+     */
+    public void write(Path path, SymmetricKey databaseKey)
+            throws IOException, SQLException, CertificateEncodingException
+    {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(byteStream);
+        output.writeInt(registeredEntities.size());
+        for (RegisteredEntityTable regEntity : registeredEntities) {
+            output.write(EncryptedPageAuthStore.serialize(regEntity));
+        }
+        output.writeInt(communicationPolicies.size());
+        for (CommunicationPolicyTable policy : communicationPolicies) {
+            output.write(EncryptedPageAuthStore.serialize(policy));
+        }
+        output.writeInt(trustedAuths.size());
+        for (TrustedAuthTable auth : trustedAuths) {
+            output.write(EncryptedPageAuthStore.serialize(auth));
+        }
+        output.flush();
+        byte[] body = byteStream.toByteArray();
+        int flags = 0;
+        if (databaseKey != null) {
+            byte[] plainBody = body;
+            body = encrypt(databaseKey, plainBody);
+            Arrays.fill(plainBody, (byte) 0);
+            flags |= FLAG_ENCRYPTED;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put(MAGIC);
+        header.putInt(flags);
+        header.putLong(databaseID);
+        header.putLong(sequence);
+        header.putInt(body.length);
+        header.putInt((int) crc.getValue());
+        header.flip();
+
+        Path tempPath = Paths.get(path.toString() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (bodyBuffer.hasRemaining()) {
+                channel.write(bodyBuffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a snapshot by memory-mapping its file.
+     * @param path Path of the snapshot file.
+     * @param databaseKey Key for decrypting the body, when the body is encrypted.
+     * @return The snapshot, or null if the snapshot file does not exist.
+     * @throws IOException If the snapshot file cannot be read, or it is corrupted.
+     * @throws SQLException If a record cannot be deserialized.
+     */
+    public static RegistrySnapshot read(Path path, SymmetricKey databaseKey) throws IOException, SQLException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        if (mapped.remaining() < HEADER_SIZE) {
+            throw new IOException("Registry snapshot is too short!");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        mapped.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a registry snapshot!");
+        }
+        int flags = mapped.getInt();
+        long databaseID = mapped.getLong();
+        long sequence = mapped.getLong();
+        int bodyLength = mapped.getInt();
+        int bodyCrc = mapped.getInt();
+        if (bodyLength != mapped.remaining()) {
+            throw new IOException("Registry snapshot is truncated!");
+        }
+        ByteBuffer body = mapped.slice();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != bodyCrc) {
+            throw new IOException("Registry snapshot is corrupted!");
+        }
+        byte[] plainBody = null;
+        if ((flags & FLAG_ENCRYPTED) != 0) {
+            if (databaseKey == null) {
+                throw new IOException("Registry snapshot is encrypted but no database key is given!");
+            }
+            byte[] encryptedBody = new byte[bodyLength];
+            body.get(encryptedBody);
+            plainBody = decrypt(databaseKey, encryptedBody);
+            body = ByteBuffer.wrap(plainBody);
+        }
+        try {
+            DataInputStream input = new DataInputStream(new ByteBufferInputStream(body));
+            int count = input.readInt();
+            List<RegisteredEntityTable> registeredEntities = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                registeredEntities.add(EncryptedPageAuthStore.deserializeRegisteredEntity(input));
+            }
+            count = input.readInt();
+            List<CommunicationPolicyTable> communicationPolicies = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                communicationPolicies.add(EncryptedPageAuthStore.deserializePolicy(input));
+            }
+            count = input.readInt();
+            List<TrustedAuthTable> trustedAuths = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                trustedAuths.add(EncryptedPageAuthStore.deserializeTrustedAuth(input));
+            }
+            return new RegistrySnapshot(databaseID, sequence, registeredEntities, communicationPolicies,
+                    trustedAuths);
+        }
+        finally {
+            if (plainBody != null) {
+                Arrays.fill(plainBody, (byte) 0);
+            }
+        }
+    }
+
+    private static byte[] encrypt(SymmetricKey databaseKey, byte[] plainBody) throws IOException {
+        // the database key caches its cipher, so it is guarded against concurrent use
+        try {
+            synchronized (databaseKey) {
+                return databaseKey.encryptAuthenticate(new Buffer(plainBody)).getRawBytes();
+            }
+        }
+        catch (Exception e) {
+            throw new IOException("Failed to encrypt registry snapshot!", e);
+        }
+    }
+
+    private static byte[] decrypt(SymmetricKey databaseKey, byte[] encryptedBody) throws IOException {
+        try {
+            synchronized (databaseKey) {
+                return databaseKey.decryptVerify(Buffer.wrap(encryptedBody)).getRawBytes();
+            }
+        }
+        catch (Exception e) {
+            throw new IOException("Failed to decrypt registry snapshot!", e);
+        }
+    }
+
+    public long getDatabaseID() {
+        return databaseID;
+    }
+    public long getSequence() {
+        return sequence;
+    }
+    public List<RegisteredEntityTable> getRegisteredEntities() {
+        return registeredEntities;
+    }
+    public List<CommunicationPolicyTable> getCommunicationPolicies() {
+        return communicationPolicies;
+    }
+    public List<TrustedAuthTable> getTrustedAuths() {
+        return trustedAuths;
+    }
+
+    private final long databaseID;
+    private final long sequence;
+    private final List<RegisteredEntityTable> registeredEntities;
+    private final List<CommunicationPolicyTable> communicationPolicies;
+    private final List<TrustedAuthTable> trustedAuths;
+}
@@ -16,6 +16,7 @@
 package org.iot.auth.db.dao;
 
 import org.iot.auth.crypto.AuthCrypto;
+import org.iot.auth.crypto.SessionKey;
 import org.iot.auth.crypto.SymmetricKey;
 import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
 import org.iot.auth.db.AuthDBProtectionMethod;
@@ -30,6 +31,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.*;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
@@ -37,27 +44,70 @@ import java.security.cert.X509Certificate;
 import java.sql.*;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A SQLite connector Class for CRUD operations on Auth database.
  *
  * @author Salomon Lee, Hokeun Kim
  */
-public class SQLiteConnector {
+public class SQLiteConnector implements AuthStore {
     public boolean DEBUG;
     private static final Logger logger = LoggerFactory.getLogger(SQLiteConnector.class);
     private Connection connection;
-    private Statement statement;
     private String dbPath;
     private SymmetricKey databaseKey;
+    // the database key caches its cipher, so each thread encrypts and decrypts with its own copy
+    private final ThreadLocal<SymmetricKey> threadDatabaseKey = ThreadLocal.withInitial(() ->
+            new SymmetricKey(databaseKey.getCryptoSpec(), databaseKey.getRawExpirationTime(),
+                    databaseKey.getSerializedKeyVal()));
     private boolean useInMemoryProtection;
     private boolean encryptCredentials;
+    private int encryptionChunkSize = ChunkedDBFileCipher.DEFAULT_CHUNK_SIZE;
+    private DecryptedSessionKeyCache decryptedSessionKeyCache = null;
+    // IDs of session keys inserted into decryptedSessionKeyCache in the transaction in progress,
+    // guarded by transactionLock
+    private final List<Long> sessionKeyIDsCachedInTransaction = new ArrayList<>();
     // FIXME: should be set by properties
     public static final String AUTH_DB_KEY_ABSOLUTE_VALIDITY = "3650*day";
     public static final SymmetricKeyCryptoSpec AUTH_DB_CRYPTO_SPEC =
             new SymmetricKeyCryptoSpec("AES/CBC/PKCS5Padding", 16, "HmacSHA256");
     public static final String AUTH_DB_PUBLIC_CIPHER = "RSA/ECB/PKCS1PADDING";
     private AuthDBProtectionMethod authDBProtectionMethod;
+    // held by a transaction, and by writes in auto-commit mode, so that a write of another thread waits for
+    // the transaction instead of being committed or rolled back with it on the shared connection
+    private final ReentrantLock transactionLock = new ReentrantLock();
+    private static final int REGISTERED_ENTITY_INSERT_BATCH_SIZE = 500;
+    // in names of temporary plain copies of the in-memory database, after the name of the database file
+    private static final String PLAIN_TEMP_FILE_INFIX = ".plain-";
+
+    private final SessionKeyPartitions sessionKeyPartitions = new SessionKeyPartitions();
+
+    private static String insertSessionKeyOwnerSql(long partition) {
+        return "INSERT OR IGNORE INTO " + SessionKeyPartitions.sessionKeyOwnerTable(partition) + "("
+                + SessionKeyOwnerTable.c.KeyID.name() + "," + SessionKeyOwnerTable.c.Owner.name() + ") VALUES(?,?)";
+    }
+    // number of owners of the cached session key aliased as k, looked up using the primary key of owner table
+    private static String countSessionKeyOwnersSql(long partition) {
+        return "(SELECT COUNT(*) FROM " + SessionKeyPartitions.sessionKeyOwnerTable(partition) + " o"
+                + " WHERE o." + SessionKeyOwnerTable.c.KeyID.name() + " = k." + CachedSessionKeyTable.c.ID.name() + ")";
+    }
+    // selects cached session keys as k, with the current owners from owner table in the Owners column
+    private static String selectCachedSessionKeySql(long partition) {
+        return "SELECT k." + CachedSessionKeyTable.c.ID.name()
+                + ", (SELECT group_concat(o." + SessionKeyOwnerTable.c.Owner.name() + ", '"
+                + SessionKey.SESSION_KEY_OWNER_NAME_DELIM + "') FROM "
+                + SessionKeyPartitions.sessionKeyOwnerTable(partition) + " o"
+                + " WHERE o." + SessionKeyOwnerTable.c.KeyID.name() + " = k." + CachedSessionKeyTable.c.ID.name() + ")"
+                + " AS " + CachedSessionKeyTable.c.Owners.name()
+                + ", k." + CachedSessionKeyTable.c.MaxNumOwners.name()
+                + ", k." + CachedSessionKeyTable.c.Purpose.name()
+                + ", k." + CachedSessionKeyTable.c.ExpirationTime.name()
+                + ", k." + CachedSessionKeyTable.c.RelValidity.name()
+                + ", k." + CachedSessionKeyTable.c.CryptoSpec.name()
+                + ", k." + CachedSessionKeyTable.c.KeyVal.name()
+                + " FROM " + SessionKeyPartitions.cachedSessionKeyTable(partition) + " k";
+    }
 
     /**
      * Constructor that stores the physical location of the database file.
@@ -83,6 +133,9 @@ public class SQLiteConnector {
                 this.encryptCredentials = true;
                 this.useInMemoryProtection = true;
                 break;
+            default:
+                throw new IllegalArgumentException("Auth DB protection method " + authDBProtectionMethod.name()
+                        + " is not supported by SQLite connector!");
         }
         logger.info("Credential encryption - {}", this.encryptCredentials ? "ENABLED" : "DISABLED");
         logger.info("Entire DB encryption - {}", this.useInMemoryProtection ? "ENABLED" : "DISABLED");
@@ -104,6 +157,26 @@ public class SQLiteConnector {
     public void initialize(String databaseKeystorePath, String authKeyStorePassword, String databaseEncryptionKeyPath)
             throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException, SQLException,
             ClassNotFoundException, UnrecoverableEntryException
+    {
+        initialize(loadDatabaseKey(databaseKeystorePath, authKeyStorePassword, databaseEncryptionKeyPath));
+    }
+
+    /**
+     * Decrypt the database key with the private key in the database keystore.
+     * @param databaseKeystorePath File path for database keystore (public, private key pair)
+     * @param authKeyStorePassword Password for key stores and trust store for storing certificates of trusted Auths
+     * @param databaseEncryptionKeyPath File path for database encryption key (symmetric), ecrypted with public key
+     * @return The database key.
+     * @throws CertificateException When CertificateException occurs.
+     * @throws NoSuchAlgorithmException When NoSuchAlgorithmException occurs.
+     * @throws KeyStoreException When KeyStoreException occurs.
+     * @throws IOException When IOException occurs.
+     * @throws UnrecoverableEntryException When UnrecoverableEntryException occurs.
+     */
+    public static SymmetricKey loadDatabaseKey(String databaseKeystorePath, String authKeyStorePassword,
+                                               String databaseEncryptionKeyPath)
+            throws CertificateException, NoSuchAlgorithmException, KeyStoreException, IOException,
+            UnrecoverableEntryException
     {
         KeyStore databaseKeyStore = AuthCrypto.loadKeyStore(databaseKeystorePath, authKeyStorePassword);
         if (databaseKeyStore.size() != 1) {
@@ -127,10 +200,10 @@ public class SQLiteConnector {
 
         Buffer encryptedDatabaseKey = new Buffer(AuthCrypto.readBinaryFile(databaseEncryptionKeyPath));
 
-        initialize(new SymmetricKey(
+        return new SymmetricKey(
                 AUTH_DB_CRYPTO_SPEC,
                 new Date().getTime() + DateHelper.parseTimePeriod(AUTH_DB_KEY_ABSOLUTE_VALIDITY),
-                AuthCrypto.privateDecrypt(encryptedDatabaseKey, databasePrivateKey, AUTH_DB_PUBLIC_CIPHER)));
+                AuthCrypto.privateDecrypt(encryptedDatabaseKey, databasePrivateKey, AUTH_DB_PUBLIC_CIPHER));
     }
 
     public void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException {
@@ -140,7 +213,7 @@ public class SQLiteConnector {
 
     private Buffer encryptAuthDBData(Buffer input) {
         try {
-            return databaseKey.encryptAuthenticate(input);
+            return threadDatabaseKey.get().encryptAuthenticate(input);
         } catch (UseOfExpiredKeyException e) {
             logger.error("UseOfExpiredKeyException {}", ExceptionToString.convertExceptionToStackTrace(e));
             throw new RuntimeException("Exception occurred while encrypting Auth DB Data!");
@@ -151,7 +224,7 @@ public class SQLiteConnector {
     }
     private Buffer decryptAuthDBData(Buffer input) {
         try {
-            return databaseKey.decryptVerify(input);
+            return threadDatabaseKey.get().decryptVerify(input);
         }
         catch (Exception e) {
             logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
@@ -164,17 +237,29 @@ public class SQLiteConnector {
         if (useInMemoryProtection) {
             if (connection == null || connection.isClosed()) {
                 connection = DriverManager.getConnection("jdbc:sqlite:");
+                deleteLeftoverPlainTempFiles();
                 File dbFile = new File(dbPath);
                 if (dbFile.exists() && !dbFile.isDirectory()) {
-                    byte[] encryptedDBBytes = FileIOHelper.readFully(dbPath);
-                    Buffer encryptedDBBuffer = new Buffer(encryptedDBBytes);
-                    Buffer decryptedDBBuffer = decryptAuthDBData(encryptedDBBuffer);
-                    String tempFilePath = dbPath + AuthCrypto.getRandomBytes(4).toConsecutiveHexString();
-                    File tempFile = new File(tempFilePath);
-                    FileIOHelper.writeFully(tempFilePath, decryptedDBBuffer.getRawBytes());
-                    Statement stat = connection.createStatement();
-                    stat.executeUpdate("restore from " + tempFilePath);
-                    tempFile.delete();
+                    File tempFile = createPlainTempFile();
+                    String tempFilePath = tempFile.getPath();
+                    try {
+                        if (ChunkedDBFileCipher.isChunkedFormat(dbPath)) {
+                            new ChunkedDBFileCipher(databaseKey, encryptionChunkSize).decrypt(dbPath, tempFilePath);
+                        }
+                        else {
+                            // encrypted as a whole, before the chunked format was introduced
+                            byte[] encryptedDBBytes = FileIOHelper.readFully(dbPath);
+                            Buffer encryptedDBBuffer = new Buffer(encryptedDBBytes);
+                            Buffer decryptedDBBuffer = decryptAuthDBData(encryptedDBBuffer);
+                            FileIOHelper.writeFully(tempFilePath, decryptedDBBuffer.getRawBytes());
+                        }
+                        Statement stat = connection.createStatement();
+                        stat.executeUpdate("restore from " + tempFilePath);
+                        stat.close();
+                    }
+                    finally {
+                        tempFile.delete();
+                    }
                 }
             }
         }
@@ -183,20 +268,105 @@ public class SQLiteConnector {
                 connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
             }
         }
+        migrateSessionKeyOwnersIfNeeded();
+        loadSessionKeyPartitions();
     }
     public void close() throws SQLException, IOException {
-        if (useInMemoryProtection) {
-            String tempFilePath = dbPath + AuthCrypto.getRandomBytes(4).toConsecutiveHexString();
-            Statement stat = connection.createStatement();
-            stat.executeUpdate("backup to " + tempFilePath );
-            File tempFile = new File(tempFilePath);
-            byte[] decryptedDBBytes = FileIOHelper.readFully(tempFilePath);
+        writeEncryptedCheckpoint();
+        connection.close();
+        if (decryptedSessionKeyCache != null) {
+            logger.info("Decrypted session key cache hits: {}, misses: {}",
+                    decryptedSessionKeyCache.getHitCount(), decryptedSessionKeyCache.getMissCount());
+            decryptedSessionKeyCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Write the in-memory database to the encrypted database file, when the entire database is encrypted.
+     * The database is encrypted chunk by chunk into a new file, which then replaces the previous database file,
+     * so a crash during a checkpoint leaves the previous checkpoint intact.
+     * @throws SQLException If a database access error occurs
+     * @throws IOException If an error occurs while writing the database file
+     */
+    public synchronized void writeEncryptedCheckpoint() throws SQLException, IOException {
+        if (!useInMemoryProtection) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        File tempFile = createPlainTempFile();
+        File encryptedTempFile = new File(dbPath + AuthCrypto.getRandomBytes(4).toConsecutiveHexString() + ".enc");
+        try {
+            // not in the middle of a transaction, so that the checkpoint only has committed changes
+            transactionLock.lock();
+            try {
+                Statement stat = connection.createStatement();
+                stat.executeUpdate("backup to " + tempFile.getPath());
+                stat.close();
+            }
+            finally {
+                transactionLock.unlock();
+            }
+            new ChunkedDBFileCipher(databaseKey, encryptionChunkSize).encrypt(tempFile.getPath(),
+                    encryptedTempFile.getPath());
+            Files.move(encryptedTempFile.toPath(), Paths.get(dbPath),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
             tempFile.delete();
-            Buffer decryptedDBBuffer = new Buffer(decryptedDBBytes);
-            Buffer encryptedDBBuffer = encryptAuthDBData(decryptedDBBuffer);
-            FileIOHelper.writeFully(dbPath, encryptedDBBuffer.getRawBytes());
+            encryptedTempFile.delete();
         }
-        connection.close();
+        logger.info("Wrote encrypted Auth DB checkpoint in {} ms", System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Create an empty file for a plain copy of the in-memory database, readable only by the owner where the file
+     * system supports it. The copy is deleted once it is encrypted or restored, and left over copies are deleted
+     * by {@link #deleteLeftoverPlainTempFiles()} when the database is opened again.
+     * @return The created file.
+     * @throws IOException If the file cannot be created
+     */
+    private File createPlainTempFile() throws IOException {
+        Path dbFilePath = Paths.get(dbPath).toAbsolutePath();
+        String prefix = dbFilePath.getFileName() + PLAIN_TEMP_FILE_INFIX;
+        try {
+            return Files.createTempFile(dbFilePath.getParent(), prefix, ".tmp",
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))).toFile();
+        }
+        catch (UnsupportedOperationException e) {
+            return Files.createTempFile(dbFilePath.getParent(), prefix, ".tmp").toFile();
+        }
+    }
+
+    /**
+     * Delete plain copies of the database left by a crash during a checkpoint or while opening the database.
+     * @throws IOException If a left over copy cannot be deleted
+     */
+    private void deleteLeftoverPlainTempFiles() throws IOException {
+        Path dbFilePath = Paths.get(dbPath).toAbsolutePath();
+        String prefix = dbFilePath.getFileName() + PLAIN_TEMP_FILE_INFIX;
+        try (DirectoryStream<Path> leftoverFiles = Files.newDirectoryStream(dbFilePath.getParent(),
+                path -> path.getFileName().toString().startsWith(prefix))) {
+            for (Path leftoverFile: leftoverFiles) {
+                logger.warn("Deleting a plain copy of Auth DB left over: {}", leftoverFile);
+                Files.delete(leftoverFile);
+            }
+        }
+    }
+
+    /**
+     * Set the size of chunks for encrypting the entire database.
+     * @param encryptionChunkSize Size of plain data in each encrypted chunk, in bytes.
+     */
+    public void setEncryptionChunkSize(int encryptionChunkSize) {
+        this.encryptionChunkSize = encryptionChunkSize;
+    }
+
+    /**
+     * Set the maximum number of decrypted session key values kept in memory, when credentials are encrypted.
+     * @param cacheSize Maximum number of decrypted session key values, or 0 to decrypt them on every read.
+     */
+    public void setDecryptedSessionKeyCacheSize(int cacheSize) {
+        this.decryptedSessionKeyCache = cacheSize > 0 ? new DecryptedSessionKeyCache(cacheSize) : null;
     }
     /**
      * On cold start it will be needed to create a database and the related tables.
@@ -220,87 +390,282 @@ public class SQLiteConnector {
         sql += "PRIMARY KEY (" + CommunicationPolicyTable.c.RequestingGroup.name() + ",";
         sql += CommunicationPolicyTable.c.TargetType.name() + ",";
         sql += CommunicationPolicyTable.c.Target.name() + "))";
-        statement = connection.createStatement();
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
-        else
-            logger.info("Table {} already exists", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
-        sql += RegisteredEntityTable.c.Name.name() + " TEXT NOT NULL PRIMARY KEY,";
-        sql += "'" + RegisteredEntityTable.c.Group.name() + "' TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.DistProtocol.name() + " TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.UsePermanentDistKey.name() + " BOOLEAN NOT NULL,";
-        sql += RegisteredEntityTable.c.MaxSessionKeysPerRequest.name() + " INT NOT NULL,";
-        sql += RegisteredEntityTable.c.PublicKeyValue.name() + " BLOB,";
-        sql += RegisteredEntityTable.c.DistKeyValidityPeriod.name() + " TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.PublicKeyCryptoSpec.name() + " TEXT,";
-        sql += RegisteredEntityTable.c.DistCryptoSpec.name() + " TEXT NOT NULL,";
-        sql += RegisteredEntityTable.c.DistKeyExpirationTime.name() + " INT,";
-        sql += RegisteredEntityTable.c.DistKeyValue.name() + " BLOB,";
-        sql += RegisteredEntityTable.c.Active.name() + " BOOLEAN NOT NULL,";
-        sql += RegisteredEntityTable.c.BackupToAuthIDs.name() + " TEXT,";
-        sql += RegisteredEntityTable.c.BackupFromAuthID.name() + " INT,";
-        sql += RegisteredEntityTable.c.MigrationToken.name() + " BLOB)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", RegisteredEntityTable.T_REGISTERED_ENTITY);
-        else
-            logger.info("Table {} already exists", RegisteredEntityTable.T_REGISTERED_ENTITY);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
-        sql += TrustedAuthTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
-        sql += TrustedAuthTable.c.Host.name() + " TEXT NOT NULL,";
-        sql += TrustedAuthTable.c.EntityHost.name() + " TEXT NOT NULL,";
-        sql += TrustedAuthTable.c.Port.name() + " INT NOT NULL,";
-        sql += TrustedAuthTable.c.HeartbeatPeriod.name() + " INT NOT NULL,";
-        sql += TrustedAuthTable.c.FailureThreshold.name() + " INT NOT NULL,";
-        sql += TrustedAuthTable.c.InternetCertificateValue.name() + " BLOB NOT NULL,";
-        sql += TrustedAuthTable.c.EntityCertificateValue.name() + " BLOB NOT NULL,";
-        sql += TrustedAuthTable.c.BackupCertificateValue.name() + " BLOB)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", TrustedAuthTable.T_TRUSTED_AUTH);
-        else
-            logger.info("Table {} already exists", TrustedAuthTable.T_TRUSTED_AUTH);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(";
-        sql += CachedSessionKeyTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
-        sql += CachedSessionKeyTable.c.Owners.name() + " TEXT NOT NULL,";
-        sql += CachedSessionKeyTable.c.MaxNumOwners.name() + " INT NOT NULL,";
-        sql += CachedSessionKeyTable.c.Purpose.name() + " TEXT NOT NULL,";
-        sql += CachedSessionKeyTable.c.ExpirationTime.name() + " INT NOT NULL,";
-        sql += CachedSessionKeyTable.c.RelValidity.name() + " INT NOT NULL,";
-        sql += CachedSessionKeyTable.c.CryptoSpec.name() + " TEXT NOT NULL,";
-        sql += CachedSessionKeyTable.c.KeyVal.name() + " BLOB NOT NULL)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", CachedSessionKeyTable.T_CACHED_SESSION_KEY);
-        else
-            logger.info("Table {} already exists", CachedSessionKeyTable.T_CACHED_SESSION_KEY);
-        closeStatement();
-
-        statement = connection.createStatement();
-        sql = "CREATE TABLE IF NOT EXISTS " + MetaDataTable.T_META_DATA + "(";
-        sql += MetaDataTable.c.Key.name() + " INT NOT NULL PRIMARY KEY,";
-        sql += MetaDataTable.c.Value.name() + " TEXT NOT NULL)";
-        if (DEBUG) logger.info(sql);
-        if (statement.executeUpdate(sql) == 0)
-            logger.info("Table {} created", MetaDataTable.T_META_DATA);
-        else
-            logger.info("Table {} already exists", MetaDataTable.T_META_DATA);
-        closeStatement();
+        try (Statement statement = connection.createStatement()) {
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
+            else
+                logger.info("Table {} already exists", CommunicationPolicyTable.T_COMMUNICATION_POLICY);
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            sql = "CREATE TABLE IF NOT EXISTS " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
+            sql += RegisteredEntityTable.c.Name.name() + " TEXT NOT NULL PRIMARY KEY,";
+            sql += "'" + RegisteredEntityTable.c.Group.name() + "' TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.DistProtocol.name() + " TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.UsePermanentDistKey.name() + " BOOLEAN NOT NULL,";
+            sql += RegisteredEntityTable.c.MaxSessionKeysPerRequest.name() + " INT NOT NULL,";
+            sql += RegisteredEntityTable.c.PublicKeyValue.name() + " BLOB,";
+            sql += RegisteredEntityTable.c.DistKeyValidityPeriod.name() + " TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.PublicKeyCryptoSpec.name() + " TEXT,";
+            sql += RegisteredEntityTable.c.DistCryptoSpec.name() + " TEXT NOT NULL,";
+            sql += RegisteredEntityTable.c.DistKeyExpirationTime.name() + " INT,";
+            sql += RegisteredEntityTable.c.DistKeyValue.name() + " BLOB,";
+            sql += RegisteredEntityTable.c.Active.name() + " BOOLEAN NOT NULL,";
+            sql += RegisteredEntityTable.c.BackupToAuthIDs.name() + " TEXT,";
+            sql += RegisteredEntityTable.c.BackupFromAuthID.name() + " INT,";
+            sql += RegisteredEntityTable.c.MigrationToken.name() + " BLOB)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", RegisteredEntityTable.T_REGISTERED_ENTITY);
+            else
+                logger.info("Table {} already exists", RegisteredEntityTable.T_REGISTERED_ENTITY);
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            sql = "CREATE TABLE IF NOT EXISTS " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
+            sql += TrustedAuthTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
+            sql += TrustedAuthTable.c.Host.name() + " TEXT NOT NULL,";
+            sql += TrustedAuthTable.c.EntityHost.name() + " TEXT NOT NULL,";
+            sql += TrustedAuthTable.c.Port.name() + " INT NOT NULL,";
+            sql += TrustedAuthTable.c.HeartbeatPeriod.name() + " INT NOT NULL,";
+            sql += TrustedAuthTable.c.FailureThreshold.name() + " INT NOT NULL,";
+            sql += TrustedAuthTable.c.InternetCertificateValue.name() + " BLOB NOT NULL,";
+            sql += TrustedAuthTable.c.EntityCertificateValue.name() + " BLOB NOT NULL,";
+            sql += TrustedAuthTable.c.BackupCertificateValue.name() + " BLOB)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", TrustedAuthTable.T_TRUSTED_AUTH);
+            else
+                logger.info("Table {} already exists", TrustedAuthTable.T_TRUSTED_AUTH);
+        }
+
+        createCachedSessionKeyTableIfNotExists(SessionKeyPartitions.UNPARTITIONED);
+
+        createSessionKeyOwnerTableAndIndexesIfNotExists(SessionKeyPartitions.UNPARTITIONED);
+
+        try (Statement statement = connection.createStatement()) {
+            sql = "CREATE TABLE IF NOT EXISTS " + MetaDataTable.T_META_DATA + "(";
+            sql += MetaDataTable.c.Key.name() + " INT NOT NULL PRIMARY KEY,";
+            sql += MetaDataTable.c.Value.name() + " TEXT NOT NULL)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", MetaDataTable.T_META_DATA);
+            else
+                logger.info("Table {} already exists", MetaDataTable.T_META_DATA);
+        }
 
         closeConnection();
     }
 
+    private void createCachedSessionKeyTableIfNotExists(long partition) throws SQLException {
+        String tableName = SessionKeyPartitions.cachedSessionKeyTable(partition);
+        try (Statement statement = connection.createStatement()) {
+            String sql = "CREATE TABLE IF NOT EXISTS " + tableName + "(";
+            sql += CachedSessionKeyTable.c.ID.name() + " INT NOT NULL PRIMARY KEY,";
+            sql += CachedSessionKeyTable.c.Owners.name() + " TEXT NOT NULL,";
+            sql += CachedSessionKeyTable.c.MaxNumOwners.name() + " INT NOT NULL,";
+            sql += CachedSessionKeyTable.c.Purpose.name() + " TEXT NOT NULL,";
+            sql += CachedSessionKeyTable.c.ExpirationTime.name() + " INT NOT NULL,";
+            sql += CachedSessionKeyTable.c.RelValidity.name() + " INT NOT NULL,";
+            sql += CachedSessionKeyTable.c.CryptoSpec.name() + " TEXT NOT NULL,";
+            sql += CachedSessionKeyTable.c.KeyVal.name() + " BLOB NOT NULL)";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", tableName);
+            else
+                logger.info("Table {} already exists", tableName);
+        }
+    }
+
+    /**
+     * Create the session key owner table with its indexes, and the index for looking up cached session keys by
+     * purpose. Requires the cached session key table of the partition.
+     * @param partition The partition of the tables
+     * @throws SQLException if a database access error occurs
+     */
+    private void createSessionKeyOwnerTableAndIndexesIfNotExists(long partition) throws SQLException {
+        String tableName = SessionKeyPartitions.sessionKeyOwnerTable(partition);
+        try (Statement statement = connection.createStatement()) {
+            String sql = "CREATE TABLE IF NOT EXISTS " + tableName + "(";
+            sql += SessionKeyOwnerTable.c.KeyID.name() + " INT NOT NULL,";
+            sql += SessionKeyOwnerTable.c.Owner.name() + " TEXT NOT NULL,";
+            sql += "PRIMARY KEY (" + SessionKeyOwnerTable.c.KeyID.name() + ",";
+            sql += SessionKeyOwnerTable.c.Owner.name() + "))";
+            if (DEBUG) logger.info(sql);
+            if (statement.executeUpdate(sql) == 0)
+                logger.info("Table {} created", tableName);
+            else
+                logger.info("Table {} already exists", tableName);
+
+            sql = "CREATE INDEX IF NOT EXISTS " + SessionKeyPartitions.sessionKeyOwnerByOwnerIndex(partition);
+            sql += " ON " + tableName + "(";
+            sql += SessionKeyOwnerTable.c.Owner.name() + ",";
+            sql += SessionKeyOwnerTable.c.KeyID.name() + ")";
+            if (DEBUG) logger.info(sql);
+            statement.executeUpdate(sql);
+
+            sql = "CREATE INDEX IF NOT EXISTS " + SessionKeyPartitions.cachedSessionKeyByPurposeIndex(partition);
+            sql += " ON " + SessionKeyPartitions.cachedSessionKeyTable(partition) + "(";
+            sql += CachedSessionKeyTable.c.Purpose.name() + ",";
+            sql += CachedSessionKeyTable.c.ExpirationTime.name() + ")";
+            if (DEBUG) logger.info(sql);
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private boolean tableExists(String tableName) throws SQLException {
+        PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?");
+        preparedStatement.setString(1, tableName);
+        ResultSet resultSet = preparedStatement.executeQuery();
+        boolean exists = resultSet.next();
+        preparedStatement.close();
+        return exists;
+    }
+
+    /**
+     * Move session key owners from the comma-separated Owners column into the session key owner table,
+     * for databases created before the session key owner table was introduced.
+     * @throws SQLException if a database access error occurs
+     */
+    private void migrateSessionKeyOwnersIfNeeded() throws SQLException {
+        if (!tableExists(CachedSessionKeyTable.T_CACHED_SESSION_KEY)
+                || tableExists(SessionKeyOwnerTable.T_SESSION_KEY_OWNER)) {
+            return;
+        }
+        createSessionKeyOwnerTableAndIndexesIfNotExists(SessionKeyPartitions.UNPARTITIONED);
+        int count = 0;
+        try (Statement statement = connection.createStatement()) {
+            String sql = "SELECT " + CachedSessionKeyTable.c.ID.name() + "," + CachedSessionKeyTable.c.Owners.name();
+            sql += " FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            PreparedStatement preparedStatement =
+                    connection.prepareStatement(insertSessionKeyOwnerSql(SessionKeyPartitions.UNPARTITIONED));
+            while (resultSet.next()) {
+                long keyID = resultSet.getLong(1);
+                for (String owner: resultSet.getString(2).split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM)) {
+                    preparedStatement.setLong(1, keyID);
+                    preparedStatement.setString(2, owner);
+                    preparedStatement.addBatch();
+                    count++;
+                }
+            }
+            preparedStatement.executeBatch();
+            preparedStatement.close();
+        }
+        logger.info("Migrated {} session key owners into table {}", count, SessionKeyOwnerTable.T_SESSION_KEY_OWNER);
+    }
+
+    /**
+     * Find partitions of cached session keys from the table names, with the range of session key IDs in each.
+     * @throws SQLException if a database access error occurs
+     */
+    private void loadSessionKeyPartitions() throws SQLException {
+        List<Long> partitions = new ArrayList<>();
+        try (Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT name FROM sqlite_master WHERE type = 'table'");
+            while (resultSet.next()) {
+                Long partition = SessionKeyPartitions.parseCachedSessionKeyTable(resultSet.getString(1));
+                if (partition != null) {
+                    partitions.add(partition);
+                }
+            }
+        }
+        if (tableExists(CachedSessionKeyTable.T_CACHED_SESSION_KEY)) {
+            partitions.add(SessionKeyPartitions.UNPARTITIONED);
+        }
+        for (long partition: partitions) {
+            sessionKeyPartitions.add(partition);
+            try (Statement statement = connection.createStatement()) {
+                ResultSet resultSet = statement.executeQuery("SELECT MIN(" + CachedSessionKeyTable.c.ID.name() + "), MAX("
+                        + CachedSessionKeyTable.c.ID.name() + ") FROM "
+                        + SessionKeyPartitions.cachedSessionKeyTable(partition));
+                if (resultSet.next() && resultSet.getObject(1) != null) {
+                    sessionKeyPartitions.addKeyID(partition, resultSet.getLong(1));
+                    sessionKeyPartitions.addKeyID(partition, resultSet.getLong(2));
+                }
+            }
+        }
+        logger.info("Found {} partition(s) of cached session keys", partitions.size());
+    }
+
+    /**
+     * Set the time window of partitions for new cached session keys. Each partition holds session keys expiring
+     * within one window, and is dropped as a whole when its window has passed.
+     * @param windowMs Length of the time window in milliseconds, 0 to store all session keys in one table.
+     */
+    public void setSessionKeyPartitionWindowMs(long windowMs) {
+        sessionKeyPartitions.setWindowMs(windowMs);
+    }
+
+    public boolean isSessionKeyPartitioningEnabled() {
+        return sessionKeyPartitions.isEnabled();
+    }
+
+    private long getOrCreateSessionKeyPartition(long expirationTime) throws SQLException {
+        long partition = sessionKeyPartitions.partitionOf(expirationTime);
+        if (!sessionKeyPartitions.contains(partition)) {
+            createCachedSessionKeyTableIfNotExists(partition);
+            createSessionKeyOwnerTableAndIndexesIfNotExists(partition);
+            sessionKeyPartitions.add(partition);
+        }
+        return partition;
+    }
+
+    private void dropSessionKeyPartition(long partition) throws SQLException {
+        // removed first, so that lookups do not go to the tables being dropped
+        sessionKeyPartitions.remove(partition);
+        try (Statement statement = connection.createStatement()) {
+            String sql = "DROP TABLE IF EXISTS " + SessionKeyPartitions.sessionKeyOwnerTable(partition);
+            if (DEBUG) logger.info(sql);
+            statement.executeUpdate(sql);
+            sql = "DROP TABLE IF EXISTS " + SessionKeyPartitions.cachedSessionKeyTable(partition);
+            if (DEBUG) logger.info(sql);
+            statement.executeUpdate(sql);
+        }
+    }
+
+    /**
+     * Drop partitions of cached session keys whose time windows have passed, so that all of their session keys
+     * are expired.
+     * @param currentTime Current time in milliseconds.
+     * @return The number of session keys in the dropped partitions
+     * @throws SQLException if a database access error occurs
+     */
+    public int dropExpiredSessionKeyPartitions(long currentTime) throws SQLException {
+        List<Long> expiredPartitions = sessionKeyPartitions.getExpired(currentTime);
+        if (expiredPartitions.isEmpty()) {
+            return 0;
+        }
+        if (decryptedSessionKeyCache != null) {
+            decryptedSessionKeyCache.invalidateExpired(currentTime);
+        }
+        int count = 0;
+        // the connection is shared, the transaction keeps the drops out of other transactions in progress
+        beginTransaction();
+        try {
+            for (long partition: expiredPartitions) {
+                try (Statement statement = connection.createStatement()) {
+                    ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM "
+                            + SessionKeyPartitions.cachedSessionKeyTable(partition));
+                    count += resultSet.next() ? resultSet.getInt(1) : 0;
+                }
+                dropSessionKeyPartition(partition);
+            }
+            commitTransaction();
+        }
+        catch (SQLException | RuntimeException e) {
+            rollbackTransaction();
+            // the tables of partitions are back, so that their session keys can be found until the next attempt
+            loadSessionKeyPartitions();
+            throw e;
+        }
+        logger.info("Dropped {} expired partition(s) with {} cached session keys", expiredPartitions.size(), count);
+        return count;
+    }
+
     /**
      * Insert records into CommunicationPolicyTable.
      *
@@ -314,30 +679,36 @@ public class SQLiteConnector {
      * @see CommunicationPolicyTable
      */
     public boolean insertRecords(CommunicationPolicyTable policy) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "INSERT INTO " + CommunicationPolicyTable.T_COMMUNICATION_POLICY + "(";
-        sql += CommunicationPolicyTable.c.RequestingGroup.name() + ",";
-        sql += CommunicationPolicyTable.c.TargetType.name() + ",";
-        sql += CommunicationPolicyTable.c.Target.name() + ",";
-        sql += CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + ",";
-        sql += CommunicationPolicyTable.c.SessionCryptoSpec.name() + ",";
-        sql += CommunicationPolicyTable.c.AbsoluteValidity.name() + ",";
-        sql += CommunicationPolicyTable.c.RelativeValidity.name() + ")";
-        sql += " VALUES (?,?,?,?,?,?,?)";
-        int index = 1;
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        preparedStatement.setString(index++,policy.getReqGroup());
-        preparedStatement.setString(index++,policy.getTargetTypeVal());
-        preparedStatement.setString(index++,policy.getTarget());
-        preparedStatement.setInt(index++,policy.getMaxNumSessionKeyOwners());
-        preparedStatement.setString(index++,policy.getSessionCryptoSpec());
-        preparedStatement.setString(index++,policy.getAbsValidityStr());
-        preparedStatement.setString(index++,policy.getRelValidityStr());
-        if (DEBUG) logger.info(preparedStatement.toString());
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+        transactionLock.lock();
+        try {
+            //setConnection();
+            String sql = "INSERT INTO " + CommunicationPolicyTable.T_COMMUNICATION_POLICY + "(";
+            sql += CommunicationPolicyTable.c.RequestingGroup.name() + ",";
+            sql += CommunicationPolicyTable.c.TargetType.name() + ",";
+            sql += CommunicationPolicyTable.c.Target.name() + ",";
+            sql += CommunicationPolicyTable.c.MaxNumSessionKeyOwners.name() + ",";
+            sql += CommunicationPolicyTable.c.SessionCryptoSpec.name() + ",";
+            sql += CommunicationPolicyTable.c.AbsoluteValidity.name() + ",";
+            sql += CommunicationPolicyTable.c.RelativeValidity.name() + ")";
+            sql += " VALUES (?,?,?,?,?,?,?)";
+            int index = 1;
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(index++,policy.getReqGroup());
+            preparedStatement.setString(index++,policy.getTargetTypeVal());
+            preparedStatement.setString(index++,policy.getTarget());
+            preparedStatement.setInt(index++,policy.getMaxNumSessionKeyOwners());
+            preparedStatement.setString(index++,policy.getSessionCryptoSpec());
+            preparedStatement.setString(index++,policy.getAbsValidityStr());
+            preparedStatement.setString(index++,policy.getRelValidityStr());
+            if (DEBUG) logger.info(preparedStatement.toString());
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+            closeConnection();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     public RegisteredEntityTable encryptRecords(RegisteredEntityTable regEntity) {
@@ -349,20 +720,22 @@ public class SQLiteConnector {
         }
         return regEntity;
     }
+    /**
+     * Decryption of the distribution key is deferred until its value is first read, so that it can be done in
+     * parallel while loading, or only for the entities that connect.
+     */
     public RegisteredEntityTable decryptRecords(RegisteredEntityTable regEntity) {
         if (!encryptCredentials) {
             return regEntity;
         }
         if (regEntity.getDistKeyVal() != null) {
-            regEntity.setDistKeyVal(decryptAuthDBData(new Buffer(regEntity.getDistKeyVal())).getRawBytes());
+            regEntity.setEncodedDistKeyVal(regEntity.getDistKeyVal(),
+                    encryptedDistKeyVal -> decryptAuthDBData(new Buffer(encryptedDistKeyVal)).getRawBytes());
         }
         return regEntity;
     }
 
-    private boolean insertOrReplaceRecordsHelper(String sqlCommand, RegisteredEntityTable regEntity)
-            throws SQLException, ClassNotFoundException
-    {
-        //setConnection();
+    private static String getInsertOrReplaceRegisteredEntitySql(String sqlCommand) {
         String sql = sqlCommand + " INTO " + RegisteredEntityTable.T_REGISTERED_ENTITY + "(";
         sql += RegisteredEntityTable.c.Name.name() + ",";
         sql += "'"+ RegisteredEntityTable.c.Group.name() + "',";
@@ -380,7 +753,12 @@ public class SQLiteConnector {
         sql += RegisteredEntityTable.c.BackupFromAuthID.name() + ",";
         sql += RegisteredEntityTable.c.MigrationToken.name() + ")";
         sql += " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        return sql;
+    }
+
+    private void setRegisteredEntityParameters(PreparedStatement preparedStatement, RegisteredEntityTable regEntity)
+            throws SQLException
+    {
         regEntity = encryptRecords(regEntity);
         int index = 1;
         preparedStatement.setString(index++,regEntity.getName());
@@ -389,9 +767,9 @@ public class SQLiteConnector {
         preparedStatement.setBoolean(index++,regEntity.getUsePermanentDistKey());
         preparedStatement.setInt(index++,regEntity.getMaxSessionKeysPerRequest());
         preparedStatement.setString(index++,regEntity.getPublicKeyCryptoSpec());
-        PublicKey publicKey = regEntity.getPublicKey();
-        if (publicKey != null) {
-            preparedStatement.setBytes(index++,publicKey.getEncoded());
+        byte[] publicKeyVal = regEntity.getPublicKeyVal();
+        if (publicKeyVal != null) {
+            preparedStatement.setBytes(index++,publicKeyVal);
         }
         else {
             preparedStatement.setNull(index++, Types.BLOB);
@@ -418,13 +796,63 @@ public class SQLiteConnector {
         else {
             preparedStatement.setNull(index++, Types.BLOB);
         }
+    }
 
-        preparedStatement.toString();
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+    private boolean insertOrReplaceRecordsHelper(String sqlCommand, RegisteredEntityTable regEntity)
+            throws SQLException, ClassNotFoundException
+    {
+        transactionLock.lock();
+        try {
+            //setConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(getInsertOrReplaceRegisteredEntitySql(sqlCommand));
+            setRegisteredEntityParameters(preparedStatement, regEntity);
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+            closeConnection();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Insert or replace records of registered entities in a single transaction, using batched statements.
+     * @param regEntities the records of registered entities
+     * @return the number of inserted or replaced records
+     * @throws SQLException if a database access error occurs, in which case no record is inserted
+     */
+    public int insertRecordsOrUpdateIfExists(List<RegisteredEntityTable> regEntities) throws SQLException {
+        beginTransaction();
+        int count = 0;
+        try {
+            PreparedStatement preparedStatement =
+                    connection.prepareStatement(getInsertOrReplaceRegisteredEntitySql("INSERT OR REPLACE"));
+            int batchCount = 0;
+            for (RegisteredEntityTable regEntity: regEntities) {
+                setRegisteredEntityParameters(preparedStatement, regEntity);
+                preparedStatement.addBatch();
+                batchCount++;
+                if (batchCount == REGISTERED_ENTITY_INSERT_BATCH_SIZE) {
+                    preparedStatement.executeBatch();
+                    count += batchCount;
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {
+                preparedStatement.executeBatch();
+                count += batchCount;
+            }
+            preparedStatement.close();
+            commitTransaction();
+        }
+        catch (SQLException | RuntimeException e) {
+            rollbackTransaction();
+            throw e;
+        }
+        if (DEBUG) logger.info("Inserted or replaced {} registered entities", count);
+        return count;
     }
 
     /**
@@ -462,40 +890,46 @@ public class SQLiteConnector {
      * @see TrustedAuthTable
      */
     public boolean insertRecords(TrustedAuthTable auth) throws SQLException, ClassNotFoundException, CertificateEncodingException {
-        //setConnection();
-        String sql = "INSERT INTO " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
-        sql += TrustedAuthTable.c.ID.name() + ",";
-        sql += TrustedAuthTable.c.Host.name() + ",";
-        sql += TrustedAuthTable.c.EntityHost.name() + ",";
-        sql += TrustedAuthTable.c.Port.name() + ",";
-        sql += TrustedAuthTable.c.HeartbeatPeriod.name() + ",";
-        sql += TrustedAuthTable.c.FailureThreshold.name() + ",";
-        sql += TrustedAuthTable.c.InternetCertificateValue.name() + ",";
-        sql += TrustedAuthTable.c.EntityCertificateValue.name() + ",";
-        sql += TrustedAuthTable.c.BackupCertificateValue.name() + ")";
-        sql += " VALUES(?,?,?,?,?,?,?,?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        int index = 1;
-        preparedStatement.setInt(index++,auth.getId());
-        preparedStatement.setString(index++,auth.getHost());
-        preparedStatement.setString(index++,auth.getEntityHost());
-        preparedStatement.setInt(index++,auth.getPort());
-        preparedStatement.setInt(index++,auth.getHeartbeatPeriod());
-        preparedStatement.setInt(index++,auth.getFailureThreshold());
-        preparedStatement.setBytes(index++,auth.getInternetCertificate().getEncoded());
-        preparedStatement.setBytes(index++,auth.getEntityCertificate().getEncoded());
-        X509Certificate backupCertificate = auth.getBackupCertificate();
-        if (backupCertificate != null) {
-            preparedStatement.setBytes(index++,backupCertificate.getEncoded());
+        transactionLock.lock();
+        try {
+            //setConnection();
+            String sql = "INSERT INTO " + TrustedAuthTable.T_TRUSTED_AUTH + "(";
+            sql += TrustedAuthTable.c.ID.name() + ",";
+            sql += TrustedAuthTable.c.Host.name() + ",";
+            sql += TrustedAuthTable.c.EntityHost.name() + ",";
+            sql += TrustedAuthTable.c.Port.name() + ",";
+            sql += TrustedAuthTable.c.HeartbeatPeriod.name() + ",";
+            sql += TrustedAuthTable.c.FailureThreshold.name() + ",";
+            sql += TrustedAuthTable.c.InternetCertificateValue.name() + ",";
+            sql += TrustedAuthTable.c.EntityCertificateValue.name() + ",";
+            sql += TrustedAuthTable.c.BackupCertificateValue.name() + ")";
+            sql += " VALUES(?,?,?,?,?,?,?,?,?)";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            int index = 1;
+            preparedStatement.setInt(index++,auth.getId());
+            preparedStatement.setString(index++,auth.getHost());
+            preparedStatement.setString(index++,auth.getEntityHost());
+            preparedStatement.setInt(index++,auth.getPort());
+            preparedStatement.setInt(index++,auth.getHeartbeatPeriod());
+            preparedStatement.setInt(index++,auth.getFailureThreshold());
+            preparedStatement.setBytes(index++,auth.getInternetCertificate().getEncoded());
+            preparedStatement.setBytes(index++,auth.getEntityCertificate().getEncoded());
+            X509Certificate backupCertificate = auth.getBackupCertificate();
+            if (backupCertificate != null) {
+                preparedStatement.setBytes(index++,backupCertificate.getEncoded());
+            }
+            else {
+                preparedStatement.setNull(index++, Types.BLOB);
+            }
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+            closeConnection();
+            return result;
         }
-        else {
-            preparedStatement.setNull(index++, Types.BLOB);
+        finally {
+            transactionLock.unlock();
         }
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
     }
 
 
@@ -507,10 +941,21 @@ public class SQLiteConnector {
         return cachedSessionKey;
     }
     public CachedSessionKeyTable decryptRecords(CachedSessionKeyTable cachedSessionKey) {
-        if (!encryptCredentials) {
+        if (!encryptCredentials || cachedSessionKey == null) {
             return cachedSessionKey;
         }
+        if (decryptedSessionKeyCache != null) {
+            byte[] keyVal = decryptedSessionKeyCache.get(cachedSessionKey.getID(), new java.util.Date().getTime());
+            if (keyVal != null) {
+                cachedSessionKey.setKeyVal(keyVal);
+                return cachedSessionKey;
+            }
+        }
         cachedSessionKey.setKeyVal(decryptAuthDBData(new Buffer(cachedSessionKey.getKeyVal())).getRawBytes());
+        if (decryptedSessionKeyCache != null) {
+            decryptedSessionKeyCache.put(cachedSessionKey.getID(), cachedSessionKey.getKeyVal(),
+                    cachedSessionKey.getAbsValidity());
+        }
         return cachedSessionKey;
     }
     /**
@@ -526,33 +971,59 @@ public class SQLiteConnector {
      * @see CachedSessionKeyTable
      */
     public boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException, ClassNotFoundException {
-        encryptRecords(cachedSessionKey);
-        //setConnection();
-        String sql = "INSERT INTO " + CachedSessionKeyTable.T_CACHED_SESSION_KEY + "(";
-        sql += CachedSessionKeyTable.c.ID.name() + ",";
-        sql += CachedSessionKeyTable.c.Owners.name() + ",";
-        sql += CachedSessionKeyTable.c.MaxNumOwners.name() + ",";
-        sql += CachedSessionKeyTable.c.Purpose.name() + ",";
-        sql += CachedSessionKeyTable.c.ExpirationTime.name() + ",";
-        sql += CachedSessionKeyTable.c.RelValidity.name() + ",";
-        sql += CachedSessionKeyTable.c.CryptoSpec.name() + ",";
-        sql += CachedSessionKeyTable.c.KeyVal.name() + ")";
-        sql += " VALUES(?,?,?,?,?,?,?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        int index = 1;
-        preparedStatement.setLong(index++,cachedSessionKey.getID());
-        preparedStatement.setString(index++,cachedSessionKey.getOwner());
-        preparedStatement.setInt(index++,cachedSessionKey.getMaxNumOwners());
-        preparedStatement.setString(index++,cachedSessionKey.getPurpose());
-        preparedStatement.setLong(index++,cachedSessionKey.getAbsValidity());
-        preparedStatement.setLong(index++,cachedSessionKey.getRelValidity());
-        preparedStatement.setString(index++,cachedSessionKey.getSessionCryptoSpec());
-        preparedStatement.setBytes(index++,cachedSessionKey.getKeyVal());
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+        transactionLock.lock();
+        try {
+            byte[] decryptedKeyVal = cachedSessionKey.getKeyVal();
+            encryptRecords(cachedSessionKey);
+            //setConnection();
+            long partition = getOrCreateSessionKeyPartition(cachedSessionKey.getAbsValidity());
+            String sql = "INSERT INTO " + SessionKeyPartitions.cachedSessionKeyTable(partition) + "(";
+            sql += CachedSessionKeyTable.c.ID.name() + ",";
+            sql += CachedSessionKeyTable.c.Owners.name() + ",";
+            sql += CachedSessionKeyTable.c.MaxNumOwners.name() + ",";
+            sql += CachedSessionKeyTable.c.Purpose.name() + ",";
+            sql += CachedSessionKeyTable.c.ExpirationTime.name() + ",";
+            sql += CachedSessionKeyTable.c.RelValidity.name() + ",";
+            sql += CachedSessionKeyTable.c.CryptoSpec.name() + ",";
+            sql += CachedSessionKeyTable.c.KeyVal.name() + ")";
+            sql += " VALUES(?,?,?,?,?,?,?,?)";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            int index = 1;
+            preparedStatement.setLong(index++,cachedSessionKey.getID());
+            preparedStatement.setString(index++,cachedSessionKey.getOwner());
+            preparedStatement.setInt(index++,cachedSessionKey.getMaxNumOwners());
+            preparedStatement.setString(index++,cachedSessionKey.getPurpose());
+            preparedStatement.setLong(index++,cachedSessionKey.getAbsValidity());
+            preparedStatement.setLong(index++,cachedSessionKey.getRelValidity());
+            preparedStatement.setString(index++,cachedSessionKey.getSessionCryptoSpec());
+            preparedStatement.setBytes(index++,cachedSessionKey.getKeyVal());
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+
+            preparedStatement = connection.prepareStatement(insertSessionKeyOwnerSql(partition));
+            for (String owner: cachedSessionKey.getOwner().split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM)) {
+                preparedStatement.setLong(1, cachedSessionKey.getID());
+                preparedStatement.setString(2, owner);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+            preparedStatement.close();
+            sessionKeyPartitions.addKeyID(partition, cachedSessionKey.getID());
+            if (encryptCredentials && decryptedSessionKeyCache != null) {
+                // new session keys are likely to be looked up soon by other entities
+                decryptedSessionKeyCache.put(cachedSessionKey.getID(), decryptedKeyVal,
+                        cachedSessionKey.getAbsValidity());
+                if (!connection.getAutoCommit()) {
+                    sessionKeyIDsCachedInTransaction.add(cachedSessionKey.getID());
+                }
+            }
+            closeConnection();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     /**
@@ -568,21 +1039,27 @@ public class SQLiteConnector {
      * @see MetaDataTable
      */
     public boolean insertRecords(MetaDataTable metaData) throws SQLException, ClassNotFoundException {
-        //setConnection();
+        transactionLock.lock();
+        try {
+            //setConnection();
 
-        String sql = "INSERT INTO " + MetaDataTable.T_META_DATA + "(";
-        sql += MetaDataTable.c.Key.name() + ",";
-        sql += MetaDataTable.c.Value.name() + ")";
-        sql += " VALUES(?,?)";
-        PreparedStatement preparedStatement = connection.prepareStatement(sql);
-        int index = 1;
-        preparedStatement.setString(index++, metaData.getKey());
-        preparedStatement.setString(index++, metaData.getValue());
-        if (DEBUG) logger.info("{}",preparedStatement);
-        boolean result = preparedStatement.execute();
-        preparedStatement.close();
-        closeConnection();
-        return result;
+            String sql = "INSERT INTO " + MetaDataTable.T_META_DATA + "(";
+            sql += MetaDataTable.c.Key.name() + ",";
+            sql += MetaDataTable.c.Value.name() + ")";
+            sql += " VALUES(?,?)";
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            int index = 1;
+            preparedStatement.setString(index++, metaData.getKey());
+            preparedStatement.setString(index++, metaData.getValue());
+            if (DEBUG) logger.info("{}",preparedStatement);
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+            closeConnection();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     /**
@@ -595,17 +1072,17 @@ public class SQLiteConnector {
      */
     public List<CommunicationPolicyTable> selectAllPolicies() throws SQLException, ClassNotFoundException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CommunicationPolicyTable.T_COMMUNICATION_POLICY;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         List<CommunicationPolicyTable> policies = new LinkedList<>();
-        while(resultSet.next()){
-            CommunicationPolicyTable policy = CommunicationPolicyTable.createRecord(resultSet);
-            policies.add(policy);
-            if (DEBUG) logger.info(policy.toJSONObject().toJSONString());
+        try (Statement statement = connection.createStatement()) {
+            String sql = "SELECT * FROM " + CommunicationPolicyTable.T_COMMUNICATION_POLICY;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            while(resultSet.next()){
+                CommunicationPolicyTable policy = CommunicationPolicyTable.createRecord(resultSet);
+                policies.add(policy);
+                if (DEBUG) logger.info(policy.toJSONObject().toJSONString());
+            }
         }
-        closeStatement();
         closeConnection();
         return policies;
     }
@@ -621,15 +1098,41 @@ public class SQLiteConnector {
      */
     public List<RegisteredEntityTable> selectAllRegEntities(String authDatabaseDir) throws SQLException, ClassNotFoundException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         List<RegisteredEntityTable> entities = new LinkedList<>();
-        while(resultSet.next()) {
-            RegisteredEntityTable entity = RegisteredEntityTable.createRecord(resultSet);
-            entities.add(decryptRecords(entity));
-            if (DEBUG) logger.info(entity.toJSONObject().toJSONString());
+        try (Statement statement = connection.createStatement()) {
+            String sql = "SELECT * FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            while(resultSet.next()) {
+                RegisteredEntityTable entity = RegisteredEntityTable.createRecord(resultSet);
+                entities.add(decryptRecords(entity));
+                if (DEBUG) logger.info(entity.toJSONObject().toJSONString());
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Select the distribution keys of registered entities, which are decrypted when they are first used.
+     * @return a list of registered entities with only their names and distribution keys
+     * @throws SQLException  if a database access error occurs
+     */
+    public List<RegisteredEntityTable> selectAllRegEntityDistKeys() throws SQLException {
+        List<RegisteredEntityTable> entities = new LinkedList<>();
+        try (Statement statement = connection.createStatement()) {
+            String sql = "SELECT " + RegisteredEntityTable.c.Name.name() + ", "
+                    + RegisteredEntityTable.c.DistKeyExpirationTime.name() + ", "
+                    + RegisteredEntityTable.c.DistKeyValue.name() + " FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY
+                    + " WHERE " + RegisteredEntityTable.c.DistKeyValue.name() + " IS NOT NULL";
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            while (resultSet.next()) {
+                RegisteredEntityTable entity = new RegisteredEntityTable();
+                entity.setName(resultSet.getString(RegisteredEntityTable.c.Name.name()));
+                entity.setDistKeyVal(resultSet.getBytes(RegisteredEntityTable.c.DistKeyValue.name()));
+                entity.setDistKeyExpirationTime(resultSet.getLong(RegisteredEntityTable.c.DistKeyExpirationTime.name()));
+                entities.add(decryptRecords(entity));
+            }
         }
         return entities;
     }
@@ -648,21 +1151,27 @@ public class SQLiteConnector {
     public boolean updateRegEntityDistKey(String regEntityName, long distKeyExpirationTime, Buffer distKeyVal)
             throws SQLException, ClassNotFoundException
     {
-        if (encryptCredentials) {
-            distKeyVal = encryptAuthDBData(distKeyVal);
+        transactionLock.lock();
+        try {
+            if (encryptCredentials) {
+                distKeyVal = encryptAuthDBData(distKeyVal);
+            }
+            //setConnection();
+            String sql = "UPDATE " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            sql += " SET " + RegisteredEntityTable.c.DistKeyExpirationTime.name() + " = " + distKeyExpirationTime;
+            sql += ", " + RegisteredEntityTable.c.DistKeyValue.name() + " = :DistKeyValue";
+            sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = '" + regEntityName + "'";
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            preparedStatement.setBytes(1, distKeyVal.getRawBytes());
+            boolean result = preparedStatement.execute();
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
         }
-        //setConnection();
-        String sql = "UPDATE " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        sql += " SET " + RegisteredEntityTable.c.DistKeyExpirationTime.name() + " = " + distKeyExpirationTime;
-        sql += ", " + RegisteredEntityTable.c.DistKeyValue.name() + " = :DistKeyValue";
-        sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = '" + regEntityName + "'";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        preparedStatement.setBytes(1, distKeyVal.getRawBytes());
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        return result;
     }
 
     /**
@@ -677,15 +1186,16 @@ public class SQLiteConnector {
      */
     public List<TrustedAuthTable> selectAllTrustedAuth() throws SQLException, ClassNotFoundException, CertificateEncodingException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + TrustedAuthTable.T_TRUSTED_AUTH;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         List<TrustedAuthTable> authList = new LinkedList<>();
-        while (resultSet.next()) {
-            TrustedAuthTable auth = TrustedAuthTable.createRecord(resultSet);
-            if (DEBUG) logger.info(auth.toJSONObject().toJSONString());
-            authList.add(auth);
+        try (Statement statement = connection.createStatement()) {
+            String sql = "SELECT * FROM " + TrustedAuthTable.T_TRUSTED_AUTH;
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            while (resultSet.next()) {
+                TrustedAuthTable auth = TrustedAuthTable.createRecord(resultSet);
+                if (DEBUG) logger.info(auth.toJSONObject().toJSONString());
+                authList.add(auth);
+            }
         }
         return authList;
     }
@@ -701,15 +1211,18 @@ public class SQLiteConnector {
      */
     public List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException, ClassNotFoundException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         List<CachedSessionKeyTable> cachedSessionKeyList = new LinkedList<>();
-        while (resultSet.next()) {
-            CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
-            if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
-            cachedSessionKeyList.add(decryptRecords(cachedSessionKey));
+        for (long partition: sessionKeyPartitions.getAll()) {
+            try (Statement statement = connection.createStatement()) {
+                String sql = selectCachedSessionKeySql(partition);
+                if (DEBUG) logger.info(sql);
+                ResultSet resultSet = statement.executeQuery(sql);
+                while (resultSet.next()) {
+                    CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
+                    if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+                    cachedSessionKeyList.add(decryptRecords(cachedSessionKey));
+                }
+            }
         }
         return cachedSessionKeyList;
     }
@@ -725,21 +1238,29 @@ public class SQLiteConnector {
      */
     public CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException, ClassNotFoundException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " = " + id;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         CachedSessionKeyTable cachedSessionKey = null;
-        while (resultSet.next()) {
-            cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
-            if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+        // only partitions whose range of session key IDs includes the ID are looked up
+        for (long partition: sessionKeyPartitions.getCandidates(id)) {
+            try (Statement statement = connection.createStatement()) {
+                String sql = selectCachedSessionKeySql(partition);
+                sql += " WHERE k." + CachedSessionKeyTable.c.ID.name() + " = " + id;
+                if (DEBUG) logger.info(sql);
+                ResultSet resultSet = statement.executeQuery(sql);
+                while (resultSet.next()) {
+                    cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
+                    if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+                }
+            }
+            if (cachedSessionKey != null) {
+                break;
+            }
         }
         return decryptRecords(cachedSessionKey);
     }
 
     /**
-     * Select session keys with the same purpose and that is not expired yet.
+     * Select session keys with the same purpose that are not expired yet, not owned by the requesting entity, and
+     * whose number of owners is less than the maximum number of owners.
      * @param requestingEntityName the name of the requesting entity for cached session keys.
      *                             to be used for adding the entity as an owner of the session keys.
      * @param purpose the given purpose of the session key
@@ -752,19 +1273,28 @@ public class SQLiteConnector {
     public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
             throws SQLException, ClassNotFoundException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        sql += " WHERE " + CachedSessionKeyTable.c.Purpose.name() + " = " + "'" + purpose + "'";
-        sql += " AND " + CachedSessionKeyTable.c.Owners.name() + " NOT LIKE " + "'%" + requestingEntityName + "%'";
         long currentTime = new java.util.Date().getTime();
-        sql += " AND " + CachedSessionKeyTable.c.ExpirationTime.name() + " > " + currentTime;
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         List<CachedSessionKeyTable> result = new LinkedList<>();
-        while (resultSet.next()) {
-            CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
-            if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
-            result.add(decryptRecords(cachedSessionKey));
+        for (long partition: sessionKeyPartitions.getUnexpired(currentTime)) {
+            String sql = selectCachedSessionKeySql(partition);
+            sql += " WHERE k." + CachedSessionKeyTable.c.Purpose.name() + " = ?";
+            sql += " AND k." + CachedSessionKeyTable.c.ExpirationTime.name() + " > ?";
+            sql += " AND NOT EXISTS (SELECT 1 FROM " + SessionKeyPartitions.sessionKeyOwnerTable(partition) + " o";
+            sql += " WHERE o." + SessionKeyOwnerTable.c.KeyID.name() + " = k." + CachedSessionKeyTable.c.ID.name();
+            sql += " AND o." + SessionKeyOwnerTable.c.Owner.name() + " = ?)";
+            sql += " AND " + countSessionKeyOwnersSql(partition) + " < k." + CachedSessionKeyTable.c.MaxNumOwners.name();
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setString(1, purpose);
+            preparedStatement.setLong(2, currentTime);
+            preparedStatement.setString(3, requestingEntityName);
+            ResultSet resultSet = preparedStatement.executeQuery();
+            while (resultSet.next()) {
+                CachedSessionKeyTable cachedSessionKey = CachedSessionKeyTable.createRecord(resultSet);
+                if (DEBUG) logger.info(cachedSessionKey.toJSONObject().toJSONString());
+                result.add(decryptRecords(cachedSessionKey));
+            }
+            preparedStatement.close();
         }
         return result;
     }
@@ -778,16 +1308,139 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public boolean deleteExpiredCahcedSessionKeys() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        long currentTime = new java.util.Date().getTime();
-        sql += " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < " + currentTime;
+        transactionLock.lock();
+        try {
+            //setConnection();
+            long currentTime = new java.util.Date().getTime();
+            if (decryptedSessionKeyCache != null) {
+                decryptedSessionKeyCache.invalidateExpired(currentTime);
+            }
+            dropExpiredSessionKeyPartitions(currentTime);
+            boolean result = false;
+            for (long partition: sessionKeyPartitions.getAll()) {
+                String sql = "DELETE FROM " + SessionKeyPartitions.sessionKeyOwnerTable(partition);
+                sql += " WHERE " + SessionKeyOwnerTable.c.KeyID.name() + " IN (SELECT " + CachedSessionKeyTable.c.ID.name();
+                sql += " FROM " + SessionKeyPartitions.cachedSessionKeyTable(partition);
+                sql += " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < " + currentTime + ")";
+                if (DEBUG) logger.info(sql);
+                PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+                preparedStatement.execute();
+                preparedStatement.close();
+
+                sql = "DELETE FROM " + SessionKeyPartitions.cachedSessionKeyTable(partition);
+                sql += " WHERE " + CachedSessionKeyTable.c.ExpirationTime.name() + " < " + currentTime;
+                if (DEBUG) logger.info(sql);
+                preparedStatement  = connection.prepareStatement(sql);
+                result = preparedStatement.execute();
+                preparedStatement.close();
+            }
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Delete cached session keys with the given IDs, along with their owners, from the database.
+     * @param keyIDs IDs of the session keys to be deleted
+     * @return The number of deleted session keys
+     * @throws SQLException  if a database access error occurs;
+     */
+    public int deleteCachedSessionKeysByIDs(long[] keyIDs) throws SQLException {
+        transactionLock.lock();
+        try {
+            if (keyIDs.length == 0) {
+                return 0;
+            }
+            if (decryptedSessionKeyCache != null) {
+                for (long keyID: keyIDs) {
+                    decryptedSessionKeyCache.invalidate(keyID);
+                }
+            }
+            StringBuilder placeholders = new StringBuilder("?");
+            long minKeyID = keyIDs[0];
+            long maxKeyID = keyIDs[0];
+            for (int i = 1; i < keyIDs.length; i++) {
+                placeholders.append(",?");
+                minKeyID = Math.min(minKeyID, keyIDs[i]);
+                maxKeyID = Math.max(maxKeyID, keyIDs[i]);
+            }
+            int result = 0;
+            for (long partition: sessionKeyPartitions.getCandidates(minKeyID, maxKeyID)) {
+                String sql = "DELETE FROM " + SessionKeyPartitions.sessionKeyOwnerTable(partition);
+                sql += " WHERE " + SessionKeyOwnerTable.c.KeyID.name() + " IN (" + placeholders + ")";
+                if (DEBUG) logger.info(sql);
+                PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+                for (int i = 0; i < keyIDs.length; i++) {
+                    preparedStatement.setLong(i + 1, keyIDs[i]);
+                }
+                preparedStatement.executeUpdate();
+                preparedStatement.close();
+
+                sql = "DELETE FROM " + SessionKeyPartitions.cachedSessionKeyTable(partition);
+                sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " IN (" + placeholders + ")";
+                if (DEBUG) logger.info(sql);
+                preparedStatement  = connection.prepareStatement(sql);
+                for (int i = 0; i < keyIDs.length; i++) {
+                    preparedStatement.setLong(i + 1, keyIDs[i]);
+                }
+                result += preparedStatement.executeUpdate();
+                preparedStatement.close();
+            }
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Select the largest ID of cached session keys within the given range of IDs, from the partitions that may hold
+     * session keys in the range.
+     * @param minID The smallest ID in the range.
+     * @param maxID The largest ID in the range.
+     * @return The largest ID found, or -1 if there is no session key in the range
+     * @throws SQLException  if a database access error occurs;
+     */
+    public long selectMaxCachedSessionKeyID(long minID, long maxID) throws SQLException {
+        long maxKeyID = -1;
+        for (long partition: sessionKeyPartitions.getCandidates(minID, maxID)) {
+            String sql = "SELECT MAX(" + CachedSessionKeyTable.c.ID.name() + ") FROM "
+                    + SessionKeyPartitions.cachedSessionKeyTable(partition);
+            sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " BETWEEN " + minID + " AND " + maxID;
+            if (DEBUG) logger.info(sql);
+            try (Statement statement = connection.createStatement()) {
+                ResultSet resultSet = statement.executeQuery(sql);
+                if (resultSet.next() && resultSet.getObject(1) != null) {
+                    maxKeyID = Math.max(maxKeyID, resultSet.getLong(1));
+                }
+            }
+        }
+        return maxKeyID;
+    }
+
+    /**
+     * Select IDs and expiration times of cached session keys in the unpartitioned table, without decrypting the
+     * key values. Session keys in partitions are retired by dropping their partitions instead.
+     * @return Expiration times of cached session keys, keyed by session key IDs
+     * @throws SQLException  if a database access error occurs;
+     */
+    public Map<Long, Long> selectCachedSessionKeyExpirationTimes() throws SQLException {
+        String sql = "SELECT " + CachedSessionKeyTable.c.ID.name() + ", " + CachedSessionKeyTable.c.ExpirationTime.name();
+        sql += " FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
         if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        return result;
+        Map<Long, Long> expirationTimes = new HashMap<>();
+        try (Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery(sql);
+            while (resultSet.next()) {
+                expirationTimes.put(resultSet.getLong(CachedSessionKeyTable.c.ID.name()),
+                        resultSet.getLong(CachedSessionKeyTable.c.ExpirationTime.name()));
+            }
+        }
+        return expirationTimes;
     }
 
     /**
@@ -797,35 +1450,76 @@ public class SQLiteConnector {
      * @throws ClassNotFoundException if the class cannot be located
      */
     public boolean deleteAllCachedSessionKeys() throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        return preparedStatement.execute();
+        transactionLock.lock();
+        try {
+            //setConnection();
+            if (decryptedSessionKeyCache != null) {
+                decryptedSessionKeyCache.invalidateAll();
+            }
+            for (long partition: sessionKeyPartitions.getAll()) {
+                if (partition != SessionKeyPartitions.UNPARTITIONED) {
+                    dropSessionKeyPartition(partition);
+                }
+            }
+            String sql = "DELETE FROM " + SessionKeyOwnerTable.T_SESSION_KEY_OWNER;
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            preparedStatement.execute();
+            preparedStatement.close();
+
+            sql = "DELETE FROM " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
+            if (DEBUG) logger.info(sql);
+            preparedStatement  = connection.prepareStatement(sql);
+            boolean result = preparedStatement.execute();
+            preparedStatement.close();
+            sessionKeyPartitions.remove(SessionKeyPartitions.UNPARTITIONED);
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     /**
-     * Append a owner to a session key.
+     * Append a owner to a session key, if the session key has less owners than its maximum number of owners.
      * @param keyID the id of the session key
      * @param newOwner the owner to the session key
-     * @return <code>true</code> if the append is successful; otherwise, <code>false</code>
+     * @return <code>true</code> if the owner is added; otherwise, <code>false</code>
      * @throws SQLException  if a database access error occurs;
      * this method is called on a closed <code>PreparedStatement</code>
      * or an argument is supplied to this method
      * @throws ClassNotFoundException if the class cannot be located
      */
     public boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException {
-        //setConnection();
-        String sql = "UPDATE " + CachedSessionKeyTable.T_CACHED_SESSION_KEY;
-        sql += " SET " + CachedSessionKeyTable.c.Owners.name() + " = ";
-        sql += CachedSessionKeyTable.c.Owners.name() + "|| ',' || " + "'" + newOwner + "'";
-        sql += " WHERE " + CachedSessionKeyTable.c.ID.name() + " = " + keyID;
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        return result;
+        transactionLock.lock();
+        try {
+            //setConnection();
+            boolean result = false;
+            for (long partition: sessionKeyPartitions.getCandidates(keyID)) {
+                String sql = "INSERT OR IGNORE INTO " + SessionKeyPartitions.sessionKeyOwnerTable(partition) + "(";
+                sql += SessionKeyOwnerTable.c.KeyID.name() + ",";
+                sql += SessionKeyOwnerTable.c.Owner.name() + ")";
+                sql += " SELECT k." + CachedSessionKeyTable.c.ID.name() + ", ?";
+                sql += " FROM " + SessionKeyPartitions.cachedSessionKeyTable(partition) + " k";
+                sql += " WHERE k." + CachedSessionKeyTable.c.ID.name() + " = ?";
+                sql += " AND " + countSessionKeyOwnersSql(partition) + " < k." + CachedSessionKeyTable.c.MaxNumOwners.name();
+                if (DEBUG) logger.info(sql);
+                PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+                preparedStatement.setString(1, newOwner);
+                preparedStatement.setLong(2, keyID);
+                result = preparedStatement.executeUpdate() > 0;
+                preparedStatement.close();
+                if (result) {
+                    break;
+                }
+            }
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     /**
@@ -839,17 +1533,17 @@ public class SQLiteConnector {
      */
     public String selectMetaDataValue(String key) throws SQLException, ClassNotFoundException {
         //setConnection();
-        statement = connection.createStatement();
-        String sql = "SELECT * FROM " + MetaDataTable.T_META_DATA;
-        sql += " WHERE " + MetaDataTable.c.Key.name() + " = '" + key + "'";
-        if (DEBUG) logger.info(sql);
-        ResultSet resultSet = statement.executeQuery(sql);
         MetaDataTable metaData = null;
-        while (resultSet.next()) {
-            metaData = MetaDataTable.createRecord(resultSet);
-            if (DEBUG) logger.info(metaData.toJSONObject().toJSONString());
+        try (Statement statement = connection.createStatement()) {
+            String sql = "SELECT * FROM " + MetaDataTable.T_META_DATA;
+            sql += " WHERE " + MetaDataTable.c.Key.name() + " = '" + key + "'";
+            if (DEBUG) logger.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            while (resultSet.next()) {
+                metaData = MetaDataTable.createRecord(resultSet);
+                if (DEBUG) logger.info(metaData.toJSONObject().toJSONString());
+            }
         }
-        closeStatement();
         return metaData.getValue();
     }
 
@@ -865,37 +1559,88 @@ public class SQLiteConnector {
      */
     public boolean updateMetaData(String key, String value) throws SQLException, ClassNotFoundException
     {
-        //setConnection();
-        String sql = "UPDATE " + MetaDataTable.T_META_DATA;
-        sql += " SET " + MetaDataTable.c.Value.name() + " = '" + value + "'";
-        sql += " WHERE " + MetaDataTable.c.Key.name() + " = '" + key + "'";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        // It's in auto-commit mode no need for explicit commit
-        //_commit();
-        preparedStatement.close();
-        return result;
+        transactionLock.lock();
+        try {
+            //setConnection();
+            String sql = "UPDATE " + MetaDataTable.T_META_DATA;
+            sql += " SET " + MetaDataTable.c.Value.name() + " = '" + value + "'";
+            sql += " WHERE " + MetaDataTable.c.Key.name() + " = '" + key + "'";
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            boolean result = preparedStatement.execute();
+            // It's in auto-commit mode no need for explicit commit
+            //_commit();
+            preparedStatement.close();
+            return result;
 
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     /**
-     * Close the ${@link PreparedStatement}.
-     * <pre>
-     *     Recomended to be used after execute the sql through the ${@link Connection}
-     * </pre>
+     * Close the connection to the database.
      * @throws SQLException If a database access error occurs
      */
-    public void closeStatement() throws SQLException {
-        statement.close();
+    public void closeConnection() throws SQLException {
+        //connection.close();
     }
 
     /**
-     * Close the connection to the database.
+     * Begin a transaction so that the following statements are committed together by
+     * {@link #commitTransaction()}. The connection is otherwise used in auto-commit mode.
      * @throws SQLException If a database access error occurs
      */
-    public void closeConnection() throws SQLException {
-        //connection.close();
+    public void beginTransaction() throws SQLException {
+        // the connection is shared, so only one transaction is open at a time
+        transactionLock.lock();
+        try {
+            connection.setAutoCommit(false);
+        }
+        catch (SQLException e) {
+            transactionLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Commit the transaction started by {@link #beginTransaction()} and return to auto-commit mode.
+     * If the commit fails, the transaction stays open until {@link #rollbackTransaction()}.
+     * @throws SQLException If a database access error occurs
+     */
+    public void commitTransaction() throws SQLException {
+        connection.commit();
+        sessionKeyIDsCachedInTransaction.clear();
+        try {
+            connection.setAutoCommit(true);
+        }
+        finally {
+            transactionLock.unlock();
+        }
+    }
+
+    /**
+     * Roll back the transaction started by {@link #beginTransaction()} and return to auto-commit mode.
+     * @throws SQLException If a database access error occurs
+     */
+    public void rollbackTransaction() throws SQLException {
+        // the inserted session keys are gone, and so should be their decrypted values
+        for (long keyID: sessionKeyIDsCachedInTransaction) {
+            decryptedSessionKeyCache.invalidate(keyID);
+        }
+        sessionKeyIDsCachedInTransaction.clear();
+        try {
+            connection.rollback();
+        }
+        finally {
+            try {
+                connection.setAutoCommit(true);
+            }
+            finally {
+                transactionLock.unlock();
+            }
+        }
     }
 
 
@@ -905,42 +1650,60 @@ public class SQLiteConnector {
      * @throws SQLException If a database access error occurs
      */
     public boolean deleteBackedUpRegisteredEntities() throws SQLException {
-        String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        sql += " WHERE " + RegisteredEntityTable.c.BackupFromAuthID.name() + " >= 0";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        return result;
+        transactionLock.lock();
+        try {
+            String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            sql += " WHERE " + RegisteredEntityTable.c.BackupFromAuthID.name() + " >= 0";
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            boolean result = preparedStatement.execute();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 
     public boolean deleteRegisteredEntities(List<String> registeredEntityNameList) throws SQLException {
-        if (registeredEntityNameList.isEmpty()) {
-            throw new RuntimeException("The list of names of registered entities to be removed is empty!");
+        transactionLock.lock();
+        try {
+            if (registeredEntityNameList.isEmpty()) {
+                throw new RuntimeException("The list of names of registered entities to be removed is empty!");
+            }
+            String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
+            sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = '" + registeredEntityNameList.get(0) + "'";
+            for (int i = 1; i < registeredEntityNameList.size(); i++) {
+                sql += " OR " + RegisteredEntityTable.c.Name.name() + " = '" + registeredEntityNameList.get(i) + "'";
+            }
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            boolean result = preparedStatement.execute();
+            return result;
         }
-        String sql = "DELETE FROM " + RegisteredEntityTable.T_REGISTERED_ENTITY;
-        sql += " WHERE " + RegisteredEntityTable.c.Name.name() + " = '" + registeredEntityNameList.get(0) + "'";
-        for (int i = 1; i < registeredEntityNameList.size(); i++) {
-            sql += " OR " + RegisteredEntityTable.c.Name.name() + " = '" + registeredEntityNameList.get(i) + "'";
+        finally {
+            transactionLock.unlock();
         }
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        boolean result = preparedStatement.execute();
-        return result;
     }
 
     public boolean updateBackupCertificate(int backupFromAuthID, X509Certificate backupCertificate)
             throws SQLException, CertificateEncodingException
     {
-        //setConnection();
-        String sql = "UPDATE " + TrustedAuthTable.T_TRUSTED_AUTH;
-        sql += " SET " + TrustedAuthTable.c.BackupCertificateValue.name() + " = :BackupCertificateValue";
-        sql += " WHERE " + TrustedAuthTable.c.ID.name() + " = '" + backupFromAuthID + "'";
-        if (DEBUG) logger.info(sql);
-        PreparedStatement preparedStatement  = connection.prepareStatement(sql);
-        preparedStatement.setBytes(1, backupCertificate.getEncoded());
-        boolean result = preparedStatement.execute();
-        ResultSet resultSet = preparedStatement.getResultSet();
-        preparedStatement.close();
-        return result;
+        transactionLock.lock();
+        try {
+            //setConnection();
+            String sql = "UPDATE " + TrustedAuthTable.T_TRUSTED_AUTH;
+            sql += " SET " + TrustedAuthTable.c.BackupCertificateValue.name() + " = :BackupCertificateValue";
+            sql += " WHERE " + TrustedAuthTable.c.ID.name() + " = '" + backupFromAuthID + "'";
+            if (DEBUG) logger.info(sql);
+            PreparedStatement preparedStatement  = connection.prepareStatement(sql);
+            preparedStatement.setBytes(1, backupCertificate.getEncoded());
+            boolean result = preparedStatement.execute();
+            ResultSet resultSet = preparedStatement.getResultSet();
+            preparedStatement.close();
+            return result;
+        }
+        finally {
+            transactionLock.unlock();
+        }
     }
 }
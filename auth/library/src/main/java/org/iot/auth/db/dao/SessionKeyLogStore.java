@@ -0,0 +1,927 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.iot.auth.exception.InvalidSymmetricKeyOperationException;
+import org.iot.auth.exception.UseOfExpiredKeyException;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.util.ExceptionToString;
+import org.iot.auth.util.LongKeyHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Storage of cached session keys in an append-only log, split into segment files.
+ *
+ * Session keys are written once, rarely updated (only when owners are appended), and expire roughly in the order
+ * they are created. Every change is appended to the newest segment, which is rolled over to a new segment when
+ * it reaches the segment size, and an in-memory index keyed by primitive session key IDs keeps the position of
+ * the latest record of each session key. A segment whose session keys have all expired is deleted as a whole,
+ * and a segment that is mostly made of superseded or deleted records is compacted by appending its live records
+ * to the newest segment. A segment with deletions is kept while an older segment is kept, as the deleted session
+ * keys would otherwise come back from the older segment when the log is loaded again.
+ *
+ * Record format: length (4 bytes) | type (1 byte) | body | CRC32 of type and body (4 bytes). When the entire
+ * database is protected, the body of a session key is encrypted with the database key except for its ID,
+ * which compaction reads without decrypting the record; otherwise, only the value of the session key is
+ * encrypted, unless the database is not protected.
+ * @author Hokeun Kim
+ */
+public class SessionKeyLogStore implements SessionKeyStore {
+    private static final Logger logger = LoggerFactory.getLogger(SessionKeyLogStore.class);
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final String SEGMENT_FILE_PREFIX = "segment_";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte ENCRYPTED_PUT = 3;
+
+    private static class Segment {
+        private Segment(long sequence, Path path, FileChannel channel) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+        }
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        private long size = 0;
+        private long maxExpirationTime = Long.MIN_VALUE;
+        private int recordCount = 0;
+        private int liveCount = 0;
+        private int deleteCount = 0;
+    }
+
+    /**
+     * State of the newest segment when a (nested) transaction began, for rolling back only the records of
+     * that transaction.
+     */
+    private static class Savepoint {
+        private Savepoint(Segment segment, int undoCount) {
+            this.segmentSequence = segment.sequence;
+            this.size = segment.size;
+            this.maxExpirationTime = segment.maxExpirationTime;
+            this.recordCount = segment.recordCount;
+            this.deleteCount = segment.deleteCount;
+            this.undoCount = undoCount;
+        }
+        private final long segmentSequence;
+        private final long size;
+        private final long maxExpirationTime;
+        private final int recordCount;
+        private final int deleteCount;
+        // number of undo actions when the transaction began
+        private final int undoCount;
+    }
+
+    /**
+     * Fields of a session key kept in memory, for selecting session keys without reading their records.
+     */
+    private static class SessionKeyEntry {
+        private SessionKeyEntry(Segment segment, long position, CachedSessionKeyTable cachedSessionKey) {
+            this.segment = segment;
+            this.position = position;
+            this.purpose = cachedSessionKey.getPurpose();
+            this.expirationTime = cachedSessionKey.getAbsValidity();
+            this.maxNumOwners = cachedSessionKey.getMaxNumOwners();
+            this.owners = Arrays.asList(cachedSessionKey.getOwner().split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM));
+        }
+        private Segment segment;
+        private long position;
+        private final String purpose;
+        private final long expirationTime;
+        private final int maxNumOwners;
+        private final List<String> owners;
+    }
+
+    /**
+     * @param logDir Directory of the segment files.
+     * @param segmentSize Size in bytes at which the newest segment is rolled over.
+     * @param authDBProtectionMethod Protection method of the Auth database, which determines whether values
+     *                               of session keys or entire records are encrypted with the database key.
+     */
+    public SessionKeyLogStore(String logDir, long segmentSize, AuthDBProtectionMethod authDBProtectionMethod) {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size should be positive!");
+        }
+        this.logDir = Paths.get(logDir);
+        this.segmentSize = segmentSize;
+        this.encryptRecords = authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB
+                || authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_PAGES;
+        this.encryptKeyValues = authDBProtectionMethod == AuthDBProtectionMethod.ENCRYPT_CREDENTIALS;
+    }
+
+    /**
+     * Set the maximum number of decrypted session key values kept in memory, when values are encrypted.
+     * @param cacheSize Maximum number of decrypted session key values, or 0 to decrypt them on every read.
+     */
+    public void setDecryptedSessionKeyCacheSize(int cacheSize) {
+        this.decryptedSessionKeyCache = cacheSize > 0 ? new DecryptedSessionKeyCache(cacheSize) : null;
+    }
+
+    public void initialize(SymmetricKey databaseKey) throws SQLException, IOException {
+        this.databaseKey = databaseKey;
+        lock.lock();
+        try {
+            Files.createDirectories(logDir);
+            loadSegments();
+            logger.info("Opened session key log at {}, segments: {}, session keys: {}",
+                    logDir, segments.size(), index.size());
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (activeSegment != null) {
+                activeSegment.channel.force(false);
+            }
+            closeSegments();
+            if (decryptedSessionKeyCache != null) {
+                decryptedSessionKeyCache.invalidateAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records are persisted as they are appended, so a checkpoint only compacts segments with mostly dead records.
+     */
+    public void writeEncryptedCheckpoint() throws SQLException, IOException {
+        lock.lock();
+        try {
+            if (savepoints.isEmpty()) {
+                compactSegments();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Begin a transaction, which may be nested in another transaction of the same thread. Appended records
+     * are forced to the storage device together when the outermost transaction is committed.
+     */
+    public void beginTransaction() {
+        lock.lock();
+        savepoints.push(new Savepoint(activeSegment, undoActions.size()));
+    }
+
+    public void commitTransaction() throws SQLException {
+        // a failed force leaves the transaction open, to be rolled back by the caller
+        if (savepoints.size() == 1) {
+            force();
+            undoActions.clear();
+        }
+        savepoints.pop();
+        lock.unlock();
+    }
+
+    /**
+     * Discard records appended since the innermost transaction began, by undoing their changes to the index
+     * and truncating the log at the start of the transaction.
+     */
+    public void rollbackTransaction() throws SQLException {
+        try {
+            Savepoint savepoint = savepoints.pop();
+            for (int i = undoActions.size() - 1; i >= savepoint.undoCount; i--) {
+                undoActions.remove(i).run();
+            }
+            try {
+                // segments are not deleted in a transaction, so the segment is still there
+                Segment segment = segments.get(savepoint.segmentSequence);
+                for (Segment newerSegment: new ArrayList<>(segments.tailMap(segment.sequence, false).values())) {
+                    deleteSegment(newerSegment);
+                }
+                segment.channel.truncate(savepoint.size);
+                segment.size = savepoint.size;
+                segment.maxExpirationTime = savepoint.maxExpirationTime;
+                segment.recordCount = savepoint.recordCount;
+                segment.deleteCount = savepoint.deleteCount;
+                activeSegment = segment;
+            }
+            catch (IOException e) {
+                throw new SQLException("Failed to roll back session key log!", e);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException {
+        lock.lock();
+        try {
+            putSessionKey(cachedSessionKey);
+            forceIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException {
+        lock.lock();
+        try {
+            List<SessionKeyEntry> entries = new ArrayList<>(index.size());
+            index.forEach((entry, keyID) -> entries.add(entry));
+            List<CachedSessionKeyTable> cachedSessionKeyList = new LinkedList<>();
+            for (SessionKeyEntry entry: entries) {
+                cachedSessionKeyList.add(readSessionKey(entry));
+            }
+            return cachedSessionKeyList;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException {
+        lock.lock();
+        try {
+            SessionKeyEntry entry = index.get(id);
+            return entry == null ? null : readSessionKey(entry);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
+            throws SQLException
+    {
+        long currentTime = new Date().getTime();
+        lock.lock();
+        try {
+            List<SessionKeyEntry> entries = new ArrayList<>();
+            index.forEach((entry, keyID) -> {
+                if (entry.purpose.equals(purpose) && entry.expirationTime > currentTime
+                        && !entry.owners.contains(requestingEntityName) && entry.owners.size() < entry.maxNumOwners) {
+                    entries.add(entry);
+                }
+            });
+            List<CachedSessionKeyTable> result = new LinkedList<>();
+            for (SessionKeyEntry entry: entries) {
+                result.add(readSessionKey(entry));
+            }
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append an owner by appending the session key again with the new owner, superseding its previous record.
+     */
+    public boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException {
+        lock.lock();
+        try {
+            SessionKeyEntry entry = index.get(keyID);
+            if (entry == null || entry.owners.contains(newOwner) || entry.owners.size() >= entry.maxNumOwners) {
+                return false;
+            }
+            CachedSessionKeyTable cachedSessionKey = readSessionKey(entry);
+            cachedSessionKey.setOwner(cachedSessionKey.getOwner() + SessionKey.SESSION_KEY_OWNER_NAME_DELIM + newOwner);
+            putSessionKey(cachedSessionKey);
+            forceIfNotInTransaction();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean deleteExpiredCahcedSessionKeys() throws SQLException {
+        long currentTime = new Date().getTime();
+        lock.lock();
+        try {
+            dropExpiredSessionKeyPartitions(currentTime);
+            List<Long> expiredKeyIDs = new ArrayList<>();
+            index.forEach((entry, keyID) -> {
+                if (entry.expirationTime < currentTime) {
+                    expiredKeyIDs.add(keyID);
+                }
+            });
+            for (long keyID: expiredKeyIDs) {
+                deleteSessionKey(keyID);
+            }
+            forceIfNotInTransaction();
+            return !expiredKeyIDs.isEmpty();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int deleteCachedSessionKeysByIDs(long[] keyIDs) throws SQLException {
+        lock.lock();
+        try {
+            int result = 0;
+            for (long keyID: keyIDs) {
+                if (deleteSessionKey(keyID)) {
+                    result++;
+                }
+            }
+            forceIfNotInTransaction();
+            return result;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean deleteAllCachedSessionKeys() throws SQLException {
+        lock.lock();
+        try {
+            if (!savepoints.isEmpty()) {
+                throw new SQLException("Session key log segments cannot be deleted in a transaction!");
+            }
+            boolean result = !index.isEmpty();
+            if (decryptedSessionKeyCache != null) {
+                decryptedSessionKeyCache.invalidateAll();
+            }
+            for (Segment segment: new ArrayList<>(segments.values())) {
+                deleteSegment(segment);
+            }
+            index.clear();
+            activeSegment = null;
+            rollOver();
+            return result;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to delete session key log segments!", e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long selectMaxCachedSessionKeyID(long minID, long maxID) {
+        lock.lock();
+        try {
+            long[] maxKeyID = {-1};
+            index.forEach((entry, keyID) -> {
+                if (keyID >= minID && keyID <= maxID && keyID > maxKeyID[0]) {
+                    maxKeyID[0] = keyID;
+                }
+            });
+            return maxKeyID[0];
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Session keys are retired by deleting their segments, so none of them needs to be deleted one by one.
+     */
+    public Map<Long, Long> selectCachedSessionKeyExpirationTimes() {
+        return new HashMap<>();
+    }
+
+    public boolean isSessionKeyPartitioningEnabled() {
+        return true;
+    }
+
+    /**
+     * Delete segments other than the newest one, whose session keys have all expired. A segment with deletions
+     * is deleted only if all older segments are deleted, so that the deleted session keys do not come back.
+     * Segments are not deleted in a transaction, as the deletion cannot be rolled back.
+     * @param currentTime Current time in milliseconds.
+     * @return The number of session keys in the deleted segments
+     */
+    public int dropExpiredSessionKeyPartitions(long currentTime) throws SQLException {
+        lock.lock();
+        try {
+            if (!savepoints.isEmpty()) {
+                return 0;
+            }
+            List<Segment> expiredSegments = new ArrayList<>();
+            boolean hasOlderSegments = false;
+            for (Segment segment: segments.values()) {
+                if (segment != activeSegment && segment.maxExpirationTime < currentTime
+                        && (segment.deleteCount == 0 || !hasOlderSegments)) {
+                    expiredSegments.add(segment);
+                }
+                else {
+                    hasOlderSegments = true;
+                }
+            }
+            if (expiredSegments.isEmpty()) {
+                return 0;
+            }
+            if (decryptedSessionKeyCache != null) {
+                decryptedSessionKeyCache.invalidateExpired(currentTime);
+            }
+            int count = 0;
+            for (Segment segment: expiredSegments) {
+                count += removeEntriesInSegment(segment);
+                deleteSegment(segment);
+            }
+            logger.info("Dropped {} expired session key log segment(s) with {} session keys",
+                    expiredSegments.size(), count);
+            return count;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to delete session key log segments!", e);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // Segments
+
+    private void loadSegments() throws IOException, SQLException {
+        segments.clear();
+        index.clear();
+        activeSegment = null;
+        List<Path> segmentPaths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(logDir,
+                SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            stream.forEach(segmentPaths::add);
+        }
+        for (Path path: segmentPaths) {
+            String fileName = path.getFileName().toString();
+            long sequence = Long.parseLong(fileName.substring(SEGMENT_FILE_PREFIX.length(),
+                    fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+            segments.put(sequence, new Segment(sequence, path, FileChannel.open(path,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)));
+        }
+        for (Segment segment: segments.values()) {
+            scanSegment(segment);
+        }
+        if (segments.isEmpty()) {
+            rollOver();
+        }
+        else {
+            activeSegment = segments.lastEntry().getValue();
+        }
+    }
+
+    /**
+     * Apply records of a segment to the index, truncating a partially written record at its end.
+     */
+    private void scanSegment(Segment segment) throws IOException, SQLException {
+        long fileSize = segment.channel.size();
+        long position = 0;
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Buffer.INT_SIZE);
+        while (position + Buffer.INT_SIZE <= fileSize) {
+            lengthBuffer.clear();
+            readFully(segment.channel, lengthBuffer, position);
+            int length = lengthBuffer.getInt(0);
+            if (length <= 0 || length > MAX_RECORD_LENGTH
+                    || position + Buffer.INT_SIZE + length + Buffer.INT_SIZE > fileSize) {
+                break;
+            }
+            byte[] record = readRecord(segment, position);
+            if (record == null) {
+                break;
+            }
+            applyRecord(segment, position, record);
+            position += Buffer.INT_SIZE + length + Buffer.INT_SIZE;
+        }
+        if (position < fileSize) {
+            logger.warn("Truncating {} bytes of incomplete records at the end of {}",
+                    fileSize - position, segment.path);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+    }
+
+    private void applyRecord(Segment segment, long position, byte[] record) throws SQLException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1));
+        segment.recordCount++;
+        try {
+            if (record[0] == PUT || record[0] == ENCRYPTED_PUT) {
+                CachedSessionKeyTable cachedSessionKey = deserialize(record[0], input);
+                segment.maxExpirationTime = Math.max(segment.maxExpirationTime, cachedSessionKey.getAbsValidity());
+                updateIndex(cachedSessionKey.getID(), new SessionKeyEntry(segment, position, cachedSessionKey));
+            }
+            else if (record[0] == DELETE) {
+                long keyID = input.readLong();
+                segment.maxExpirationTime = Math.max(segment.maxExpirationTime, input.readLong());
+                segment.deleteCount++;
+                updateIndex(keyID, null);
+            }
+            else {
+                throw new SQLException("Unknown type of session key log record: " + record[0]);
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to parse a session key log record!", e);
+        }
+    }
+
+    private void rollOver() throws IOException {
+        if (activeSegment != null) {
+            activeSegment.channel.force(false);
+        }
+        long sequence = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Path path = logDir.resolve(String.format("%s%020d%s", SEGMENT_FILE_PREFIX, sequence, SEGMENT_FILE_SUFFIX));
+        activeSegment = new Segment(sequence, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(sequence, activeSegment);
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        segments.remove(segment.sequence);
+        segment.channel.close();
+        Files.deleteIfExists(segment.path);
+    }
+
+    private void closeSegments() throws IOException {
+        for (Segment segment: segments.values()) {
+            segment.channel.close();
+        }
+        segments.clear();
+        activeSegment = null;
+    }
+
+    private int removeEntriesInSegment(Segment segment) {
+        List<Long> keyIDs = new ArrayList<>();
+        index.forEach((entry, keyID) -> {
+            if (entry.segment == segment) {
+                keyIDs.add(keyID);
+            }
+        });
+        for (long keyID: keyIDs) {
+            index.remove(keyID);
+        }
+        return keyIDs.size();
+    }
+
+    /**
+     * Append live records and deletions of older segments to the newest segment, for segments other than the
+     * newest one whose records are mostly superseded or deleted, and delete those segments.
+     */
+    private void compactSegments() throws SQLException, IOException {
+        List<Segment> sparseSegments = new ArrayList<>();
+        for (Segment segment: segments.values()) {
+            if (segment != activeSegment && segment.liveCount * 2 < segment.recordCount) {
+                sparseSegments.add(segment);
+            }
+        }
+        for (Segment segment: sparseSegments) {
+            long startTime = System.currentTimeMillis();
+            int copiedCount = 0;
+            boolean hasOlderSegments = segments.firstKey() < segment.sequence;
+            long position = 0;
+            while (position < segment.size) {
+                byte[] record = readRecord(segment, position);
+                if (record == null) {
+                    throw new SQLException("Corrupted record in " + segment.path);
+                }
+                long recordPosition = position;
+                position += Buffer.INT_SIZE + record.length + Buffer.INT_SIZE;
+                long keyID = ByteBuffer.wrap(record, 1, Buffer.LONG_SIZE).getLong();
+                SessionKeyEntry entry = index.get(keyID);
+                boolean isLive = record[0] != DELETE && entry != null && entry.segment == segment
+                        && entry.position == recordPosition;
+                // a deletion is kept while the deleted session key may still be in an older segment
+                if (isLive || (record[0] == DELETE && entry == null && hasOlderSegments)) {
+                    long newPosition = appendRecord(record);
+                    if (record[0] == DELETE) {
+                        activeSegment.maxExpirationTime = Math.max(activeSegment.maxExpirationTime,
+                                ByteBuffer.wrap(record, 1 + Buffer.LONG_SIZE, Buffer.LONG_SIZE).getLong());
+                        activeSegment.deleteCount++;
+                    }
+                    else {
+                        activeSegment.maxExpirationTime = Math.max(activeSegment.maxExpirationTime,
+                                entry.expirationTime);
+                        entry.segment = activeSegment;
+                        entry.position = newPosition;
+                        activeSegment.liveCount++;
+                    }
+                    copiedCount++;
+                }
+            }
+            activeSegment.channel.force(false);
+            deleteSegment(segment);
+            logger.info("Compacted session key log segment {}, copied {} of {} records in {} ms",
+                    segment.sequence, copiedCount, segment.recordCount, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    // Records
+
+    private void putSessionKey(CachedSessionKeyTable cachedSessionKey) throws SQLException {
+        byte[] body = serialize(cachedSessionKey);
+        byte[] record = new byte[1 + body.length];
+        record[0] = encryptRecords ? ENCRYPTED_PUT : PUT;
+        System.arraycopy(body, 0, record, 1, body.length);
+        long position = appendRecord(record);
+        activeSegment.maxExpirationTime = Math.max(activeSegment.maxExpirationTime, cachedSessionKey.getAbsValidity());
+        updateIndex(cachedSessionKey.getID(), new SessionKeyEntry(activeSegment, position, cachedSessionKey));
+        if (encryptKeyValues && decryptedSessionKeyCache != null) {
+            // new session keys are likely to be looked up soon by other entities
+            long keyID = cachedSessionKey.getID();
+            decryptedSessionKeyCache.put(keyID, cachedSessionKey.getKeyVal(), cachedSessionKey.getAbsValidity());
+            if (!savepoints.isEmpty()) {
+                // the record is gone after a rollback, and so should be its decrypted value
+                undoActions.add(() -> decryptedSessionKeyCache.invalidate(keyID));
+            }
+        }
+    }
+
+    private boolean deleteSessionKey(long keyID) throws SQLException {
+        SessionKeyEntry entry = index.get(keyID);
+        if (entry == null) {
+            return false;
+        }
+        if (decryptedSessionKeyCache != null) {
+            decryptedSessionKeyCache.invalidate(keyID);
+        }
+        byte[] record = ByteBuffer.allocate(1 + Buffer.LONG_SIZE * 2)
+                .put(DELETE).putLong(keyID).putLong(entry.expirationTime).array();
+        appendRecord(record);
+        activeSegment.maxExpirationTime = Math.max(activeSegment.maxExpirationTime, entry.expirationTime);
+        activeSegment.deleteCount++;
+        updateIndex(keyID, null);
+        return true;
+    }
+
+    /**
+     * Put or remove (for a null entry) the entry of a session key in the index, updating the numbers of live
+     * records of the segments, and keep the previous entry for undoing the change when it is made in a transaction.
+     */
+    private void updateIndex(long keyID, SessionKeyEntry entry) {
+        SessionKeyEntry previousEntry = entry == null ? index.remove(keyID) : index.put(keyID, entry);
+        if (previousEntry != null) {
+            previousEntry.segment.liveCount--;
+        }
+        if (entry != null) {
+            entry.segment.liveCount++;
+        }
+        if (!savepoints.isEmpty()) {
+            undoActions.add(() -> {
+                if (entry != null) {
+                    entry.segment.liveCount--;
+                }
+                if (previousEntry == null) {
+                    index.remove(keyID);
+                }
+                else {
+                    previousEntry.segment.liveCount++;
+                    index.put(keyID, previousEntry);
+                }
+            });
+        }
+    }
+
+    /**
+     * Append a record, made of its type and body, to the newest segment.
+     * @return Position of the record in the newest segment.
+     */
+    private long appendRecord(byte[] record) throws SQLException {
+        try {
+            if (activeSegment.size >= segmentSize) {
+                rollOver();
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            ByteBuffer buffer = ByteBuffer.allocate(Buffer.INT_SIZE + record.length + Buffer.INT_SIZE);
+            buffer.putInt(record.length).put(record).putInt((int) crc.getValue()).flip();
+            long position = activeSegment.size;
+            while (buffer.hasRemaining()) {
+                activeSegment.channel.write(buffer, position + buffer.position());
+            }
+            activeSegment.size += buffer.limit();
+            activeSegment.recordCount++;
+            return position;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to append to session key log!", e);
+        }
+    }
+
+    /**
+     * Read the type and body of a record.
+     * @return The type and body, or null if the record fails its checksum.
+     */
+    private byte[] readRecord(Segment segment, long position) throws SQLException {
+        try {
+            ByteBuffer lengthBuffer = ByteBuffer.allocate(Buffer.INT_SIZE);
+            readFully(segment.channel, lengthBuffer, position);
+            int length = lengthBuffer.getInt(0);
+            ByteBuffer buffer = ByteBuffer.allocate(length + Buffer.INT_SIZE);
+            readFully(segment.channel, buffer, position + Buffer.INT_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, length);
+            if ((int) crc.getValue() != buffer.getInt(length)) {
+                return null;
+            }
+            return Arrays.copyOf(buffer.array(), length);
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to read session key log!", e);
+        }
+    }
+
+    private CachedSessionKeyTable readSessionKey(SessionKeyEntry entry) throws SQLException {
+        byte[] record = readRecord(entry.segment, entry.position);
+        if (record == null) {
+            throw new SQLException("Corrupted session key record in " + entry.segment.path);
+        }
+        try {
+            CachedSessionKeyTable cachedSessionKey = deserialize(record[0],
+                    new DataInputStream(new ByteArrayInputStream(record, 1, record.length - 1)));
+            if (record[0] == PUT && encryptKeyValues) {
+                cachedSessionKey.setKeyVal(decryptKeyValue(cachedSessionKey));
+            }
+            return cachedSessionKey;
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to parse a session key log record!", e);
+        }
+    }
+
+    private void forceIfNotInTransaction() throws SQLException {
+        if (savepoints.isEmpty()) {
+            force();
+        }
+    }
+
+    private void force() throws SQLException {
+        try {
+            activeSegment.channel.force(false);
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to write session key log!", e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of session key log segment!");
+            }
+        }
+    }
+
+    private byte[] serialize(CachedSessionKeyTable cachedSessionKey) throws SQLException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try {
+            DataOutputStream output = new DataOutputStream(byteStream);
+            // the ID comes first, so that compaction can read it without parsing the record
+            output.writeLong(cachedSessionKey.getID());
+            if (encryptRecords) {
+                ByteArrayOutputStream fieldStream = new ByteArrayOutputStream();
+                serializeFields(cachedSessionKey, cachedSessionKey.getKeyVal(), new DataOutputStream(fieldStream));
+                byte[] encryptedFields = encrypt(fieldStream.toByteArray());
+                output.writeInt(encryptedFields.length);
+                output.write(encryptedFields);
+            }
+            else {
+                serializeFields(cachedSessionKey, encryptKeyValues ? encrypt(cachedSessionKey.getKeyVal())
+                        : cachedSessionKey.getKeyVal(), output);
+            }
+        }
+        catch (IOException e) {
+            throw new SQLException("Failed to serialize a cached session key!", e);
+        }
+        return byteStream.toByteArray();
+    }
+
+    private static void serializeFields(CachedSessionKeyTable cachedSessionKey, byte[] keyVal,
+                                        DataOutputStream output) throws IOException
+    {
+        output.writeUTF(cachedSessionKey.getOwner());
+        output.writeInt(cachedSessionKey.getMaxNumOwners());
+        output.writeUTF(cachedSessionKey.getPurpose());
+        output.writeLong(cachedSessionKey.getAbsValidity());
+        output.writeLong(cachedSessionKey.getRelValidity());
+        output.writeUTF(cachedSessionKey.getSessionCryptoSpec());
+        output.writeInt(keyVal.length);
+        output.write(keyVal);
+    }
+
+    /**
+     * Parse the body of a session key record, decrypting the body of an encrypted record.
+     */
+    private CachedSessionKeyTable deserialize(byte type, DataInputStream input) throws IOException {
+        CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+        cachedSessionKey.setID(input.readLong());
+        if (type == ENCRYPTED_PUT) {
+            byte[] encryptedFields = new byte[input.readInt()];
+            input.readFully(encryptedFields);
+            input = new DataInputStream(new ByteArrayInputStream(decrypt(encryptedFields)));
+        }
+        cachedSessionKey.setOwner(input.readUTF());
+        cachedSessionKey.setMaxNumOwners(input.readInt());
+        cachedSessionKey.setPurpose(input.readUTF());
+        cachedSessionKey.setAbsValidity(input.readLong());
+        cachedSessionKey.setRelValidity(input.readLong());
+        cachedSessionKey.setSessionCryptoSpec(input.readUTF());
+        byte[] keyVal = new byte[input.readInt()];
+        input.readFully(keyVal);
+        cachedSessionKey.setKeyVal(keyVal);
+        return cachedSessionKey;
+    }
+
+    private byte[] encrypt(byte[] plaintext) {
+        // the database key caches its cipher, so it is guarded against concurrent use
+        try {
+            synchronized (databaseKey) {
+                return databaseKey.encryptAuthenticate(new Buffer(plaintext)).getRawBytes();
+            }
+        } catch (UseOfExpiredKeyException e) {
+            logger.error("UseOfExpiredKeyException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while encrypting a session key!");
+        } catch (InvalidSymmetricKeyOperationException e) {
+            logger.error("InvalidSymmetricKeyOperationException {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while encrypting a session key!");
+        }
+    }
+
+    private byte[] decryptKeyValue(CachedSessionKeyTable cachedSessionKey) {
+        if (decryptedSessionKeyCache != null) {
+            byte[] keyVal = decryptedSessionKeyCache.get(cachedSessionKey.getID(), new Date().getTime());
+            if (keyVal != null) {
+                return keyVal;
+            }
+        }
+        byte[] keyVal = decrypt(cachedSessionKey.getKeyVal());
+        if (decryptedSessionKeyCache != null) {
+            decryptedSessionKeyCache.put(cachedSessionKey.getID(), keyVal, cachedSessionKey.getAbsValidity());
+        }
+        return keyVal;
+    }
+
+    private byte[] decrypt(byte[] ciphertext) {
+        try {
+            synchronized (databaseKey) {
+                return databaseKey.decryptVerify(Buffer.wrap(ciphertext)).getRawBytes();
+            }
+        }
+        catch (Exception e) {
+            logger.error("Exception {}", ExceptionToString.convertExceptionToStackTrace(e));
+            throw new RuntimeException("Exception occurred while decrypting a session key!");
+        }
+    }
+
+    private final Path logDir;
+    private final long segmentSize;
+    private final boolean encryptRecords;
+    private final boolean encryptKeyValues;
+    private final ReentrantLock lock = new ReentrantLock();
+    private SymmetricKey databaseKey;
+    private DecryptedSessionKeyCache decryptedSessionKeyCache = null;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment activeSegment = null;
+    private final LongKeyHashMap<SessionKeyEntry> index = new LongKeyHashMap<>();
+    // savepoints of the transactions in progress, the innermost first
+    private final Deque<Savepoint> savepoints = new ArrayDeque<>();
+    // actions undoing the changes to the index made in the outermost transaction, in order
+    private final List<Runnable> undoActions = new ArrayList<>();
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.iot.auth.db.bean.SessionKeyOwnerTable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Partitions of cached session keys, each holding session keys that expire within one time window.
+ * A partition is a pair of cached session key and session key owner tables, suffixed with the end of the window,
+ * so that expired session keys can be retired by dropping the tables of a whole partition.
+ * The tables without a suffix form the unpartitioned partition, used when partitioning is disabled and for
+ * session keys stored before partitioning was enabled.
+ * For routing lookups by session key ID, each partition keeps the range of session key IDs it holds.
+ * @author Hokeun Kim
+ */
+class SessionKeyPartitions {
+    static final long UNPARTITIONED = 0;
+
+    static String cachedSessionKeyTable(long partition) {
+        return partition == UNPARTITIONED ? CachedSessionKeyTable.T_CACHED_SESSION_KEY
+                : CachedSessionKeyTable.T_CACHED_SESSION_KEY + "_" + partition;
+    }
+
+    static String sessionKeyOwnerTable(long partition) {
+        return partition == UNPARTITIONED ? SessionKeyOwnerTable.T_SESSION_KEY_OWNER
+                : SessionKeyOwnerTable.T_SESSION_KEY_OWNER + "_" + partition;
+    }
+
+    static String cachedSessionKeyByPurposeIndex(long partition) {
+        return partition == UNPARTITIONED ? CachedSessionKeyTable.I_CACHED_SESSION_KEY_BY_PURPOSE
+                : CachedSessionKeyTable.I_CACHED_SESSION_KEY_BY_PURPOSE + "_" + partition;
+    }
+
+    static String sessionKeyOwnerByOwnerIndex(long partition) {
+        return partition == UNPARTITIONED ? SessionKeyOwnerTable.I_SESSION_KEY_OWNER_BY_OWNER
+                : SessionKeyOwnerTable.I_SESSION_KEY_OWNER_BY_OWNER + "_" + partition;
+    }
+
+    /**
+     * Get the partition of a partitioned cached session key table from its name.
+     * @param tableName Name of a table.
+     * @return The partition, or null if the table is not a partitioned cached session key table.
+     */
+    static Long parseCachedSessionKeyTable(String tableName) {
+        String prefix = CachedSessionKeyTable.T_CACHED_SESSION_KEY + "_";
+        if (!tableName.startsWith(prefix) || tableName.length() == prefix.length()) {
+            return null;
+        }
+        for (int i = prefix.length(); i < tableName.length(); i++) {
+            if (!Character.isDigit(tableName.charAt(i))) {
+                return null;
+            }
+        }
+        return Long.parseLong(tableName.substring(prefix.length()));
+    }
+
+    SessionKeyPartitions() {
+        idRanges = new TreeMap<>();
+        idRanges.put(UNPARTITIONED, newEmptyRange());
+        windowMs = 0;
+    }
+
+    /**
+     * Set the time window of new partitions, 0 for storing new session keys in the unpartitioned tables.
+     * Partitions created with a different window stay valid, since they are named after the end of their windows.
+     * @param windowMs Length of the time window in milliseconds.
+     */
+    synchronized void setWindowMs(long windowMs) {
+        this.windowMs = windowMs;
+    }
+
+    synchronized boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * Get the partition for a session key, that is, the end of the window including its expiration time.
+     * @param expirationTime Expiration time of the session key.
+     * @return The partition for the session key.
+     */
+    synchronized long partitionOf(long expirationTime) {
+        if (windowMs <= 0) {
+            return UNPARTITIONED;
+        }
+        return (expirationTime / windowMs + 1) * windowMs;
+    }
+
+    synchronized boolean contains(long partition) {
+        return idRanges.containsKey(partition);
+    }
+
+    synchronized void add(long partition) {
+        idRanges.putIfAbsent(partition, newEmptyRange());
+    }
+
+    synchronized void remove(long partition) {
+        if (partition == UNPARTITIONED) {
+            idRanges.put(UNPARTITIONED, newEmptyRange());
+        }
+        else {
+            idRanges.remove(partition);
+        }
+    }
+
+    synchronized void addKeyID(long partition, long keyID) {
+        long[] range = idRanges.get(partition);
+        range[0] = Math.min(range[0], keyID);
+        range[1] = Math.max(range[1], keyID);
+    }
+
+    /**
+     * Get all partitions, the latest first and the unpartitioned partition last.
+     * @return List of partitions.
+     */
+    synchronized List<Long> getAll() {
+        return new ArrayList<>(idRanges.descendingKeySet());
+    }
+
+    /**
+     * Get partitions that may hold the session key with the given ID, the latest first.
+     * @param keyID ID of the session key.
+     * @return List of partitions whose range of session key IDs includes the given ID.
+     */
+    synchronized List<Long> getCandidates(long keyID) {
+        return getCandidates(keyID, keyID);
+    }
+
+    /**
+     * Get partitions that may hold session keys with IDs in the given range, the latest first.
+     * @param minKeyID The smallest session key ID.
+     * @param maxKeyID The largest session key ID.
+     * @return List of partitions whose range of session key IDs overlaps the given range.
+     */
+    synchronized List<Long> getCandidates(long minKeyID, long maxKeyID) {
+        List<Long> candidates = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry: idRanges.descendingMap().entrySet()) {
+            long[] range = entry.getValue();
+            if (range[0] <= maxKeyID && minKeyID <= range[1]) {
+                candidates.add(entry.getKey());
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Get partitions whose session keys are all expired at the given time, excluding the unpartitioned partition.
+     * @param currentTime Current time in milliseconds.
+     * @return List of expired partitions.
+     */
+    synchronized List<Long> getExpired(long currentTime) {
+        return new ArrayList<>(idRanges.subMap(UNPARTITIONED, false, currentTime, true).keySet());
+    }
+
+    /**
+     * Get partitions that may hold session keys not expired at the given time, the latest first.
+     * @param currentTime Current time in milliseconds.
+     * @return List of partitions that are not expired, including the unpartitioned partition.
+     */
+    synchronized List<Long> getUnexpired(long currentTime) {
+        List<Long> unexpired = new ArrayList<>(idRanges.tailMap(currentTime, false).descendingKeySet());
+        unexpired.add(UNPARTITIONED);
+        return unexpired;
+    }
+
+    private static long[] newEmptyRange() {
+        return new long[] {Long.MAX_VALUE, Long.MIN_VALUE};
+    }
+
+    // partition -> {the smallest session key ID, the largest session key ID}
+    private final TreeMap<Long, long[]> idRanges;
+    private long windowMs;
+}
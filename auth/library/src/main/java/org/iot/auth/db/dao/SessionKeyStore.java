@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of cached session keys. An {@link AuthStore} stores cached session keys along with the other records
+ * of Auth's database, and a separate session key store can be combined with it by {@link CompositeAuthStore}.
+ * @author Hokeun Kim
+ */
+public interface SessionKeyStore {
+    void initialize(SymmetricKey databaseKey) throws SQLException, IOException, ClassNotFoundException;
+    void close() throws SQLException, IOException;
+
+    /**
+     * Persist the current state of the storage, when changes are not persisted as they are made.
+     */
+    void writeEncryptedCheckpoint() throws SQLException, IOException;
+
+    /**
+     * Begin a transaction so that the following writes are committed together by {@link #commitTransaction()},
+     * or discarded by {@link #rollbackTransaction()}. When the commit fails, the transaction is still open, and
+     * the caller ends it with {@link #rollbackTransaction()}.
+     */
+    void beginTransaction() throws SQLException;
+    void commitTransaction() throws SQLException;
+    void rollbackTransaction() throws SQLException;
+
+    boolean insertRecords(CachedSessionKeyTable cachedSessionKey) throws SQLException, ClassNotFoundException;
+    List<CachedSessionKeyTable> selectAllCachedSessionKey() throws SQLException, ClassNotFoundException;
+    CachedSessionKeyTable selectCachedSessionKeyByID(long id) throws SQLException, ClassNotFoundException;
+    List<CachedSessionKeyTable> selectCachedSessionKeysByPurpose(String requestingEntityName, String purpose)
+            throws SQLException, ClassNotFoundException;
+    boolean appendSessionKeyOwner(long keyID, String newOwner) throws SQLException, ClassNotFoundException;
+    boolean deleteExpiredCahcedSessionKeys() throws SQLException, ClassNotFoundException;
+    int deleteCachedSessionKeysByIDs(long[] keyIDs) throws SQLException;
+    boolean deleteAllCachedSessionKeys() throws SQLException, ClassNotFoundException;
+
+    /**
+     * Select the largest ID of cached session keys within the given range of IDs.
+     * @param minID The smallest ID in the range.
+     * @param maxID The largest ID in the range.
+     * @return The largest ID found, or -1 if there is no session key in the range
+     */
+    long selectMaxCachedSessionKeyID(long minID, long maxID) throws SQLException;
+
+    /**
+     * Select IDs and expiration times of cached session keys that are deleted one by one when expired.
+     * @return Expiration times of cached session keys, keyed by session key IDs
+     */
+    Map<Long, Long> selectCachedSessionKeyExpirationTimes() throws SQLException;
+
+    /**
+     * Whether new session keys are stored in partitions that are dropped as a whole when expired,
+     * instead of being deleted one by one.
+     */
+    boolean isSessionKeyPartitioningEnabled();
+    int dropExpiredSessionKeyPartitions(long currentTime) throws SQLException;
+
+}
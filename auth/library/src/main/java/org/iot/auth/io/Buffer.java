@@ -15,11 +15,17 @@
 
 package org.iot.auth.io;
 
+import java.nio.ReadOnlyBufferException;
 import java.util.Arrays;
 import java.util.Base64;
 
 /**
  * A class for input/output buffer for Auth's binary communication with entities over TCP/IP
+ *
+ * A buffer is a range (offset and length) of a backing array. Buffers created by constructors own their arrays,
+ * while views created by {@link #view(int, int)} share the backing array of another buffer without copying it
+ * and are read-only. Bytes are copied only when ownership changes, e.g., by {@link #slice(int, int)} or
+ * {@link #getRawBytes()} on a view.
  * @author Hokeun Kim
  */
 public class Buffer {
@@ -27,12 +33,18 @@ public class Buffer {
     public static final int INT_SIZE = 4;
     public static final int LONG_SIZE = 8;
 
+    // lookup table for hex strings, which are built on hot paths for logging
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     public static String toHexString(byte[] bytes, int offset, int length) {
-        StringBuilder ret = new StringBuilder();
-        for (int i = offset; i < offset + length; i++) {
-            ret.append(String.format("%02x ", bytes[i]));
+        char[] chars = new char[3 * length];
+        for (int i = 0; i < length; i++) {
+            int value = bytes[offset + i] & 0xff;
+            chars[3 * i] = HEX_DIGITS[value >>> 4];
+            chars[3 * i + 1] = HEX_DIGITS[value & 0x0f];
+            chars[3 * i + 2] = ' ';
         }
-        return ret.toString();
+        return new String(chars);
     }
 
     public static String toHexString(byte[] bytes) {
@@ -40,46 +52,97 @@ public class Buffer {
     }
 
     public String toHexString() {
-        return this.toHexString(bytes);
+        return Buffer.toHexString(bytes, offset, length);
     }
 
     public String toConsecutiveHexString(byte[] bytes, int offset, int length) {
-        StringBuilder ret = new StringBuilder();
-        for (int i = offset; i < offset + length; i++) {
-            ret.append(String.format("%02x", bytes[i]));
+        char[] chars = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            int value = bytes[offset + i] & 0xff;
+            chars[2 * i] = HEX_DIGITS[value >>> 4];
+            chars[2 * i + 1] = HEX_DIGITS[value & 0x0f];
         }
-        return ret.toString();
+        return new String(chars);
     }
     public String toConsecutiveHexString() {
-        return toConsecutiveHexString(bytes, 0, bytes.length);
+        return toConsecutiveHexString(bytes, offset, length);
     }
 
     public Buffer(int size) {
-        bytes = new byte[size];
+        this(new byte[size], 0, size, false);
     }
 
     public Buffer(byte[] bytes) {
-        this.bytes = Arrays.copyOf(bytes, bytes.length);
+        this(Arrays.copyOf(bytes, bytes.length), 0, bytes.length, false);
     }
     public Buffer(byte[] bytes, int size) {
-        this.bytes = Arrays.copyOf(bytes, size);
+        this(Arrays.copyOf(bytes, size), 0, size, false);
     }
 
     public Buffer(Buffer buf) {
-        bytes = Arrays.copyOf(buf.getRawBytes(), buf.getRawBytes().length);
+        this(Arrays.copyOfRange(buf.bytes, buf.offset, buf.offset + buf.length), 0, buf.length, false);
+    }
+
+    private Buffer(byte[] bytes, int offset, int length, boolean readOnly) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.readOnly = readOnly;
     }
 
+    /**
+     * Create a buffer that takes over the given array without copying it, for arrays that are not used
+     * by the caller afterwards, e.g., outputs of ciphers or bytes read from a socket.
+     * @param bytes The array to be owned by the buffer.
+     * @return The buffer.
+     */
+    public static Buffer wrap(byte[] bytes) {
+        return new Buffer(bytes, 0, bytes.length, false);
+    }
+
+    /**
+     * Get the bytes of the buffer. For a view, or a buffer that does not span its whole backing array, this returns
+     * a copy, use {@link #getBackingArray()} and {@link #getOffset()} to read the bytes without copying.
+     * @return The bytes of the buffer.
+     */
     public byte[] getRawBytes() {
+        if (!readOnly && offset == 0 && length == bytes.length) {
+            return bytes;
+        }
+        return Arrays.copyOfRange(bytes, offset, offset + length);
+    }
+
+    /**
+     * Get the backing array, which must not be modified through a view, where the buffer starts at
+     * {@link #getOffset()}.
+     * @return The backing array.
+     */
+    public byte[] getBackingArray() {
         return bytes;
     }
 
+    public int getOffset() {
+        return offset;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     public int length() {
-        return bytes.length;
+        return length;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new ReadOnlyBufferException();
+        }
     }
 
     public void putBytes(byte[] value, int index, int length) {
-        if (index <= (bytes.length - length)) {
-            System.arraycopy(value, 0, bytes, index, length);
+        checkWritable();
+        if (index >= 0 && index <= (this.length - length)) {
+            System.arraycopy(value, 0, bytes, offset + index, length);
         }
         else {
             throw new IndexOutOfBoundsException();
@@ -92,8 +155,9 @@ public class Buffer {
 
     // Parameter order is always value, index, length.
     public void putByte(byte value, int index) {
-        if (index < bytes.length) {
-            bytes[index] = value;
+        checkWritable();
+        if (index >= 0 && index < length) {
+            bytes[offset + index] = value;
         }
         else {
             throw new IndexOutOfBoundsException();
@@ -102,8 +166,9 @@ public class Buffer {
 
     // bytes in big endian
     public void putNumber(long value, int index, int length) {
-        if (index <= (bytes.length - length)) {
-            for (int i = index + length - 1; i >= index; i--) {
+        checkWritable();
+        if (index >= 0 && index <= (this.length - length)) {
+            for (int i = offset + index + length - 1; i >= offset + index; i--) {
                 bytes[i] = (byte)(value & 0xff);
                 value >>= 8;
             }
@@ -124,8 +189,8 @@ public class Buffer {
     }
 
     public byte getByte(int index) {
-        if (index < bytes.length) {
-            return bytes[index];
+        if (index >= 0 && index < length) {
+            return bytes[offset + index];
         }
         else {
             throw new IndexOutOfBoundsException();
@@ -134,9 +199,9 @@ public class Buffer {
 
     // bytes in big endian
     public long getNumber(int index, int length) {
-        if (index <= (bytes.length - length)) {
+        if (index >= 0 && index <= (this.length - length)) {
             long value = 0;
-            for (int i = index; i < index + length; i++) {
+            for (int i = offset + index; i < offset + index + length; i++) {
                 value <<= 8;
                 value += (0xff & bytes[i]);
             }
@@ -157,25 +222,87 @@ public class Buffer {
 
     // read VariableLengthInt
     public VariableLengthInt getVariableLengthInt(int index) {
-        return new VariableLengthInt(bytes, index);
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new VariableLengthInt(bytes, offset + index);
+    }
+
+    // read the value of VariableLengthInt without creating one
+    public int getVariableLengthIntNum(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return VariableLengthInt.decode(bytes, offset + index, offset + length);
+    }
+
+    // number of bytes of VariableLengthInt at the index
+    public int getVariableLengthIntSize(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return VariableLengthInt.getEncodedSize(bytes, offset + index, offset + length);
+    }
+
+    // read the string of BufferedString without creating one
+    public String getString(int index) {
+        int strLen = getVariableLengthIntNum(index);
+        index += getVariableLengthIntSize(index);
+        if (index + strLen > length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new String(bytes, offset + index, strLen);
+    }
+
+    // number of bytes of BufferedString at the index
+    public int getStringSize(int index) {
+        return getVariableLengthIntSize(index) + getVariableLengthIntNum(index);
+    }
+
+    // whether the bytes from the index are the same as another buffer
+    public boolean rangeEquals(int index, Buffer another) {
+        if (index < 0 || index > length - another.length) {
+            return false;
+        }
+        for (int i = 0; i < another.length; i++) {
+            if (bytes[offset + index + i] != another.bytes[another.offset + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public BufferedString getBufferedString(int index) {
-        VariableLengthInt strLen = new VariableLengthInt(bytes, index);
+        VariableLengthInt strLen = getVariableLengthInt(index);
         index += strLen.getRawBytes().length;
-        byte[] str = Arrays.copyOfRange(bytes, index, index + strLen.getNum());
+        if (index + strLen.getNum() > length) {
+            throw new IndexOutOfBoundsException();
+        }
+        byte[] str = Arrays.copyOfRange(bytes, offset + index, offset + index + strLen.getNum());
         return new BufferedString(strLen, str);
     }
 
     public void concat(Buffer buf) {
-        byte[] newData = Arrays.copyOf(bytes, bytes.length + buf.length());
-        System.arraycopy(buf.getRawBytes(), 0, newData, bytes.length, buf.length());
+        checkWritable();
+        byte[] newData = Arrays.copyOfRange(bytes, offset, offset + length + buf.length());
+        System.arraycopy(buf.bytes, buf.offset, newData, length, buf.length());
         bytes = newData;
+        offset = 0;
+        length = newData.length;
     }
 
+    /**
+     * Copy a range of the buffer into a new buffer that owns its bytes. As with {@link Arrays#copyOfRange},
+     * the range may end past the end of the buffer, and the bytes past the end are zeros.
+     * @param from Start index, inclusive, at most the length of the buffer.
+     * @param to End index, exclusive.
+     * @return The new buffer.
+     */
     public Buffer slice(int from, int to) {
-        byte[] newData = Arrays.copyOfRange(bytes, from, to);
-        return new Buffer(newData);
+        checkRange(from, Math.min(to, length));
+        byte[] newData = new byte[to - from];
+        System.arraycopy(bytes, offset + from, newData, 0, Math.min(to, length) - from);
+        return new Buffer(newData, 0, newData.length, false);
     }
 
     public Buffer slice(int from) {
@@ -183,17 +310,51 @@ public class Buffer {
 
     }
 
+    /**
+     * Get a read-only view of a range of the buffer, sharing the bytes without copying them.
+     * The view sees later changes to the buffer, so it is meant for parsing bytes that are no longer modified.
+     * @param from Start index, inclusive.
+     * @param to End index, exclusive.
+     * @return The view.
+     */
+    public Buffer view(int from, int to) {
+        checkRange(from, to);
+        return new Buffer(bytes, offset + from, to - from, true);
+    }
+
+    public Buffer view(int from) {
+        return view(from, length());
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of buffer of length " + length);
+        }
+    }
+
     public boolean equals(Buffer another) {
-        return Arrays.equals(bytes, another.getRawBytes());
+        if (length != another.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != another.bytes[another.offset + i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public String toBase64() {
-        return Base64.getEncoder().encodeToString(bytes);
+        return Base64.getEncoder().encodeToString(getRawBytes());
     }
 
     public static Buffer fromBase64(String base64) {
-        return new Buffer(Base64.getDecoder().decode(base64));
+        return wrap(Base64.getDecoder().decode(base64));
     }
 
     private byte[] bytes;
+    private int offset;
+    private int length;
+    // true for views sharing the bytes of another buffer
+    private final boolean readOnly;
 }
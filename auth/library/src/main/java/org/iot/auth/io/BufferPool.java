@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of byte buffers with size classes, to be borrowed while a request is handled and returned after
+ * the response is written, so that handling requests in steady state does not allocate I/O buffers.
+ * Buffers are array-backed, since the socket streams, JCE and {@link Buffer} all work on arrays.
+ * For debugging, one out of every leak tracking interval leases can be tracked, so that a tracked lease that
+ * is garbage collected without being closed is counted and logged as a leak. The buffer of a leaked lease is
+ * not returned to the pool, as views of its array may still be in use without the lease.
+ * @author Hokeun Kim
+ */
+public class BufferPool {
+    public static final int[] DEFAULT_SIZE_CLASSES = {256, 1024, 4096, 16384, 65536};
+
+    /**
+     * A borrowed buffer, which must be closed to return the buffer to the pool.
+     */
+    public final class Lease implements AutoCloseable {
+        private Lease(ByteBuffer byteBuffer, int sizeClass, boolean isTracked) {
+            this.byteBuffer = byteBuffer;
+            this.sizeClass = sizeClass;
+            if (isTracked) {
+                leakReference = new LeakReference(this, byteBuffer.capacity(), leakQueue);
+                leakReferences.add(leakReference);
+            }
+            else {
+                leakReference = null;
+            }
+        }
+
+        public ByteBuffer getByteBuffer() {
+            return byteBuffer;
+        }
+
+        public byte[] array() {
+            return byteBuffer.array();
+        }
+
+        public int capacity() {
+            return byteBuffer.capacity();
+        }
+
+        /**
+         * Return the buffer to the pool. Closing a lease more than once has no effect.
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outstandingCount.decrementAndGet();
+            if (leakReference != null) {
+                leakReferences.remove(leakReference);
+                leakReference.clear();
+            }
+            if (sizeClass >= 0) {
+                release(byteBuffer, sizeClass);
+            }
+        }
+
+        private final ByteBuffer byteBuffer;
+        private final int sizeClass;
+        private final LeakReference leakReference;
+        private boolean closed = false;
+    }
+
+    /**
+     * A reference to a tracked lease, which does not keep its buffer, so that the buffer of a leaked lease is
+     * garbage collected along with the lease.
+     */
+    private static class LeakReference extends PhantomReference<Lease> {
+        LeakReference(Lease lease, int capacity, ReferenceQueue<Lease> queue) {
+            super(lease, queue);
+            this.capacity = capacity;
+        }
+        private final int capacity;
+    }
+
+    public BufferPool(int maxBuffersPerSizeClass) {
+        this(DEFAULT_SIZE_CLASSES, maxBuffersPerSizeClass);
+    }
+
+    /**
+     * Constructor for a buffer pool.
+     * @param sizeClasses Capacities of pooled buffers in ascending order, larger requests are not pooled.
+     * @param maxBuffersPerSizeClass Maximum number of idle buffers kept for each size class.
+     */
+    public BufferPool(int[] sizeClasses, int maxBuffersPerSizeClass) {
+        this.sizeClasses = sizeClasses.clone();
+        this.maxBuffersPerSizeClass = maxBuffersPerSizeClass;
+        freeBuffers = new ArrayList<>(sizeClasses.length);
+        freeCounts = new AtomicInteger[sizeClasses.length];
+        for (int i = 0; i < sizeClasses.length; i++) {
+            freeBuffers.add(new ConcurrentLinkedQueue<>());
+            freeCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Borrow a buffer with at least the given capacity, cleared for writing.
+     * @param minCapacity The minimum capacity of the buffer.
+     * @return The lease of the buffer, to be closed after use.
+     */
+    public Lease borrow(int minCapacity) {
+        int interval = leakTrackingInterval;
+        boolean isTracked = false;
+        if (interval > 0) {
+            countLeakedLeases();
+            isTracked = borrowCount.getAndIncrement() % interval == 0;
+        }
+        outstandingCount.incrementAndGet();
+        int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass < 0) {
+            // too large to be pooled
+            missCount.incrementAndGet();
+            return new Lease(ByteBuffer.allocate(minCapacity), -1, isTracked);
+        }
+        ByteBuffer byteBuffer = freeBuffers.get(sizeClass).poll();
+        if (byteBuffer != null) {
+            freeCounts[sizeClass].decrementAndGet();
+            hitCount.incrementAndGet();
+            byteBuffer.clear();
+        }
+        else {
+            missCount.incrementAndGet();
+            byteBuffer = ByteBuffer.allocate(sizeClasses[sizeClass]);
+        }
+        return new Lease(byteBuffer, sizeClass, isTracked);
+    }
+
+    /**
+     * Set how often leases are tracked for leaks, e.g., from the Auth properties.
+     * @param interval One out of how many leases are tracked, 1 to track all leases and 0 to disable tracking.
+     */
+    public void setLeakTrackingInterval(int interval) {
+        leakTrackingInterval = interval;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    public int getOutstandingCount() {
+        return outstandingCount.get();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Hits: ").append(getHitCount()).append(", Misses: ").append(getMissCount())
+                .append(", Leaks: ").append(getLeakCount()).append(", Outstanding: ").append(getOutstandingCount())
+                .append(", Idle buffers:");
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sb.append(" ").append(sizeClasses[i]).append("B=").append(freeCounts[i].get());
+        }
+        return sb.toString();
+    }
+
+    private int getSizeClass(int capacity) {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            if (capacity <= sizeClasses[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void release(ByteBuffer byteBuffer, int sizeClass) {
+        if (freeCounts[sizeClass].incrementAndGet() <= maxBuffersPerSizeClass) {
+            freeBuffers.get(sizeClass).offer(byteBuffer);
+        }
+        else {
+            freeCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    private void countLeakedLeases() {
+        LeakReference leakReference;
+        while ((leakReference = (LeakReference) leakQueue.poll()) != null) {
+            if (leakReferences.remove(leakReference)) {
+                leakCount.incrementAndGet();
+                outstandingCount.decrementAndGet();
+                logger.warn("A lease of a pooled buffer of {} bytes was not closed before being garbage collected.",
+                        leakReference.capacity);
+            }
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+    private final int[] sizeClasses;
+    private final int maxBuffersPerSizeClass;
+    private final List<Queue<ByteBuffer>> freeBuffers;
+    private final AtomicInteger[] freeCounts;
+    private final ReferenceQueue<Lease> leakQueue = new ReferenceQueue<>();
+    private final Set<LeakReference> leakReferences = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private final AtomicInteger outstandingCount = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private volatile int leakTrackingInterval = 0;
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.io;
+
+import java.util.Arrays;
+
+/**
+ * A growable writer for serializing messages into a single buffer, sequentially from the beginning.
+ * Callers that know the serialized size in advance give it as the initial capacity, so that fields are written
+ * in one pass without reallocation, otherwise the capacity is doubled as needed.
+ * @author Hokeun Kim
+ */
+public class BufferWriter {
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    public BufferWriter() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    public BufferWriter(int initialCapacity) {
+        bytes = new byte[initialCapacity];
+        length = 0;
+    }
+
+    /**
+     * Constructor for a writer over the given array, e.g., a pooled one, which is written until more capacity
+     * is needed. Use {@link #view()} to read the written bytes without handing over the array.
+     * @param array The array to be written.
+     */
+    public BufferWriter(byte[] array) {
+        bytes = array;
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int capacity() {
+        return bytes.length;
+    }
+
+    /**
+     * Discard the bytes written after the given length, e.g., to rewrite a field.
+     * @param newLength The length to go back to.
+     */
+    public void truncate(int newLength) {
+        if (newLength < 0 || newLength > length) {
+            throw new IndexOutOfBoundsException();
+        }
+        length = newLength;
+    }
+
+    /**
+     * Make sure that the given number of bytes can be written without reallocation.
+     * @param additional The number of bytes to be written.
+     */
+    public void ensureCapacity(int additional) {
+        int required = length + additional;
+        if (required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, 2 * bytes.length));
+        }
+    }
+
+    public BufferWriter putByte(byte value) {
+        ensureCapacity(Buffer.BYTE_SIZE);
+        bytes[length++] = value;
+        return this;
+    }
+
+    // bytes in big endian
+    public BufferWriter putNumber(long value, int size) {
+        ensureCapacity(size);
+        for (int i = length + size - 1; i >= length; i--) {
+            bytes[i] = (byte)(value & 0xff);
+            value >>= 8;
+        }
+        length += size;
+        return this;
+    }
+
+    public BufferWriter putInt(int value) {
+        return putNumber((long) value, Buffer.INT_SIZE);
+    }
+
+    public BufferWriter putLong(long value) {
+        return putNumber(value, Buffer.LONG_SIZE);
+    }
+
+    public BufferWriter putBytes(byte[] value, int offset, int size) {
+        ensureCapacity(size);
+        System.arraycopy(value, offset, bytes, length, size);
+        length += size;
+        return this;
+    }
+
+    public BufferWriter putBytes(byte[] value) {
+        return putBytes(value, 0, value.length);
+    }
+
+    public BufferWriter putBuffer(Buffer buffer) {
+        return putBytes(buffer.getBackingArray(), buffer.getOffset(), buffer.length());
+    }
+
+    public BufferWriter putVariableLengthInt(int num) {
+        ensureCapacity(VariableLengthInt.getEncodedSize(num));
+        length += VariableLengthInt.encode(num, bytes, length);
+        return this;
+    }
+
+    /**
+     * Write a string in the format of {@link BufferedString}, without creating one.
+     * @param str The string to be written.
+     * @return This writer.
+     */
+    public BufferWriter putString(String str) {
+        if (!isAscii(str)) {
+            return putBufferedString(new BufferedString(str));
+        }
+        int strLength = str.length();
+        ensureCapacity(getStringSize(str));
+        length += VariableLengthInt.encode(strLength, bytes, length);
+        for (int i = 0; i < strLength; i++) {
+            bytes[length++] = (byte) str.charAt(i);
+        }
+        return this;
+    }
+
+    /**
+     * Get the number of bytes written by {@link #putString(String)}.
+     * @param str The string to be written.
+     * @return The number of bytes.
+     */
+    public static int getStringSize(String str) {
+        if (!isAscii(str)) {
+            return new BufferedString(str).length();
+        }
+        return VariableLengthInt.getEncodedSize(str.length()) + str.length();
+    }
+
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public BufferWriter putBufferedString(BufferedString bufferedString) {
+        return bufferedString.writeTo(this);
+    }
+
+    /**
+     * Hand over the written bytes as a buffer. The array is not copied if the capacity was planned exactly,
+     * and the writer is reset to be empty afterwards.
+     * @return The buffer with the written bytes.
+     */
+    public Buffer toBuffer() {
+        byte[] written = length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+        bytes = EMPTY;
+        length = 0;
+        return Buffer.wrap(written);
+    }
+
+    /**
+     * Get a read-only view of the written bytes, which is valid until the writer is written again.
+     * @return The view of the written bytes.
+     */
+    public Buffer view() {
+        return Buffer.wrap(bytes).view(0, length);
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] bytes;
+    private int length;
+}
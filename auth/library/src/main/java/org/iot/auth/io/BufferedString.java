@@ -29,12 +29,13 @@ public class BufferedString {
         this.str = str.getBytes();
     }
     public Buffer serialize() {
-        Buffer buf = new Buffer(length());
-        int curIndex = 0;
-        buf.putBytes(strLen.getRawBytes(), curIndex);
-        curIndex += strLen.getRawBytes().length;
-        buf.putBytes(str, curIndex);
-        return buf;
+        return writeTo(new BufferWriter(length())).toBuffer();
+    }
+    public BufferWriter writeTo(BufferWriter writer) {
+        writer.ensureCapacity(length());
+        writer.putBytes(strLen.getRawBytes());
+        writer.putBytes(str);
+        return writer;
     }
     public String getString() {
         return new String(str);
@@ -23,29 +23,77 @@ package org.iot.auth.io;
 public class VariableLengthInt {
     public VariableLengthInt(int num) {
         this.num = num;
-        int temp = num;
+        bytes = new byte[getEncodedSize(num)];
+        encode(num, bytes, 0);
+    }
+    public VariableLengthInt(byte[] buf, int offset) {
+        num = decode(buf, offset, buf.length);
+        bytes = new byte[getEncodedSize(buf, offset, buf.length)];
+        System.arraycopy(buf, offset, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Get the number of bytes of the encoded integer.
+     * @param num The integer to be encoded.
+     * @return The number of bytes.
+     */
+    public static int getEncodedSize(int num) {
         int size = 1;
-        while (temp > 127) {
-            temp >>= 7;
+        while (num > 127) {
+            num >>= 7;
             size++;
         }
-        bytes = new byte[size];
-        int idx = 0;
+        return size;
+    }
+
+    /**
+     * Encode an integer directly into the destination array.
+     * @param num The integer to be encoded.
+     * @param dest The destination array.
+     * @param offset The offset in the destination array.
+     * @return The number of bytes written.
+     */
+    public static int encode(int num, byte[] dest, int offset) {
+        int idx = offset;
         while (num > 127) {
-            bytes[idx] = (byte)(128 | num & 127);
+            dest[idx++] = (byte)(128 | num & 127);
             num >>= 7;
-            idx++;
         }
-        bytes[idx] = (byte)num;
+        dest[idx++] = (byte)num;
+        return idx - offset;
     }
-    public VariableLengthInt(byte[] buf, int offset) {
-        num = 0;
-        for (int i = 0; i < buf.length && i < 5; i++) {
+
+    /**
+     * Decode an integer at the offset of the array, without allocation.
+     * @param buf The array with the encoded integer.
+     * @param offset The offset of the encoded integer.
+     * @param limit The end of the readable bytes, exclusive.
+     * @return The decoded integer.
+     * @throws IllegalArgumentException If the integer is not terminated within 5 bytes or before the limit.
+     */
+    public static int decode(byte[] buf, int offset, int limit) {
+        int num = 0;
+        for (int i = 0; offset + i < limit && i < 5; i++) {
             num |= (buf[offset + i] & 127) << (7 * i);
             if ((buf[offset + i] & 128) == 0) {
-                bytes = new byte[i + 1];
-                System.arraycopy(buf, offset, bytes, 0, i + 1);
-                return;
+                return num;
+            }
+        }
+        throw new IllegalArgumentException();
+    }
+
+    /**
+     * Get the number of bytes of the integer encoded at the offset of the array.
+     * @param buf The array with the encoded integer.
+     * @param offset The offset of the encoded integer.
+     * @param limit The end of the readable bytes, exclusive.
+     * @return The number of bytes of the encoded integer.
+     * @throws IllegalArgumentException If the integer is not terminated within 5 bytes or before the limit.
+     */
+    public static int getEncodedSize(byte[] buf, int offset, int limit) {
+        for (int i = 0; offset + i < limit && i < 5; i++) {
+            if ((buf[offset + i] & 128) == 0) {
+                return i + 1;
             }
         }
         throw new IllegalArgumentException();
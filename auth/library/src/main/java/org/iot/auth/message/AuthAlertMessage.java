@@ -15,7 +15,7 @@
 
 package org.iot.auth.message;
 
-import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 
 /**
  * A class for an Auth alert message to an entity, used when there's a problem with communication with the entity.
@@ -33,11 +33,13 @@ public class AuthAlertMessage extends IoTSPMessage {
         super(MessageType.AUTH_ALERT);
         this.authAlertCode = authAlertCode;
     }
-    public Buffer serialize() {
-        // in constructor? or with init method?
-        payload = new Buffer(AUTH_ALERT_CODE_SIZE);
-        payload.putByte(authAlertCode.getValue(), 0);
-        return super.serialize();
+    @Override
+    protected int getPayloadLength() {
+        return AUTH_ALERT_CODE_SIZE;
+    }
+    @Override
+    protected void writePayload(BufferWriter writer) {
+        writer.putByte(authAlertCode.getValue());
     }
 
     protected final AuthAlertCode authAlertCode;
@@ -15,7 +15,6 @@
 
 package org.iot.auth.message;
 
-import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.iot.auth.crypto.AuthCrypto;
 import org.iot.auth.crypto.DistributionKey;
@@ -24,6 +23,7 @@ import org.iot.auth.db.RegisteredEntity;
 import org.iot.auth.exception.InvalidSymmetricKeyOperationException;
 import org.iot.auth.exception.UseOfExpiredKeyException;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -33,8 +33,6 @@ import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeoutException;
 
 /**
  * A message to back up registered entities to another trusted Auth
@@ -82,8 +80,7 @@ public class AuthBackupReqMessage extends TrustedAuthReqMessasge {
     }
 
     // Because of the class name conflict of Request (client's or server's)
-    public ContentResponse sendAsHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
-            throws TimeoutException, ExecutionException, InterruptedException
+    protected org.eclipse.jetty.client.api.Request toHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
     {
         postRequest.param(TrustedAuthReqMessasge.TYPE, type.BACKUP_REQ.name());
         byte[] bytesBackupCertificate;
@@ -95,8 +92,8 @@ public class AuthBackupReqMessage extends TrustedAuthReqMessasge {
         postRequest.param("CertSize", "" + bytesBackupCertificate.length);
         postRequest.param("EntityCount", "" + registeredEntityList.size());
 
-        Buffer totalBuffer = new Buffer(bytesBackupCertificate);
-        int totalLength = 0;
+        List<Buffer> registeredEntityBuffers = new ArrayList<>(registeredEntityList.size());
+        int totalLength = bytesBackupCertificate.length;
         for (RegisteredEntity registeredEntity: registeredEntityList) {
             try {
                 registeredEntity = prepareBackup(registeredEntity);
@@ -104,15 +101,19 @@ public class AuthBackupReqMessage extends TrustedAuthReqMessasge {
                 throw new RuntimeException("Error occurred while preparing AuthBackupReqMessage: " + e.getMessage());
             }
             Buffer registeredEntityBuffer = registeredEntity.serialize();
-            Buffer lengthBuffer = new Buffer(Buffer.INT_SIZE);
-            lengthBuffer.putInt(registeredEntityBuffer.length(), 0);
-            totalLength += registeredEntityBuffer.length();
-            totalBuffer.concat(lengthBuffer);
-            totalBuffer.concat(registeredEntityBuffer);
+            totalLength += Buffer.INT_SIZE + registeredEntityBuffer.length();
+            registeredEntityBuffers.add(registeredEntityBuffer);
         }
+        BufferWriter writer = new BufferWriter(totalLength);
+        writer.putBytes(bytesBackupCertificate);
+        for (Buffer registeredEntityBuffer: registeredEntityBuffers) {
+            writer.putInt(registeredEntityBuffer.length());
+            writer.putBuffer(registeredEntityBuffer);
+        }
+        Buffer totalBuffer = writer.toBuffer();
         BytesContentProvider contentProvider = new BytesContentProvider(totalBuffer.getRawBytes());
         postRequest.content(contentProvider);
-        return postRequest.send();
+        return postRequest;
     }
 
     public static AuthBackupReqMessage fromHttpRequest(org.eclipse.jetty.server.Request baseRequest) throws IOException,
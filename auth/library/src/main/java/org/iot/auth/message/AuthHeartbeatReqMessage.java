@@ -15,7 +15,6 @@
 
 package org.iot.auth.message;
 
-import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.iot.auth.crypto.AuthCrypto;
 import org.iot.auth.io.Buffer;
@@ -24,8 +23,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeoutException;
 
 /**
  * Class for Auth heartbeat request messages
@@ -46,13 +43,12 @@ public class AuthHeartbeatReqMessage extends TrustedAuthReqMessasge  {
     }
 
     // Because of the class name conflict of Request (client's or server's)
-    public ContentResponse sendAsHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
-            throws TimeoutException, ExecutionException, InterruptedException
+    protected org.eclipse.jetty.client.api.Request toHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
     {
         postRequest.param(TrustedAuthReqMessasge.TYPE, type.HEARTBEAT_REQ.name());
         BytesContentProvider contentProvider = new BytesContentProvider(heartbeatNonce.getRawBytes());
         postRequest.content(contentProvider);
-        return postRequest.send();
+        return postRequest;
     }
 
     public static AuthHeartbeatReqMessage fromHttpRequest(org.eclipse.jetty.server.Request baseRequest) throws IOException,
@@ -15,6 +15,7 @@
 
 package org.iot.auth.message;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 
 /**
  * <pre>
@@ -38,12 +39,14 @@ public class AuthHelloMessage extends IoTSPMessage {
         this.authNonce = authNonce;
     }
 
-    public Buffer serialize() {
-        // in constructor? or with init method?
-        payload = new Buffer(AUTH_ID_SIZE + AUTH_NONCE_SIZE);
-        payload.putInt(authId, 0);
-        payload.putBytes(authNonce.getRawBytes(), AUTH_ID_SIZE);
-        return super.serialize();
+    @Override
+    protected int getPayloadLength() {
+        return AUTH_ID_SIZE + AUTH_NONCE_SIZE;
+    }
+    @Override
+    protected void writePayload(BufferWriter writer) {
+        writer.putInt(authId);
+        writer.putBuffer(authNonce);
     }
     private int authId;
     private Buffer authNonce;
@@ -15,15 +15,15 @@
 
 package org.iot.auth.message;
 
-import org.eclipse.jetty.client.api.ContentResponse;
 import org.json.simple.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A class for Auth session key request message to Auth who requested session key(s) on behalf of its
@@ -33,8 +33,13 @@ import java.util.concurrent.TimeoutException;
  * {
  *     KeyID: [KeyID in Long],
  *     EntityName: [EntityName in String],
- *     EntityGroup: [EntityGroup in String]
+ *     EntityGroup: [EntityGroup in String],
+ *     CachedKeyAuthID: [CachedKeyAuthID in Integer],
+ *     ResponseEncoding: [BINARY_RESPONSE_ENCODING if the requesting Auth accepts binary response, optional],
+ *     AdditionalEntityNames: [EntityName in String, repeated for each entity, optional]
  * } </pre>
+ * AdditionalEntityNames are the names of other entities that have received the same session key(s) and should also
+ * be added as owners of the session key(s).
  * @author Hokeun Kim
  */
 public class AuthSessionKeyReqMessage extends TrustedAuthReqMessasge {
@@ -42,21 +47,41 @@ public class AuthSessionKeyReqMessage extends TrustedAuthReqMessasge {
         KeyID,
         EntityName,
         EntityGroup,
-        CachedKeyAuthID
+        CachedKeyAuthID,
+        ResponseEncoding,
+        AdditionalEntityNames
     }
+    public static final String BINARY_RESPONSE_ENCODING = "binary";
 
     private long sessionKeyID;
     private String requestingEntityName;
     private String requestingEntityGroup;
     private int cachedKeyAuthID;
+    private List<String> additionalEntityNames;
+    private boolean binaryResponseAccepted;
 
     private static final Logger logger = LoggerFactory.getLogger(AuthSessionKeyReqMessage.class);
 
     public AuthSessionKeyReqMessage(long sessionKeyID, String requestingEntityName, String requestingEntityGroup, int cachedKeyAuthID) {
+        this(sessionKeyID, requestingEntityName, requestingEntityGroup, cachedKeyAuthID,
+                Collections.emptyList());
+    }
+
+    public AuthSessionKeyReqMessage(long sessionKeyID, String requestingEntityName, String requestingEntityGroup,
+                                    int cachedKeyAuthID, List<String> additionalEntityNames) {
+        // this Auth can read binary responses
+        this(sessionKeyID, requestingEntityName, requestingEntityGroup, cachedKeyAuthID, additionalEntityNames, true);
+    }
+
+    private AuthSessionKeyReqMessage(long sessionKeyID, String requestingEntityName, String requestingEntityGroup,
+                                     int cachedKeyAuthID, List<String> additionalEntityNames,
+                                     boolean binaryResponseAccepted) {
         this.sessionKeyID = sessionKeyID;
         this.requestingEntityName = requestingEntityName;
         this.requestingEntityGroup = requestingEntityGroup;
         this.cachedKeyAuthID = cachedKeyAuthID;
+        this.additionalEntityNames = additionalEntityNames;
+        this.binaryResponseAccepted = binaryResponseAccepted;
     }
 
     public long getSessionKeyID() {
@@ -69,9 +94,17 @@ public class AuthSessionKeyReqMessage extends TrustedAuthReqMessasge {
         return requestingEntityGroup;
     }
     public int getCachedKeyAuthID() { return cachedKeyAuthID; }
+    public List<String> getAdditionalEntityNames() {
+        return additionalEntityNames;
+    }
+    public boolean isBinaryResponseAccepted() {
+        return binaryResponseAccepted;
+    }
     public String toString() {
         return "KeyID: " + sessionKeyID + ", RequestingEntityName: " + requestingEntityName +
-                ", ReqeustingEntityGroup: " + requestingEntityGroup + ", CachedKeyAuthID: " + cachedKeyAuthID;
+                ", ReqeustingEntityGroup: " + requestingEntityGroup + ", CachedKeyAuthID: " + cachedKeyAuthID +
+                ", AdditionalEntityNames: " + additionalEntityNames +
+                ", BinaryResponseAccepted: " + binaryResponseAccepted;
     }
 
     @SuppressWarnings("unchecked")
@@ -81,11 +114,13 @@ public class AuthSessionKeyReqMessage extends TrustedAuthReqMessasge {
         jsonObject.put(key.EntityName, requestingEntityName);
         jsonObject.put(key.EntityGroup, requestingEntityGroup);
         jsonObject.put(key.CachedKeyAuthID, cachedKeyAuthID);
+        if (binaryResponseAccepted) {
+            jsonObject.put(key.ResponseEncoding, BINARY_RESPONSE_ENCODING);
+        }
         return jsonObject;
     }
     // Because of the class name conflict of Request (client's or server's)
-    public ContentResponse sendAsHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
-            throws TimeoutException, ExecutionException, InterruptedException
+    protected org.eclipse.jetty.client.api.Request toHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
     {
         JSONObject jsonObject = this.toJSONObject();
         postRequest.param(TrustedAuthReqMessasge.TYPE, type.AUTH_SESSION_KEY_REQ.name());
@@ -93,7 +128,11 @@ public class AuthSessionKeyReqMessage extends TrustedAuthReqMessasge {
             Object value = jsonObject.get(key);
             postRequest.param(key.toString(), value.toString());
         }
-        return postRequest.send();
+        // a parameter with multiple values, one for each entity
+        for (String additionalEntityName: additionalEntityNames) {
+            postRequest.param(key.AdditionalEntityNames.name(), additionalEntityName);
+        }
+        return postRequest;
     }
 
     private static AuthSessionKeyReqMessage fromJSONObject(JSONObject jsonObject) {
@@ -101,10 +140,25 @@ public class AuthSessionKeyReqMessage extends TrustedAuthReqMessasge {
         Long sessionKeyIDObj = Long.parseLong(obj.toString());
         obj = jsonObject.get(key.CachedKeyAuthID.name());
         int cachedKeyAuthIDObj = Integer.parseInt(obj.toString());
+        // requests from Auths without binary support do not have the response encoding
+        obj = jsonObject.get(key.ResponseEncoding.name());
+        boolean binaryResponseAccepted = obj != null && BINARY_RESPONSE_ENCODING.equals(obj.toString());
+        // a single value of the parameter is not converted into an array
+        obj = jsonObject.get(key.AdditionalEntityNames.name());
+        List<String> additionalEntityNames;
+        if (obj == null) {
+            additionalEntityNames = Collections.emptyList();
+        }
+        else if (obj instanceof String[]) {
+            additionalEntityNames = Arrays.asList((String[]) obj);
+        }
+        else {
+            additionalEntityNames = Collections.singletonList(obj.toString());
+        }
         return new AuthSessionKeyReqMessage(sessionKeyIDObj,
                 jsonObject.get(key.EntityName.name()).toString(),
                 jsonObject.get(key.EntityGroup.name()).toString(),
-                cachedKeyAuthIDObj);
+                cachedKeyAuthIDObj, additionalEntityNames, binaryResponseAccepted);
     }
     public static AuthSessionKeyReqMessage fromHttpRequest(org.eclipse.jetty.server.Request baseRequest)
             throws IOException
@@ -17,6 +17,10 @@ package org.iot.auth.message;
 
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
+import org.iot.auth.io.VariableLengthInt;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -34,6 +38,23 @@ import java.util.List;
  * AuthSessionKeyResp Format
  * {
  *     SessionKey: [SessionKey in JSON string]
+ * }
+ * AuthSessionKeyResp Binary Format (if the request accepts binary response, with BINARY_MEDIA_TYPE)
+ * {
+ *     numKeys: /UInt32BE/,
+ *     sessionKeys: [
+ *         {
+ *             ID: /UInt64BE/,
+ *             owners: /string/, (joined with SESSION_KEY_OWNER_NAME_DELIM)
+ *             maxNumOwners: /UInt32BE/,
+ *             purpose: /string/,
+ *             expirationTime: /UInt64BE/,
+ *             relValidity: /UInt64BE/,
+ *             cipherID: /UInt8/,
+ *             macID: /UInt8/, (see SymmetricKeyCryptoSpec)
+ *             keyVal: /Variable-length-int/ length and /Buffer/ (serialized key value)
+ *         }, ...
+ *     ]
  * } </pre>
  * @author Hokeun Kim
  */
@@ -42,9 +63,23 @@ public class AuthSessionKeyRespMessage extends TrustedAuthRespMessage {
         SessionKey,
         SessionKeyList
     }
+    public static final String BINARY_MEDIA_TYPE = "application/octet-stream";
+
     private List<SessionKey> sessionKeyList;
+    private boolean binary;
+
     public AuthSessionKeyRespMessage(List<SessionKey> sessionKeyList) {
+        this(sessionKeyList, false);
+    }
+
+    /**
+     * Constructor for Auth session key response.
+     * @param sessionKeyList Session keys to be sent.
+     * @param binary Whether to send in the binary format, only if the requesting Auth accepts it.
+     */
+    public AuthSessionKeyRespMessage(List<SessionKey> sessionKeyList, boolean binary) {
         this.sessionKeyList = sessionKeyList;
+        this.binary = binary;
     }
 
     public List<SessionKey> getSessionKeyList() {
@@ -86,6 +121,15 @@ public class AuthSessionKeyRespMessage extends TrustedAuthRespMessage {
      */
     @Override
     public void sendAsHttpResponse(HttpServletResponse response) throws IOException {
+        if (binary) {
+            Buffer serialized = serialize();
+            response.setContentType(BINARY_MEDIA_TYPE);
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLength(serialized.length());
+            response.getOutputStream().write(serialized.getBackingArray(), serialized.getOffset(),
+                    serialized.length());
+            return;
+        }
         // Declare response encoding and types
         response.setContentType("text/html; charset=utf-8");
         // Declare response status code
@@ -96,6 +140,77 @@ public class AuthSessionKeyRespMessage extends TrustedAuthRespMessage {
         response.getWriter().println(toJSONObject().toJSONString());
     }
 
+    /**
+     * Serialize the session keys in the binary format, package-private for tests.
+     * @return Buffer for the serialized session keys.
+     */
+    Buffer serialize() {
+        int length = Buffer.INT_SIZE;
+        for (SessionKey sessionKey : sessionKeyList) {
+            length += getSerializedLength(sessionKey);
+        }
+        BufferWriter writer = new BufferWriter(length);
+        writer.putInt(sessionKeyList.size());
+        for (SessionKey sessionKey : sessionKeyList) {
+            writer.putLong(sessionKey.getID());
+            writer.putString(String.join(SessionKey.SESSION_KEY_OWNER_NAME_DELIM, sessionKey.getOwners()));
+            writer.putInt(sessionKey.getMaxNumOwners());
+            writer.putString(sessionKey.getPurpose());
+            writer.putLong(sessionKey.getRawExpirationTime());
+            writer.putLong(sessionKey.getRelValidity());
+            writer.putByte((byte) sessionKey.getCryptoSpec().getCipherID());
+            writer.putByte((byte) sessionKey.getCryptoSpec().getMacID());
+            writer.putVariableLengthInt(sessionKey.getSerializedKeyValLength());
+            sessionKey.writeSerializedKeyVal(writer);
+        }
+        return writer.toBuffer();
+    }
+
+    private static int getSerializedLength(SessionKey sessionKey) {
+        return Buffer.LONG_SIZE
+                + BufferWriter.getStringSize(String.join(SessionKey.SESSION_KEY_OWNER_NAME_DELIM,
+                        sessionKey.getOwners()))
+                + Buffer.INT_SIZE + BufferWriter.getStringSize(sessionKey.getPurpose())
+                + 2 * Buffer.LONG_SIZE + 2 * Buffer.BYTE_SIZE
+                + VariableLengthInt.getEncodedSize(sessionKey.getSerializedKeyValLength())
+                + sessionKey.getSerializedKeyValLength();
+    }
+
+    private static AuthSessionKeyRespMessage fromBinary(Buffer buf) {
+        int index = 0;
+        int numKeys = buf.getInt(index);
+        index += Buffer.INT_SIZE;
+        List<SessionKey> sessionKeyList = new ArrayList<>(Math.min(numKeys, 64));
+        for (int i = 0; i < numKeys; i++) {
+            long id = buf.getLong(index);
+            index += Buffer.LONG_SIZE;
+            String owners = buf.getString(index);
+            index += buf.getStringSize(index);
+            int maxNumOwners = buf.getInt(index);
+            index += Buffer.INT_SIZE;
+            String purpose = buf.getString(index);
+            index += buf.getStringSize(index);
+            long expirationTime = buf.getLong(index);
+            index += Buffer.LONG_SIZE;
+            long relValidity = buf.getLong(index);
+            index += Buffer.LONG_SIZE;
+            SymmetricKeyCryptoSpec cryptoSpec =
+                    SymmetricKeyCryptoSpec.fromIDs(buf.getByte(index) & 0xff, buf.getByte(index + 1) & 0xff);
+            index += 2 * Buffer.BYTE_SIZE;
+            int keyValLength = buf.getVariableLengthIntNum(index);
+            index += buf.getVariableLengthIntSize(index);
+            if (index + keyValLength > buf.length()) {
+                throw new IndexOutOfBoundsException("Session key value exceeds the Auth session key response!");
+            }
+            // key values are copied by the session key, so a view is enough here
+            sessionKeyList.add(new SessionKey(id, owners.split(SessionKey.SESSION_KEY_OWNER_NAME_DELIM),
+                    maxNumOwners, purpose, expirationTime, relValidity, cryptoSpec,
+                    buf.view(index, index + keyValLength)));
+            index += keyValLength;
+        }
+        return new AuthSessionKeyRespMessage(sessionKeyList, true);
+    }
+
     // To receive session key response as HTTP response
     private static AuthSessionKeyRespMessage fromJSONObject(JSONObject jsonObject) throws ParseException {
         String sessionKeyListStr = jsonObject.get(key.SessionKeyList.name()).toString();
@@ -113,7 +228,8 @@ public class AuthSessionKeyRespMessage extends TrustedAuthRespMessage {
     }
 
     /**
-     * Receive Auth session key response as HTTP response and convert it to AuthSessionRespMessage.
+     * Receive Auth session key response as HTTP response and convert it to AuthSessionRespMessage, either in the
+     * binary format or in JSON, depending on the media type of the response.
      * @param contentResponse HTTP response received.
      * @return New AuthSessionRespMessage object converted from HTTP response.
      * @throws ParseException If an error occurs while parsing the HTTP response.
@@ -121,6 +237,10 @@ public class AuthSessionKeyRespMessage extends TrustedAuthRespMessage {
     public static AuthSessionKeyRespMessage fromHttpResponse(ContentResponse contentResponse)
             throws ParseException
     {
+        // Auths that do not support the binary format respond in JSON regardless of the request
+        if (BINARY_MEDIA_TYPE.equals(contentResponse.getMediaType())) {
+            return fromBinary(Buffer.wrap(contentResponse.getContent()));
+        }
         return fromJSONObject((JSONObject) new JSONParser().parse(contentResponse.getContentAsString()));
     }
 }
@@ -15,6 +15,7 @@
 
 package org.iot.auth.message;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 import org.iot.auth.io.VariableLengthInt;
 
 
@@ -42,16 +43,46 @@ public class IoTSPMessage {
         this.type = type;
         this.payload = payload;
     }
+    public MessageType getType() {
+        return type;
+    }
     public Buffer serialize() {
-        VariableLengthInt varLenInt = new VariableLengthInt(payload.length());
-        byte[] payloadLen = varLenInt.getRawBytes();
-        Buffer buf = new Buffer(MSG_TYPE_SIZE + payloadLen.length);
-        buf.putByte(type.getValue(), 0);
-        buf.putBytes(payloadLen, MSG_TYPE_SIZE);
+        int payloadLength = getPayloadLength();
+        BufferWriter writer = startMessage(payloadLength);
+        writePayload(writer);
+        return writer.toBuffer();
+    }
 
-        buf.concat(payload);
-        return buf;
+    /**
+     * Create a writer with the exact capacity of a message with the given payload length, where the message type
+     * and the payload length are already written.
+     * @param payloadLength The length of the payload to be written after the header.
+     * @return The writer to write the payload.
+     */
+    protected BufferWriter startMessage(int payloadLength) {
+        BufferWriter writer = new BufferWriter(getHeaderLength(payloadLength) + payloadLength);
+        writer.putByte(type.getValue());
+        writer.putVariableLengthInt(payloadLength);
+        return writer;
     }
+
+    public static int getHeaderLength(int payloadLength) {
+        return MSG_TYPE_SIZE + VariableLengthInt.getEncodedSize(payloadLength);
+    }
+
+    /**
+     * Length of the payload, to be overridden together with {@link #writePayload(BufferWriter)} by messages
+     * that write their fields directly instead of setting the payload.
+     * @return The length of the payload.
+     */
+    protected int getPayloadLength() {
+        return payload.length();
+    }
+
+    protected void writePayload(BufferWriter writer) {
+        writer.putBuffer(payload);
+    }
+
     protected final MessageType type;
     protected Buffer payload;
 }
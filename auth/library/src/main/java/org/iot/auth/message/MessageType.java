@@ -34,6 +34,11 @@ public enum MessageType {
     SESSION_KEY_REQ((byte)22),
     /** Distribution message */
     SESSION_KEY_RESP((byte)23),
+    /** Protocol v2 counterparts of session key request/response, with binary purpose and crypto spec */
+    SESSION_KEY_REQ_IN_PUB_ENC_V2((byte)24),
+    SESSION_KEY_RESP_WITH_DIST_KEY_V2((byte)25),
+    SESSION_KEY_REQ_V2((byte)26),
+    SESSION_KEY_RESP_V2((byte)27),
     SKEY_HANDSHAKE_1((byte)30),
     SKEY_HANDSHAKE_2((byte)31),
     SKEY_HANDSHAKE_3((byte)32),
@@ -54,6 +59,16 @@ public enum MessageType {
         return value;
     }
 
+    /**
+     * Whether the message uses protocol v2, which encodes purposes and crypto specs as binary TLVs
+     * instead of JSON strings.
+     * @return True for protocol v2 message types.
+     */
+    public boolean isProtocolV2() {
+        return this == SESSION_KEY_REQ_IN_PUB_ENC_V2 || this == SESSION_KEY_RESP_WITH_DIST_KEY_V2
+                || this == SESSION_KEY_REQ_V2 || this == SESSION_KEY_RESP_V2;
+    }
+
     MessageType(byte value) {
         this.value = value;
     }
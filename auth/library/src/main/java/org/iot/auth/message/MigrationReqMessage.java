@@ -1,7 +1,6 @@
 package org.iot.auth.message;
 
 import org.iot.auth.io.Buffer;
-import org.iot.auth.io.BufferedString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,36 +15,38 @@ import org.slf4j.LoggerFactory;
  * @author Hokeun Kim
  */
 public class MigrationReqMessage extends IoTSPMessage {
+    /**
+     * Constructor for a migration request message over the payload, whose fields are decoded on demand.
+     * @param type Message type of the migration request.
+     * @param payload Payload of the message, not to be modified while this message is used.
+     */
     public MigrationReqMessage(MessageType type, Buffer payload) {
         super(type);
-        int curIndex = 0;
+        if (payload.length() <= ENTITY_NAME_OFFSET
+                || ENTITY_NAME_OFFSET + payload.getStringSize(ENTITY_NAME_OFFSET) > payload.length()) {
+            throw new IndexOutOfBoundsException("Migration request is too short!");
+        }
+        this.payload = payload;
 
-        this.entityNonce = payload.slice(curIndex, curIndex + ENTITY_NONCE_SIZE);
-        curIndex += ENTITY_NONCE_SIZE;
-
-        this.authNonce = payload.slice(curIndex, curIndex + AUTH_NONCE_SIZE);
-        curIndex += AUTH_NONCE_SIZE;
-
-        BufferedString bufStr = payload.getBufferedString(curIndex);
-        this.entityName = bufStr.getString();
-        curIndex += bufStr.length();
-
-        logger.info("Received from entity: " + this.entityName);
+        logger.info("Received from entity: " + getEntityName());
 
     }
     public Buffer getEntityNonce() {
-        return entityNonce;
+        return payload.view(ENTITY_NONCE_OFFSET, ENTITY_NONCE_OFFSET + ENTITY_NONCE_SIZE);
     }
     public Buffer getAuthNonce() {
-        return authNonce;
+        return payload.view(AUTH_NONCE_OFFSET, AUTH_NONCE_OFFSET + AUTH_NONCE_SIZE);
+    }
+    public boolean matchesAuthNonce(Buffer authNonce) {
+        return authNonce.length() == AUTH_NONCE_SIZE && payload.rangeEquals(AUTH_NONCE_OFFSET, authNonce);
     }
     public String getEntityName() {
-        return entityName;
+        return payload.getString(ENTITY_NAME_OFFSET);
     }
 
-    private Buffer entityNonce;
-    private Buffer authNonce;
-    private String entityName;
+    private static final int ENTITY_NONCE_OFFSET = 0;
+    private static final int AUTH_NONCE_OFFSET = ENTITY_NONCE_OFFSET + ENTITY_NONCE_SIZE;
+    private static final int ENTITY_NAME_OFFSET = AUTH_NONCE_OFFSET + AUTH_NONCE_SIZE;
 
     private static final Logger logger = LoggerFactory.getLogger(MigrationReqMessage.class);
 }
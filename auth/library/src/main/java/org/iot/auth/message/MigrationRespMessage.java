@@ -4,6 +4,7 @@ import org.iot.auth.crypto.AuthCrypto;
 import org.iot.auth.crypto.DistributionKey;
 import org.iot.auth.exception.UseOfExpiredKeyException;
 import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
 import org.iot.auth.io.BufferedString;
 import sun.security.provider.X509Factory;
 
@@ -37,46 +38,45 @@ public class MigrationRespMessage extends IoTSPMessage {
         this.encryptedNewDistributionKey = encryptedNewDistributionKey;
     }
 
-    private Buffer serializeMigrationResp() {
-        Buffer payload = new Buffer(4);
-        payload.putInt(authID, 0);
-        payload.concat(entityNonce);
+    private int getMigrationRespLength() {
+        return Buffer.INT_SIZE + entityNonce.length();
+    }
 
-        return payload;
+    private void writeMigrationResp(BufferWriter writer) {
+        writer.putInt(authID);
+        writer.putBuffer(entityNonce);
     }
 
     public Buffer serializeSign(AuthCrypto authCrypto) throws CertificateEncodingException, IOException {
-        Buffer payload = serializeMigrationResp();
-
-        if (authCertificate != null) {
-            String stringAuthCertificate = X509Factory.BEGIN_CERT + "\n"
-                    + new Buffer(authCertificate.getEncoded()).toBase64().replaceAll("(.{64})", "$1\n")
-                    + "\n" + X509Factory.END_CERT;
-
-            BufferedString bufferedStringAuthCertificate = new BufferedString(stringAuthCertificate);
-            payload.concat(bufferedStringAuthCertificate.serialize());
-
-            Buffer signature = authCrypto.signWithPrivateKey(payload);
-            payload.concat(signature);
-        }
-        else {
+        if (authCertificate == null) {
             throw new RuntimeException("authCertificate is not available!");
         }
-        this.payload = payload;
-        return super.serialize();
+        String stringAuthCertificate = X509Factory.BEGIN_CERT + "\n"
+                + Buffer.wrap(authCertificate.getEncoded()).toBase64().replaceAll("(.{64})", "$1\n")
+                + "\n" + X509Factory.END_CERT;
+        BufferedString bufferedStringAuthCertificate = new BufferedString(stringAuthCertificate);
+
+        BufferWriter writer = new BufferWriter(getMigrationRespLength() + bufferedStringAuthCertificate.length());
+        writeMigrationResp(writer);
+        writer.putBufferedString(bufferedStringAuthCertificate);
+        Buffer signedPayload = writer.toBuffer();
+        Buffer signature = authCrypto.signWithPrivateKey(signedPayload);
+
+        BufferWriter messageWriter = startMessage(signedPayload.length() + signature.length());
+        messageWriter.putBuffer(signedPayload);
+        messageWriter.putBuffer(signature);
+        return messageWriter.toBuffer();
     }
 
     public Buffer serializeAthenticate(DistributionKey currentDistributionMacKey) throws UseOfExpiredKeyException {
-        Buffer payload = serializeMigrationResp();
-
-        if (encryptedNewDistributionKey != null) {
-            payload.concat(encryptedNewDistributionKey);
-        }
-        else {
+        if (encryptedNewDistributionKey == null) {
             throw new RuntimeException("encryptedNewDistributionKey is not available!");
         }
+        BufferWriter writer = new BufferWriter(getMigrationRespLength() + encryptedNewDistributionKey.length());
+        writeMigrationResp(writer);
+        writer.putBuffer(encryptedNewDistributionKey);
 
-        this.payload = currentDistributionMacKey.authenticateAttachMac(payload);
+        this.payload = currentDistributionMacKey.authenticateAttachMac(writer.toBuffer());
         return super.serialize();
     }
 
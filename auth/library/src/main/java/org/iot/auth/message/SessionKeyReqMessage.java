@@ -15,14 +15,16 @@
 
 package org.iot.auth.message;
 
+import org.iot.auth.db.CommunicationTargetType;
 import org.iot.auth.io.Buffer;
-import org.iot.auth.io.BufferedString;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * A class for a session key req message from an entity.
  * <pre>
@@ -34,6 +36,9 @@ import org.slf4j.LoggerFactory;
  *      numKeys: /UInt32BE/,
  *      sender: /string/, (senderLen UInt8)
  *      purpose: JSON,
+ *               (protocol v2: /Variable-length-int/ length and TLVs { tag: UInt8 (CommunicationTargetType value),
+ *               length: /Variable-length-int/, value: string for group and topics, or big endian number
+ *               of length bytes for session key ID and cached session keys }, the first known tag is used)
  *      dhParam: /Buffer/ (optional, Diffie-Hellman parameter)
  * } </pre>
  * @author Hokeun Kim
@@ -41,65 +46,128 @@ import org.slf4j.LoggerFactory;
 public class SessionKeyReqMessage extends IoTSPMessage {
     /**
      * Constructor to construct a session key request message from message payload.
+     * Only the offsets of variable length fields are computed here, and fields are decoded from the payload on
+     * demand, so the payload must not be modified while this message is used.
      * @param type Message type of the session key request.
      * @param decPayload Payload of the message in Buffer.
      * @throws ParseException When JSON parser fails
      */
     public SessionKeyReqMessage(MessageType type, Buffer decPayload) throws ParseException {
         super(type);
-        int curIndex = 0;
-        this.entityNonce = decPayload.slice(curIndex, curIndex + ENTITY_NONCE_SIZE);
-        curIndex += ENTITY_NONCE_SIZE;
-
-        this.authNonce = decPayload.slice(curIndex, curIndex + AUTH_NONCE_SIZE);
-        curIndex += AUTH_NONCE_SIZE;
-
-        this.numKeys = decPayload.getInt(curIndex);
-        curIndex += 4;
-
-        BufferedString bufStr = decPayload.getBufferedString(curIndex);
-        this.entityName = bufStr.getString();
-        curIndex += bufStr.length();
-
-        bufStr = decPayload.getBufferedString(curIndex);
-        String msg = bufStr.getString();
-        logger.info("Received JSON: {}", msg);
-        this.purpose = (JSONObject) new JSONParser().parse(msg);
-        curIndex += bufStr.length();
-
-        if (curIndex < decPayload.length()) {
-            this.diffieHellmanParam = decPayload.slice(curIndex);
+        this.decPayload = decPayload;
+        if (decPayload.length() < ENTITY_NAME_OFFSET) {
+            throw new IndexOutOfBoundsException("Session key request is too short!");
         }
-        else {
-            this.diffieHellmanParam = null;
+        this.purposeOffset = ENTITY_NAME_OFFSET + decPayload.getStringSize(ENTITY_NAME_OFFSET);
+        this.diffieHellmanParamOffset = purposeOffset + decPayload.getStringSize(purposeOffset);
+        if (diffieHellmanParamOffset > decPayload.length()) {
+            throw new IndexOutOfBoundsException("Session key request is too short!");
         }
     }
 
     public Buffer getEntityNonce() {
-        return entityNonce;
+        return decPayload.view(ENTITY_NONCE_OFFSET, ENTITY_NONCE_OFFSET + ENTITY_NONCE_SIZE);
     }
     public Buffer getAuthNonce() {
-        return authNonce;
+        return decPayload.view(AUTH_NONCE_OFFSET, AUTH_NONCE_OFFSET + AUTH_NONCE_SIZE);
+    }
+    /**
+     * Compare the Auth nonce in the request with the given one, without decoding it.
+     * @param authNonce Auth nonce to be compared.
+     * @return Whether the nonces are the same.
+     */
+    public boolean matchesAuthNonce(Buffer authNonce) {
+        return authNonce.length() == AUTH_NONCE_SIZE && decPayload.rangeEquals(AUTH_NONCE_OFFSET, authNonce);
     }
     public String getEntityName() {
-        return entityName;
+        return decPayload.getString(ENTITY_NAME_OFFSET);
     }
     public int getNumKeys() {
-        return numKeys;
+        return decPayload.getInt(NUM_KEYS_OFFSET);
     }
-    public JSONObject getPurpose() {
+    public JSONObject getPurpose() throws ParseException {
+        if (purpose == null) {
+            String msg = decPayload.getString(purposeOffset);
+            logger.debug("Received JSON: {}", msg);
+            purpose = (JSONObject) new JSONParser().parse(msg);
+        }
         return purpose;
     }
+    /**
+     * Get the target type of the binary purpose in a protocol v2 request.
+     * @return The target type, UNKNOWN if no known tag is found.
+     */
+    public CommunicationTargetType getPurposeTargetType() {
+        decodeBinaryPurpose();
+        return purposeTargetType;
+    }
+    /**
+     * Get the target of the binary purpose in a protocol v2 request, a String for group and topics
+     * and a Long for session key ID and cached session keys.
+     * @return The target, null if no known tag is found.
+     */
+    public Object getPurposeTarget() {
+        decodeBinaryPurpose();
+        return purposeTarget;
+    }
     public Buffer getDiffieHellmanParam() {
-        return diffieHellmanParam;
+        if (diffieHellmanParamOffset < decPayload.length()) {
+            return decPayload.view(diffieHellmanParamOffset);
+        }
+        return null;
     }
 
-    private Buffer entityNonce;
-    private Buffer authNonce;
-    private int numKeys;
-    private String entityName;
-    private JSONObject purpose;
-    private Buffer diffieHellmanParam;
+    private void decodeBinaryPurpose() {
+        if (purposeTargetType != null) {
+            return;
+        }
+        int index = purposeOffset + decPayload.getVariableLengthIntSize(purposeOffset);
+        int end = index + decPayload.getVariableLengthIntNum(purposeOffset);
+        purposeTargetType = CommunicationTargetType.UNKNOWN;
+        while (index < end) {
+            CommunicationTargetType tagType = CommunicationTargetType.fromValue(decPayload.getByte(index) & 0xff);
+            index++;
+            int valueLength = decPayload.getVariableLengthIntNum(index);
+            index += decPayload.getVariableLengthIntSize(index);
+            if (valueLength < 0 || index + valueLength > end) {
+                throw new IndexOutOfBoundsException("Purpose TLV exceeds the purpose field!");
+            }
+            switch (tagType) {
+                case TARGET_GROUP:
+                case PUBLISH_TOPIC:
+                case SUBSCRIBE_TOPIC:
+                    purposeTarget = new String(decPayload.getBackingArray(), decPayload.getOffset() + index,
+                            valueLength, StandardCharsets.UTF_8);
+                    break;
+                case SESSION_KEY_ID:
+                case CACHED_SESSION_KEYS:
+                    if (valueLength < 1 || valueLength > Buffer.LONG_SIZE) {
+                        throw new IndexOutOfBoundsException("Invalid length of numeric purpose: " + valueLength);
+                    }
+                    purposeTarget = decPayload.getNumber(index, valueLength);
+                    break;
+                default:
+                    // skip unknown tags for forward compatibility
+                    index += valueLength;
+                    continue;
+            }
+            purposeTargetType = tagType;
+            logger.debug("Received binary purpose: {}: {}", purposeTargetType, purposeTarget);
+            return;
+        }
+    }
+
+    private static final int ENTITY_NONCE_OFFSET = 0;
+    private static final int AUTH_NONCE_OFFSET = ENTITY_NONCE_OFFSET + ENTITY_NONCE_SIZE;
+    private static final int NUM_KEYS_OFFSET = AUTH_NONCE_OFFSET + AUTH_NONCE_SIZE;
+    private static final int ENTITY_NAME_OFFSET = NUM_KEYS_OFFSET + Buffer.INT_SIZE;
+
+    private final Buffer decPayload;
+    private final int purposeOffset;
+    private final int diffieHellmanParamOffset;
+    private JSONObject purpose = null;
+    private CommunicationTargetType purposeTargetType = null;
+    private Object purposeTarget = null;
 
     private static final Logger logger = LoggerFactory.getLogger(SessionKeyReqMessage.class);
 }
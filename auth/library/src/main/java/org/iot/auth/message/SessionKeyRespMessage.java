@@ -21,11 +21,14 @@ import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
 import org.iot.auth.exception.InvalidSymmetricKeyOperationException;
 import org.iot.auth.exception.UseOfExpiredKeyException;
 import org.iot.auth.io.Buffer;
-import org.iot.auth.io.BufferedString;
+import org.iot.auth.io.BufferPool;
+import org.iot.auth.io.BufferWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A class for a session key response message to an entity who requested session key(s).
@@ -34,6 +37,8 @@ import java.util.List;
  * {
  *      entityNonce:   /Buffer/,   (ENTITY_NONCE_SIZE)
  *      cryptoSpec:    /JSON/, (e.g., {cipher: 'AES-128-CBC', mac: 'SHA256'} stringified)
+ *                     (protocol v2: /Variable-length-int/ length and TLVs { tag: UInt8, length: /Variable-length-int/,
+ *                     value: ID }, with tags CRYPTO_SPEC_CIPHER_TAG and CRYPTO_SPEC_MAC_TAG, see SymmetricKeyCryptoSpec)
  *      sessionKeyList: /UInt32BE for length and List of SessionKey's/
  *      // TODO: who you're talking to? if req included keyId=?
  * } </pre>
@@ -49,7 +54,20 @@ public class SessionKeyRespMessage extends IoTSPMessage  {
      */
     public SessionKeyRespMessage(Buffer encryptedDistKey, Buffer entityNonce, SymmetricKeyCryptoSpec cryptoSpec,
                                  List<SessionKey> sessionKeyList) {
-        super(MessageType.SESSION_KEY_RESP_WITH_DIST_KEY);
+        this(encryptedDistKey, entityNonce, cryptoSpec, sessionKeyList, false);
+    }
+
+    /**
+     * Constructor for a session key response message with a distribution key encrypted by the entity's public key.
+     * @param encryptedDistKey A distribution key encrypted by the entity's public key.
+     * @param entityNonce A nonce (random number) generated by the entity.
+     * @param cryptoSpec Cryptography specifications for the session keys in the response.
+     * @param sessionKeyList Session keys to be sent to the requesting entity.
+     * @param protocolV2 Whether to respond in protocol v2, i.e., the request was a protocol v2 message.
+     */
+    public SessionKeyRespMessage(Buffer encryptedDistKey, Buffer entityNonce, SymmetricKeyCryptoSpec cryptoSpec,
+                                 List<SessionKey> sessionKeyList, boolean protocolV2) {
+        super(protocolV2 ? MessageType.SESSION_KEY_RESP_WITH_DIST_KEY_V2 : MessageType.SESSION_KEY_RESP_WITH_DIST_KEY);
         this.encryptedDistKey = encryptedDistKey;
         this.entityNonce = entityNonce;
         this.cryptoSpec = cryptoSpec;
@@ -64,7 +82,19 @@ public class SessionKeyRespMessage extends IoTSPMessage  {
      */
     public SessionKeyRespMessage(Buffer entityNonce, SymmetricKeyCryptoSpec cryptoSpec,
                                  List<SessionKey> sessionKeyList) {
-        super(MessageType.SESSION_KEY_RESP);
+        this(entityNonce, cryptoSpec, sessionKeyList, false);
+    }
+
+    /**
+     * Constructor for a session key request message without a distribution key.
+     * @param entityNonce A nonce (random number) generated by the entity.
+     * @param cryptoSpec Cryptography specifications for the session keys in the response.
+     * @param sessionKeyList Session keys to be sent to the requesting entity.
+     * @param protocolV2 Whether to respond in protocol v2, i.e., the request was a protocol v2 message.
+     */
+    public SessionKeyRespMessage(Buffer entityNonce, SymmetricKeyCryptoSpec cryptoSpec,
+                                 List<SessionKey> sessionKeyList, boolean protocolV2) {
+        super(protocolV2 ? MessageType.SESSION_KEY_RESP_V2 : MessageType.SESSION_KEY_RESP);
         encryptedDistKey = null;
         this.entityNonce = entityNonce;
         this.cryptoSpec = cryptoSpec;
@@ -81,29 +111,102 @@ public class SessionKeyRespMessage extends IoTSPMessage  {
     public Buffer serializeAndEncrypt(DistributionKey distKey) throws UseOfExpiredKeyException,
             InvalidSymmetricKeyOperationException
     {
-        Buffer payload = new Buffer(entityNonce);
-        String cryptoSpecString = cryptoSpec.toJSONObject().toString();
-        logger.debug("cryptoSpecString: {}", cryptoSpecString);
-        payload.concat(new BufferedString(cryptoSpecString).serialize());
-        Buffer bufSessionKeyCount = new Buffer(4);
-        bufSessionKeyCount.putInt(sessionKeyList.size(), 0);
-        payload.concat(bufSessionKeyCount);
+        return serializeAndEncrypt(distKey, null);
+    }
 
+    /**
+     * Serialize the session key response message and encrypt with the specified distribution key, writing the
+     * plain payload into a buffer borrowed from the given pool.
+     * @param distKey A distribution key for encrypting the session key request message.
+     * @param bufferPool A pool for the plain payload, or null to allocate it.
+     * @return Buffer for serialized and encrypted message.
+     * @throws UseOfExpiredKeyException If an expired key is used for encryption.
+     * @throws InvalidSymmetricKeyOperationException If the symmetric key operation is invalid.
+     */
+    public Buffer serializeAndEncrypt(DistributionKey distKey, BufferPool bufferPool) throws UseOfExpiredKeyException,
+            InvalidSymmetricKeyOperationException
+    {
+        byte[] cryptoSpecField = getCryptoSpecField(cryptoSpec, type.isProtocolV2());
+        int plainLength = entityNonce.length() + cryptoSpecField.length + Buffer.INT_SIZE;
         for (SessionKey sessionKey: sessionKeyList) {
-            payload.concat(sessionKey.serialize());
+            plainLength += sessionKey.getSerializedLength();
         }
 
-        payload = distKey.encryptAuthenticate(payload);
+        BufferPool.Lease lease = bufferPool == null ? null : bufferPool.borrow(plainLength);
+        Buffer encryptedPayload;
+        try {
+            BufferWriter writer = lease == null ? new BufferWriter(plainLength) : new BufferWriter(lease.array());
+            writer.putBuffer(entityNonce);
+            writer.putBytes(cryptoSpecField);
+            writer.putInt(sessionKeyList.size());
+            for (SessionKey sessionKey: sessionKeyList) {
+                sessionKey.writeTo(writer);
+            }
+            encryptedPayload = distKey.encryptAuthenticate(writer.view());
+        }
+        finally {
+            if (lease != null) {
+                // do not leave session key values in the pool
+                Arrays.fill(lease.array(), 0, plainLength, (byte) 0);
+                lease.close();
+            }
+        }
 
-        if (type == MessageType.SESSION_KEY_RESP_WITH_DIST_KEY) {
-            Buffer newPayload = new Buffer(encryptedDistKey);
-            newPayload.concat(payload);
-            payload = newPayload;
+        int payloadLength = encryptedPayload.length();
+        if (encryptedDistKey != null) {
+            payloadLength += encryptedDistKey.length();
         }
-        this.payload = payload;
-        return super.serialize();
+        BufferWriter messageWriter = startMessage(payloadLength);
+        if (encryptedDistKey != null) {
+            messageWriter.putBuffer(encryptedDistKey);
+        }
+        messageWriter.putBuffer(encryptedPayload);
+        return messageWriter.toBuffer();
     }
 
+    /**
+     * Get the encoded crypto spec field of the response. The encoded fields are cached by cipher and MAC IDs, as
+     * all communication policies and session keys share a handful of crypto specs.
+     * @param cryptoSpec The crypto spec to be encoded.
+     * @param protocolV2 Whether to encode in binary for protocol v2, or in JSON.
+     * @return The encoded field, which must not be modified.
+     */
+    private static byte[] getCryptoSpecField(SymmetricKeyCryptoSpec cryptoSpec, boolean protocolV2) {
+        int index = (cryptoSpec.getCipherID() * SymmetricKeyCryptoSpec.getNumMacIDs() + cryptoSpec.getMacID()) * 2
+                + (protocolV2 ? 1 : 0);
+        byte[] field = cryptoSpecFields.get(index);
+        if (field != null) {
+            return field;
+        }
+        BufferWriter writer = new BufferWriter();
+        if (protocolV2) {
+            writer.putVariableLengthInt(BINARY_CRYPTO_SPEC_LENGTH);
+            writer.putByte(CRYPTO_SPEC_CIPHER_TAG);
+            writer.putVariableLengthInt(1);
+            writer.putByte((byte) cryptoSpec.getCipherID());
+            writer.putByte(CRYPTO_SPEC_MAC_TAG);
+            writer.putVariableLengthInt(1);
+            writer.putByte((byte) cryptoSpec.getMacID());
+        }
+        else {
+            String cryptoSpecString = cryptoSpec.toJSONObject().toString();
+            logger.debug("cryptoSpecString: {}", cryptoSpecString);
+            writer.putString(cryptoSpecString);
+        }
+        field = writer.toBuffer().getBackingArray();
+        // fields encoded concurrently for the same index have the same meaning, so either one can be kept
+        cryptoSpecFields.set(index, field);
+        return field;
+    }
+
+    /** TLV tags of the binary crypto spec in protocol v2 */
+    public static final byte CRYPTO_SPEC_CIPHER_TAG = 1;
+    public static final byte CRYPTO_SPEC_MAC_TAG = 2;
+    /** Two TLVs, each with a one-byte tag, a one-byte length and a one-byte ID */
+    private static final int BINARY_CRYPTO_SPEC_LENGTH = 6;
+    private static final AtomicReferenceArray<byte[]> cryptoSpecFields = new AtomicReferenceArray<>(
+            SymmetricKeyCryptoSpec.getNumCipherIDs() * SymmetricKeyCryptoSpec.getNumMacIDs() * 2);
+
     private Buffer encryptedDistKey;
     private Buffer entityNonce;
     private SymmetricKeyCryptoSpec cryptoSpec;
@@ -15,12 +15,16 @@
 
 package org.iot.auth.message;
 
+import org.eclipse.jetty.client.HttpContentResponse;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.server.Request;
 import org.json.simple.JSONObject;
 
 import java.security.cert.CertificateEncodingException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
@@ -48,6 +52,42 @@ public abstract class TrustedAuthReqMessasge {
         return jsonObject;
     }
 
-    public abstract ContentResponse sendAsHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
-            throws TimeoutException, ExecutionException, InterruptedException;
+    /**
+     * Set the type, parameters and content of this message to the given POST request, without sending it.
+     * @param postRequest POST request to the trusted Auth.
+     * @return The POST request.
+     */
+    protected abstract org.eclipse.jetty.client.api.Request toHttpRequest(
+            org.eclipse.jetty.client.api.Request postRequest);
+
+    // Because of the class name conflict of Request (client's or server's)
+    public ContentResponse sendAsHttpRequest(org.eclipse.jetty.client.api.Request postRequest)
+            throws TimeoutException, ExecutionException, InterruptedException
+    {
+        return toHttpRequest(postRequest).send();
+    }
+
+    /**
+     * Send this message without blocking the calling thread, using the asynchronous API of the HTTP client.
+     * @param postRequest POST request to the trusted Auth.
+     * @return A future completed with the buffered response on a thread of the HTTP client, or completed
+     * exceptionally with the failure of the request.
+     */
+    public CompletableFuture<ContentResponse> sendAsHttpRequestAsync(org.eclipse.jetty.client.api.Request postRequest)
+    {
+        CompletableFuture<ContentResponse> future = new CompletableFuture<>();
+        toHttpRequest(postRequest).send(new BufferingResponseListener() {
+            @Override
+            public void onComplete(Result result) {
+                if (result.isFailed()) {
+                    future.completeExceptionally(result.getFailure());
+                }
+                else {
+                    future.complete(new HttpContentResponse(result.getResponse(), getContent(), getMediaType(),
+                            getEncoding()));
+                }
+            }
+        });
+        return future;
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A pool of shared instances, so that many objects holding one of a few distinct values, e.g., groups and crypto
+ * specs of registered entities, refer to a single instance of each value instead of their own copies.
+ * Values must be immutable, as they are shared. This class is thread-safe.
+ * @param <K> Type of keys identifying values, e.g., strings the values are parsed from
+ * @param <V> Type of values
+ * @author Hokeun Kim
+ */
+public class Interner<K, V> {
+    public Interner(Function<K, V> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Get the shared instance for the key, creating it on first use.
+     * @param key Key identifying the value.
+     * @return The shared instance, or null if the key is null.
+     */
+    public V intern(K key) {
+        if (key == null) {
+            return null;
+        }
+        return pool.computeIfAbsent(key, factory);
+    }
+
+    public int size() {
+        return pool.size();
+    }
+
+    private final ConcurrentHashMap<K, V> pool = new ConcurrentHashMap<>();
+    private final Function<K, V> factory;
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.util;
+
+import org.iot.auth.io.Buffer;
+
+import java.util.function.Supplier;
+
+/**
+ * A log argument that is formatted only when the log message is actually written, since SLF4J calls toString()
+ * of arguments only for enabled log levels. Use this instead of formatting arguments, e.g., hex strings of
+ * buffers, before calling the logger.
+ * @author Hokeun Kim
+ */
+public class LazyLogArg {
+    private LazyLogArg(Supplier<?> supplier) {
+        this.supplier = supplier;
+    }
+
+    public static LazyLogArg of(Supplier<?> supplier) {
+        return new LazyLogArg(supplier);
+    }
+
+    public static LazyLogArg hex(Buffer buffer) {
+        return new LazyLogArg(buffer::toHexString);
+    }
+
+    public String toString() {
+        return String.valueOf(supplier.get());
+    }
+
+    private final Supplier<?> supplier;
+}
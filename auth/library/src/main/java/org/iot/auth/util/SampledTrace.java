@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.util;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A trace for per-request diagnostics on hot paths, which writes the diagnostics of only one out of every
+ * sampling interval requests at DEBUG level, so that busy servers neither flood the log nor format diagnostics
+ * of requests that are not traced. Call {@link #sample()} once per request, and write the diagnostics of the
+ * request with {@link #trace(String, Object...)} only if it returns true.
+ * @author Hokeun Kim
+ */
+public class SampledTrace {
+    public static final int DEFAULT_SAMPLING_INTERVAL = 100;
+
+    public SampledTrace(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Decide whether the diagnostics of the current request are written.
+     * @return True if DEBUG level is enabled and the current request is sampled.
+     */
+    public boolean sample() {
+        int interval = samplingInterval;
+        if (interval <= 0 || !logger.isDebugEnabled()) {
+            return false;
+        }
+        return counter.getAndIncrement() % interval == 0;
+    }
+
+    public void trace(String format, Object... arguments) {
+        logger.debug(format, arguments);
+    }
+
+    /**
+     * Set the sampling interval of all traces, e.g., from the Auth properties.
+     * @param interval One out of how many requests are traced, 1 to trace all requests and 0 to disable traces.
+     */
+    public static void setSamplingInterval(int interval) {
+        samplingInterval = interval;
+    }
+
+    public static int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    private final Logger logger;
+    private final AtomicLong counter = new AtomicLong();
+    private static volatile int samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.crypto;
+
+import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link SessionKey} for the serialized form retained for session key responses.
+ * @author Hokeun Kim
+ */
+public class SessionKeyTest {
+    @Test
+    public void testRetainedSerializedForm() {
+        SessionKey sessionKey = sessionKey(new Date().getTime() + 3600 * 1000);
+        Buffer expected = sessionKey.serialize();
+        assertEquals(sessionKey.getSerializedLength(), expected.length());
+
+        sessionKey.retainSerializedForm();
+        // written after other fields, and written again from the retained form
+        for (int i = 0; i < 2; i++) {
+            BufferWriter writer = new BufferWriter();
+            writer.putInt(7);
+            sessionKey.writeTo(writer);
+            Buffer written = writer.toBuffer();
+            assertEquals(Buffer.INT_SIZE + expected.length(), written.length());
+            assertTrue(expected.equals(written.slice(Buffer.INT_SIZE)));
+        }
+    }
+
+    @Test
+    public void testWipedSerializedForm() {
+        SessionKey sessionKey = sessionKey(new Date().getTime() + 3600 * 1000);
+        Buffer expected = sessionKey.serialize();
+        sessionKey.retainSerializedForm();
+        sessionKey.serialize();
+        sessionKey.wipeSerializedForm();
+        // written from the fields, and not retained again
+        assertTrue(expected.equals(sessionKey.serialize()));
+        sessionKey.retainSerializedForm();
+        assertTrue(expected.equals(sessionKey.serialize()));
+    }
+
+    @Test
+    public void testExpiredSessionKey() {
+        SessionKey sessionKey = sessionKey(new Date().getTime() - 1000);
+        Buffer expected = sessionKey.serialize();
+        sessionKey.retainSerializedForm();
+        // the serialized form is not kept for an expired session key, but it can still be written
+        assertTrue(expected.equals(sessionKey.serialize()));
+    }
+
+    @Test
+    public void testWritingIntoExactCapacity() {
+        SessionKey sessionKey = sessionKey(new Date().getTime() + 3600 * 1000);
+        sessionKey.retainSerializedForm();
+        byte[] array = new byte[sessionKey.getSerializedLength()];
+        BufferWriter writer = new BufferWriter(array);
+        sessionKey.writeTo(writer);
+        assertEquals(array.length, writer.length());
+        assertTrue(sessionKey.serialize().equals(new Buffer(array)));
+    }
+
+    private static SessionKey sessionKey(long expirationTime) {
+        return new SessionKey(1, new String[] {"net1.client"}, 2, "{\"group\":\"Servers\"}", expirationTime,
+                60 * 1000, SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.db;
+
+import org.iot.auth.db.dao.AuthStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link AuthDBWriteBehindQueue} for committing writes in groups and isolating failing writes,
+ * with an in-memory {@link AuthStore} whose metadata updates are kept until their transaction is committed.
+ * @author Hokeun Kim
+ */
+public class AuthDBWriteBehindQueueTest {
+    @Before
+    public void setUp() {
+        authStore = (AuthStore) Proxy.newProxyInstance(AuthStore.class.getClassLoader(),
+                new Class<?>[] {AuthStore.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "beginTransaction":
+                        case "rollbackTransaction":
+                            transaction.clear();
+                            return null;
+                        case "commitTransaction":
+                            committed.addAll(transaction);
+                            transaction.clear();
+                            commitCount.incrementAndGet();
+                            return null;
+                        case "updateMetaData":
+                            transaction.add((String) args[1]);
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+        queue = new AuthDBWriteBehindQueue(authStore, 100, 10, 50);
+        queue.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.close();
+    }
+
+    @Test
+    public void testWritesAreCommittedInGroups() {
+        for (int i = 0; i < 5; i++) {
+            String value = "value" + i;
+            queue.enqueue(store -> store.updateMetaData("key", value));
+        }
+        queue.flush();
+        assertEquals(Arrays.asList("value0", "value1", "value2", "value3", "value4"), committed);
+        assertTrue(commitCount.get() < 5);
+        assertEquals(0, queue.getPendingWriteCount());
+    }
+
+    @Test
+    public void testFailingWriteIsIsolated() {
+        List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        for (String value: new String[] {"a", "b", "bad", "c"}) {
+            queue.enqueue(store -> {
+                if (value.equals("bad")) {
+                    throw new SQLException("Failed to write " + value);
+                }
+                store.updateMetaData("key", value);
+            }, failures::add);
+        }
+        queue.flush();
+        // the other writes of the group are committed in the order of the queue
+        assertEquals(Arrays.asList("a", "b", "c"), committed);
+        assertEquals(1, failures.size());
+        assertEquals("Failed to write bad", failures.get(0).getMessage());
+        assertEquals(1, queue.getFailedWriteCount());
+    }
+
+    @Test
+    public void testFailedWriteIsRetried() {
+        AtomicInteger attemptCount = new AtomicInteger(0);
+        List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        queue.enqueue(store -> {
+            // fails in the group and in its first attempt alone
+            if (attemptCount.incrementAndGet() <= 2) {
+                throw new SQLException("Database is locked");
+            }
+            store.updateMetaData("key", "retried");
+        }, failures::add);
+        queue.flush();
+        assertEquals(Collections.singletonList("retried"), committed);
+        assertEquals(3, attemptCount.get());
+        assertTrue(failures.isEmpty());
+        assertEquals(0, queue.getFailedWriteCount());
+    }
+
+    @Test
+    public void testFailureHandlerException() {
+        queue.enqueue(store -> {
+            throw new SQLException("Failed to write");
+        }, e -> {
+            throw new IllegalStateException("Failed to handle the failure");
+        });
+        queue.enqueue(store -> store.updateMetaData("key", "after"));
+        queue.flush();
+        // the writer thread keeps running
+        assertEquals(Collections.singletonList("after"), committed);
+        assertEquals(1, queue.getFailedWriteCount());
+    }
+
+    @Test
+    public void testCloseCommitsRemainingWrites() throws Exception {
+        queue.enqueue(store -> store.updateMetaData("key", "last"));
+        queue.close();
+        assertEquals(Collections.singletonList("last"), committed);
+        try {
+            queue.enqueue(store -> store.updateMetaData("key", "closed"));
+            fail("Writes should not be enqueued after the queue is closed");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidConfiguration() {
+        new AuthDBWriteBehindQueue(authStore, 0, 10, 50);
+    }
+
+    private AuthStore authStore;
+    private AuthDBWriteBehindQueue queue;
+    // accessed only by the writer thread until a flush returns
+    private final List<String> transaction = new ArrayList<>();
+    private final List<String> committed = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger commitCount = new AtomicInteger(0);
+}
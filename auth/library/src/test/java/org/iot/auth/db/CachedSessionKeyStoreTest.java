@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.db;
+
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link CachedSessionKeyStore} for lookups by purpose, owners and eviction.
+ * @author Hokeun Kim
+ */
+public class CachedSessionKeyStoreTest {
+    private static final String PURPOSE = "{\"group\":\"Servers\"}";
+
+    @Test
+    public void testLookupByPurpose() {
+        CachedSessionKeyStore store = new CachedSessionKeyStore(8);
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        store.put(sessionKey(1, expirationTime));
+        store.put(sessionKey(2, expirationTime));
+        store.put(sessionKey(3, new Date().getTime() - 1000));
+        assertEquals(1, store.get(1).getID());
+        assertNull(store.get(4));
+
+        // expired session keys are not returned
+        assertEquals(2, store.getByPurpose("net1.server", PURPOSE).size());
+        // nor the ones owned by the requesting entity
+        assertEquals(0, store.getByPurpose("net1.client", PURPOSE).size());
+        assertEquals(0, store.getByPurpose("net1.server", "{\"group\":\"Clients\"}").size());
+
+        assertEquals(1, store.removeExpired(new Date().getTime()));
+        assertFalse(store.contains(3));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testOwners() {
+        CachedSessionKeyStore store = new CachedSessionKeyStore(8);
+        store.put(sessionKey(1, new Date().getTime() + 3600 * 1000));
+        assertTrue(store.addOwner(1, "net1.server"));
+        assertFalse(store.addOwner(1, "net1.server"));
+        // no more than the maximum number of owners
+        assertFalse(store.addOwner(1, "net1.other"));
+        assertFalse(store.addOwner(2, "net1.server"));
+        assertArrayEquals(new String[] {"net1.client", "net1.server"}, store.get(1).getOwners());
+        assertEquals(0, store.getByPurpose("net1.other", PURPOSE).size());
+
+        // when the owner cannot be stored in the database
+        store.removeOwner(1, "net1.server");
+        assertArrayEquals(new String[] {"net1.client"}, store.get(1).getOwners());
+        List<SessionKey> sessionKeys = store.getByPurpose("net1.other", PURPOSE);
+        assertEquals(1, sessionKeys.size());
+        assertArrayEquals(new String[] {"net1.client"}, sessionKeys.get(0).getOwners());
+
+        store.remove(1);
+        assertNull(store.get(1));
+        assertEquals(0, store.getByPurpose("net1.other", PURPOSE).size());
+    }
+
+    @Test
+    public void testEvictionOfLiveSessionKeys() {
+        CachedSessionKeyStore store = new CachedSessionKeyStore(2);
+        long currentTime = new Date().getTime();
+        store.put(sessionKey(1, currentTime + 3600 * 1000));
+        store.put(sessionKey(2, currentTime + 2 * 3600 * 1000));
+        store.put(sessionKey(3, currentTime + 3 * 3600 * 1000));
+        // the session key that expires first is evicted
+        assertEquals(2, store.size());
+        assertFalse(store.contains(1));
+        assertTrue(store.contains(3));
+        // the evicted session key is still valid, so lookups by purpose must go to the database
+        assertNull(store.getByPurpose("net1.server", PURPOSE));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertNotNull(store.getByPurpose("net1.server", PURPOSE));
+    }
+
+    @Test
+    public void testReplacedSessionKey() {
+        CachedSessionKeyStore store = new CachedSessionKeyStore(8);
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        store.put(sessionKey(1, expirationTime));
+        SessionKey replacement = sessionKey(1, expirationTime + 1000);
+        store.put(replacement);
+        assertEquals(1, store.size());
+        assertSame(replacement, store.get(1));
+        assertEquals(1, store.getByPurpose("net1.server", PURPOSE).size());
+    }
+
+    private static SessionKey sessionKey(long id, long expirationTime) {
+        return new SessionKey(id, new String[] {"net1.client"}, 2, PURPOSE, expirationTime, 60 * 1000,
+                SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.db.dao;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link DecryptedSessionKeyCache} for eviction, expiration and copying of values.
+ * @author Hokeun Kim
+ */
+public class DecryptedSessionKeyCacheTest {
+    @Test
+    public void testValuesAreCopied() {
+        DecryptedSessionKeyCache cache = new DecryptedSessionKeyCache(4);
+        byte[] keyVal = {1, 2, 3};
+        cache.put(1, keyVal, Long.MAX_VALUE);
+        keyVal[0] = 9;
+        byte[] cached = cache.get(1, 0);
+        assertArrayEquals(new byte[] {1, 2, 3}, cached);
+        cached[1] = 9;
+        assertArrayEquals(new byte[] {1, 2, 3}, cache.get(1, 0));
+        assertEquals(2, cache.getHitCount());
+        assertNull(cache.get(2, 0));
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        DecryptedSessionKeyCache cache = new DecryptedSessionKeyCache(2);
+        cache.put(1, new byte[] {1}, Long.MAX_VALUE);
+        cache.put(2, new byte[] {2}, Long.MAX_VALUE);
+        // used after the second one, so the second one is evicted first
+        assertNotNull(cache.get(1, 0));
+        cache.put(3, new byte[] {3}, Long.MAX_VALUE);
+        assertNull(cache.get(2, 0));
+        assertArrayEquals(new byte[] {1}, cache.get(1, 0));
+        assertArrayEquals(new byte[] {3}, cache.get(3, 0));
+    }
+
+    @Test
+    public void testExpiredValuesAreNotReturned() {
+        DecryptedSessionKeyCache cache = new DecryptedSessionKeyCache(4);
+        cache.put(1, new byte[] {1}, 1000);
+        cache.put(2, new byte[] {2}, 2000);
+        cache.put(3, new byte[] {3}, 3000);
+        assertNotNull(cache.get(1, 1000));
+        assertNull(cache.get(1, 1001));
+        cache.invalidateExpired(2500);
+        assertNull(cache.get(2, 0));
+        assertNotNull(cache.get(3, 0));
+    }
+
+    @Test
+    public void testInvalidation() {
+        DecryptedSessionKeyCache cache = new DecryptedSessionKeyCache(4);
+        cache.put(1, new byte[] {1}, Long.MAX_VALUE);
+        cache.put(2, new byte[] {2}, Long.MAX_VALUE);
+        cache.put(3, new byte[] {3}, Long.MAX_VALUE);
+        // replaced by a new value
+        cache.put(3, new byte[] {4}, Long.MAX_VALUE);
+        assertArrayEquals(new byte[] {4}, cache.get(3, 0));
+        cache.invalidate(1);
+        assertNull(cache.get(1, 0));
+        assertNotNull(cache.get(2, 0));
+        cache.invalidateAll();
+        assertNull(cache.get(2, 0));
+        assertNull(cache.get(3, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveCapacity() {
+        new DecryptedSessionKeyCache(0);
+    }
+}
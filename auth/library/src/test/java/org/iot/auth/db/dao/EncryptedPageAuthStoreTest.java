@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link EncryptedPageAuthStore} for recovery after a crash, rollback of transactions, and compaction.
+ * @author Hokeun Kim
+ */
+public class EncryptedPageAuthStoreTest {
+    private static final String PURPOSE = "{\"group\":\"Servers\"}";
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("EncryptedPageAuthStoreTest");
+        dbPath = tempDir.resolve("auth.db");
+        databaseKey = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC, new Date().getTime() + 3600 * 1000);
+        store = open(dbPath);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReopenKeepsCommittedRecords() throws Exception {
+        for (long id = 1; id <= 10; id++) {
+            store.insertRecords(sessionKey(id, 32));
+        }
+        store.appendSessionKeyOwner(3, "net1.server");
+        store.deleteCachedSessionKeysByIDs(new long[] {5});
+        store.close();
+        store = open(dbPath);
+        assertEquals(9, store.selectAllCachedSessionKey().size());
+        assertNull(store.selectCachedSessionKeyByID(5));
+        assertEquals("net1.client,net1.server", store.selectCachedSessionKeyByID(3).getOwner());
+    }
+
+    @Test
+    public void testCrashInTransactionRecoversLastCommit() throws Exception {
+        for (long id = 1; id <= 10; id++) {
+            store.insertRecords(sessionKey(id, 32));
+        }
+        store.beginTransaction();
+        // enough records to evict pages from the small page cache in the middle of the transaction
+        for (long id = 100; id < 400; id++) {
+            store.insertRecords(sessionKey(id, 32));
+        }
+        store.deleteCachedSessionKeysByIDs(new long[] {1});
+        Path crashedPath = tempDir.resolve("crashed.db");
+        copyWithJournal(dbPath, crashedPath);
+        store.commitTransaction();
+
+        EncryptedPageAuthStore crashedStore = open(crashedPath);
+        try {
+            assertEquals(10, crashedStore.selectAllCachedSessionKey().size());
+            assertNotNull(crashedStore.selectCachedSessionKeyByID(1));
+            assertNull(crashedStore.selectCachedSessionKeyByID(100));
+        }
+        finally {
+            crashedStore.close();
+        }
+        assertEquals(309, store.selectAllCachedSessionKey().size());
+    }
+
+    @Test
+    public void testNestedRollbackKeepsOuterTransaction() throws Exception {
+        store.insertRecords(sessionKey(1, 32));
+        store.beginTransaction();
+        store.insertRecords(sessionKey(2, 32));
+        store.beginTransaction();
+        store.insertRecords(sessionKey(3, 32));
+        store.appendSessionKeyOwner(2, "net1.server");
+        store.deleteCachedSessionKeysByIDs(new long[] {1});
+        store.rollbackTransaction();
+        store.commitTransaction();
+
+        assertNotNull(store.selectCachedSessionKeyByID(1));
+        assertEquals("net1.client", store.selectCachedSessionKeyByID(2).getOwner());
+        assertNull(store.selectCachedSessionKeyByID(3));
+        assertEquals(2, store.selectCachedSessionKeysByPurpose("net1.server", PURPOSE).size());
+        store.close();
+        store = open(dbPath);
+        assertEquals(2, store.selectAllCachedSessionKey().size());
+        assertNull(store.selectCachedSessionKeyByID(3));
+    }
+
+    @Test
+    public void testRollbackRestoresPurposeIndex() throws Exception {
+        store.insertRecords(sessionKey(1, 32));
+        store.beginTransaction();
+        store.deleteCachedSessionKeysByIDs(new long[] {1});
+        CachedSessionKeyTable otherPurpose = sessionKey(2, 32);
+        otherPurpose.setPurpose("{\"group\":\"Clients\"}");
+        store.insertRecords(otherPurpose);
+        assertTrue(store.selectCachedSessionKeysByPurpose("net1.server", PURPOSE).isEmpty());
+        store.rollbackTransaction();
+
+        assertEquals(1, store.selectCachedSessionKeysByPurpose("net1.server", PURPOSE).size());
+        assertTrue(store.selectCachedSessionKeysByPurpose("net1.server", "{\"group\":\"Clients\"}").isEmpty());
+        // owned by the requesting entity
+        assertTrue(store.selectCachedSessionKeysByPurpose("net1.client", PURPOSE).isEmpty());
+    }
+
+    @Test
+    public void testCompactionKeepsLiveRecords() throws Exception {
+        store.beginTransaction();
+        for (long id = 1; id <= 1200; id++) {
+            store.insertRecords(sessionKey(id, 1024));
+        }
+        store.commitTransaction();
+        long[] deletedIDs = new long[1100];
+        for (int i = 0; i < deletedIDs.length; i++) {
+            deletedIDs[i] = i + 1;
+        }
+        store.deleteCachedSessionKeysByIDs(deletedIDs);
+        long sizeBeforeCompaction = Files.size(dbPath);
+        store.writeEncryptedCheckpoint();
+
+        assertTrue(Files.size(dbPath) < sizeBeforeCompaction / 2);
+        assertEquals(100, store.selectAllCachedSessionKey().size());
+        assertEquals(100, store.selectCachedSessionKeysByPurpose("net1.server", PURPOSE).size());
+        store.insertRecords(sessionKey(2000, 32));
+        store.close();
+        store = open(dbPath);
+        assertEquals(101, store.selectAllCachedSessionKey().size());
+        assertNull(store.selectCachedSessionKeyByID(1));
+        assertEquals(1200, store.selectCachedSessionKeyByID(1200).getID());
+    }
+
+    @Test
+    public void testCorruptedPageIsNotDiscarded() throws Exception {
+        for (long id = 1; id <= 100; id++) {
+            store.insertRecords(sessionKey(id, 32));
+        }
+        store.close();
+        long size = Files.size(dbPath);
+        try (RandomAccessFile file = new RandomAccessFile(dbPath.toFile(), "rw")) {
+            file.seek(file.length() / 2);
+            file.write(new byte[16]);
+        }
+        try {
+            store = open(dbPath);
+            fail("A corrupted database should not be opened");
+        }
+        catch (SQLException e) {
+            // expected, and the records after the corrupted page are still in the file
+            store = new EncryptedPageAuthStore(dbPath.toString(), 2);
+        }
+        assertEquals(size, Files.size(dbPath));
+    }
+
+    private EncryptedPageAuthStore open(Path path) throws Exception {
+        EncryptedPageAuthStore authStore = new EncryptedPageAuthStore(path.toString(), 2);
+        authStore.initialize(databaseKey);
+        return authStore;
+    }
+
+    private static void copyWithJournal(Path from, Path to) throws IOException {
+        Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+        Path journal = from.resolveSibling(from.getFileName() + "-journal");
+        if (Files.exists(journal)) {
+            Files.copy(journal, to.resolveSibling(to.getFileName() + "-journal"), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static CachedSessionKeyTable sessionKey(long id, int keySize) {
+        CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+        cachedSessionKey.setID(id);
+        cachedSessionKey.setOwner("net1.client");
+        cachedSessionKey.setMaxNumOwners(2);
+        cachedSessionKey.setPurpose(PURPOSE);
+        cachedSessionKey.setAbsValidity(new Date().getTime() + 3600 * 1000);
+        cachedSessionKey.setRelValidity(60 * 1000);
+        cachedSessionKey.setSessionCryptoSpec("AES-128-CBC:SHA256");
+        cachedSessionKey.setKeyVal(new byte[keySize]);
+        return cachedSessionKey;
+    }
+
+    private Path tempDir;
+    private Path dbPath;
+    private SymmetricKey databaseKey;
+    private EncryptedPageAuthStore store;
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.db.dao;
+
+import org.iot.auth.crypto.SymmetricKey;
+import org.iot.auth.db.AuthDBProtectionMethod;
+import org.iot.auth.db.bean.CachedSessionKeyTable;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link SessionKeyLogStore} for encryption of records, rollback of nested transactions, deletion of
+ * segments and compaction.
+ * @author Hokeun Kim
+ */
+public class SessionKeyLogStoreTest {
+    private static final String PURPOSE = "{\"group\":\"Servers\"}";
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("SessionKeyLogStoreTest");
+        databaseKey = new SymmetricKey(SQLiteConnector.AUTH_DB_CRYPTO_SPEC, new Date().getTime() + 3600 * 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        try (Stream<Path> paths = Files.walk(tempDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testReopenKeepsOwners() throws Exception {
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+        store.setDecryptedSessionKeyCacheSize(16);
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        store.insertRecords(sessionKey(1, expirationTime));
+        store.insertRecords(sessionKey(2, expirationTime));
+        assertTrue(store.appendSessionKeyOwner(1, "net1.server"));
+        // already an owner, and no more than the maximum number of owners
+        assertFalse(store.appendSessionKeyOwner(1, "net1.server"));
+        assertFalse(store.appendSessionKeyOwner(1, "net1.other"));
+        assertFalse(store.appendSessionKeyOwner(3, "net1.server"));
+        assertEquals(1, store.selectCachedSessionKeysByPurpose("net1.server", PURPOSE).size());
+
+        store.close();
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+        assertEquals(2, store.selectAllCachedSessionKey().size());
+        CachedSessionKeyTable cachedSessionKey = store.selectCachedSessionKeyByID(1);
+        assertEquals("net1.client,net1.server", cachedSessionKey.getOwner());
+        assertArrayEquals(new byte[] {1, 2, 3, 1}, cachedSessionKey.getKeyVal());
+        assertEquals(2, store.selectMaxCachedSessionKeyID(0, 100));
+        assertEquals(-1, store.selectMaxCachedSessionKeyID(100, 200));
+    }
+
+    @Test
+    public void testEntireRecordsAreEncrypted() throws Exception {
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB);
+        store.insertRecords(sessionKey(1, new Date().getTime() + 3600 * 1000));
+        assertTrue(store.appendSessionKeyOwner(1, "net1.server"));
+        try (Stream<Path> paths = Files.list(tempDir)) {
+            paths.forEach(path -> {
+                String contents = readAsString(path);
+                assertFalse(contents.contains("net1.client"));
+                assertFalse(contents.contains("Servers"));
+            });
+        }
+
+        store.close();
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB);
+        CachedSessionKeyTable cachedSessionKey = store.selectCachedSessionKeyByID(1);
+        assertEquals("net1.client,net1.server", cachedSessionKey.getOwner());
+        assertEquals(PURPOSE, cachedSessionKey.getPurpose());
+    }
+
+    @Test
+    public void testRollbackOfNestedTransaction() throws Exception {
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+        store.setDecryptedSessionKeyCacheSize(16);
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        store.insertRecords(sessionKey(1, expirationTime));
+        store.beginTransaction();
+        store.insertRecords(sessionKey(2, expirationTime));
+        store.beginTransaction();
+        store.insertRecords(sessionKey(3, expirationTime));
+        assertTrue(store.appendSessionKeyOwner(2, "net1.server"));
+        assertEquals(1, store.deleteCachedSessionKeysByIDs(new long[] {1}));
+        store.rollbackTransaction();
+
+        // only the inner transaction is rolled back
+        assertNotNull(store.selectCachedSessionKeyByID(1));
+        assertEquals("net1.client", store.selectCachedSessionKeyByID(2).getOwner());
+        assertNull(store.selectCachedSessionKeyByID(3));
+        store.insertRecords(sessionKey(4, expirationTime));
+        store.commitTransaction();
+
+        store.close();
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_CREDENTIALS);
+        assertEquals(3, store.selectAllCachedSessionKey().size());
+        assertNull(store.selectCachedSessionKeyByID(3));
+        assertEquals("net1.client", store.selectCachedSessionKeyByID(2).getOwner());
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, store.selectCachedSessionKeyByID(4).getKeyVal());
+    }
+
+    @Test(expected = SQLException.class)
+    public void testDeleteAllInTransaction() throws Exception {
+        store = open(SessionKeyLogStore.DEFAULT_SEGMENT_SIZE, AuthDBProtectionMethod.DEBUG);
+        store.beginTransaction();
+        try {
+            store.deleteAllCachedSessionKeys();
+        }
+        finally {
+            store.rollbackTransaction();
+        }
+    }
+
+    @Test
+    public void testDeletedSessionKeyIsNotRestored() throws Exception {
+        long currentTime = new Date().getTime();
+        store = open(SEGMENT_SIZE, AuthDBProtectionMethod.DEBUG);
+        // the first segment has a session key to be deleted and one that does not expire soon
+        store.insertRecords(sessionKey(1, currentTime + 1000));
+        store.insertRecords(sessionKey(2, currentTime + 3600 * 1000));
+        insertUntilRollOver(100, currentTime + 1000);
+        // the second segment deletes the first session key and expires soon
+        assertEquals(1, store.deleteCachedSessionKeysByIDs(new long[] {1}));
+        insertUntilRollOver(200, currentTime + 1000);
+        assertEquals(3, store.getSegmentCount());
+
+        // the second segment has expired, but is kept while the first segment is there
+        assertEquals(0, store.dropExpiredSessionKeyPartitions(currentTime + 2000));
+        assertEquals(3, store.getSegmentCount());
+        store.close();
+        store = open(SEGMENT_SIZE, AuthDBProtectionMethod.DEBUG);
+        assertNull(store.selectCachedSessionKeyByID(1));
+        assertNotNull(store.selectCachedSessionKeyByID(2));
+
+        // both are deleted once the first segment has expired, but not the newest segment
+        assertTrue(store.dropExpiredSessionKeyPartitions(Long.MAX_VALUE) > 0);
+        assertEquals(1, store.getSegmentCount());
+        store.close();
+        store = open(SEGMENT_SIZE, AuthDBProtectionMethod.DEBUG);
+        assertNull(store.selectCachedSessionKeyByID(1));
+        assertNull(store.selectCachedSessionKeyByID(2));
+        assertEquals(1, store.selectAllCachedSessionKey().size());
+    }
+
+    @Test
+    public void testSegmentsAreNotDroppedInTransaction() throws Exception {
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        store = open(SEGMENT_SIZE, AuthDBProtectionMethod.DEBUG);
+        store.insertRecords(sessionKey(1, expirationTime));
+        insertUntilRollOver(100, expirationTime);
+        store.beginTransaction();
+        assertEquals(0, store.dropExpiredSessionKeyPartitions(Long.MAX_VALUE));
+        store.commitTransaction();
+        assertEquals(2, store.getSegmentCount());
+        assertTrue(store.dropExpiredSessionKeyPartitions(Long.MAX_VALUE) > 0);
+        assertEquals(1, store.getSegmentCount());
+        assertNull(store.selectCachedSessionKeyByID(1));
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        store = open(SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB);
+        store.insertRecords(sessionKey(1, expirationTime));
+        store.insertRecords(sessionKey(2, expirationTime));
+        insertUntilRollOver(100, expirationTime);
+        // both session keys in the first segment are superseded by records in newer segments
+        assertTrue(store.appendSessionKeyOwner(1, "net1.server"));
+        assertEquals(1, store.deleteCachedSessionKeysByIDs(new long[] {2}));
+        int segmentCount = store.getSegmentCount();
+
+        store.writeEncryptedCheckpoint();
+        assertTrue(store.getSegmentCount() < segmentCount);
+        store.close();
+        store = open(SEGMENT_SIZE, AuthDBProtectionMethod.ENCRYPT_ENTIRE_DB);
+        assertEquals("net1.client,net1.server", store.selectCachedSessionKeyByID(1).getOwner());
+        assertNull(store.selectCachedSessionKeyByID(2));
+        assertNotNull(store.selectCachedSessionKeyByID(100));
+    }
+
+    private SessionKeyLogStore open(long segmentSize, AuthDBProtectionMethod authDBProtectionMethod)
+            throws Exception
+    {
+        SessionKeyLogStore sessionKeyLogStore = new SessionKeyLogStore(tempDir.toString(), segmentSize,
+                authDBProtectionMethod);
+        sessionKeyLogStore.initialize(databaseKey);
+        return sessionKeyLogStore;
+    }
+
+    // insert session keys from the given ID until a new segment is started
+    private void insertUntilRollOver(long fromID, long expirationTime) throws SQLException {
+        int segmentCount = store.getSegmentCount();
+        for (long id = fromID; store.getSegmentCount() == segmentCount; id++) {
+            store.insertRecords(sessionKey(id, expirationTime));
+        }
+    }
+
+    private static String readAsString(Path path) {
+        try {
+            return new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static CachedSessionKeyTable sessionKey(long id, long expirationTime) {
+        CachedSessionKeyTable cachedSessionKey = new CachedSessionKeyTable();
+        cachedSessionKey.setID(id);
+        cachedSessionKey.setOwner("net1.client");
+        cachedSessionKey.setMaxNumOwners(2);
+        cachedSessionKey.setPurpose(PURPOSE);
+        cachedSessionKey.setAbsValidity(expirationTime);
+        cachedSessionKey.setRelValidity(60 * 1000);
+        cachedSessionKey.setSessionCryptoSpec("AES-128-CBC:SHA256");
+        cachedSessionKey.setKeyVal(new byte[] {1, 2, 3, (byte) id});
+        return cachedSessionKey;
+    }
+
+    // small enough for a few records in a segment
+    private static final long SEGMENT_SIZE = 300;
+
+    private Path tempDir;
+    private SymmetricKey databaseKey;
+    private SessionKeyLogStore store;
+}
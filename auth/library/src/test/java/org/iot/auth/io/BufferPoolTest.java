@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+package org.iot.auth.io;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link BufferPool} for reusing buffers and tracking leaked leases.
+ * @author Hokeun Kim
+ */
+public class BufferPoolTest {
+    @Test
+    public void testClosedBufferIsReused() {
+        BufferPool bufferPool = new BufferPool(new int[] {256, 1024}, 4);
+        BufferPool.Lease lease = bufferPool.borrow(100);
+        byte[] array = lease.array();
+        assertEquals(256, lease.capacity());
+        lease.getByteBuffer().put((byte) 1);
+        lease.close();
+        // closing again has no effect
+        lease.close();
+        assertEquals(0, bufferPool.getOutstandingCount());
+
+        try (BufferPool.Lease reused = bufferPool.borrow(200)) {
+            assertSame(array, reused.array());
+            assertEquals(0, reused.getByteBuffer().position());
+            assertEquals(1, bufferPool.getHitCount());
+        }
+        try (BufferPool.Lease larger = bufferPool.borrow(257)) {
+            assertEquals(1024, larger.capacity());
+        }
+    }
+
+    @Test
+    public void testLargeBufferIsNotPooled() {
+        BufferPool bufferPool = new BufferPool(new int[] {256}, 4);
+        byte[] array;
+        try (BufferPool.Lease lease = bufferPool.borrow(1000)) {
+            array = lease.array();
+            assertEquals(1000, lease.capacity());
+        }
+        try (BufferPool.Lease lease = bufferPool.borrow(1000)) {
+            assertNotSame(array, lease.array());
+        }
+        assertEquals(0, bufferPool.getHitCount());
+        assertEquals(2, bufferPool.getMissCount());
+    }
+
+    @Test
+    public void testIdleBuffersAreBounded() {
+        BufferPool bufferPool = new BufferPool(new int[] {256}, 1);
+        BufferPool.Lease first = bufferPool.borrow(10);
+        BufferPool.Lease second = bufferPool.borrow(10);
+        first.close();
+        second.close();
+        try (BufferPool.Lease lease = bufferPool.borrow(10)) {
+            assertSame(first.array(), lease.array());
+            try (BufferPool.Lease another = bufferPool.borrow(10)) {
+                assertNotSame(second.array(), another.array());
+            }
+        }
+    }
+
+    @Test
+    public void testLeakedBufferIsNotReused() throws Exception {
+        BufferPool bufferPool = new BufferPool(new int[] {256}, 4);
+        bufferPool.setLeakTrackingInterval(1);
+        byte[] leakedArray = leak(bufferPool);
+        for (int i = 0; i < 100 && bufferPool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            try (BufferPool.Lease lease = bufferPool.borrow(10)) {
+                assertNotSame(leakedArray, lease.array());
+            }
+        }
+        assertEquals(1, bufferPool.getLeakCount());
+        assertEquals(0, bufferPool.getOutstandingCount());
+        try (BufferPool.Lease lease = bufferPool.borrow(10)) {
+            assertNotSame(leakedArray, lease.array());
+        }
+    }
+
+    @Test
+    public void testLeaksAreNotTrackedByDefault() throws Exception {
+        BufferPool bufferPool = new BufferPool(new int[] {256}, 4);
+        leak(bufferPool);
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(10);
+            bufferPool.borrow(10).close();
+        }
+        assertEquals(0, bufferPool.getLeakCount());
+    }
+
+    /**
+     * Borrow a buffer without closing its lease, keeping only its array as a view would.
+     */
+    private static byte[] leak(BufferPool bufferPool) {
+        return bufferPool.borrow(10).array();
+    }
+}
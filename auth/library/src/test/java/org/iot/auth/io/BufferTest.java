@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.io;
+
+import org.junit.Test;
+
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link Buffer} for read-only views and copying slices.
+ * @author Hokeun Kim
+ */
+public class BufferTest {
+    @Test
+    public void testViewSharesBytes() {
+        Buffer buffer = new Buffer(new byte[] {1, 2, 3, 4, 5, 6});
+        Buffer view = buffer.view(1, 4);
+        assertTrue(view.isReadOnly());
+        assertEquals(3, view.length());
+        assertSame(buffer.getBackingArray(), view.getBackingArray());
+        assertEquals(1, view.getOffset());
+        assertEquals(2, view.getByte(0));
+        assertEquals(0x020304, view.getNumber(0, 3));
+        // the view sees later changes to the buffer
+        buffer.putByte((byte) 9, 1);
+        assertEquals(9, view.getByte(0));
+        // a view of a view
+        Buffer innerView = view.view(1);
+        assertEquals(2, innerView.length());
+        assertEquals(2, innerView.getOffset());
+        assertArrayEquals(new byte[] {3, 4}, innerView.getRawBytes());
+    }
+
+    @Test
+    public void testRawBytesOfView() {
+        Buffer buffer = new Buffer(new byte[] {1, 2, 3, 4});
+        assertSame(buffer.getRawBytes(), buffer.getRawBytes());
+        Buffer view = buffer.view(0);
+        byte[] rawBytes = view.getRawBytes();
+        assertArrayEquals(new byte[] {1, 2, 3, 4}, rawBytes);
+        // a copy, so that the view cannot be modified through it
+        assertNotSame(buffer.getBackingArray(), rawBytes);
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testViewIsReadOnly() {
+        new Buffer(new byte[] {1, 2, 3}).view(1).putByte((byte) 0, 0);
+    }
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void testViewCannotBeConcatenated() {
+        new Buffer(new byte[] {1, 2, 3}).view(1).concat(new Buffer(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testViewOutOfRange() {
+        new Buffer(new byte[] {1, 2, 3}).view(1, 4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testReadPastEndOfView() {
+        // within the backing array, but past the end of the view
+        new Buffer(new byte[] {1, 2, 3, 4}).view(0, 2).getByte(2);
+    }
+
+    @Test
+    public void testSliceIsPaddedWithZeros() {
+        Buffer buffer = new Buffer(new byte[] {1, 2, 3, 4, 5, 6});
+        assertArrayEquals(new byte[] {5, 6, 0, 0}, buffer.slice(4, 8).getRawBytes());
+        // padded with zeros rather than the bytes of the backing array past the end of the view
+        Buffer view = buffer.view(1, 4);
+        assertArrayEquals(new byte[] {3, 4, 0, 0}, view.slice(1, 5).getRawBytes());
+        assertArrayEquals(new byte[] {2, 3, 4}, view.slice(0).getRawBytes());
+    }
+
+    @Test
+    public void testSliceIsCopied() {
+        Buffer buffer = new Buffer(new byte[] {1, 2, 3, 4});
+        Buffer slice = buffer.view(1).slice(0, 2);
+        assertFalse(slice.isReadOnly());
+        slice.putByte((byte) 9, 0);
+        assertEquals(2, buffer.getByte(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSliceStartingPastEnd() {
+        new Buffer(new byte[] {1, 2, 3, 4}).view(0, 3).slice(4, 5);
+    }
+
+    @Test
+    public void testEqualsComparesRanges() {
+        Buffer buffer = new Buffer(new byte[] {1, 2, 3, 1, 2, 3});
+        assertTrue(buffer.view(0, 3).equals(buffer.view(3)));
+        assertTrue(buffer.view(0, 3).equals(new Buffer(new byte[] {1, 2, 3})));
+        assertFalse(buffer.view(0, 3).equals(buffer.view(1, 4)));
+        assertTrue(buffer.rangeEquals(3, new Buffer(new byte[] {1, 2, 3})));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.message;
+
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.iot.auth.crypto.SessionKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.io.Buffer;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of {@link AuthSessionKeyRespMessage} for the binary format.
+ * @author Hokeun Kim
+ */
+public class AuthSessionKeyRespMessageTest {
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        long expirationTime = new Date().getTime() + 3600 * 1000;
+        List<SessionKey> sessionKeyList = Arrays.asList(
+                sessionKey(1, new String[] {"net1.client"}, "AES-128-CBC:SHA256", expirationTime),
+                sessionKey(0x7fffffffffffL, new String[] {"net1.client", "net2.server"}, "AES-256-CBC:SHA256",
+                        expirationTime + 1000));
+        Buffer serialized = new AuthSessionKeyRespMessage(sessionKeyList, true).serialize();
+        AuthSessionKeyRespMessage received = AuthSessionKeyRespMessage.fromHttpResponse(
+                contentResponse(AuthSessionKeyRespMessage.BINARY_MEDIA_TYPE, serialized.getRawBytes()));
+        assertSessionKeysEqual(sessionKeyList, received.getSessionKeyList());
+    }
+
+    @Test
+    public void testEmptyBinaryResponse() throws Exception {
+        Buffer serialized = new AuthSessionKeyRespMessage(Arrays.asList(), true).serialize();
+        assertEquals(Buffer.INT_SIZE, serialized.length());
+        AuthSessionKeyRespMessage received = AuthSessionKeyRespMessage.fromHttpResponse(
+                contentResponse(AuthSessionKeyRespMessage.BINARY_MEDIA_TYPE, serialized.getRawBytes()));
+        assertEquals(0, received.getSessionKeyList().size());
+    }
+
+    @Test
+    public void testTruncatedBinaryResponse() throws Exception {
+        List<SessionKey> sessionKeyList = Arrays.asList(sessionKey(1, new String[] {"net1.client"},
+                "AES-128-CBC:SHA256", new Date().getTime() + 3600 * 1000));
+        byte[] serialized = new AuthSessionKeyRespMessage(sessionKeyList, true).serialize().getRawBytes();
+        // cut in the key value, and in the fields before it
+        for (int cut: new int[] {1, 60}) {
+            try {
+                AuthSessionKeyRespMessage.fromHttpResponse(contentResponse(AuthSessionKeyRespMessage.BINARY_MEDIA_TYPE,
+                        Arrays.copyOf(serialized, serialized.length - cut)));
+                fail("Truncated response should not be decoded");
+            }
+            catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertSessionKeysEqual(List<SessionKey> expected, List<SessionKey> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            SessionKey expectedKey = expected.get(i);
+            SessionKey actualKey = actual.get(i);
+            assertEquals(expectedKey.getID(), actualKey.getID());
+            assertArrayEquals(expectedKey.getOwners(), actualKey.getOwners());
+            assertEquals(expectedKey.getMaxNumOwners(), actualKey.getMaxNumOwners());
+            assertEquals(expectedKey.getPurpose(), actualKey.getPurpose());
+            assertEquals(expectedKey.getRawExpirationTime(), actualKey.getRawExpirationTime());
+            assertEquals(expectedKey.getRelValidity(), actualKey.getRelValidity());
+            assertEquals(expectedKey.getCryptoSpec().toSpecString(), actualKey.getCryptoSpec().toSpecString());
+            assertTrue(expectedKey.getSerializedKeyVal().equals(actualKey.getSerializedKeyVal()));
+        }
+    }
+
+    private static ContentResponse contentResponse(String mediaType, byte[] content) {
+        return (ContentResponse) Proxy.newProxyInstance(ContentResponse.class.getClassLoader(),
+                new Class<?>[] {ContentResponse.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getMediaType":
+                            return mediaType;
+                        case "getContent":
+                            return content;
+                        case "getContentAsString":
+                            return new String(content, StandardCharsets.UTF_8);
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static SessionKey sessionKey(long id, String[] owners, String cryptoSpec, long expirationTime) {
+        return new SessionKey(id, owners, 3, "{\"group\":\"Servers\"}", expirationTime, 60 * 1000,
+                SymmetricKeyCryptoSpec.fromSpecString(cryptoSpec));
+    }
+}
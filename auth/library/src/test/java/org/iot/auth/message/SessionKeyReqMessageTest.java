@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016, Regents of the University of California
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * IOTAUTH_COPYRIGHT_VERSION_1
+ */
+
+
+package org.iot.auth.message;
+
+import org.iot.auth.crypto.DistributionKey;
+import org.iot.auth.crypto.SymmetricKeyCryptoSpec;
+import org.iot.auth.db.CommunicationTargetType;
+import org.iot.auth.io.Buffer;
+import org.iot.auth.io.BufferWriter;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the binary purpose and crypto spec of protocol v2 session key messages.
+ * @author Hokeun Kim
+ */
+public class SessionKeyReqMessageTest {
+    @Test
+    public void testStringPurposes() throws Exception {
+        String[] names = {"Clients", "\uC628\uB3C4\uC13C\uC11C", "Topic/\u00E9t\u00E9"};
+        CommunicationTargetType[] types = {CommunicationTargetType.TARGET_GROUP,
+                CommunicationTargetType.PUBLISH_TOPIC, CommunicationTargetType.SUBSCRIBE_TOPIC};
+        for (int i = 0; i < types.length; i++) {
+            byte[] value = names[i].getBytes(StandardCharsets.UTF_8);
+            BufferWriter purpose = new BufferWriter();
+            putTLV(purpose, types[i].getValue(), value, value.length);
+            SessionKeyReqMessage message = new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2,
+                    makePayload(purpose.toBuffer()));
+            assertEquals(types[i], message.getPurposeTargetType());
+            assertEquals(names[i], message.getPurposeTarget());
+            assertEquals("net1.client", message.getEntityName());
+            assertEquals(3, message.getNumKeys());
+            assertNull(message.getDiffieHellmanParam());
+        }
+    }
+
+    @Test
+    public void testNumericPurposes() throws Exception {
+        long[] targets = {0x1234567890L, 7};
+        CommunicationTargetType[] types = {CommunicationTargetType.SESSION_KEY_ID,
+                CommunicationTargetType.CACHED_SESSION_KEYS};
+        for (int i = 0; i < types.length; i++) {
+            int length = i == 0 ? 5 : 1;
+            Buffer value = new Buffer(length);
+            value.putNumber(targets[i], 0, length);
+            BufferWriter purpose = new BufferWriter();
+            putTLV(purpose, types[i].getValue(), value.getRawBytes(), length);
+            SessionKeyReqMessage message = new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_IN_PUB_ENC_V2,
+                    makePayload(purpose.toBuffer()));
+            assertEquals(types[i], message.getPurposeTargetType());
+            assertEquals(targets[i], message.getPurposeTarget());
+        }
+    }
+
+    @Test
+    public void testUnknownTagIsSkipped() throws Exception {
+        byte[] value = "Servers".getBytes(StandardCharsets.UTF_8);
+        BufferWriter purpose = new BufferWriter();
+        putTLV(purpose, 99, new byte[] {1, 2, 3}, 3);
+        putTLV(purpose, CommunicationTargetType.TARGET_GROUP.getValue(), value, value.length);
+        Buffer dhParam = new Buffer(new byte[] {9, 8, 7});
+        BufferWriter payload = new BufferWriter();
+        payload.putBuffer(makePayload(purpose.toBuffer()));
+        payload.putBuffer(dhParam);
+        SessionKeyReqMessage message = new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2, payload.toBuffer());
+        assertEquals(CommunicationTargetType.TARGET_GROUP, message.getPurposeTargetType());
+        assertEquals("Servers", message.getPurposeTarget());
+        assertTrue(dhParam.equals(message.getDiffieHellmanParam()));
+    }
+
+    @Test
+    public void testOnlyUnknownTags() throws Exception {
+        BufferWriter purpose = new BufferWriter();
+        putTLV(purpose, 99, new byte[] {1}, 1);
+        SessionKeyReqMessage message = new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2,
+                makePayload(purpose.toBuffer()));
+        assertEquals(CommunicationTargetType.UNKNOWN, message.getPurposeTargetType());
+        assertNull(message.getPurposeTarget());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testTLVExceedingPurposeField() throws Exception {
+        byte[] value = "Clients".getBytes(StandardCharsets.UTF_8);
+        BufferWriter purpose = new BufferWriter();
+        // the TLV claims one more byte than the purpose field has
+        purpose.putByte((byte) CommunicationTargetType.TARGET_GROUP.getValue());
+        purpose.putVariableLengthInt(value.length + 1);
+        purpose.putBytes(value);
+        // followed by a DH parameter, so the payload itself is long enough
+        BufferWriter payload = new BufferWriter();
+        payload.putBuffer(makePayload(purpose.toBuffer()));
+        payload.putBytes(new byte[] {1, 2, 3, 4});
+        new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2, payload.toBuffer()).getPurposeTargetType();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testTruncatedTLV() throws Exception {
+        BufferWriter purpose = new BufferWriter();
+        // a tag without a length
+        purpose.putByte((byte) CommunicationTargetType.SESSION_KEY_ID.getValue());
+        new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2, makePayload(purpose.toBuffer()))
+                .getPurposeTargetType();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testTooLongNumericPurpose() throws Exception {
+        BufferWriter purpose = new BufferWriter();
+        putTLV(purpose, CommunicationTargetType.SESSION_KEY_ID.getValue(), new byte[9], 9);
+        new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2, makePayload(purpose.toBuffer()))
+                .getPurposeTargetType();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testEmptyNumericPurpose() throws Exception {
+        BufferWriter purpose = new BufferWriter();
+        putTLV(purpose, CommunicationTargetType.CACHED_SESSION_KEYS.getValue(), new byte[0], 0);
+        new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2, makePayload(purpose.toBuffer()))
+                .getPurposeTargetType();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testPurposeExceedingPayload() throws Exception {
+        Buffer payload = makePayload(new Buffer(0));
+        Buffer truncated = new Buffer(payload.length());
+        truncated.putBytes(payload.getRawBytes(), 0);
+        // the purpose field claims bytes that are not in the payload
+        truncated.putByte((byte) 5, payload.length() - 1);
+        new SessionKeyReqMessage(MessageType.SESSION_KEY_REQ_V2, truncated);
+    }
+
+    @Test
+    public void testBinaryCryptoSpecInResponse() throws Exception {
+        SymmetricKeyCryptoSpec cryptoSpec = SymmetricKeyCryptoSpec.fromSpecString("AES-256-CBC:SHA256");
+        DistributionKey distKey = new DistributionKey(SymmetricKeyCryptoSpec.fromSpecString("AES-128-CBC:SHA256"),
+                new Date().getTime() + 3600 * 1000);
+        Buffer entityNonce = new Buffer(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        Buffer encryptedDistKey = new Buffer(new byte[] {10, 11, 12});
+
+        SessionKeyRespMessage withDistKey = new SessionKeyRespMessage(encryptedDistKey, entityNonce, cryptoSpec,
+                new ArrayList<>(), true);
+        assertEquals(MessageType.SESSION_KEY_RESP_WITH_DIST_KEY_V2, withDistKey.getType());
+        Buffer serialized = withDistKey.serializeAndEncrypt(distKey);
+        int headerLength = IoTSPMessage.MSG_TYPE_SIZE + serialized.getVariableLengthIntSize(1);
+        assertEquals(MessageType.SESSION_KEY_RESP_WITH_DIST_KEY_V2.getValue(), serialized.getByte(0));
+        assertTrue(encryptedDistKey.equals(serialized.slice(headerLength, headerLength + encryptedDistKey.length())));
+        assertBinaryCryptoSpec(cryptoSpec, entityNonce,
+                distKey.decryptVerify(serialized.slice(headerLength + encryptedDistKey.length())));
+
+        SessionKeyRespMessage withoutDistKey = new SessionKeyRespMessage(entityNonce, cryptoSpec, new ArrayList<>(),
+                true);
+        assertEquals(MessageType.SESSION_KEY_RESP_V2, withoutDistKey.getType());
+        serialized = withoutDistKey.serializeAndEncrypt(distKey);
+        assertEquals(MessageType.SESSION_KEY_RESP_V2.getValue(), serialized.getByte(0));
+        headerLength = IoTSPMessage.MSG_TYPE_SIZE + serialized.getVariableLengthIntSize(1);
+        assertBinaryCryptoSpec(cryptoSpec, entityNonce, distKey.decryptVerify(serialized.slice(headerLength)));
+    }
+
+    private static void assertBinaryCryptoSpec(SymmetricKeyCryptoSpec expected, Buffer entityNonce, Buffer plain) {
+        int index = 0;
+        assertTrue(entityNonce.equals(plain.slice(index, index + entityNonce.length())));
+        index += entityNonce.length();
+        int cryptoSpecLength = plain.getVariableLengthIntNum(index);
+        index += plain.getVariableLengthIntSize(index);
+        int end = index + cryptoSpecLength;
+        int cipherID = -1;
+        int macID = -1;
+        while (index < end) {
+            byte tag = plain.getByte(index++);
+            int length = plain.getVariableLengthIntNum(index);
+            index += plain.getVariableLengthIntSize(index);
+            int id = (int) plain.getNumber(index, length);
+            index += length;
+            if (tag == SessionKeyRespMessage.CRYPTO_SPEC_CIPHER_TAG) {
+                cipherID = id;
+            }
+            else if (tag == SessionKeyRespMessage.CRYPTO_SPEC_MAC_TAG) {
+                macID = id;
+            }
+        }
+        assertEquals(end, index);
+        assertEquals(expected.toSpecString(), SymmetricKeyCryptoSpec.fromIDs(cipherID, macID).toSpecString());
+        // no session keys
+        assertEquals(0, plain.getInt(index));
+        assertEquals(plain.length(), index + Buffer.INT_SIZE);
+    }
+
+    private static void putTLV(BufferWriter writer, int tag, byte[] value, int length) {
+        writer.putByte((byte) tag);
+        writer.putVariableLengthInt(length);
+        writer.putBytes(value, 0, length);
+    }
+
+    private static Buffer makePayload(Buffer purpose) {
+        BufferWriter writer = new BufferWriter();
+        writer.putBytes(new byte[IoTSPMessage.ENTITY_NONCE_SIZE]);
+        writer.putBytes(new byte[IoTSPMessage.AUTH_NONCE_SIZE]);
+        writer.putInt(3);
+        writer.putString("net1.client");
+        writer.putVariableLengthInt(purpose.length());
+        writer.putBuffer(purpose);
+        return writer.toBuffer();
+    }
+}
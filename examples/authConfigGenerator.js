@@ -207,7 +207,9 @@ function generatePropertiesFiles() {
             // currently default is false
             'qps_throttling_enabled': auth.capacityQpsLimit == null ? false : true,
             'qps_limit': auth.capacityQpsLimit == null ? 10 : auth.capacityQpsLimit/60.0,
-            'qps_calculation_bucket_size_in_sec': 60
+            'qps_calculation_bucket_size_in_sec': 60,
+            // write-behind (group commit) of Auth DB updates is turned off by default.
+            'auth_db_write_behind_enabled': false
         };
         var strProperties = '';
         for (var key in properties) {
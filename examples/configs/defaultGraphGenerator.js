@@ -104,7 +104,8 @@ function generateGraph(defaultEntityList, numAuths, dbProtectionMethod, backupEn
 		dbProtectionMethod: values
 	    DEBUG(0),
 	    ENCRYPT_CREDENTIALS(1),
-	    ENCRYPT_ENTIRE_DB(2);
+	    ENCRYPT_ENTIRE_DB(2),
+	    ENCRYPT_PAGES(3);
 	*/
 	const AUTH_UDP_PORT_OFFSET = 2;
 	const TRUSTED_AUTH_PORT_OFFSET = 1;
@@ -184,7 +185,8 @@ program
 	dbProtectionMethod: values
     DEBUG(0),
     ENCRYPT_CREDENTIALS(1),
-    ENCRYPT_ENTIRE_DB(2);
+    ENCRYPT_ENTIRE_DB(2),
+    ENCRYPT_PAGES(3);
 */
 var numAuths = 2;
 var dbProtectionMethod = 1;